@@ -46,6 +46,7 @@ set CP=%CP%;%DCM4CHE_HOME%\lib\dcm4che-core-${project.version}.jar
 set CP=%CP%;%DCM4CHE_HOME%\lib\jaxrs-api-3.0.4.Final.jar
 set CP=%CP%;%DCM4CHE_HOME%\lib\dcm4che-net-${project.version}.jar
 set CP=%CP%;%DCM4CHE_HOME%\lib\dcm4che-json-${project.version}.jar
+set CP=%CP%;%DCM4CHE_HOME%\lib\dcm4che-mime-${project.version}.jar
 set CP=%CP%;%DCM4CHE_HOME%\lib\dcm4che-ws-rs-${project.version}.jar
 set CP=%CP%;%DCM4CHE_HOME%\lib\dcm4che-tool-common-${project.version}.jar
 set CP=%CP%;%DCM4CHE_HOME%\lib\javax.json-1.0.4.jar
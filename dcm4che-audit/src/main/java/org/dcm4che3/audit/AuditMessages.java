@@ -44,6 +44,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import javax.xml.bind.JAXBContext;
@@ -89,6 +91,37 @@ public class AuditMessages {
         return jc;
     }
 
+    /**
+     * Marshallers are not thread-safe, but expensive to create, so they are
+     * cached per thread and per combination of marshaller properties.
+     */
+    private static final ThreadLocal<Map<String, Marshaller>> marshallers =
+            new ThreadLocal<Map<String, Marshaller>>() {
+                @Override
+                protected Map<String, Marshaller> initialValue() {
+                    return new HashMap<String, Marshaller>(4);
+                }
+            };
+
+    private static Marshaller marshaller(boolean format, String encoding,
+            String schemaURI) throws JAXBException {
+        Map<String, Marshaller> cache = marshallers.get();
+        String key = format + "|" + encoding + "|" + schemaURI;
+        Marshaller m = cache.get(key);
+        if (m == null) {
+            m = jc().createMarshaller();
+            if (format)
+                m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            if (schemaURI != null)
+                m.setProperty(Marshaller.JAXB_NO_NAMESPACE_SCHEMA_LOCATION,
+                        schemaURI);
+            if (encoding != null)
+                m.setProperty(Marshaller.JAXB_ENCODING, encoding);
+            cache.put(key, m);
+        }
+        return m;
+    }
+
     public static boolean isIP(String s) {
         return IP4.matcher(s).matches() || IP6.matcher(s).matches();
     }
@@ -762,15 +795,8 @@ public class AuditMessages {
             boolean format, String encoding, String schemaURI)
             throws IOException {
         try {
-            Marshaller m = jc().createMarshaller();
-            if (format)
-                m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            if (schemaURI != null)
-                m.setProperty(Marshaller.JAXB_NO_NAMESPACE_SCHEMA_LOCATION,
-                        schemaURI);
-            if (encoding != null)
-                m.setProperty(Marshaller.JAXB_ENCODING, encoding);
-            m.marshal(of.createAuditMessage(message), os );
+            marshaller(format, encoding, schemaURI)
+                    .marshal(of.createAuditMessage(message), os);
         } catch( JAXBException jbe ){
             if (jbe.getLinkedException() instanceof IOException)
                 throw (IOException) jbe.getLinkedException();
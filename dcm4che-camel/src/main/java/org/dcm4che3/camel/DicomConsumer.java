@@ -39,6 +39,8 @@
 package org.dcm4che3.camel;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
@@ -54,6 +56,7 @@ import org.dcm4che3.net.PDVInputStream;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.util.SafeClose;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -61,6 +64,9 @@ import org.dcm4che3.net.service.DicomServiceException;
  */
 public class DicomConsumer extends DefaultConsumer implements DimseRQHandler{
 
+    private ExecutorService executor;
+    private Semaphore inFlight;
+
     public DicomConsumer(DicomEndpoint endpoint, Processor processor) {
         super(endpoint, processor);
     }
@@ -77,12 +83,25 @@ public class DicomConsumer extends DefaultConsumer implements DimseRQHandler{
     @Override
     protected void doStart() throws Exception {
         super.doStart();
+        DicomEndpoint endpoint = getEndpoint();
+        if (endpoint.isAsyncDispatch()) {
+            executor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, endpoint.getEndpointUri(),
+                            endpoint.getConcurrentConsumers());
+            inFlight = new Semaphore(endpoint.getConcurrentConsumers()
+                    + endpoint.getMaxQueueSize());
+        }
         getEndpoint().getComponent().registerDicomConsumer(this);
     }
 
     @Override
     protected void doStop() throws Exception {
         getEndpoint().getComponent().unregisterDicomConsumer(this);
+        if (executor != null) {
+            getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .shutdownGraceful(executor);
+            executor = null;
+        }
         super.doStop();
     }
 
@@ -95,6 +114,10 @@ public class DicomConsumer extends DefaultConsumer implements DimseRQHandler{
     @Override
     public void onDimseRQ(Association as, PresentationContext pc, Dimse dimse,
             Attributes cmd, PDVInputStream data) throws IOException {
+        if (executor != null) {
+            dispatch(as, pc, dimse, cmd, data);
+            return;
+        }
         final int msgid = cmd.getInt(Tag.MessageID, 0);
         Exchange exchange = getEndpoint().createExchange(dimse, cmd, data);
         AsyncCallback callback = new EndpointDimseRQHandlerAsyncCallback(
@@ -102,6 +125,86 @@ public class DicomConsumer extends DefaultConsumer implements DimseRQHandler{
         AsyncProcessorHelper.process(getAsyncProcessor(), exchange, callback);
     }
 
+    private void dispatch(Association as, PresentationContext pc,
+            Dimse dimse, Attributes cmd, PDVInputStream data)
+            throws IOException {
+        final int msgid = cmd.getInt(Tag.MessageID, 0);
+        final Semaphore inFlight = this.inFlight;
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DicomServiceException(Status.ProcessingFailure, e);
+        }
+        SpooledPDVInputStream spool = null;
+        boolean dispatched = false;
+        try {
+            if (data != null) {
+                DicomEndpoint endpoint = getEndpoint();
+                spool = SpooledPDVInputStream.spool(data,
+                        endpoint.getSpoolThreshold(),
+                        endpoint.getSpoolDirectory());
+            }
+            final Exchange exchange =
+                    getEndpoint().createExchange(dimse, cmd, spool);
+            final AsyncCallback callback = new SpooledDimseRQHandlerAsyncCallback(
+                    new EndpointDimseRQHandlerAsyncCallback(
+                            as, pc, dimse, msgid, exchange),
+                    spool, inFlight);
+            // from here on, the callback deletes the spool file and releases
+            // the permit
+            dispatched = true;
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        AsyncProcessorHelper.process(
+                                getAsyncProcessor(), exchange, callback);
+                    }
+                });
+            } catch (RuntimeException e) {
+                exchange.setException(e);
+                callback.done(true);
+            }
+        } finally {
+            if (!dispatched) {
+                SafeClose.close(spool);
+                inFlight.release();
+            }
+        }
+    }
+
+    void writeDimseRSP(Association as, PresentationContext pc,
+            Attributes cmd, Attributes data) {
+        as.tryWriteDimseRSP(pc, cmd, data);
+    }
+
+    private static final class SpooledDimseRQHandlerAsyncCallback
+        implements AsyncCallback {
+
+        private final AsyncCallback callback;
+        private final SpooledPDVInputStream spool;
+        private final Semaphore inFlight;
+
+        public SpooledDimseRQHandlerAsyncCallback(AsyncCallback callback,
+                SpooledPDVInputStream spool, Semaphore inFlight) {
+            this.callback = callback;
+            this.spool = spool;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void done(boolean doneSync) {
+            try {
+                callback.done(doneSync);
+            } finally {
+                SafeClose.close(spool);
+                inFlight.release();
+            }
+        }
+    }
+
     private final class EndpointDimseRQHandlerAsyncCallback
         implements AsyncCallback {
     
@@ -140,7 +243,7 @@ public class DicomConsumer extends DefaultConsumer implements DimseRQHandler{
                 cmd = out.getCommand();
                 data = out.getBody(Attributes.class);
             }
-            as.tryWriteDimseRSP(pc, cmd, data);
+            writeDimseRSP(as, pc, cmd, data);
         }
     
     }
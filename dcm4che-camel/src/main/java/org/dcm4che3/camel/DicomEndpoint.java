@@ -38,6 +38,8 @@
 
 package org.dcm4che3.camel;
 
+import java.io.File;
+
 import org.apache.camel.Consumer;
 import org.apache.camel.Exchange;
 import org.apache.camel.ExchangePattern;
@@ -56,6 +58,11 @@ import org.dcm4che3.util.StringUtils;
 public class DicomEndpoint extends DefaultEndpoint {
 
     private String[] sopClasses;
+    private boolean asyncDispatch;
+    private int spoolThreshold = 1024 * 1024;
+    private File spoolDirectory;
+    private int concurrentConsumers = 10;
+    private int maxQueueSize = 10;
 
     public DicomEndpoint(String endpointUri, DicomDeviceComponent component) {
         super(endpointUri, component);
@@ -79,6 +86,93 @@ public class DicomEndpoint extends DefaultEndpoint {
         this.sopClasses = StringUtils.split(sopClasses, ',');
     }
 
+    public boolean isAsyncDispatch() {
+        return asyncDispatch;
+    }
+
+    /**
+     * Spools the DIMSE data of received requests and processes the exchanges
+     * by a thread pool of the consumer, so the association reader thread
+     * is released as soon as the data is received.
+     *
+     * @param asyncDispatch
+     *            {@code true} to dispatch exchanges asynchronously
+     */
+    public void setAsyncDispatch(boolean asyncDispatch) {
+        this.asyncDispatch = asyncDispatch;
+    }
+
+    public int getSpoolThreshold() {
+        return spoolThreshold;
+    }
+
+    /**
+     * Sets the maximal size of DIMSE data held in memory on asynchronous
+     * dispatch. Larger data is spooled to a temporary file.
+     *
+     * @param spoolThreshold
+     *            maximal number of bytes held in memory
+     */
+    public void setSpoolThreshold(int spoolThreshold) {
+        if (spoolThreshold < 0)
+            throw new IllegalArgumentException(
+                    "spoolThreshold: " + spoolThreshold);
+        this.spoolThreshold = spoolThreshold;
+    }
+
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Sets the directory for temporary files spooled on asynchronous
+     * dispatch, {@code null} for the default temporary-file directory.
+     *
+     * @param spoolDirectory
+     *            directory for temporary files or {@code null}
+     */
+    public void setSpoolDirectory(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public int getConcurrentConsumers() {
+        return concurrentConsumers;
+    }
+
+    /**
+     * Sets the number of exchanges processed concurrently on asynchronous
+     * dispatch.
+     *
+     * @param concurrentConsumers
+     *            number of concurrently processed exchanges
+     */
+    public void setConcurrentConsumers(int concurrentConsumers) {
+        if (concurrentConsumers <= 0)
+            throw new IllegalArgumentException(
+                    "concurrentConsumers: " + concurrentConsumers);
+        this.concurrentConsumers = concurrentConsumers;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Sets the number of spooled exchanges waiting for processing on
+     * asynchronous dispatch. If {@link #getConcurrentConsumers()} +
+     * {@code maxQueueSize} exchanges are in flight, association reader
+     * threads block until one of them completes.
+     *
+     * @param maxQueueSize
+     *            maximal number of waiting exchanges
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 0)
+            throw new IllegalArgumentException(
+                    "maxQueueSize: " + maxQueueSize);
+        this.maxQueueSize = maxQueueSize;
+    }
+
     @Override
     public Producer createProducer() throws Exception {
         // TODO Auto-generated method stub
@@ -0,0 +1,228 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.camel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+
+/**
+ * {@link PDVInputStream} over a copy of the DIMSE data, held in memory up to
+ * a threshold and in a temporary file beyond it, so it may be consumed by a
+ * different thread than the association reader. The temporary file is
+ * deleted on {@link #close()}.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class SpooledPDVInputStream extends PDVInputStream {
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final InputStream in;
+    private final long length;
+    private final File file;
+    private long pos;
+
+    private SpooledPDVInputStream(byte[] b, int len) {
+        this.in = new ByteArrayInputStream(b, 0, len);
+        this.length = len;
+        this.file = null;
+    }
+
+    private SpooledPDVInputStream(File file) throws IOException {
+        this.in = new BufferedInputStream(new FileInputStream(file),
+                COPY_BUFFER_SIZE);
+        this.length = file.length();
+        this.file = file;
+    }
+
+    /**
+     * Reads the remaining data of {@code data} into memory, if it does not
+     * exceed {@code threshold} bytes, or into a temporary file created in
+     * {@code directory}.
+     *
+     * @param data
+     *            DIMSE data of the association
+     * @param threshold
+     *            maximal number of bytes held in memory, limited by the
+     *            maximal size of an array
+     * @param directory
+     *            directory for the temporary file or {@code null} for the
+     *            default temporary-file directory
+     * @return spooled copy of the data
+     * @throws IOException
+     */
+    public static SpooledPDVInputStream spool(PDVInputStream data,
+            int threshold, File directory) throws IOException {
+        threshold = Math.min(threshold, MAX_ARRAY_SIZE - 1);
+        byte[] b = new byte[Math.min(threshold, COPY_BUFFER_SIZE) + 1];
+        int len = 0;
+        int count;
+        while ((count = data.read(b, len, b.length - len)) > 0) {
+            len += count;
+            if (len == b.length) {
+                if (len > threshold)
+                    return spoolToFile(data, b, directory);
+                byte[] tmp = new byte[
+                        (int) Math.min(threshold, (long) len << 1) + 1];
+                System.arraycopy(b, 0, tmp, 0, len);
+                b = tmp;
+            }
+        }
+        return new SpooledPDVInputStream(b, len);
+    }
+
+    private static SpooledPDVInputStream spoolToFile(PDVInputStream data,
+            byte[] b, File directory) throws IOException {
+        File file = File.createTempFile("dcm", ".spool", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(b);
+                data.copyTo(out);
+            } finally {
+                out.close();
+            }
+            return new SpooledPDVInputStream(file);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the total number of spooled bytes.
+     *
+     * @return the total number of spooled bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns the temporary file holding the data or {@code null}, if the
+     * data is held in memory.
+     *
+     * @return the temporary file or {@code null}
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0)
+            pos++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = in.read(b, off, len);
+        if (count > 0)
+            pos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long count = in.skip(Math.min(n, length - pos));
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(length - pos, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Attributes readDataset(String tsuid) throws IOException {
+        DicomInputStream din = new DicomInputStream(this, tsuid);
+        try {
+            return din.readDataset(-1, -1);
+        } finally {
+            SafeClose.close(din);
+        }
+    }
+
+    @Override
+    public void copyTo(OutputStream out, int length) throws IOException {
+        if (length > this.length - pos)
+            throw new EOFException("remaining: " + (length - (this.length - pos)));
+        StreamUtils.copy(this, out, length);
+    }
+
+    @Override
+    public void copyTo(OutputStream out) throws IOException {
+        StreamUtils.copy(this, out, new byte[COPY_BUFFER_SIZE]);
+    }
+
+    @Override
+    public long skipAll() throws IOException {
+        long n = length - pos;
+        StreamUtils.skipFully(this, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            if (file != null)
+                file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.camel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.util.StreamUtils;
+
+/**
+ * {@link PDVInputStream} over a byte array, which returns at most
+ * {@code chunkSize} bytes per read, like an association returning the
+ * data of one P-DATA-TF PDU after the other.
+ *
+ * @author agent <agent@local>
+ */
+class ByteArrayPDVInputStream extends PDVInputStream {
+
+    private final ByteArrayInputStream in;
+    private final int chunkSize;
+
+    public ByteArrayPDVInputStream(byte[] b, int chunkSize) {
+        this.in = new ByteArrayInputStream(b);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public int read() {
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        return in.read(b, off, Math.min(len, chunkSize));
+    }
+
+    @Override
+    public int available() {
+        return in.available();
+    }
+
+    @Override
+    public Attributes readDataset(String tsuid) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void copyTo(OutputStream out, int length) throws IOException {
+        StreamUtils.copy(this, out, length);
+    }
+
+    @Override
+    public void copyTo(OutputStream out) throws IOException {
+        StreamUtils.copy(this, out);
+    }
+
+    @Override
+    public long skipAll() {
+        return in.skip(in.available());
+    }
+}
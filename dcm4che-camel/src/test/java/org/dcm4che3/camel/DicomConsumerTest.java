@@ -0,0 +1,223 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.camel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultThreadPoolFactory;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Commands;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.net.Priority;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests asynchronous dispatch of {@link DicomConsumer}: the spool file has
+ * to be deleted and the permit has to be released after each request,
+ * whether it was processed, rejected by the executor or failed before.
+ *
+ * @author agent <agent@local>
+ */
+public class DicomConsumerTest {
+
+    private static final int DATA_LENGTH = 1000;
+
+    private final BlockingQueue<Attributes> rsps =
+            new ArrayBlockingQueue<Attributes>(10);
+    private final BlockingQueue<byte[]> received =
+            new ArrayBlockingQueue<byte[]>(10);
+    private DefaultCamelContext context;
+    private File dir;
+    private DicomConsumer consumer;
+
+    @Before
+    public void setUp() throws IOException {
+        context = new DefaultCamelContext();
+        dir = File.createTempFile("spool", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (consumer != null)
+            consumer.stop();
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test(timeout = 10000)
+    public void testDispatch() throws Exception {
+        startConsumer(new DicomEndpoint("dicom:test", component()));
+        byte[] data = data();
+        for (int msgid = 1; msgid <= 3; msgid++) {
+            consumer.onDimseRQ(null, null, Dimse.C_STORE_RQ, storeRQ(msgid),
+                    new ByteArrayPDVInputStream(data, 100));
+            assertArrayEquals(data, received.take());
+            assertRSP(msgid, Status.Success);
+        }
+        consumer.stop();
+        consumer = null;
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test(timeout = 10000)
+    public void testRejectedDispatch() throws Exception {
+        context.getExecutorServiceManager().setThreadPoolFactory(
+                new DefaultThreadPoolFactory() {
+                    @Override
+                    public ExecutorService newThreadPool(
+                            ThreadPoolProfile profile, ThreadFactory factory) {
+                        ExecutorService executor =
+                                Executors.newSingleThreadExecutor(factory);
+                        executor.shutdown();
+                        return executor;
+                    }
+                });
+        startConsumer(new DicomEndpoint("dicom:test", component()));
+        for (int msgid = 1; msgid <= 3; msgid++) {
+            consumer.onDimseRQ(null, null, Dimse.C_STORE_RQ, storeRQ(msgid),
+                    new ByteArrayPDVInputStream(data(), 100));
+            assertRSP(msgid, Status.ProcessingFailure);
+            assertEquals(0, dir.list().length);
+        }
+        assertTrue(received.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testCreateExchangeFails() throws Exception {
+        startConsumer(new DicomEndpoint("dicom:test", component()) {
+            @Override
+            public Exchange createExchange(Dimse dimse, Attributes cmd,
+                    PDVInputStream data) {
+                throw new IllegalStateException();
+            }
+        });
+        for (int msgid = 1; msgid <= 3; msgid++) {
+            try {
+                consumer.onDimseRQ(null, null, Dimse.C_STORE_RQ, storeRQ(msgid),
+                        new ByteArrayPDVInputStream(data(), 100));
+                fail("IllegalStateException expected");
+            } catch (IllegalStateException expected) {
+            }
+            assertEquals(0, dir.list().length);
+        }
+        assertTrue(rsps.isEmpty());
+    }
+
+    private DicomDeviceComponent component() {
+        return new DicomDeviceComponent(context);
+    }
+
+    private void startConsumer(DicomEndpoint endpoint) throws Exception {
+        endpoint.setSopClasses(UID.CTImageStorage);
+        endpoint.setAsyncDispatch(true);
+        endpoint.setSpoolThreshold(0);
+        endpoint.setSpoolDirectory(dir);
+        endpoint.setConcurrentConsumers(1);
+        endpoint.setMaxQueueSize(0);
+        consumer = new DicomConsumer(endpoint, new Processor() {
+
+            @Override
+            public void process(Exchange exchange) throws Exception {
+                DicomMessage in = exchange.getIn(DicomMessage.class);
+                SpooledPDVInputStream data =
+                        in.getBody(SpooledPDVInputStream.class);
+                assertTrue(data.getFile().exists());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                data.copyTo(out);
+                received.add(out.toByteArray());
+                exchange.setOut(new DicomMessage(Dimse.C_STORE_RSP,
+                        Commands.mkCStoreRSP(in.getCommand(), Status.Success)));
+            }
+        }) {
+
+            @Override
+            void writeDimseRSP(Association as, PresentationContext pc,
+                    Attributes cmd, Attributes data) {
+                rsps.add(cmd);
+            }
+        };
+        consumer.start();
+    }
+
+    private static Attributes storeRQ(int msgid) {
+        return Commands.mkCStoreRQ(msgid, UID.CTImageStorage,
+                "1.2.3." + msgid, Priority.NORMAL);
+    }
+
+    private static byte[] data() {
+        byte[] data = new byte[DATA_LENGTH];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        return data;
+    }
+
+    private void assertRSP(int msgid, int status) throws InterruptedException {
+        Attributes rsp = rsps.poll(5, TimeUnit.SECONDS);
+        assertEquals(msgid, rsp.getInt(Tag.MessageIDBeingRespondedTo, -1));
+        assertEquals(status, rsp.getInt(Tag.Status, -1));
+    }
+}
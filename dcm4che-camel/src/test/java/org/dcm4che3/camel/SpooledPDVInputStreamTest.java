@@ -0,0 +1,149 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.camel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class SpooledPDVInputStreamTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("spool", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testThresholdZero() throws IOException {
+        assertSpooled(0, 0, false);
+        assertSpooled(1, 0, true);
+        assertSpooled(10000, 0, true);
+    }
+
+    @Test
+    public void testEmptyData() throws IOException {
+        assertSpooled(0, 100, false);
+        assertSpooled(0, Integer.MAX_VALUE, false);
+    }
+
+    @Test
+    public void testExactThreshold() throws IOException {
+        assertSpooled(100, 100, false);
+        assertSpooled(8192, 8192, false);
+        assertSpooled(20000, 20000, false);
+    }
+
+    @Test
+    public void testThresholdPlusOne() throws IOException {
+        assertSpooled(101, 100, true);
+        assertSpooled(8193, 8192, true);
+        assertSpooled(20001, 20000, true);
+    }
+
+    @Test
+    public void testMaxThreshold() throws IOException {
+        assertSpooled(100000, Integer.MAX_VALUE, false);
+    }
+
+    @Test
+    public void testCloseDeletesFile() throws IOException {
+        SpooledPDVInputStream spool = SpooledPDVInputStream.spool(
+                new ByteArrayPDVInputStream(new byte[101], 7), 100, dir);
+        File file = spool.getFile();
+        assertNotNull(file);
+        assertTrue(file.exists());
+        assertEquals(dir, file.getParentFile());
+        spool.close();
+        assertFalse(file.exists());
+        assertEquals(0, dir.list().length);
+    }
+
+    private void assertSpooled(int length, int threshold, boolean toFile)
+            throws IOException {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        for (int chunkSize : new int[] { 1, 1000, Integer.MAX_VALUE }) {
+            SpooledPDVInputStream spool = SpooledPDVInputStream.spool(
+                    new ByteArrayPDVInputStream(data, chunkSize), threshold, dir);
+            try {
+                String msg = "length=" + length + ", threshold=" + threshold
+                        + ", chunkSize=" + chunkSize;
+                if (toFile)
+                    assertNotNull(msg, spool.getFile());
+                else
+                    assertNull(msg, spool.getFile());
+                assertEquals(msg, length, spool.length());
+                assertEquals(msg, length, spool.available());
+                ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+                spool.copyTo(out);
+                assertArrayEquals(msg, data, out.toByteArray());
+                assertEquals(msg, -1, spool.read());
+            } finally {
+                spool.close();
+            }
+        }
+        assertEquals(0, dir.list().length);
+    }
+}
@@ -1,6 +1,5 @@
 package org.dcm4che3.conf.api.extensions;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.dcm4che3.conf.core.api.internal.AnnotatedConfigurableProperty;
 import org.dcm4che3.conf.core.api.internal.ConfigIterators;
 
@@ -12,7 +11,7 @@ public class ReconfiguringIterator {
     public static void reconfigure(Object source, Object target, Class configurableClass) {
         for (AnnotatedConfigurableProperty property : ConfigIterators.getAllConfigurableFields(configurableClass)) {
             try {
-                PropertyUtils.setSimpleProperty(target, property.getName(), PropertyUtils.getSimpleProperty(source, property.getName()));
+                property.setValue(target, property.getValue(source));
             } catch (Exception e) {
                 throw new RuntimeException("Unable to reconfigure instance of class " + property.getRawClass(), e);
             }
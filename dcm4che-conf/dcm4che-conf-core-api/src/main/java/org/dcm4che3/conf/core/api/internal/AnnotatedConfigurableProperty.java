@@ -46,6 +46,8 @@ import org.dcm4che3.conf.core.api.LDAP;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
@@ -61,6 +63,10 @@ public class AnnotatedConfigurableProperty {
     private Type type;
     private String name;
 
+    // resolved getter/setter of a field property
+    private Method readMethod;
+    private Method writeMethod;
+
     public AnnotatedConfigurableProperty() {
     }
 
@@ -238,6 +244,29 @@ public class AnnotatedConfigurableProperty {
         this.name = name;
     }
 
+    public void setAccessors(Method readMethod, Method writeMethod) {
+        this.readMethod = readMethod;
+        this.writeMethod = writeMethod;
+    }
+
+    /**
+     * Reads the value of this field property from the bean using the getter resolved by {@link ConfigIterators}
+     */
+    public Object getValue(Object bean) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (readMethod == null)
+            throw new NoSuchMethodException("Property '" + name + "' has no getter method in class '" + bean.getClass() + "'");
+        return readMethod.invoke(bean);
+    }
+
+    /**
+     * Sets the value of this field property on the bean using the setter resolved by {@link ConfigIterators}
+     */
+    public void setValue(Object bean, Object value) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (writeMethod == null)
+            throw new NoSuchMethodException("Property '" + name + "' has no setter method in class '" + bean.getClass() + "'");
+        writeMethod.invoke(bean, value);
+    }
+
     public boolean isConfObject() {
         return getRawClass().getAnnotation(ConfigurableClass.class) != null;
     }
@@ -43,11 +43,15 @@ package org.dcm4che3.conf.core.api.internal;
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class shall NOT be referenced externally, it will be removed/renamed/refactored without notice.
@@ -55,8 +59,25 @@ import java.util.*;
  */
 public class ConfigIterators {
 
-    private static final Map<Class, List<AnnotatedConfigurableProperty>> configurableFieldsCache = Collections.synchronizedMap(new HashMap<Class, List<AnnotatedConfigurableProperty>>());
-    private static final Map<Class, List<AnnotatedSetter>> configurableSettersCache = Collections.synchronizedMap(new HashMap<Class, List<AnnotatedSetter>>());
+    private static final ConcurrentHashMap<Class, ConfigurableClassInfo> classInfoCache = new ConcurrentHashMap<Class, ConfigurableClassInfo>();
+
+    /**
+     * Metadata of a configurable class, discovered once per class
+     */
+    private static class ConfigurableClassInfo {
+        final List<AnnotatedConfigurableProperty> fields;
+        final List<AnnotatedSetter> setters;
+        final List<AnnotatedConfigurableProperty> fieldsAndSetterParameters;
+
+        ConfigurableClassInfo(List<AnnotatedConfigurableProperty> fields, List<AnnotatedSetter> setters) {
+            this.fields = Collections.unmodifiableList(fields);
+            this.setters = Collections.unmodifiableList(setters);
+
+            List<AnnotatedConfigurableProperty> all = new ArrayList<AnnotatedConfigurableProperty>(fields);
+            for (AnnotatedSetter s : setters) all.addAll(s.getParameters());
+            this.fieldsAndSetterParameters = Collections.unmodifiableList(all);
+        }
+    }
 
     public static Class<?> getExtensionClassBySimpleName(String extensionSimpleName, List allExtensionClasses) throws ClassNotFoundException {
 
@@ -105,38 +126,29 @@ public class ConfigIterators {
 
 
     public static List<AnnotatedConfigurableProperty> getAllConfigurableFieldsAndSetterParameters(Class clazz) {
-        List<AnnotatedConfigurableProperty> fields = getAllConfigurableFields(clazz);
-        for (AnnotatedSetter s : getAllConfigurableSetters(clazz)) fields.addAll(s.getParameters());
-        return fields;
+        return getClassInfo(clazz).fieldsAndSetterParameters;
     }
 
     public static List<AnnotatedSetter> getAllConfigurableSetters(Class clazz) {
-        List<AnnotatedSetter> list = configurableSettersCache.get(clazz);
-        if (list != null) return list;
-
-        processAndCacheAnnotationsForClass(clazz);
-
-        return configurableSettersCache.get(clazz);
+        return getClassInfo(clazz).setters;
     }
 
     public static List<AnnotatedConfigurableProperty> getAllConfigurableFields(Class clazz) {
-
-        //check cache
-        List<AnnotatedConfigurableProperty> l = configurableFieldsCache.get(clazz);
-        if (l != null) return l;
-        processAndCacheAnnotationsForClass(clazz);
-
-        return configurableFieldsCache.get(clazz);
-
+        return getClassInfo(clazz).fields;
     }
 
-    private static void processAndCacheAnnotationsForClass(Class clazz) {
-        processAnnotatedSetters(clazz);
-        processAnnotatedProperties(clazz);
+    private static ConfigurableClassInfo getClassInfo(Class clazz) {
 
+        //check cache
+        ConfigurableClassInfo info = classInfoCache.get(clazz);
+        if (info != null) return info;
 
         if (clazz.getAnnotation(ConfigurableClass.class) == null)
             throw new IllegalArgumentException("Class '"+clazz.getName()+"' is not a configurable class. Make sure the a dependency to org.dcm4che.conf.core-api exists.");
+
+        info = new ConfigurableClassInfo(processAnnotatedProperties(clazz), processAnnotatedSetters(clazz));
+        ConfigurableClassInfo prev = classInfoCache.putIfAbsent(clazz, info);
+        return prev != null ? prev : info;
     }
 
 
@@ -181,13 +193,13 @@ public class ConfigIterators {
             annotatedSetter.setMethod(m);
         }
 
-        configurableSettersCache.put(clazz, list);
         return list;
     }
 
     private static List<AnnotatedConfigurableProperty> processAnnotatedProperties(Class clazz) {
         List<AnnotatedConfigurableProperty> l;
         l = new ArrayList<AnnotatedConfigurableProperty>();
+        Map<String, PropertyDescriptor> descriptors = getPropertyDescriptors(clazz);
 
         // scan all fields from this class and superclasses
         for (Field field : getFieldsUpTo(clazz, null)) {
@@ -198,14 +210,39 @@ public class ConfigIterators {
                 ap.setType(field.getGenericType());
                 ap.setName(field.getName());
 
+                PropertyDescriptor descriptor = descriptors.get(field.getName());
+                if (descriptor != null)
+                    ap.setAccessors(accessible(descriptor.getReadMethod()), accessible(descriptor.getWriteMethod()));
+
                 l.add(ap);
             }
         }
 
-        configurableFieldsCache.put(clazz, l);
         return l;
     }
 
+    private static Map<String, PropertyDescriptor> getPropertyDescriptors(Class clazz) {
+        Map<String, PropertyDescriptor> descriptors = new HashMap<String, PropertyDescriptor>();
+        try {
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(clazz).getPropertyDescriptors())
+                descriptors.put(descriptor.getName(), descriptor);
+        } catch (IntrospectionException e) {
+            // no accessors then, properties will complain when accessed
+        }
+        return descriptors;
+    }
+
+    private static Method accessible(Method method) {
+        // public methods of non-public classes cannot be invoked otherwise
+        if (method != null)
+            try {
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                // keep the access checks
+            }
+        return method;
+    }
+
     public static Map<Type, Annotation> annotationsArrayToMap(Annotation[] annos) {
         HashMap<Type, Annotation> annotations = new HashMap<Type, Annotation>();
         for (Annotation anno : annos)
@@ -49,6 +49,7 @@ import org.dcm4che3.conf.core.api.internal.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Main class that is used to initialize annotated Java objects with settings fetched from a configuration backend.
@@ -60,6 +61,11 @@ public class DefaultBeanVitalizer implements BeanVitalizer {
     private Map<Class, ConfigTypeAdapter> customConfigTypeAdapters = new HashMap<Class, ConfigTypeAdapter>();
     private ConfigTypeAdapter referenceTypeAdapter;
 
+    // stateless adapters are shared, the default ones resolved once per class
+    private final ConfigTypeAdapter reflectiveAdapter = new ReflectiveAdapter();
+    private final ConfigTypeAdapter extensionsAdapter = new NullToNullDecorator(new ExtensionTypeAdaptor());
+    private final ConcurrentHashMap<Class, ConfigTypeAdapter> defaultTypeAdapters = new ConcurrentHashMap<Class, ConfigTypeAdapter>();
+
     @Override
     public void setReferenceTypeAdapter(ConfigTypeAdapter referenceTypeAdapter) {
         this.referenceTypeAdapter = referenceTypeAdapter;
@@ -148,13 +154,15 @@ public class DefaultBeanVitalizer implements BeanVitalizer {
         ConfigTypeAdapter typeAdapter = customConfigTypeAdapters.get(clazz);
         if (typeAdapter != null) return typeAdapter;
 
+        ConfigurableProperty annotation = property.getAnnotation(ConfigurableProperty.class);
+
         // check if it is a reference
-        if (property.getAnnotation(ConfigurableProperty.class)!=null && property.getAnnotation(ConfigurableProperty.class).isReference())
+        if (annotation != null && annotation.isReference())
             return getReferenceTypeAdapter();
 
         // check if it is an extensions map
-        if (property.getAnnotation(ConfigurableProperty.class)!=null && property.getAnnotation(ConfigurableProperty.class).isExtensionsProperty())
-            return new NullToNullDecorator(new ExtensionTypeAdaptor());
+        if (annotation != null && annotation.isExtensionsProperty())
+            return extensionsAdapter;
 
         // delegate to default otherwise
         return lookupDefaultTypeAdapter(clazz);
@@ -164,11 +172,12 @@ public class DefaultBeanVitalizer implements BeanVitalizer {
     @SuppressWarnings("unchecked")
     public ConfigTypeAdapter lookupDefaultTypeAdapter(Class clazz) throws ConfigurationException {
 
-        ConfigTypeAdapter adapter = null;
+        ConfigTypeAdapter adapter = defaultTypeAdapters.get(clazz);
+        if (adapter != null) return adapter;
 
         // if it is a config class, use reflective adapter
         if (clazz.getAnnotation(ConfigurableClass.class) != null)
-            adapter = new ReflectiveAdapter();
+            adapter = reflectiveAdapter;
         else if (clazz.isArray())
             adapter = new ArrayTypeAdapter();
         else if (clazz.isEnum())
@@ -179,6 +188,7 @@ public class DefaultBeanVitalizer implements BeanVitalizer {
         if (adapter == null)
             throw new ConfigurationException("TypeAdapter not found for class " + clazz.getName());
 
+        defaultTypeAdapters.put(clazz, adapter);
         return adapter;
     }
 
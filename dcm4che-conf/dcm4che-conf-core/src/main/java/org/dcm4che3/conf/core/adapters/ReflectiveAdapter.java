@@ -39,7 +39,6 @@
  */
 package org.dcm4che3.conf.core.adapters;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.dcm4che3.conf.core.api.internal.ConfigTypeAdapter;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.ConfigurationUnserializableException;
@@ -100,7 +99,7 @@ public class ReflectiveAdapter<T> implements ConfigTypeAdapter<T, Map<String, Ob
         for (AnnotatedConfigurableProperty fieldProperty : ConfigIterators.getAllConfigurableFields(clazz))
             try {
                 Object fieldValue = DefaultConfigTypeAdapters.delegateGetChildFromConfigNode(configNode, fieldProperty, vitalizer, confObj);
-                PropertyUtils.setSimpleProperty(confObj, fieldProperty.getName(), fieldValue);
+                fieldProperty.setValue(confObj, fieldValue);
             } catch (Exception e) {
                 throw new ConfigurationException("Error while reading configuration property '" + fieldProperty.getAnnotatedName() + "' (field "+fieldProperty.getName()+") in class " + clazz.getSimpleName(), e);
             }
@@ -137,7 +136,7 @@ public class ReflectiveAdapter<T> implements ConfigTypeAdapter<T, Map<String, Ob
         // get data from all the configurable fields
         for (AnnotatedConfigurableProperty fieldProperty : ConfigIterators.getAllConfigurableFields(clazz)) {
             try {
-                Object value = PropertyUtils.getSimpleProperty(object, fieldProperty.getName());
+                Object value = fieldProperty.getValue(object);
                 DefaultConfigTypeAdapters.delegateChildToConfigNode(value, configNode, fieldProperty, vitalizer);
             } catch (Exception e) {
                 throw new ConfigurationException("Error while serializing configuration field '" + fieldProperty.getName() + "' in class " + clazz.getSimpleName(), e);
@@ -0,0 +1,577 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.DelegatingConfiguration;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.core.util.ConfigNodeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+
+/**
+ * Caching decorator that publishes an immutable snapshot of the configuration tree through an atomic reference.
+ * <p/>
+ * Reads are served lock-free from the current snapshot and return the cached (unmodifiable) nodes without cloning them.
+ * Writes are serialized, copy only the maps on the path from the root to the changed node and share all the other
+ * subtrees with the previous snapshot. Changes made within {@link #runBatch(ConfigBatch)} become visible to other
+ * threads only when the batch completes.
+ * <p/>
+ * A node requested with its configurable class is loaded from the delegate with that class once, so that decorators
+ * placed below (e.g. {@link org.dcm4che3.conf.core.normalization.DefaultsAndNullFilterDecorator}) fill it in, and is
+ * served from the snapshot afterwards. Staleness is tracked per loaded subtree - when the stale timeout has passed,
+ * only the subtree which is read is re-loaded, not the whole configuration.
+ * <p/>
+ * Nodes returned by this decorator must not be modified - decorators that alter the loaded nodes have to be placed
+ * below it.
+ *
+ * @author agent <agent@local>
+ */
+public class CopyOnWriteCachingConfigurationDecorator extends DelegatingConfiguration {
+
+    public static final Logger log = LoggerFactory.getLogger(CopyOnWriteCachingConfigurationDecorator.class);
+
+    private static final List<String> ROOT = Collections.emptyList();
+
+    private static final class Fetch {
+        final long time;
+        /**
+         * whether the subtree was loaded with its configurable class
+         */
+        final boolean typed;
+
+        Fetch(long time, boolean typed) {
+            this.time = time;
+            this.typed = typed;
+        }
+    }
+
+    private static final class Snapshot {
+        final Map<String, Object> root;
+        /**
+         * When the subtrees were loaded from the delegate, by their keys - a fetch covers the subtree below it up to the
+         * next fetch. There is always a fetch of the {@link #ROOT}.
+         */
+        final Map<List<String>, Fetch> fetches;
+
+        Snapshot(Map<String, Object> root, Map<List<String>, Fetch> fetches) {
+            this.root = root;
+            this.fetches = fetches;
+        }
+
+        Fetch fetchOf(List<String> keys) {
+            for (int i = keys.size(); i > 0; i--) {
+                Fetch fetch = fetches.get(keys.subList(0, i));
+                if (fetch != null)
+                    return fetch;
+            }
+            return fetches.get(ROOT);
+        }
+
+        /**
+         * @param keys  keys of the changed subtree, null if it is not a plain path
+         * @param fetch the fetch of the changed subtree, null if it was removed
+         * @return the fetches with the ones within the changed subtree replaced
+         */
+        Map<List<String>, Fetch> withFetch(List<String> keys, Fetch fetch) {
+            // the fetches within a subtree which is not at a plain path cannot be told, so only the root is kept
+            if (keys == null)
+                return Collections.singletonMap(ROOT, fetches.get(ROOT));
+            if (keys.isEmpty())
+                return Collections.singletonMap(ROOT, fetch != null ? fetch : fetches.get(ROOT));
+
+            Map<List<String>, Fetch> copy = new HashMap<List<String>, Fetch>(fetches.size() * 4 / 3 + 2);
+            for (Map.Entry<List<String>, Fetch> entry : fetches.entrySet()) {
+                List<String> key = entry.getKey();
+                if (key.size() < keys.size() || !key.subList(0, keys.size()).equals(keys))
+                    copy.put(key, entry.getValue());
+            }
+            if (fetch != null)
+                copy.put(keys, fetch);
+            return Collections.unmodifiableMap(copy);
+        }
+    }
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // guarded by writeLock
+    private Snapshot pending;
+    private int batchDepth;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    long staleTimeout;
+
+    public CopyOnWriteCachingConfigurationDecorator(Configuration delegate) {
+        this(delegate, System.getProperties());
+    }
+
+    public CopyOnWriteCachingConfigurationDecorator(Configuration delegate, Hashtable<?, ?> properties) {
+        super(delegate);
+        String s = (String) properties.get("org.dcm4che.conf.staleTimeout");
+        staleTimeout = Integer.valueOf(s == null ? "30" : s) * 1000L;
+    }
+
+    /**
+     * @return number of reads served from the cached snapshot
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of reads that required to load the whole configuration, or a node with its configurable class,
+     * from the delegate
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of refreshes of stale subtrees and of explicitly refreshed nodes
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public void resetMetrics() {
+        hitCount.set(0);
+        missCount.set(0);
+        refreshCount.set(0);
+    }
+
+    /**
+     * Drops the cached snapshot, the configuration will be re-loaded from the delegate on the next access.
+     */
+    public void invalidate() {
+        snapshot.set(null);
+    }
+
+    @Override
+    public Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+        return root("/", ROOT, null);
+    }
+
+    @Override
+    public Object getConfigurationNode(String path, Class configurableClass) throws ConfigurationException {
+        if (configurableClass == null)
+            return ConfigNodeUtil.getNode(root(path), path);
+
+        List<String> keys = toKeys(path);
+        if (keys != null)
+            return ConfigNodeUtil.getNode(root(path, keys, configurableClass), path);
+
+        // e.g. a reference into a list, served from the snapshot if it lies within a fresh subtree which was loaded
+        // with its configurable class
+        Snapshot s = current();
+        if (s != null) {
+            Fetch fetch = s.fetchOf(toKeys(plainPrefix(path)));
+            if (fetch.typed && !isStale(fetch)) {
+                hitCount.incrementAndGet();
+                return ConfigNodeUtil.getNode(s.root, path);
+            }
+        }
+        missCount.incrementAndGet();
+        return delegate.getConfigurationNode(path, configurableClass);
+    }
+
+    @Override
+    public boolean nodeExists(String path) throws ConfigurationException {
+        return ConfigNodeUtil.nodeExists(root(path), path);
+    }
+
+    @Override
+    public Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
+        // the snapshot never changes, so the results can be iterated lazily
+        return ConfigNodeUtil.search(root(liteXPathExpression), liteXPathExpression);
+    }
+
+    @Override
+    public void persistNode(String path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
+        writeLock.lock();
+        try {
+            Snapshot s = loaded();
+            delegate.persistNode(path, configNode, configurableClass);
+
+            List<String> keys = toKeys(path);
+            Fetch fetch = new Fetch(System.currentTimeMillis(), configurableClass != null);
+            if (keys == null) {
+                publish(new Snapshot(replaceNode(s.root, path, freeze(configNode)), s.withFetch(null, null)));
+            } else if (configurableClass == null) {
+                publish(new Snapshot(replaceNode(s.root, path, freeze(configNode)), s.withFetch(keys, fetch)));
+            } else {
+                // the decorators below may have altered the persisted node (e.g. filtered out the defaults), so it is
+                // read back the way it is read later
+                Object node = freeze(delegate.getConfigurationNode(path, configurableClass));
+                publish(new Snapshot(node != null ? replaceNode(s.root, path, node) : removeNode(s.root, path),
+                        s.withFetch(keys, fetch)));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void refreshNode(String path) throws ConfigurationException {
+        writeLock.lock();
+        try {
+            Snapshot s = loaded();
+            Object node = freeze(delegate.getConfigurationNode(path, null));
+            refreshCount.incrementAndGet();
+            publish(new Snapshot(node != null ? replaceNode(s.root, path, node) : removeNode(s.root, path),
+                    s.withFetch(toKeys(path), new Fetch(System.currentTimeMillis(), false))));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeNode(String path) throws ConfigurationException {
+        writeLock.lock();
+        try {
+            Snapshot s = loaded();
+            delegate.removeNode(path);
+            publish(new Snapshot(removeNode(s.root, path), s.withFetch(toKeys(path), null)));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void runBatch(ConfigBatch batch) {
+        writeLock.lock();
+        try {
+            batchDepth++;
+            try {
+                super.runBatch(batch);
+            } catch (RuntimeException e) {
+
+                // if something goes wrong during batching - invalidate the cache before others are able to read inconsistent data
+                // we cannot re-load here since an underlying transaction is likely to be inactive
+                pending = null;
+                snapshot.set(null);
+                throw e;
+            } finally {
+                batchDepth--;
+            }
+            if (batchDepth == 0 && pending != null) {
+                snapshot.set(pending);
+                pending = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private Snapshot current() {
+        if (pending != null && writeLock.isHeldByCurrentThread())
+            return pending;
+        return snapshot.get();
+    }
+
+    private void publish(Snapshot s) {
+        if (batchDepth > 0)
+            pending = s;
+        else
+            snapshot.set(s);
+    }
+
+    private boolean isStale(Fetch fetch) {
+        return staleTimeout != 0 && System.currentTimeMillis() > fetch.time + staleTimeout;
+    }
+
+    /**
+     * @return the root of a snapshot in which the subtree at the plain beginning of the path is fresh
+     */
+    private Map<String, Object> root(String path) throws ConfigurationException {
+        String prefix = plainPrefix(path);
+        return root(prefix, toKeys(prefix), null);
+    }
+
+    /**
+     * @param keys              keys of the plain path
+     * @param configurableClass if not null, the subtree at the path has to be loaded with this class
+     * @return the root of a snapshot in which the subtree at the path is fresh
+     */
+    private Map<String, Object> root(String path, List<String> keys, Class configurableClass)
+            throws ConfigurationException {
+        Snapshot s = current();
+        if (s != null) {
+            Fetch fetch = s.fetchOf(keys);
+            if (configurableClass == null || fetch.typed) {
+                // only one thread re-loads a stale subtree, the others keep using the current snapshot meanwhile
+                if (!isStale(fetch) || !writeLock.tryLock()) {
+                    hitCount.incrementAndGet();
+                    return s.root;
+                }
+                try {
+                    return load(path, keys, configurableClass).root;
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        writeLock.lock();
+        try {
+            return load(path, keys, configurableClass).root;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the current snapshot, or the initially loaded one
+     */
+    private Snapshot loaded() throws ConfigurationException {
+        Snapshot s = current();
+        return s != null ? s : load("/", ROOT, null);
+    }
+
+    // guarded by writeLock
+    private Snapshot load(String path, List<String> keys, Class configurableClass) throws ConfigurationException {
+        Snapshot s = current();
+        if (s == null) {
+            Map<String, Object> root = loadRoot();
+            s = new Snapshot(root, Collections.singletonMap(ROOT, new Fetch(System.currentTimeMillis(), false)));
+            publish(s);
+            missCount.incrementAndGet();
+            log.info("Configuration cache initialized");
+            if (configurableClass == null)
+                return s;
+        }
+
+        // someone else may have loaded it meanwhile
+        Fetch fetch = s.fetchOf(keys);
+        boolean loaded = configurableClass == null || fetch.typed;
+        if (loaded && !isStale(fetch)) {
+            hitCount.incrementAndGet();
+            return s;
+        }
+
+        Map<String, Object> root;
+        if (keys.isEmpty() && configurableClass == null) {
+            root = loadRoot();
+        } else {
+            Object node = freeze(delegate.getConfigurationNode(path, configurableClass));
+            root = node != null ? replaceNode(s.root, path, node) : removeNode(s.root, path);
+        }
+        s = new Snapshot(root, s.withFetch(keys, new Fetch(System.currentTimeMillis(), configurableClass != null)));
+        publish(s);
+
+        if (loaded) {
+            refreshCount.incrementAndGet();
+            log.debug("Configuration cache refreshed {}", path);
+        } else {
+            missCount.incrementAndGet();
+        }
+        return s;
+    }
+
+    private Map<String, Object> loadRoot() throws ConfigurationException {
+        Map<String, Object> root = (Map<String, Object>) freeze(delegate.getConfigurationRoot());
+        return root != null ? root : Collections.<String, Object>emptyMap();
+    }
+
+    /**
+     * Makes an unmodifiable deep copy of the node
+     */
+    static Object freeze(Object node) {
+        if (node instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) node;
+            Map<String, Object> copy = new LinkedHashMap<String, Object>(map.size() * 4 / 3 + 1);
+            for (Map.Entry<String, Object> entry : map.entrySet())
+                copy.put(entry.getKey(), freeze(entry.getValue()));
+            return Collections.unmodifiableMap(copy);
+        }
+        if (node instanceof Collection) {
+            Collection<?> collection = (Collection<?>) node;
+            List<Object> copy = new ArrayList<Object>(collection.size());
+            for (Object o : collection)
+                copy.add(freeze(o));
+            return Collections.unmodifiableList(copy);
+        }
+        return node;
+    }
+
+    private static Map<String, Object> replaceNode(Map<String, Object> root, String path, Object node) {
+        if (path.equals("/"))
+            return (Map<String, Object>) node;
+
+        List<String> keys = toKeys(path);
+        if (keys != null) {
+            Map<String, Object> newRoot = replaceIn(root, keys, 0, node);
+            if (newRoot != null)
+                return newRoot;
+        }
+
+        // not a plain path - fall back to a full copy
+        Map<String, Object> copy = (Map<String, Object>) ConfigNodeUtil.deepCopy(root);
+        ConfigNodeUtil.replaceNode(copy, path, node);
+        return (Map<String, Object>) freeze(copy);
+    }
+
+    private static Map<String, Object> removeNode(Map<String, Object> root, String path) {
+        List<String> keys = toKeys(path);
+        if (keys != null && !keys.isEmpty()) {
+            Map<String, Object> newRoot = removeIn(root, keys, 0);
+            if (newRoot != null)
+                return newRoot;
+        }
+
+        // not a plain path - fall back to a full copy
+        Map<String, Object> copy = (Map<String, Object>) ConfigNodeUtil.deepCopy(root);
+        ConfigNodeUtil.removeNodes(copy, path);
+        return (Map<String, Object>) freeze(copy);
+    }
+
+    /**
+     * @return the copied map, or null if the path passes through something else than a map
+     */
+    private static Map<String, Object> replaceIn(Map<String, Object> map, List<String> keys, int index, Object node) {
+        String key = keys.get(index);
+        Object value;
+        if (index == keys.size() - 1) {
+            value = node;
+        } else {
+            Object child = map.get(key);
+            if (child == null)
+                child = Collections.emptyMap();
+            else if (!(child instanceof Map))
+                return null;
+            value = replaceIn((Map<String, Object>) child, keys, index + 1, node);
+            if (value == null)
+                return null;
+        }
+        Map<String, Object> copy = new LinkedHashMap<String, Object>(map);
+        copy.put(key, value);
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return the copied map, the same map if there is nothing to remove, or null if the path passes through
+     * something else than a map
+     */
+    private static Map<String, Object> removeIn(Map<String, Object> map, List<String> keys, int index) {
+        String key = keys.get(index);
+        if (!map.containsKey(key))
+            return map;
+
+        Map<String, Object> copy = new LinkedHashMap<String, Object>(map);
+        if (index == keys.size() - 1) {
+            copy.remove(key);
+        } else {
+            Object child = map.get(key);
+            if (!(child instanceof Map))
+                return child == null ? map : null;
+            Map<String, Object> newChild = removeIn((Map<String, Object>) child, keys, index + 1);
+            if (newChild == null)
+                return null;
+            if (newChild == child)
+                return map;
+            copy.put(key, newChild);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Converts a path like /a/b[@name='c']/d into a list of map keys (a, b, c, d)
+     *
+     * @return the keys, or null if the path contains wildcards or predicates other than @name
+     */
+    private static List<String> toKeys(String path) {
+        List<Map<String, Object>> elements;
+        try {
+            elements = ConfigNodeUtil.parseReference(path);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        List<String> keys = new ArrayList<String>(elements.size() * 2);
+        for (Map<String, Object> element : elements) {
+            String name = (String) element.get("$name");
+            if (name.equals("*") || name.startsWith("@"))
+                return null;
+            keys.add(name);
+
+            switch (element.size()) {
+                case 1:
+                    break;
+                case 2:
+                    Object key = element.get("@name");
+                    if (!(key instanceof String))
+                        return null;
+                    keys.add((String) key);
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the longest beginning of the path or expression which consists of plain elements only (see
+     * {@link #toKeys(String)}), or "/"
+     */
+    private static String plainPrefix(String path) {
+        Matcher matcher = ConfigNodeUtil.xPathNodePattern.matcher(path);
+        int end = 0;
+        while (end < path.length()) {
+            matcher.region(end, path.length());
+            if (!matcher.lookingAt())
+                break;
+            int next = matcher.end();
+            if (next < path.length() && path.charAt(next) != '/' || toKeys(path.substring(end, next)) == null)
+                break;
+            end = next;
+        }
+        return end == 0 ? "/" : path.substring(0, end);
+    }
+}
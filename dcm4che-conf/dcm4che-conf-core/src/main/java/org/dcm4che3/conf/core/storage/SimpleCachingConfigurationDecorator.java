@@ -55,7 +55,9 @@ import java.util.*;
  * Oversynchronized
  *
  * @author Roman K
+ * @deprecated use {@link CopyOnWriteCachingConfigurationDecorator}, which serves reads without locking and cloning
  */
+@Deprecated
 public class SimpleCachingConfigurationDecorator extends DelegatingConfiguration {
 
 
@@ -39,28 +39,85 @@
  */
 package org.dcm4che3.conf.core.storage;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.dcm4che3.conf.ConfigurationSettingsLoader;
 import org.dcm4che3.conf.core.api.Configuration;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.util.ConfigNodeUtil;
+import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Stores the configuration in a single JSON file.
+ * <p/>
+ * By default the file is parsed on every access. With {@link #setKeepInMemory(boolean)} the parsed tree is kept in
+ * memory and only re-loaded when the modification time or size of the file changes. In that mode
+ * {@link #setWriteDelay(long)} lets a background writer coalesce the changes made within the delay into a single
+ * write of the file, and {@link #setJournalEnabled(boolean)} additionally appends every change to a journal file,
+ * so that it is not lost if the process ends before the file is written.
+ * <p/>
+ * The file is always written to a temporary file first, which then replaces the original one.
+ *
  * @author Roman K
  */
 public class SingleJsonFileConfigurationStorage implements Configuration {
+
+    public static final Logger log = LoggerFactory.getLogger(SingleJsonFileConfigurationStorage.class);
+
+    /**
+     * Bounds of the delay in ms after which a failed background write is retried. The delay is doubled on each
+     * subsequent failure.
+     */
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60000;
+
     private String fileName;
     private ObjectMapper objectMapper = new ObjectMapper();
 
+    private boolean keepInMemory;
+    private long writeDelay;
+    private boolean journalEnabled;
+
+    // in-memory mode state
+    private Map<String, Object> root;
+    private long rootLastModified;
+    private long rootLength;
+    private long modCount;
+    private long writtenModCount;
+    private FileOutputStream journal;
+    private ScheduledExecutorService writer;
+    private ScheduledFuture<?> scheduledWrite;
+    private long retryDelay;
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writePendingChanges();
+        }
+    };
+
     public static String resolveConfigFileNameSetting(Hashtable<?, ?> props) {
         return StringUtils.replaceSystemProperties(
                 ConfigurationSettingsLoader.getPropertyWithNotice(
@@ -77,70 +134,124 @@ public class SingleJsonFileConfigurationStorage implements Configuration {
         setFileName(fileName);
     }
 
-    public void setFileName(String fileName) {
+    public synchronized void setFileName(String fileName) {
         this.fileName = fileName;
+        this.root = null;
+    }
+
+    public boolean isKeepInMemory() {
+        return keepInMemory;
+    }
+
+    /**
+     * Keep the parsed configuration in memory, re-load it only if the file was modified by someone else.
+     */
+    public synchronized void setKeepInMemory(boolean keepInMemory) {
+        this.keepInMemory = keepInMemory;
+        this.root = null;
+    }
+
+    public long getWriteDelay() {
+        return writeDelay;
+    }
+
+    /**
+     * Delay in ms after which the changes are written to the file by a background writer. All the changes made
+     * within the delay are written at once. 0 (default) writes the file synchronously on every change.
+     * Only effective together with {@link #setKeepInMemory(boolean)}.
+     */
+    public void setWriteDelay(long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    /**
+     * Append each change to a journal file (&lt;fileName&gt;.journal), which is replayed when the configuration is
+     * loaded and discarded once the changes are written to the configuration file.
+     * Only effective together with a {@link #setWriteDelay(long) write delay}.
+     */
+    public void setJournalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
     }
 
     @Override
-    public boolean nodeExists(String path) throws ConfigurationException {
-        return ConfigNodeUtil.nodeExists(getConfigurationRoot(), path);
+    public synchronized boolean nodeExists(String path) throws ConfigurationException {
+        return ConfigNodeUtil.nodeExists(keepInMemory ? loadedRoot() : readFile(), path);
     }
 
     @Override
-    public Map<String, Object> getConfigurationRoot() throws ConfigurationException {
-        try {
-            return objectMapper.readValue(new File(fileName), Map.class);
-        } catch (FileNotFoundException e) {
-            return new HashMap<String, Object>();
-        } catch (Exception e) {
-            throw new ConfigurationException(e);
-        }
+    public synchronized Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+        if (!keepInMemory)
+            return readFile();
+
+        return (Map<String, Object>) ConfigNodeUtil.deepCopy(loadedRoot());
     }
 
     @Override
-    public Object getConfigurationNode(String path, Class configurableClass) throws ConfigurationException {
-        Object node = ConfigNodeUtil.getNode(getConfigurationRoot(), path);
-        return node;
+    public synchronized Object getConfigurationNode(String path, Class configurableClass) throws ConfigurationException {
+        if (!keepInMemory)
+            return ConfigNodeUtil.getNode(readFile(), path);
+
+        return ConfigNodeUtil.deepCopy(ConfigNodeUtil.getNode(loadedRoot(), path));
     }
 
 
     @Override
-    public void persistNode(String path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
-        Map<String, Object> configurationRoot = getConfigurationRoot();
+    public synchronized void persistNode(String path, Map<String, Object> configNode, Class configurableClass) throws ConfigurationException {
+        if (!keepInMemory) {
+            Map<String, Object> configurationRoot = readFile();
 
 //        if (configurableClass != null)
 //            configNode.put("#class", configurableClass.getName());
 
-        if (!path.equals("/")) {
+            if (!path.equals("/")) {
                 ConfigNodeUtil.replaceNode(configurationRoot, path, configNode);
-        } else
-            configurationRoot = configNode;
+            } else
+                configurationRoot = configNode;
 
-        try {
-            File resultFile = new File(fileName);
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(resultFile, (Object) configurationRoot);
-        } catch (IOException e) {
-            throw new ConfigurationException(e);
+            writeFile(configurationRoot);
+            return;
         }
 
+        Map<String, Object> configurationRoot = loadedRoot();
+        Object node = ConfigNodeUtil.deepCopy(configNode);
+        applyPersist(configurationRoot, path, node);
+        changed("persist", path, node);
     }
 
     @Override
-    public void refreshNode(String path) {
-
+    public synchronized void refreshNode(String path) {
+        // re-load on the next access, unless there are changes not yet written
+        if (root != null && modCount == writtenModCount)
+            root = null;
     }
 
     @Override
-    public void removeNode(String path) throws ConfigurationException {
+    public synchronized void removeNode(String path) throws ConfigurationException {
+        if (!keepInMemory) {
+            Map<String, Object> configurationRoot = readFile();
+            ConfigNodeUtil.removeNodes(configurationRoot, path);
+            persistNode("/", configurationRoot, null);
+            return;
+        }
 
-        Map<String, Object> configurationRoot = getConfigurationRoot();
-        ConfigNodeUtil.removeNodes(configurationRoot, path);
-        persistNode("/", configurationRoot, null);
+        ConfigNodeUtil.removeNodes(loadedRoot(), path);
+        changed("remove", path, null);
     }
 
     @Override
-    public Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
-        return ConfigNodeUtil.search(getConfigurationRoot(), liteXPathExpression);
+    public synchronized Iterator search(String liteXPathExpression) throws IllegalArgumentException, ConfigurationException {
+        if (!keepInMemory)
+            return ConfigNodeUtil.search(readFile(), liteXPathExpression);
+
+        List<Object> results = new ArrayList<Object>();
+        Iterator iterator = ConfigNodeUtil.search(loadedRoot(), liteXPathExpression);
+        while (iterator.hasNext())
+            results.add(ConfigNodeUtil.deepCopy(iterator.next()));
+        return results.iterator();
     }
 
     @Override
@@ -152,5 +263,363 @@ public class SingleJsonFileConfigurationStorage implements Configuration {
     public void runBatch(ConfigBatch batch) {
         batch.run();
     }
-    
+
+    /**
+     * Writes the pending changes to the configuration file and waits until they are written.
+     */
+    public void flush() throws ConfigurationException {
+        ScheduledExecutorService writer;
+        synchronized (this) {
+            writer = this.writer;
+        }
+        if (writer == null)
+            return;
+
+        try {
+            writer.submit(writeTask).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException(e);
+        } catch (ExecutionException e) {
+            throw new ConfigurationException(e.getCause());
+        }
+
+        synchronized (this) {
+            if (modCount != writtenModCount)
+                throw new ConfigurationException("Failed to write configuration to " + fileName);
+        }
+    }
+
+    /**
+     * Writes the pending changes and stops the background writer.
+     */
+    public void close() throws ConfigurationException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                if (scheduledWrite != null) {
+                    scheduledWrite.cancel(false);
+                    scheduledWrite = null;
+                }
+                if (writer != null) {
+                    writer.shutdown();
+                    writer = null;
+                }
+                SafeClose.close(journal);
+                journal = null;
+            }
+        }
+    }
+
+    private Map<String, Object> readFile() throws ConfigurationException {
+        try {
+            return objectMapper.readValue(new File(fileName), Map.class);
+        } catch (FileNotFoundException e) {
+            return new HashMap<String, Object>();
+        } catch (Exception e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    private void writeFile(Map<String, Object> configurationRoot) throws ConfigurationException {
+        try {
+            writeAtomically(serialize(configurationRoot));
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    private byte[] serialize(Map<String, Object> configurationRoot) throws IOException {
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(configurationRoot);
+    }
+
+    private void writeAtomically(byte[] data) throws IOException {
+        File file = new File(fileName);
+        File tmp = new File(fileName + ".tmp");
+
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            SafeClose.close(out);
+        }
+
+        // renameTo does not replace an existing file on all platforms
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+            throw new IOException("Failed to rename " + tmp + " to " + file);
+    }
+
+    /**
+     * @return the in-memory tree, (re-)loaded if the file was modified by someone else
+     */
+    private Map<String, Object> loadedRoot() throws ConfigurationException {
+        File file = new File(fileName);
+
+        // as long as not all changes are written, the memory is ahead of the file
+        if (root != null && (modCount != writtenModCount
+                || file.lastModified() == rootLastModified && file.length() == rootLength))
+            return root;
+
+        if (root != null)
+            log.info("Configuration file {} was modified, re-loading it", fileName);
+
+        rootLastModified = file.lastModified();
+        rootLength = file.length();
+        Map<String, Object> loaded = readFile();
+        writtenModCount = modCount;
+
+        int replayed = replayJournal(loaded, rotatedJournalFile()) + replayJournal(loaded, journalFile());
+        root = loaded;
+
+        if (replayed > 0) {
+            log.info("Replayed {} changes from the journal of {}", replayed, fileName);
+            modCount++;
+            try {
+                scheduleWrite();
+            } catch (ConfigurationException e) {
+                rollback();
+                throw e;
+            }
+        }
+        return root;
+    }
+
+    private void applyPersist(Map<String, Object> configurationRoot, String path, Object node) {
+        if (!path.equals("/"))
+            ConfigNodeUtil.replaceNode(configurationRoot, path, node);
+        else {
+            configurationRoot.clear();
+            configurationRoot.putAll((Map<String, Object>) node);
+        }
+    }
+
+    private void changed(String op, String path, Object node) throws ConfigurationException {
+        modCount++;
+        try {
+            if (writeDelay > 0 && journalEnabled)
+                appendJournal(op, path, node);
+            scheduleWrite();
+        } catch (ConfigurationException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the in-memory tree after a change could neither be written to the file nor to the journal, so the
+     * tree is re-loaded from the file and the journal - without the failed change - on the next access.
+     */
+    private void rollback() {
+        log.warn("Discard the configuration kept in memory, it will be re-loaded from {}", fileName);
+        root = null;
+    }
+
+    private void scheduleWrite() throws ConfigurationException {
+        if (writeDelay <= 0) {
+            try {
+                rotateJournal();
+            } catch (IOException e) {
+                throw new ConfigurationException(e);
+            }
+            writeFile(root);
+            writtenModCount = modCount;
+            rootWritten();
+            return;
+        }
+
+        if (scheduledWrite != null)
+            return;
+
+        if (writer == null)
+            writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ConfigurationFileWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        scheduledWrite = writer.schedule(writeTask, writeDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules another attempt to write the changes kept in memory after a failed write, with a delay doubled on
+     * each subsequent failure.
+     */
+    private synchronized void scheduleRetry() {
+        retryDelay = retryDelay == 0
+                ? Math.max(writeDelay, MIN_RETRY_DELAY)
+                : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        if (writer == null || writer.isShutdown() || scheduledWrite != null)
+            return;
+
+        log.info("Retry to write configuration to {} in {} ms", fileName, retryDelay);
+        scheduledWrite = writer.schedule(writeTask, retryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the writer thread. Serializes the tree while holding the lock, writes it without.
+     */
+    private void writePendingChanges() {
+        byte[] data;
+        long writingModCount;
+        synchronized (this) {
+            if (scheduledWrite != null) {
+                scheduledWrite.cancel(false);
+                scheduledWrite = null;
+            }
+            if (root == null || modCount == writtenModCount)
+                return;
+
+            try {
+                data = serialize(root);
+                rotateJournal();
+            } catch (IOException e) {
+                log.error("Failed to write configuration to " + fileName, e);
+                scheduleRetry();
+                return;
+            }
+            writingModCount = modCount;
+        }
+
+        try {
+            writeAtomically(data);
+        } catch (IOException e) {
+            log.error("Failed to write configuration to " + fileName + ", changes are kept in memory", e);
+            scheduleRetry();
+            return;
+        }
+
+        synchronized (this) {
+            retryDelay = 0;
+            // the tree may have been re-loaded meanwhile after a rollback
+            if (writingModCount > writtenModCount)
+                writtenModCount = writingModCount;
+            rootWritten();
+        }
+    }
+
+    private void rootWritten() {
+        File file = new File(fileName);
+        rotatedJournalFile().delete();
+        if (modCount == writtenModCount) {
+            rootLastModified = file.lastModified();
+            rootLength = file.length();
+        }
+    }
+
+    private File journalFile() {
+        return new File(fileName + ".journal");
+    }
+
+    private File rotatedJournalFile() {
+        return new File(fileName + ".journal.1");
+    }
+
+    private void appendJournal(String op, String path, Object node) throws ConfigurationException {
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("op", op);
+        record.put("path", path);
+        if (node != null)
+            record.put("node", node);
+
+        long length = -1;
+        try {
+            if (journal == null)
+                journal = new FileOutputStream(journalFile(), true);
+            length = journal.getChannel().size();
+            journal.write(objectMapper.writeValueAsBytes(record));
+            journal.write('\n');
+            journal.getFD().sync();
+        } catch (IOException e) {
+            discardJournalRecord(length);
+            throw new ConfigurationException("Failed to write to the journal of " + fileName, e);
+        }
+    }
+
+    /**
+     * Truncates an incomplete record, which would otherwise stop the replay of the records appended after it.
+     */
+    private void discardJournalRecord(long length) {
+        if (journal == null)
+            return;
+
+        try {
+            if (length >= 0)
+                journal.getChannel().truncate(length);
+        } catch (IOException e) {
+            log.error("Failed to truncate the journal of " + fileName, e);
+        }
+        SafeClose.close(journal);
+        journal = null;
+    }
+
+    /**
+     * The journal is moved aside before the file is written, so that changes made meanwhile go to a new journal.
+     * The moved journal is deleted once the file is written.
+     */
+    private void rotateJournal() throws IOException {
+        SafeClose.close(journal);
+        journal = null;
+
+        File current = journalFile();
+        if (!current.exists())
+            return;
+
+        File rotated = rotatedJournalFile();
+        if (!rotated.exists() && current.renameTo(rotated))
+            return;
+
+        // previous write failed, keep the older changes first
+        FileOutputStream out = new FileOutputStream(rotated, true);
+        FileInputStream in = new FileInputStream(current);
+        try {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0)
+                out.write(buf, 0, read);
+            out.getFD().sync();
+        } finally {
+            SafeClose.close(in);
+            SafeClose.close(out);
+        }
+        current.delete();
+    }
+
+    private int replayJournal(Map<String, Object> configurationRoot, File file) throws ConfigurationException {
+        if (!file.exists())
+            return 0;
+
+        int count = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Map<String, Object> record;
+                try {
+                    record = objectMapper.readValue(line, Map.class);
+                } catch (IOException e) {
+                    // incomplete last record
+                    log.warn("Ignoring corrupt record in the journal {}", file);
+                    break;
+                }
+
+                String path = (String) record.get("path");
+                if ("remove".equals(record.get("op")))
+                    ConfigNodeUtil.removeNodes(configurationRoot, path);
+                else
+                    applyPersist(configurationRoot, path, record.get("node"));
+                count++;
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Failed to read the journal " + file, e);
+        } finally {
+            SafeClose.close(reader);
+        }
+        return count;
+    }
 }
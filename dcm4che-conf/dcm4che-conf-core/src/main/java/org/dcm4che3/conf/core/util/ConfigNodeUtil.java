@@ -77,6 +77,27 @@ public class ConfigNodeUtil {
         jxPathContext.createPathAndSetValue(path, replacementConfigNode);
     }
 
+    /**
+     * Copies the maps and collections of the node recursively, the leaf values are shared.
+     */
+    public static Object deepCopy(Object node) {
+        if (node instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) node;
+            Map<String, Object> copy = new LinkedHashMap<String, Object>(map.size() * 4 / 3 + 1);
+            for (Map.Entry<String, Object> entry : map.entrySet())
+                copy.put(entry.getKey(), deepCopy(entry.getValue()));
+            return copy;
+        }
+        if (node instanceof Collection) {
+            Collection<?> collection = (Collection<?>) node;
+            List<Object> copy = new ArrayList<Object>(collection.size());
+            for (Object o : collection)
+                copy.add(deepCopy(o));
+            return copy;
+        }
+        return node;
+    }
+
     public static Object getNode(Object rootConfigNode, String path) {
         try {
             return JXPathContext.newContext(rootConfigNode).getValue(path);
@@ -0,0 +1,273 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.DelegatingConfiguration;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * @author agent <agent@local>
+ */
+@RunWith(JUnit4.class)
+public class CopyOnWriteCachingConfigurationDecoratorTest {
+
+    private SingleJsonFileConfigurationStorage storage;
+    private CopyOnWriteCachingConfigurationDecorator cache;
+
+    @Before
+    public void setUp() throws ConfigurationException {
+        File file = new File("target/cow-cache-test.json");
+        file.delete();
+        storage = new SingleJsonFileConfigurationStorage(file.getPath());
+
+        Map<String, Object> root = new HashMap<String, Object>();
+        Map<String, Object> devices = new HashMap<String, Object>();
+        devices.put("dev1", device("dev1", 104));
+        devices.put("dev2", device("dev2", 105));
+        root.put("devices", devices);
+        root.put("global", new HashMap<String, Object>());
+        storage.persistNode("/", root, null);
+
+        cache = new CopyOnWriteCachingConfigurationDecorator(storage, new Hashtable<Object, Object>());
+    }
+
+    /**
+     * Fills in the nodes read with a configurable class, like the defaults filter does
+     */
+    private static class FillingConfiguration extends DelegatingConfiguration {
+
+        int rootReads;
+        int typedReads;
+
+        FillingConfiguration(Configuration delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Map<String, Object> getConfigurationRoot() throws ConfigurationException {
+            rootReads++;
+            return super.getConfigurationRoot();
+        }
+
+        @Override
+        public Object getConfigurationNode(String path, Class configurableClass) throws ConfigurationException {
+            Object node = super.getConfigurationNode(path, configurableClass);
+            if (configurableClass == null || node == null)
+                return node;
+
+            typedReads++;
+            Map<String, Object> filled = new HashMap<String, Object>((Map<String, Object>) node);
+            filled.put("filled", configurableClass.getSimpleName());
+            return filled;
+        }
+    }
+
+    private static Map<String, Object> device(String name, int port) {
+        Map<String, Object> device = new HashMap<String, Object>();
+        device.put("name", name);
+        device.put("port", port);
+        device.put("aets", new ArrayList<Object>(Arrays.asList(name.toUpperCase())));
+        return device;
+    }
+
+    @Test
+    public void testReadsAreServedFromSnapshot() throws ConfigurationException {
+        Object dev1 = cache.getConfigurationNode("/devices[@name='dev1']", null);
+        Assert.assertEquals(104, ((Map) dev1).get("port"));
+        Assert.assertSame(dev1, cache.getConfigurationNode("/devices[@name='dev1']", null));
+        Assert.assertTrue(cache.nodeExists("/devices/dev2"));
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(2, cache.getHitCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNodesAreImmutable() throws ConfigurationException {
+        Map<String, Object> dev1 = (Map<String, Object>) cache.getConfigurationNode("/devices[@name='dev1']", null);
+        ((List<Object>) dev1.get("aets")).add("OTHER");
+    }
+
+    @Test
+    public void testPersistSharesUnchangedNodes() throws ConfigurationException {
+        Map<String, Object> oldRoot = cache.getConfigurationRoot();
+        Object dev2 = cache.getConfigurationNode("/devices[@name='dev2']", null);
+
+        Map<String, Object> dev1 = device("dev1", 11112);
+        cache.persistNode("/devices[@name='dev1']", dev1, null);
+        dev1.put("port", 0);
+
+        Assert.assertEquals(11112, ((Map) cache.getConfigurationNode("/devices/dev1", null)).get("port"));
+        Assert.assertEquals(11112, ((Map) storage.getConfigurationNode("/devices/dev1", null)).get("port"));
+        Assert.assertSame(dev2, cache.getConfigurationNode("/devices[@name='dev2']", null));
+        Assert.assertSame(oldRoot.get("global"), cache.getConfigurationRoot().get("global"));
+
+        // the previous snapshot is not affected
+        Assert.assertEquals(104, ((Map) ((Map) oldRoot.get("devices")).get("dev1")).get("port"));
+    }
+
+    @Test
+    public void testRemoveNode() throws ConfigurationException {
+        cache.getConfigurationRoot();
+        cache.removeNode("/devices[@name='dev1']");
+        Assert.assertFalse(cache.nodeExists("/devices[@name='dev1']"));
+        Assert.assertFalse(storage.nodeExists("/devices[@name='dev1']"));
+        Assert.assertTrue(cache.nodeExists("/devices[@name='dev2']"));
+    }
+
+    @Test
+    public void testRefreshNode() throws ConfigurationException {
+        cache.getConfigurationRoot();
+        storage.persistNode("/devices[@name='dev3']", device("dev3", 106), null);
+        Assert.assertFalse(cache.nodeExists("/devices/dev3"));
+
+        cache.refreshNode("/devices[@name='dev3']");
+        Assert.assertTrue(cache.nodeExists("/devices/dev3"));
+        Assert.assertEquals(1, cache.getRefreshCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testSearch() throws ConfigurationException {
+        Iterator iterator = cache.search("/devices/*[port=105]/name");
+        Assert.assertEquals("dev2", iterator.next());
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testBatchIsPublishedOnCompletion() throws Exception {
+        final Map<String, Object> before = cache.getConfigurationRoot();
+        final Map<String, Object> inBatch = new HashMap<String, Object>();
+        cache.runBatch(new Configuration.ConfigBatch() {
+            @Override
+            public void run() {
+                try {
+                    cache.persistNode("/devices[@name='dev3']", device("dev3", 106), null);
+                    inBatch.put("self", cache.nodeExists("/devices/dev3"));
+
+                    Thread reader = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                inBatch.put("other", cache.getConfigurationRoot());
+                            } catch (ConfigurationException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    };
+                    reader.start();
+                    reader.join();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        Assert.assertEquals(Boolean.TRUE, inBatch.get("self"));
+        Assert.assertSame(before, inBatch.get("other"));
+        Assert.assertTrue(cache.nodeExists("/devices/dev3"));
+    }
+
+    @Test
+    public void testTypedReadsAreLoadedOnce() throws ConfigurationException {
+        FillingConfiguration filling = new FillingConfiguration(storage);
+        cache = new CopyOnWriteCachingConfigurationDecorator(filling, new Hashtable<Object, Object>());
+
+        Assert.assertNull(((Map) cache.getConfigurationNode("/devices[@name='dev1']", null)).get("filled"));
+        Map dev1 = (Map) cache.getConfigurationNode("/devices[@name='dev1']", Map.class);
+        Assert.assertEquals("Map", dev1.get("filled"));
+        Assert.assertSame(dev1, cache.getConfigurationNode("/devices[@name='dev1']", Map.class));
+        Assert.assertSame(dev1, cache.getConfigurationNode("/devices/dev1", null));
+        Assert.assertNull(((Map) cache.getConfigurationNode("/devices[@name='dev2']", null)).get("filled"));
+        Assert.assertEquals(1, filling.rootReads);
+        Assert.assertEquals(1, filling.typedReads);
+        Assert.assertEquals(2, cache.getMissCount());
+
+        // persisted nodes are read back the way they are read later
+        cache.persistNode("/devices[@name='dev2']", device("dev2", 11112), Map.class);
+        Map dev2 = (Map) cache.getConfigurationNode("/devices[@name='dev2']", Map.class);
+        Assert.assertEquals("Map", dev2.get("filled"));
+        Assert.assertEquals(11112, dev2.get("port"));
+        Assert.assertEquals(2, filling.typedReads);
+        Assert.assertSame(dev1, cache.getConfigurationNode("/devices[@name='dev1']", Map.class));
+    }
+
+    @Test
+    public void testOnlyTheStaleSubtreeIsRefreshed() throws Exception {
+        FillingConfiguration filling = new FillingConfiguration(storage);
+        cache = new CopyOnWriteCachingConfigurationDecorator(filling, new Hashtable<Object, Object>());
+        cache.staleTimeout = 50;
+
+        Map<String, Object> oldRoot = cache.getConfigurationRoot();
+        cache.getConfigurationNode("/devices[@name='dev1']", Map.class);
+        storage.persistNode("/devices[@name='dev1']", device("dev1", 11112), null);
+        storage.persistNode("/devices[@name='dev2']", device("dev2", 11113), null);
+        Assert.assertEquals(104, ((Map) cache.getConfigurationNode("/devices[@name='dev1']", Map.class)).get("port"));
+
+        Thread.sleep(100);
+        Map dev1 = (Map) cache.getConfigurationNode("/devices[@name='dev1']", Map.class);
+        Assert.assertEquals(11112, dev1.get("port"));
+        Assert.assertEquals("Map", dev1.get("filled"));
+        Assert.assertEquals(1, cache.getRefreshCount());
+        Assert.assertEquals(1, filling.rootReads);
+
+        // the other subtrees are kept until they are read
+        cache.staleTimeout = 0;
+        Map<String, Object> root = cache.getConfigurationRoot();
+        Assert.assertSame(oldRoot.get("global"), root.get("global"));
+        Assert.assertEquals(105, ((Map) ((Map) root.get("devices")).get("dev2")).get("port"));
+
+        // a search refreshes the subtree it looks into
+        cache.staleTimeout = 50;
+        Iterator iterator = cache.search("/devices/*[port=11113]/name");
+        Assert.assertEquals("dev2", iterator.next());
+        Assert.assertEquals(2, cache.getRefreshCount());
+        cache.staleTimeout = 0;
+        Assert.assertSame(oldRoot.get("global"), cache.getConfigurationRoot().get("global"));
+        Assert.assertEquals(1, filling.rootReads);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.core.storage;
+
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author agent <agent@local>
+ */
+@RunWith(JUnit4.class)
+public class SingleJsonFileConfigurationStorageTest {
+
+    private static final String FILE_NAME = "target/json-storage-test.json";
+
+    @Before
+    public void setUp() {
+        for (String suffix : new String[]{"", ".tmp", ".journal", ".journal.1"})
+            new File(FILE_NAME + suffix).delete();
+    }
+
+    private static Map<String, Object> node(String key, Object value) {
+        Map<String, Object> node = new HashMap<String, Object>();
+        node.put(key, value);
+        return node;
+    }
+
+    private static SingleJsonFileConfigurationStorage inMemoryStorage(long writeDelay, boolean journal) {
+        SingleJsonFileConfigurationStorage storage = new SingleJsonFileConfigurationStorage(FILE_NAME);
+        storage.setKeepInMemory(true);
+        storage.setWriteDelay(writeDelay);
+        storage.setJournalEnabled(journal);
+        return storage;
+    }
+
+    @Test
+    public void testInMemoryReturnsCopies() throws ConfigurationException {
+        SingleJsonFileConfigurationStorage storage = inMemoryStorage(0, false);
+        storage.persistNode("/", node("a", node("b", 1)), null);
+
+        Map<String, Object> a = (Map<String, Object>) storage.getConfigurationNode("/a", null);
+        a.put("b", 2);
+        Assert.assertEquals(1, storage.getConfigurationNode("/a/b", null));
+        Assert.assertEquals(1, new SingleJsonFileConfigurationStorage(FILE_NAME).getConfigurationNode("/a/b", null));
+        Assert.assertFalse(new File(FILE_NAME + ".tmp").exists());
+    }
+
+    @Test
+    public void testReloadOnExternalModification() throws Exception {
+        SingleJsonFileConfigurationStorage storage = inMemoryStorage(0, false);
+        storage.persistNode("/", node("a", 1), null);
+        Assert.assertEquals(1, storage.getConfigurationNode("/a", null));
+
+        SingleJsonFileConfigurationStorage other = new SingleJsonFileConfigurationStorage(FILE_NAME);
+        other.persistNode("/", node("a", 22), null);
+        // make sure the modification is detected even within the mtime granularity
+        new File(FILE_NAME).setLastModified(System.currentTimeMillis() + 2000);
+
+        Assert.assertEquals(22, storage.getConfigurationNode("/a", null));
+    }
+
+    @Test
+    public void testDelayedWritesAreCoalesced() throws ConfigurationException {
+        SingleJsonFileConfigurationStorage storage = inMemoryStorage(60000, false);
+        storage.persistNode("/", node("a", 0), null);
+        for (int i = 1; i <= 10; i++)
+            storage.persistNode("/b" + i, node("v", i), null);
+        storage.removeNode("/b10");
+
+        Assert.assertFalse(new File(FILE_NAME).exists());
+        Assert.assertEquals(9, storage.getConfigurationNode("/b9/v", null));
+
+        storage.close();
+        SingleJsonFileConfigurationStorage reader = new SingleJsonFileConfigurationStorage(FILE_NAME);
+        Assert.assertEquals(9, reader.getConfigurationNode("/b9/v", null));
+        Assert.assertFalse(reader.nodeExists("/b10"));
+    }
+
+    @Test
+    public void testJournalIsReplayed() throws ConfigurationException {
+        SingleJsonFileConfigurationStorage storage = inMemoryStorage(60000, true);
+        storage.persistNode("/", node("a", 0), null);
+        storage.flush();
+        storage.persistNode("/b", node("v", 1), null);
+        storage.persistNode("/c", node("v", 2), null);
+        storage.removeNode("/c");
+        Assert.assertTrue(new File(FILE_NAME + ".journal").exists());
+
+        // another instance, as after a restart without the file written
+        SingleJsonFileConfigurationStorage restarted = inMemoryStorage(0, false);
+        Assert.assertEquals(1, restarted.getConfigurationNode("/b/v", null));
+        Assert.assertFalse(restarted.nodeExists("/c"));
+        Assert.assertEquals(0, restarted.getConfigurationNode("/a", null));
+
+        // written to the file and the journal is discarded
+        Assert.assertFalse(new File(FILE_NAME + ".journal").exists());
+        Assert.assertEquals(1, new SingleJsonFileConfigurationStorage(FILE_NAME).getConfigurationNode("/b/v", null));
+    }
+
+    @Test
+    public void testFailedSynchronousWriteIsRolledBack() throws Exception {
+        SingleJsonFileConfigurationStorage storage = inMemoryStorage(0, false);
+        storage.persistNode("/", node("a", 1), null);
+
+        File tmp = new File(FILE_NAME + ".tmp");
+        Assert.assertTrue(tmp.mkdirs());
+        try {
+            storage.persistNode("/b", node("v", 1), null);
+            Assert.fail("ConfigurationException expected");
+        } catch (ConfigurationException expected) {
+        }
+        Assert.assertFalse(storage.nodeExists("/b"));
+        Assert.assertEquals(1, storage.getConfigurationNode("/a", null));
+
+        Assert.assertTrue(tmp.delete());
+        storage.persistNode("/b", node("v", 1), null);
+        Assert.assertEquals(1, new SingleJsonFileConfigurationStorage(FILE_NAME).getConfigurationNode("/b/v", null));
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() throws Exception {
+        // the temporary file cannot be created while there is a directory of its name
+        File tmp = new File(FILE_NAME + ".tmp");
+        Assert.assertTrue(tmp.mkdirs());
+
+        SingleJsonFileConfigurationStorage storage = inMemoryStorage(10, false);
+        storage.persistNode("/", node("a", 1), null);
+        Thread.sleep(200);
+        Assert.assertFalse(new File(FILE_NAME).exists());
+
+        Assert.assertTrue(tmp.delete());
+        for (int i = 0; i < 100 && !new File(FILE_NAME).exists(); i++)
+            Thread.sleep(100);
+        Assert.assertEquals(1, new SingleJsonFileConfigurationStorage(FILE_NAME).getConfigurationNode("/a", null));
+        storage.close();
+    }
+}
@@ -46,6 +46,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.dcm4che3.audit.EventID;
 import org.dcm4che3.audit.EventTypeCode;
@@ -57,7 +59,9 @@ import org.dcm4che3.conf.api.TCConfiguration;
 import org.dcm4che3.conf.api.TransferCapabilityConfigExtension;
 import org.dcm4che3.conf.api.internal.DicomConfigurationManager;
 import org.dcm4che3.conf.core.DefaultBeanVitalizer;
+import org.dcm4che3.conf.core.DelegatingConfiguration;
 import org.dcm4che3.conf.core.adapters.NullToNullDecorator;
+import org.dcm4che3.conf.core.api.ConfigChangeEvent;
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
 import org.dcm4che3.conf.core.api.Configuration;
@@ -123,10 +127,40 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
      */
     private final ThreadLocal<Map<String, Device>> currentlyLoadedDevicesLocal = new ThreadLocal<Map<String, Device>>();
 
+    /**
+     * Names of devices found by AE title, AE title alias, AE UUID, device UUID or HL7 application name, so
+     * subsequent lookups do not need to search the configuration tree. Searches which found no device are not
+     * indexed, so a device added by another instance is found. Cleared, together with the cache of vitalized
+     * devices, on any modification of the configuration - see {@link #invalidateCaches()}.
+     */
+    private final ConcurrentHashMap<String, String> deviceNameIndex = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Limits the number of indexed searches.
+     */
+    private static final int MAX_DEVICE_NAME_INDEX_SIZE = 10000;
+
+    private final ConcurrentHashMap<String, Device> cachedDevices = new ConcurrentHashMap<String, Device>();
+
+    /**
+     * Incremented on each invalidation, to avoid that lookups which started before an invalidation put stale
+     * entries into the index or the device cache.
+     */
+    private final AtomicLong cacheGeneration = new AtomicLong();
+
+    private volatile boolean deviceCacheEnabled;
+
+    private volatile boolean deviceNameIndexEnabled;
 
+    /**
+     * Configuration storage returned by {@link #getConfigurationStorage()}, which invalidates the caches on
+     * modifications of the configuration made through it.
+     */
+    private final Configuration invalidatingConfig;
 
     public CommonDicomConfiguration(Configuration configurationStorage, Map<Class, List<Class>> extensionsByClass) {
         this.config = configurationStorage;
+        this.invalidatingConfig = new CacheInvalidatingConfiguration(configurationStorage);
         this.extensionsByClass = extensionsByClass;
         this.vitalizer = new DefaultBeanVitalizer();
 
@@ -176,7 +210,11 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
 
     public boolean purgeConfiguration() throws ConfigurationException {
         if (!configurationExists()) return false;
-        config.persistNode(DicomPath.ConfigRoot.path(), new HashMap<String, Object>(), DicomConfigurationRootNode.class);
+        try {
+            config.persistNode(DicomPath.ConfigRoot.path(), new HashMap<String, Object>(), DicomConfigurationRootNode.class);
+        } finally {
+            invalidateCaches();
+        }
         return true;
     }
 
@@ -297,18 +335,15 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
 
         if (aet == null) throw new IllegalArgumentException("Requested AE's title cannot be null");
 
-        Iterator<?> search = config.search(DicomPath.DeviceNameByAEName.set("aeName", aet).path());
+        String deviceNameNode = findDeviceName(DicomPath.DeviceNameByAEName, "aeName", aet);
 
-        if (!search.hasNext()) {
-            search = config.search(DicomPath.DeviceNameByAENameAlias.set("aeNameAlias", aet).path());
+        if (deviceNameNode == null) {
+            deviceNameNode = findDeviceName(DicomPath.DeviceNameByAENameAlias, "aeNameAlias", aet);
 
-            if (!search.hasNext())
+            if (deviceNameNode == null)
                 throw new ConfigurationNotFoundException("AE '" + aet + "' not found");
         }
 
-        String deviceNameNode = (String) search.next();
-        if (search.hasNext())
-            LOG.warn("Application entity title '{}' is not unique. Check the configuration!", aet);
         Device device = findDevice(deviceNameNode);
 
         ApplicationEntity ae = device.getApplicationEntity(aet);
@@ -323,10 +358,11 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
 
         if (uuid == null) throw new IllegalArgumentException("Requested AE's uuid cannot be null");
 
-        Iterator search = config.search(DicomPath.DeviceNameByAEUUID.set("aeUUID", uuid).path());
-
         try {
-            String deviceNameNode = (String) search.next();
+            String deviceNameNode = findDeviceName(DicomPath.DeviceNameByAEUUID, "aeUUID", uuid);
+            if (deviceNameNode == null)
+                throw new NoSuchElementException();
+
             Device device = findDevice(deviceNameNode);
 
             for (ApplicationEntity applicationEntity : device.getApplicationEntities()) {
@@ -346,14 +382,101 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
     public Device findDeviceByUUID(String uuid) throws ConfigurationException {
         if (uuid == null) throw new IllegalArgumentException("Requested Device's uuid cannot be null");
 
-        Iterator search = config.search(DicomPath.DeviceNameByUUID.set("deviceUUID", uuid).path());
+        String deviceNameNode = findDeviceName(DicomPath.DeviceNameByUUID, "deviceUUID", uuid);
+        if (deviceNameNode == null)
+            throw new ConfigurationNotFoundException("Device with UUID '" + uuid + "' not found");
 
-        try {
-            String deviceNameNode = (String) search.next();
-            return findDevice(deviceNameNode);
-        } catch (NoSuchElementException e) {
-            throw new ConfigurationNotFoundException("Device with UUID '" + uuid + "' not found", e);
+        return findDevice(deviceNameNode);
+    }
+
+    /**
+     * Returns the name of the device found by the specified search, using the index of previous lookups.
+     *
+     * @param searchPath search for device names with one parameter
+     * @param paramName  name of the parameter
+     * @param value      value of the parameter
+     * @return the device name or null, if no device was found
+     * @throws ConfigurationException
+     */
+    protected String findDeviceName(DicomPath searchPath, String paramName, String value) throws ConfigurationException {
+        String key = searchPath.name() + ':' + value;
+        String deviceName = deviceNameIndexEnabled ? deviceNameIndex.get(key) : null;
+        if (deviceName != null)
+            return deviceName;
+
+        long generation = cacheGeneration.get();
+        Iterator<?> search = config.search(searchPath.set(paramName, value).path());
+        deviceName = search.hasNext() ? (String) search.next() : null;
+        if (deviceName != null && search.hasNext())
+            LOG.warn("{} '{}' is not unique. Check the configuration!", paramName, value);
+
+        if (deviceName != null && deviceNameIndexEnabled && deviceNameIndex.size() < MAX_DEVICE_NAME_INDEX_SIZE) {
+            deviceNameIndex.put(key, deviceName);
+            if (cacheGeneration.get() != generation)
+                deviceNameIndex.remove(key);
         }
+        return deviceName;
+    }
+
+    /**
+     * Indicates if vitalized devices are cached, so {@link #findDevice(String)} returns the same {@code Device}
+     * instance until the configuration is modified. Cached devices are shared by all callers and must therefore
+     * not be modified. Like the index of device names, the cache must only be enabled for a configuration
+     * modified by other instances together with an observer of {@link ConfigChangeEvent}s - see
+     * {@link #isDeviceNameIndexEnabled()}.
+     *
+     * @return {@code true} if vitalized devices are cached
+     */
+    public boolean isDeviceCacheEnabled() {
+        return deviceCacheEnabled;
+    }
+
+    public void setDeviceCacheEnabled(boolean deviceCacheEnabled) {
+        this.deviceCacheEnabled = deviceCacheEnabled;
+        if (!deviceCacheEnabled)
+            cachedDevices.clear();
+    }
+
+    /**
+     * Indicates if the names of devices found by AE title, AE title alias, AE UUID, device UUID or HL7 application
+     * name are indexed. Searches which found no device are not indexed. Disabled by default.
+     * <p/>
+     * The index is only cleared on modifications of the configuration by this instance, including modifications
+     * through {@link #getConfigurationStorage()}. If the configuration is shared with other instances, which may
+     * modify it, the index and the device cache must only be enabled together with an observer of
+     * {@link ConfigChangeEvent}s, which passes the events for changes made by other instances to
+     * {@link #onConfigChange(ConfigChangeEvent)}.
+     *
+     * @return {@code true} if found device names are indexed
+     */
+    public boolean isDeviceNameIndexEnabled() {
+        return deviceNameIndexEnabled;
+    }
+
+    public void setDeviceNameIndexEnabled(boolean deviceNameIndexEnabled) {
+        this.deviceNameIndexEnabled = deviceNameIndexEnabled;
+        if (!deviceNameIndexEnabled)
+            deviceNameIndex.clear();
+    }
+
+    /**
+     * Clears the index of device names and the cache of vitalized devices. Invoked on any modification of the
+     * configuration by this instance and on {@link ConfigChangeEvent}s - see {@link #isDeviceNameIndexEnabled()}.
+     */
+    public void invalidateCaches() {
+        cacheGeneration.incrementAndGet();
+        deviceNameIndex.clear();
+        cachedDevices.clear();
+    }
+
+    /**
+     * Observer method for changes of the configuration, which invalidates the index of device names and the cache
+     * of vitalized devices - see {@link #invalidateCaches()}.
+     *
+     * @param event notification about changes of the configuration, possibly made by another instance
+     */
+    public void onConfigChange(ConfigChangeEvent event) {
+        invalidateCaches();
     }
 
     @Override
@@ -375,8 +498,15 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
         if (deviceCache.containsKey(name))
             return deviceCache.get(name);
 
+        boolean useDeviceCache = doCleanUpCache && deviceCacheEnabled;
         try {
+            if (useDeviceCache) {
+                Device device = cachedDevices.get(name);
+                if (device != null)
+                    return device;
+            }
 
+            long generation = cacheGeneration.get();
             Device device;
             try {
                 Object deviceConfigurationNode = config.getConfigurationNode(deviceRef(name), Device.class);
@@ -386,6 +516,12 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
             }
 
             if (device == null) throw new ConfigurationNotFoundException("Device " + name + " not found");
+
+            if (useDeviceCache) {
+                cachedDevices.put(name, device);
+                if (cacheGeneration.get() != generation)
+                    cachedDevices.remove(name);
+            }
             return device;
 
         } finally {
@@ -453,7 +589,11 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
     public void merge(Device device) throws ConfigurationException {
         if (device.getDeviceName() == null) throw new ConfigurationException("The name of the device must not be null");
         Map<String, Object> configNode = createDeviceConfigNode(device);
-        config.persistNode(deviceRef(device.getDeviceName()), configNode, Device.class);
+        try {
+            config.persistNode(deviceRef(device.getDeviceName()), configNode, Device.class);
+        } finally {
+            invalidateCaches();
+        }
     }
 
     protected Map<String, Object> createDeviceConfigNode(Device device) throws ConfigurationException {
@@ -469,7 +609,11 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
 
     @Override
     public void removeDevice(String name) throws ConfigurationException {
-        config.removeNode(deviceRef(name));
+        try {
+            config.removeNode(deviceRef(name));
+        } finally {
+            invalidateCaches();
+        }
     }
 
 
@@ -500,7 +644,11 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
 
     @Override
     public void sync() throws ConfigurationException {
-        config.refreshNode(DicomPath.ConfigRoot.path());
+        try {
+            config.refreshNode(DicomPath.ConfigRoot.path());
+        } finally {
+            invalidateCaches();
+        }
     }
 
     @Override
@@ -518,15 +666,23 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
     }
 
 
+    /**
+     * Returns the configuration storage. Modifications of the configuration through the returned storage invalidate
+     * the index of device names and the cache of vitalized devices.
+     */
     @Override
     public Configuration getConfigurationStorage() {
-        return config;
+        return invalidatingConfig;
     }
 
     @Override
     public void persistTransferCapabilityConfig(TCConfiguration tcConfig) throws ConfigurationException {
         Map<String, Object> configNode = vitalizer.createConfigNodeFromInstance(tcConfig);
-        config.persistNode(DicomPath.TCGroups.path(), configNode, TCConfiguration.class);
+        try {
+            config.persistNode(DicomPath.TCGroups.path(), configNode, TCConfiguration.class);
+        } finally {
+            invalidateCaches();
+        }
     }
 
     @Override
@@ -546,15 +702,62 @@ public class CommonDicomConfiguration implements DicomConfigurationManager, Tran
         /*
          * Use the batch support of underlying configuration storage to execute batch
          */
-        config.runBatch(new ConfigBatch() {
+        try {
+            config.runBatch(new ConfigBatch() {
 
-            @Override
-            public void run() {
-                dicomConfigBatch.run();
+                @Override
+                public void run() {
+                    dicomConfigBatch.run();
+                }
+
+            });
+        } finally {
+            invalidateCaches();
+        }
+    }
+
+    private class CacheInvalidatingConfiguration extends DelegatingConfiguration {
+
+        CacheInvalidatingConfiguration(Configuration delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void persistNode(String path, Map<String, Object> configNode, Class configurableClass)
+                throws ConfigurationException {
+            try {
+                super.persistNode(path, configNode, configurableClass);
+            } finally {
+                invalidateCaches();
+            }
+        }
+
+        @Override
+        public void refreshNode(String path) throws ConfigurationException {
+            try {
+                super.refreshNode(path);
+            } finally {
+                invalidateCaches();
             }
-            
-        });
+        }
+
+        @Override
+        public void removeNode(String path) throws ConfigurationException {
+            try {
+                super.removeNode(path);
+            } finally {
+                invalidateCaches();
+            }
+        }
+
+        @Override
+        public void runBatch(ConfigBatch batch) {
+            try {
+                super.runBatch(batch);
+            } finally {
+                invalidateCaches();
+            }
+        }
     }
 
 }
-
@@ -95,11 +95,10 @@ public class CommonDicomConfigurationWithHL7 extends CommonDicomConfiguration im
 
     @Override
     public HL7Application findHL7Application(String name) throws ConfigurationException {
-        String pathForDeviceName = DicomPath.DeviceNameByHL7AppName.set("hl7AppName", name).path();
-
         try {
-            Iterator search = config.search(pathForDeviceName);
-            String deviceName = (String) search.next();
+            String deviceName = findDeviceName(DicomPath.DeviceNameByHL7AppName, "hl7AppName", name);
+            if (deviceName == null)
+                throw new NoSuchElementException();
 
             Device device = findDevice(deviceName);
 
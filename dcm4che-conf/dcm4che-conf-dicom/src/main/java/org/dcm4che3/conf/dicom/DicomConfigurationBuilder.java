@@ -41,6 +41,7 @@ package org.dcm4che3.conf.dicom;
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.Configuration;
 import org.dcm4che3.conf.core.normalization.DefaultsAndNullFilterDecorator;
+import org.dcm4che3.conf.core.storage.CopyOnWriteCachingConfigurationDecorator;
 import org.dcm4che3.conf.core.storage.SingleJsonFileConfigurationStorage;
 import org.dcm4che3.conf.dicom.ldap.LdapConfigurationStorage;
 import org.dcm4che3.conf.ConfigurationSettingsLoader;
@@ -64,6 +65,9 @@ public class DicomConfigurationBuilder {
 
     private Boolean cache;
     private Boolean persistDefaults;
+    private Boolean keepInMemory;
+    private Long writeDelay;
+    private Boolean journalEnabled;
     private Hashtable<?, ?> ldapProps = null;
     private Configuration configurationStorage = null;
     private Map<Class, List<Class>> extensionClassesMap = new HashMap<Class, List<Class>>();
@@ -130,6 +134,32 @@ public class DicomConfigurationBuilder {
         return this;
     }
 
+    /**
+     * Keep the JSON file configuration in memory - see {@link SingleJsonFileConfigurationStorage#setKeepInMemory}.
+     */
+    public DicomConfigurationBuilder keepInMemory(boolean keepInMemory) {
+        this.keepInMemory = keepInMemory;
+        return this;
+    }
+
+    /**
+     * Delay in ms of writes of the JSON file configuration - see
+     * {@link SingleJsonFileConfigurationStorage#setWriteDelay}.
+     */
+    public DicomConfigurationBuilder writeDelay(long writeDelay) {
+        this.writeDelay = writeDelay;
+        return this;
+    }
+
+    /**
+     * Journal changes of the JSON file configuration - see
+     * {@link SingleJsonFileConfigurationStorage#setJournalEnabled}.
+     */
+    public DicomConfigurationBuilder journalEnabled(boolean journalEnabled) {
+        this.journalEnabled = journalEnabled;
+        return this;
+    }
+
     public CommonDicomConfigurationWithHL7 build() throws ConfigurationException {
 
         List<Class> allExtensions = new ArrayList<Class>();
@@ -172,6 +202,18 @@ public class DicomConfigurationBuilder {
                 case JSON_FILE:
                     SingleJsonFileConfigurationStorage jsonConfigurationStorage = createJsonFileConfigurationStorage();
                     jsonConfigurationStorage.setFileName(SingleJsonFileConfigurationStorage.resolveConfigFileNameSetting(props));
+                    jsonConfigurationStorage.setKeepInMemory(keepInMemory != null
+                            ? keepInMemory
+                            : Boolean.valueOf(ConfigurationSettingsLoader.getPropertyWithNotice(
+                                    props, "org.dcm4che.conf.json.keepInMemory", "false")));
+                    jsonConfigurationStorage.setWriteDelay(writeDelay != null
+                            ? writeDelay
+                            : Long.parseLong(ConfigurationSettingsLoader.getPropertyWithNotice(
+                                    props, "org.dcm4che.conf.json.writeDelay", "0")));
+                    jsonConfigurationStorage.setJournalEnabled(journalEnabled != null
+                            ? journalEnabled
+                            : Boolean.valueOf(ConfigurationSettingsLoader.getPropertyWithNotice(
+                                    props, "org.dcm4che.conf.json.journal", "false")));
                     configurationStorage = jsonConfigurationStorage;
                     break;
                 case LDAP:
@@ -181,6 +223,8 @@ public class DicomConfigurationBuilder {
                     LdapConfigurationStorage ldapConfigurationStorage = createLdapConfigurationStorage();
                     ldapConfigurationStorage.setEnvironment(ldapProps);
                     ldapConfigurationStorage.setExtensions(allExtensions);
+                    ldapConfigurationStorage.setPrefetchSubtree(Boolean.valueOf(ConfigurationSettingsLoader.getPropertyWithNotice(
+                            props, "org.dcm4che.conf.ldap.prefetchSubtree", "false")));
 
                     configurationStorage = ldapConfigurationStorage;
 
@@ -198,6 +242,13 @@ public class DicomConfigurationBuilder {
                         : Boolean.valueOf(ConfigurationSettingsLoader.getPropertyWithNotice(props, "org.dcm4che.conf.persistDefaults", "false")),
                 allExtensions);
 
+        // the cache is placed on top of the defaults filter, so the cached nodes already have the defaults filled in
+        boolean cached = cache != null
+                ? cache
+                : Boolean.valueOf(ConfigurationSettingsLoader.getPropertyWithNotice(props, "org.dcm4che.conf.cached", "false"));
+        if (cached)
+            configurationStorage = new CopyOnWriteCachingConfigurationDecorator(configurationStorage, props);
+
         return configurationStorage;
     }
 
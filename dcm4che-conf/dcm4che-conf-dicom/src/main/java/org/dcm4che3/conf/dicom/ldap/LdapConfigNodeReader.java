@@ -54,6 +54,7 @@ import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -64,11 +65,22 @@ import java.util.Map;
  */
 public class LdapConfigNodeReader {
     static Object readNode(LdapConfigurationStorage ldapConfigurationStorage, String dn, Class configurableClass) throws ConfigurationException, NamingException {
+        return readNode(ldapConfigurationStorage, null, dn, configurableClass);
+    }
+
+    /**
+     * Reads the node, taking the entries from the prefetched subtree, if not null, instead of querying the server
+     * for every entry within that subtree.
+     */
+    static Object readNode(LdapConfigurationStorage ldapConfigurationStorage, LdapSubtree prefetched, String dn, Class configurableClass) throws ConfigurationException, NamingException {
         ArrayList<String> objectClasses = LdapConfigUtils.extractObjectClasses(configurableClass);
 
         Attributes attributes;
         try {
-            attributes = ldapConfigurationStorage.getLdapCtx().getAttributes(dn);
+            LdapName name = prefetched != null ? prefetched.nameInSubtree(dn) : null;
+            attributes = name != null
+                    ? prefetched.getAttributes(name)
+                    : ldapConfigurationStorage.getLdapCtx().getAttributes(dn);
         } catch (NameNotFoundException noname) {
             // node is not there at all
             return null;
@@ -93,7 +105,7 @@ public class LdapConfigNodeReader {
 
                 Map<String, Object> map = new HashMap<String, Object>();
                 try {
-                    NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, subDn, property);
+                    NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, prefetched, subDn, property);
                     while (enumeration.hasMore()) {
                         isAnyContents = true;
 
@@ -112,7 +124,7 @@ public class LdapConfigNodeReader {
 
                             map.put(key, value);
                         } else {
-                            Object value = readNode(ldapConfigurationStorage, res.getName() + "," + subDn, property.getPseudoPropertyForConfigClassCollectionElement().getRawClass());
+                            Object value = readNode(ldapConfigurationStorage, prefetched, res.getName() + "," + subDn, property.getPseudoPropertyForConfigClassCollectionElement().getRawClass());
                             map.put(key, value);
                         }
                     }
@@ -128,15 +140,16 @@ public class LdapConfigNodeReader {
             if (property.isConfObject()) {
 
                 if (property.getAnnotation(ConfigurableProperty.class).isReference()) {
-                    if (attributes != null) {
+                    Attribute attribute = attributes != null ? attributes.get(LdapConfigUtils.getLDAPPropertyName(property)) : null;
+                    if (attribute != null) {
                         isAnyContents = true;
-                        Object value = attributes.get(LdapConfigUtils.getLDAPPropertyName(property)).get();
+                        Object value = attribute.get();
                         value = LdapConfigUtils.ldapDnToRef((String) value, property, ldapConfigurationStorage);
                         configNode.put(property.getAnnotatedName(), value);
                     }
                 } else {
                     String subDn = LdapConfigUtils.getSubDn(dn, property);
-                    Object value = readNode(ldapConfigurationStorage, subDn, property.getRawClass());
+                    Object value = readNode(ldapConfigurationStorage, prefetched, subDn, property.getRawClass());
                     if (value != null) isAnyContents = true;
                     configNode.put(property.getAnnotatedName(), value);
                 }
@@ -153,12 +166,12 @@ public class LdapConfigNodeReader {
                 String subDn = LdapConfigUtils.getSubDn(dn, property);
 
                 try {
-                    NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, subDn, property);
+                    NamingEnumeration<SearchResult> enumeration = LdapConfigUtils.searchForCollectionElements(ldapConfigurationStorage, prefetched, subDn, property);
                     ArrayList<Object> list = new ArrayList<Object>();
                     while (enumeration.hasMore()) {
                         isAnyContents = true;
                         SearchResult next = enumeration.next();
-                        list.add(readNode(ldapConfigurationStorage, next.getName() + "," + dn, elemClass));
+                        list.add(readNode(ldapConfigurationStorage, prefetched, next.getName() + "," + dn, elemClass));
                     }
                     configNode.put(property.getAnnotatedName(), list);
                 } catch (NameNotFoundException e) {
@@ -217,11 +230,11 @@ public class LdapConfigNodeReader {
         }
 
         if (configurableClass.equals(Device.class)) {
-            ldapConfigurationStorage.fillExtension(dn, configNode, "deviceExtensions");
+            ldapConfigurationStorage.fillExtension(prefetched, dn, configNode, "deviceExtensions");
         } else if (configurableClass.equals(ApplicationEntity.class)) {
-            ldapConfigurationStorage.fillExtension(dn, configNode, "aeExtensions");
+            ldapConfigurationStorage.fillExtension(prefetched, dn, configNode, "aeExtensions");
         } else if (configurableClass.equals(HL7Application.class)) {
-            ldapConfigurationStorage.fillExtension(dn, configNode, "hl7AppExtensions");
+            ldapConfigurationStorage.fillExtension(prefetched, dn, configNode, "hl7AppExtensions");
         }
 
         if (!isAnyContents) return null;
@@ -390,6 +390,14 @@ public class LdapConfigUtils {
     }
 
     protected static NamingEnumeration<SearchResult> searchForCollectionElements(LdapConfigurationStorage ldapConfigurationStorage, String dn, AnnotatedConfigurableProperty property) throws NamingException, ConfigurationException {
+        return searchForCollectionElements(ldapConfigurationStorage, null, dn, property);
+    }
+
+    /**
+     * Same as {@link #searchForCollectionElements(LdapConfigurationStorage, String, AnnotatedConfigurableProperty)},
+     * but looks up the elements in the prefetched subtree when dn is part of it.
+     */
+    static NamingEnumeration<SearchResult> searchForCollectionElements(LdapConfigurationStorage ldapConfigurationStorage, LdapSubtree prefetched, String dn, AnnotatedConfigurableProperty property) throws NamingException, ConfigurationException {
         NamingEnumeration<SearchResult> enumeration;
         AnnotatedConfigurableProperty elemProperty = property.getPseudoPropertyForConfigClassCollectionElement();
 
@@ -401,7 +409,11 @@ public class LdapConfigUtils {
             childObjClass = extractObjectClasses(elemProperty.getRawClass()).get(0);
 
         try {
-            enumeration = searchSubcontextWithClass(ldapConfigurationStorage, childObjClass, dn);
+            LdapName name = prefetched != null ? prefetched.nameInSubtree(dn) : null;
+            if (name != null)
+                enumeration = prefetched.searchChildren(name, childObjClass);
+            else
+                enumeration = searchSubcontextWithClass(ldapConfigurationStorage, childObjClass, dn);
         } catch (IndexOutOfBoundsException e) {
             throw new ConfigurationException("No object class defined for class " + elemProperty.getRawClass(), e);
         }
@@ -57,6 +57,8 @@ import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 
@@ -73,7 +75,12 @@ public class LdapConfigurationStorage implements Configuration {
 
     private String baseDN;
     private InitialDirContext ldapCtx;
+    /**
+     * The same context as {@link #ldapCtx}, used to create the contexts with the request controls for paged searches
+     */
+    private LdapContext ldapContext;
     private List<Class> allExtensionClasses;
+    private boolean prefetchSubtree;
 
     public static Hashtable<String, String> collectLDAPProps(Hashtable<?, ?> props) {
         Hashtable<String, String> ldapStringProps = new Hashtable<String, String>();
@@ -107,6 +114,25 @@ public class LdapConfigurationStorage implements Configuration {
         setExtensions(allExtensionClasses);
     }
     
+    public boolean isPrefetchSubtree() {
+        return prefetchSubtree;
+    }
+
+    /**
+     * If enabled, the whole subtree of a requested node is fetched with a single search and the node is
+     * assembled from the fetched entries. Otherwise each entry and each collection is queried separately.
+     * <p/>
+     * Disabled by default; {@link org.dcm4che3.conf.dicom.DicomConfigurationBuilder} enables it by the property
+     * {@code org.dcm4che.conf.ldap.prefetchSubtree=true}. The search is paged, so the server has to support the
+     * paged results control (RFC 2696) to return subtrees exceeding its size limit. There is no fallback to the
+     * separate queries: if the size limit is exceeded, reading the node fails.
+     *
+     * @param prefetchSubtree
+     */
+    public void setPrefetchSubtree(boolean prefetchSubtree) {
+        this.prefetchSubtree = prefetchSubtree;
+    }
+
     public void setExtensions(List<Class> allExtensionClasses) {
         this.allExtensionClasses = allExtensionClasses;
     }
@@ -120,7 +146,9 @@ public class LdapConfigurationStorage implements Configuration {
             this.baseDN = e.substring(end + 1);
             // TODO: what happens when LDAP goes down and up again while app is
             // running?
-            this.ldapCtx = new InitialDirContext(env_);
+            InitialLdapContext ctx = new InitialLdapContext(env_, null);
+            this.ldapCtx = ctx;
+            this.ldapContext = ctx;
         } catch (Exception e) {
             throw new ConfigurationException(e);
         }
@@ -166,13 +194,25 @@ public class LdapConfigurationStorage implements Configuration {
         String dn = LdapConfigUtils.refToLdapDN(path, this);
 
         try {
-            return LdapConfigNodeReader.readNode(this, dn, configurableClass);
+            LdapSubtree prefetched = null;
+            if (prefetchSubtree) {
+                try {
+                    prefetched = LdapSubtree.fetch(this, dn);
+                } catch (NameNotFoundException e) {
+                    return null;
+                }
+            }
+            return LdapConfigNodeReader.readNode(this, prefetched, dn, configurableClass);
         } catch (NamingException e) {
             throw new ConfigurationException("Cannot read node from ldap :" + path, e);
         }
     }
 
     public void fillExtension(String dn, Map<String, Object> map, String extensionLabel) throws NamingException, ConfigurationException {
+        fillExtension(null, dn, map, extensionLabel);
+    }
+
+    void fillExtension(LdapSubtree prefetched, String dn, Map<String, Object> map, String extensionLabel) throws NamingException, ConfigurationException {
         HashMap<String, Object> exts = new HashMap<String, Object>();
         map.put(extensionLabel, exts);
 
@@ -186,7 +226,7 @@ public class LdapConfigurationStorage implements Configuration {
             else
                 subDn = dn;
 
-            Map ext = (Map) LdapConfigNodeReader.readNode(this, subDn, aClass);
+            Map ext = (Map) LdapConfigNodeReader.readNode(this, prefetched, subDn, aClass);
             if (ext == null || ext.isEmpty()) continue;
 
             exts.put(aClass.getSimpleName(), ext);
@@ -428,6 +468,10 @@ public class LdapConfigurationStorage implements Configuration {
         return ldapCtx;
     }
 
+    LdapContext getLdapContext() {
+        return ldapContext;
+    }
+
     @Override
     public void runBatch(ConfigBatch batch) {
         batch.run();
@@ -0,0 +1,231 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2014
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.dicom.ldap;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Entries of an LDAP subtree, fetched with a single (paged) SUBTREE_SCOPE search, so that a configuration node can be
+ * read without a round trip to the server per entry and per collection.
+ *
+ * @author agent <agent@local>
+ */
+class LdapSubtree {
+
+    static final int PAGE_SIZE = 500;
+
+    private final LdapName base;
+    private final Map<LdapName, Attributes> entries = new HashMap<LdapName, Attributes>();
+    private final Map<LdapName, List<LdapName>> children = new HashMap<LdapName, List<LdapName>>();
+
+    private LdapSubtree(LdapName base) {
+        this.base = base;
+    }
+
+    /**
+     * Fetches all the entries under (and including) the base dn. The search is paged with a {@link PagedResultsControl},
+     * so that the size limit of the server does not apply to the whole subtree.
+     *
+     * @throws NameNotFoundException if the base entry does not exist
+     */
+    static LdapSubtree fetch(LdapConfigurationStorage ldapConfigurationStorage, String baseDn) throws NamingException {
+        LdapSubtree subtree = new LdapSubtree(new LdapName(baseDn));
+
+        SearchControls ctls = new SearchControls();
+        ctls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        ctls.setReturningObjFlag(false);
+
+        // own context instance, so that the request controls do not affect concurrent operations
+        LdapContext ctx = ldapConfigurationStorage.getLdapContext().newInstance(
+                new Control[]{pagedResultsControl(null, Control.NONCRITICAL)});
+        try {
+            byte[] cookie;
+            do {
+                NamingEnumeration<SearchResult> ne = ctx.search(baseDn, "(objectclass=*)", ctls);
+                try {
+                    while (ne.hasMore()) {
+                        SearchResult sr = ne.next();
+                        subtree.add(new LdapName(sr.getNameInNamespace()), sr.getAttributes());
+                    }
+                } finally {
+                    ne.close();
+                }
+                cookie = cookieOf(ctx.getResponseControls());
+                if (cookie != null)
+                    ctx.setRequestControls(new Control[]{pagedResultsControl(cookie, Control.CRITICAL)});
+            } while (cookie != null);
+        } finally {
+            ctx.close();
+        }
+        return subtree;
+    }
+
+    private static PagedResultsControl pagedResultsControl(byte[] cookie, boolean criticality) throws NamingException {
+        try {
+            return new PagedResultsControl(PAGE_SIZE, cookie, criticality);
+        } catch (IOException e) {
+            NamingException ne = new NamingException("Cannot encode paged results control");
+            ne.setRootCause(e);
+            throw ne;
+        }
+    }
+
+    /**
+     * @return the cookie for the next page, or null if this was the last page or the server does not support paging
+     */
+    private static byte[] cookieOf(Control[] controls) {
+        if (controls != null)
+            for (Control control : controls)
+                if (control instanceof PagedResultsResponseControl) {
+                    byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+                    return cookie != null && cookie.length > 0 ? cookie : null;
+                }
+        return null;
+    }
+
+    private void add(LdapName name, Attributes attributes) {
+        entries.put(name, attributes);
+        if (name.size() > base.size()) {
+            LdapName parent = (LdapName) name.getPrefix(name.size() - 1);
+            List<LdapName> list = children.get(parent);
+            if (list == null)
+                children.put(parent, list = new ArrayList<LdapName>());
+            list.add(name);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the parsed dn, if it lies within this subtree, null otherwise
+     */
+    LdapName nameInSubtree(String dn) throws NamingException {
+        LdapName name = new LdapName(dn);
+        return name.startsWith(base) ? name : null;
+    }
+
+    Attributes getAttributes(LdapName name) throws NameNotFoundException {
+        Attributes attributes = entries.get(name);
+        if (attributes == null)
+            throw new NameNotFoundException(name.toString());
+        return attributes;
+    }
+
+    /**
+     * Equivalent of a ONELEVEL_SCOPE search with filter (objectclass=childObjClass).
+     * The names of the results are relative to the parent entry.
+     */
+    NamingEnumeration<SearchResult> searchChildren(LdapName parent, String childObjClass) throws NamingException {
+        if (!entries.containsKey(parent))
+            throw new NameNotFoundException(parent.toString());
+
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        List<LdapName> names = children.get(parent);
+        if (names != null)
+            for (LdapName name : names) {
+                Attributes attributes = entries.get(name);
+                if (hasObjectClass(attributes, childObjClass)) {
+                    SearchResult sr = new SearchResult(name.getRdn(name.size() - 1).toString(), null, attributes, true);
+                    sr.setNameInNamespace(name.toString());
+                    results.add(sr);
+                }
+            }
+        return new SearchResults(results.iterator());
+    }
+
+    private static boolean hasObjectClass(Attributes attributes, String objectClass) throws NamingException {
+        Attribute attribute = attributes.get("objectClass");
+        if (attribute == null)
+            return false;
+
+        NamingEnumeration<?> values = attribute.getAll();
+        while (values.hasMore())
+            if (objectClass.equalsIgnoreCase((String) values.next()))
+                return true;
+        return false;
+    }
+
+    private static class SearchResults implements NamingEnumeration<SearchResult> {
+        private final Iterator<SearchResult> iterator;
+
+        SearchResults(Iterator<SearchResult> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public SearchResult next() {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SearchResult nextElement() {
+            return iterator.next();
+        }
+    }
+}
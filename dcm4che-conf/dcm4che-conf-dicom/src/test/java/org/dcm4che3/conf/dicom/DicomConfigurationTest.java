@@ -41,7 +41,11 @@
 package org.dcm4che3.conf.dicom;
 
 import org.dcm4che3.conf.api.ConfigurationNotFoundException;
+import org.dcm4che3.conf.core.DelegatingConfiguration;
+import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.api.ConfigChangeEvent;
 import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.core.storage.SingleJsonFileConfigurationStorage;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.Device;
@@ -51,7 +55,12 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Roman K
@@ -129,6 +138,166 @@ public class DicomConfigurationTest {
         }
     }
 
+    @Test
+    public void testFindApplicationEntityAfterMerge() throws ConfigurationException {
+        CommonDicomConfigurationWithHL7 config = SimpleStorageTest.createCommonDicomConfiguration();
+
+        config.purgeConfiguration();
+
+        Device device = new Device("IndexTestDevice");
+        ApplicationEntity ae = new ApplicationEntity("INDEX_AE1");
+        device.addApplicationEntity(ae);
+        config.persist(device);
+
+        Assert.assertEquals("IndexTestDevice",
+                config.findApplicationEntity("INDEX_AE1").getDevice().getDeviceName());
+
+        // the device name found by AE title must not be used anymore after a merge
+        ae.setAETitle("INDEX_AE2");
+        config.merge(device);
+
+        Assert.assertEquals("INDEX_AE2", config.findApplicationEntity("INDEX_AE2").getAETitle());
+        try {
+            config.findApplicationEntity("INDEX_AE1");
+            Assert.fail("An AE should have not been found");
+        } catch (ConfigurationNotFoundException e) {
+            // noop
+        }
+    }
+
+    @Test
+    public void testDeviceCache() throws ConfigurationException {
+        CommonDicomConfigurationWithHL7 config = SimpleStorageTest.createCommonDicomConfiguration();
+
+        config.purgeConfiguration();
+        config.persist(new Device("CacheTestDevice"));
+
+        Assert.assertNotSame(config.findDevice("CacheTestDevice"), config.findDevice("CacheTestDevice"));
+
+        config.setDeviceCacheEnabled(true);
+        Device device = config.findDevice("CacheTestDevice");
+        Assert.assertSame(device, config.findDevice("CacheTestDevice"));
+
+        config.merge(new Device("CacheTestDevice"));
+        Assert.assertNotSame(device, config.findDevice("CacheTestDevice"));
+    }
+
+    @Test
+    public void testDeviceNameIndex() throws ConfigurationException {
+        final AtomicInteger searches = new AtomicInteger();
+        DicomConfigurationBuilder builder = DicomConfigurationBuilder.newJsonConfigurationBuilder(
+                "target/config-index.json");
+        builder.registerCustomConfigurationStorage(new DelegatingConfiguration(
+                new SingleJsonFileConfigurationStorage("target/config-index.json")) {
+            @Override
+            public Iterator search(String liteXPathExpression) throws ConfigurationException {
+                searches.incrementAndGet();
+                return super.search(liteXPathExpression);
+            }
+        });
+        final CommonDicomConfigurationWithHL7 config = builder.build();
+        config.purgeConfiguration();
+        Assert.assertFalse(config.isDeviceNameIndexEnabled());
+        config.setDeviceNameIndexEnabled(true);
+
+        Device device = new Device("IndexTestDevice");
+        ApplicationEntity ae = new ApplicationEntity("INDEX_AE");
+        ae.setAETitleAliases(Arrays.asList("INDEX_ALIAS"));
+        device.addApplicationEntity(ae);
+        config.persist(device);
+
+        // found by alias only, so only the search by AE title is repeated
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_ALIAS").getAETitle());
+        int n = searches.get();
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_ALIAS").getAETitle());
+        Assert.assertEquals(n + 1, searches.get());
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_AE").getAETitle());
+        n = searches.get();
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_AE").getAETitle());
+        Assert.assertEquals(n, searches.get());
+
+        // searches which found no device are not indexed
+        assertAENotFound(config, "INDEX_UNKNOWN");
+        n = searches.get();
+        assertAENotFound(config, "INDEX_UNKNOWN");
+        Assert.assertTrue(searches.get() > n);
+
+        // the not found AE title must be found after it was persisted
+        Device device2 = new Device("IndexTestDevice2");
+        device2.addApplicationEntity(new ApplicationEntity("INDEX_UNKNOWN"));
+        config.persist(device2);
+        Assert.assertEquals("IndexTestDevice2",
+                config.findApplicationEntity("INDEX_UNKNOWN").getDevice().getDeviceName());
+
+        // modifications through the configuration storage invalidate the index
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_AE").getAETitle());
+        n = searches.get();
+        config.getConfigurationStorage().removeNode(config.deviceRef("IndexTestDevice2"));
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_AE").getAETitle());
+        Assert.assertEquals(n + 1, searches.get());
+        assertAENotFound(config, "INDEX_UNKNOWN");
+
+        // as well as changes notified by other instances
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_AE").getAETitle());
+        n = searches.get();
+        config.onConfigChange(new ConfigChangeEvent() {
+            @Override
+            public CONTEXT getContext() {
+                return CONTEXT.CONFIG_CHANGE;
+            }
+
+            @Override
+            public List<String> getChangedPaths() {
+                return Collections.singletonList(config.deviceRef("IndexTestDevice"));
+            }
+        });
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_AE").getAETitle());
+        Assert.assertEquals(n + 1, searches.get());
+
+        config.setDeviceNameIndexEnabled(false);
+        n = searches.get();
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_ALIAS").getAETitle());
+        Assert.assertEquals("INDEX_AE", config.findApplicationEntity("INDEX_ALIAS").getAETitle());
+        Assert.assertEquals(n + 4, searches.get());
+    }
+
+    @Test
+    public void testBuilderCache() throws ConfigurationException {
+        String fileName = "target/config-cache.json";
+        Configuration cached = DicomConfigurationBuilder.newJsonConfigurationBuilder(fileName)
+                .cache(true).build().getConfigurationStorage();
+        Configuration uncached = DicomConfigurationBuilder.newJsonConfigurationBuilder(fileName)
+                .cache(false).build().getConfigurationStorage();
+
+        cached.persistNode("/", new HashMap<String, Object>(), null);
+        Assert.assertFalse(cached.nodeExists("/p1"));
+
+        // modify the file bypassing the cache
+        new SingleJsonFileConfigurationStorage(fileName).persistNode("/p1", new HashMap<String, Object>(), null);
+
+        Assert.assertTrue(uncached.nodeExists("/p1"));
+        Assert.assertFalse(cached.nodeExists("/p1"));
+        cached.refreshNode("/");
+        Assert.assertTrue(cached.nodeExists("/p1"));
+
+        // defaults are filled into copies of the cached nodes
+        CommonDicomConfigurationWithHL7 config = DicomConfigurationBuilder.newJsonConfigurationBuilder(fileName)
+                .cache(true).build();
+        config.persist(createDevice("CachedDevice"));
+        Device device = config.findDevice("CachedDevice");
+        Assert.assertEquals(1, device.getApplicationEntity("aet1").getConnections().size());
+    }
+
+    private static void assertAENotFound(CommonDicomConfiguration config, String aet)
+            throws ConfigurationException {
+        try {
+            config.findApplicationEntity(aet);
+            Assert.fail("An AE should have not been found");
+        } catch (ConfigurationNotFoundException e) {
+            // noop
+        }
+    }
+
     private Device createDevice(String aeRenameTestDevice) {
         Device testDevice = new Device(aeRenameTestDevice);
         Connection connection = new Connection();
@@ -54,13 +54,12 @@ public class SearchTest {
 
     @Test
     public void searchTest() throws ConfigurationException {
-        Configuration storage;
         if (System.getProperty("org.dcm4che.conf.storage") == null) {
-            storage = SimpleStorageTest.getMockDicomConfStorage();
+            searchTestForStorage(SimpleStorageTest.getMockDicomConfStorage(false));
+            searchTestForStorage(SimpleStorageTest.getMockDicomConfStorage(true));
         } else {
-            storage = SimpleStorageTest.getConfigurationStorage();
+            searchTestForStorage(SimpleStorageTest.getConfigurationStorage());
         }
-        searchTestForStorage(storage);
     }
 
 
@@ -41,6 +41,7 @@ package org.dcm4che3.conf.dicom;
 
 import org.dcm4che3.conf.core.api.ConfigurationException;
 import org.dcm4che3.conf.core.api.Configuration;
+import org.dcm4che3.conf.core.storage.CopyOnWriteCachingConfigurationDecorator;
 import org.dcm4che3.conf.core.storage.SimpleCachingConfigurationDecorator;
 import org.dcm4che3.conf.core.storage.SingleJsonFileConfigurationStorage;
 import org.dcm4che3.conf.dicom.configclasses.SomeDeviceExtension;
@@ -90,6 +91,16 @@ public class SimpleStorageTest {
         return new SimpleCachingConfigurationDecorator(storage);
     }
 
+    @SuppressWarnings("deprecation")
+    public static Configuration getMockDicomConfStorage(boolean copyOnWrite) {
+        URL resource = Thread.currentThread().getContextClassLoader().getResource("mockConfig.json");
+        String path = resource.getPath();
+        SingleJsonFileConfigurationStorage storage = new SingleJsonFileConfigurationStorage(path);
+        return copyOnWrite
+                ? new CopyOnWriteCachingConfigurationDecorator(storage)
+                : new SimpleCachingConfigurationDecorator(storage);
+    }
+
     @Test
     public void testSave() throws ConfigurationException {
         Configuration xCfg = getConfigurationStorage();
@@ -158,4 +169,55 @@ public class SimpleStorageTest {
         Assert.assertEquals(xCfg.search("/dicomConfigurationRoot/dicomDevicesRoot/device1/_prop").next().toString(),"hey");
 
     }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSimpleCachingDecoratorEqualsPlainStorage() throws ConfigurationException {
+        assertEqualsPlainStorage(new SimpleCachingConfigurationDecorator(
+                new SingleJsonFileConfigurationStorage("target/config-simple-cache.json")));
+    }
+
+    @Test
+    public void testCopyOnWriteCachingDecoratorEqualsPlainStorage() throws ConfigurationException {
+        assertEqualsPlainStorage(new CopyOnWriteCachingConfigurationDecorator(
+                new SingleJsonFileConfigurationStorage("target/config-cow-cache.json")));
+    }
+
+    /**
+     * Applies the same modifications to the decorated and to a plain JSON file storage and checks that both
+     * return the same nodes.
+     */
+    private static void assertEqualsPlainStorage(Configuration decorated) throws ConfigurationException {
+        Configuration plain = new SingleJsonFileConfigurationStorage("target/config-plain.json");
+
+        Map<String, Object> p1 = new HashMap<String, Object>();
+        p1.put("prop1", 56);
+        p1.put("prop2", "I am cool");
+
+        Map<String, Object> p2 = new HashMap<String, Object>();
+        p2.put("prop1", true);
+        p2.put("prop2", Arrays.asList(1, 2, 3));
+
+        Map<String, Object> p3 = new HashMap<String, Object>();
+        p3.put("p1", p1);
+        p3.put("p2", p2);
+
+        for (Configuration cfg : Arrays.asList(plain, decorated)) {
+            cfg.persistNode("/", p3, null);
+            // fill the cache before modifying the nodes
+            cfg.getConfigurationNode("/p2", null);
+            cfg.persistNode("/p2/newProp", p1, null);
+            cfg.removeNode("/p2/prop1");
+        }
+
+        DeepEqualsDiffer.assertDeepEquals("Decorated root must be equal to the plain one",
+                plain.getConfigurationNode("/", null), decorated.getConfigurationNode("/", null));
+        DeepEqualsDiffer.assertDeepEquals("Decorated node must be equal to the plain one",
+                plain.getConfigurationNode("/p2", null), decorated.getConfigurationNode("/p2", null));
+        Assert.assertEquals(plain.nodeExists("/p2/prop1"), decorated.nodeExists("/p2/prop1"));
+        Assert.assertEquals(plain.nodeExists("/p2/newProp"), decorated.nodeExists("/p2/newProp"));
+        DeepEqualsDiffer.assertDeepEquals("Search must find the same node",
+                plain.search("/*[contains(prop2,'I am ')]").next(),
+                decorated.search("/*[contains(prop2,'I am ')]").next());
+    }
 }
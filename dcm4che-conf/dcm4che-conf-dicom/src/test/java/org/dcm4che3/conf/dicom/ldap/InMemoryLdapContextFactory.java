@@ -0,0 +1,439 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2015
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.dicom.ldap;
+
+import javax.naming.Context;
+import javax.naming.ContextNotEmptyException;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.Rdn;
+import javax.naming.spi.InitialContextFactory;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Provides contexts on an in-memory {@link Directory}, which is passed in the environment with the
+ * {@link #DIRECTORY} key. Supports the subset of the LDAP operations used by {@link LdapConfigurationStorage},
+ * including the paged results control.
+ *
+ * @author agent <agent@local>
+ */
+public class InMemoryLdapContextFactory implements InitialContextFactory {
+
+    public static final String DIRECTORY = "org.dcm4che3.conf.dicom.ldap.directory";
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+        Directory directory = (Directory) environment.get(DIRECTORY);
+        if (directory == null)
+            throw new NamingException("No " + DIRECTORY + " in the environment");
+        return directory.newContext(null);
+    }
+
+    public static class Directory {
+
+        private final Map<LdapName, Attributes> entries = new TreeMap<LdapName, Attributes>();
+        private final int maxPageSize;
+        private int pagedSearches;
+
+        /**
+         * @param maxPageSize the maximal number of entries returned for a page, even if the client asks for more
+         */
+        public Directory(int maxPageSize) {
+            this.maxPageSize = maxPageSize;
+        }
+
+        public synchronized int getPagedSearches() {
+            return pagedSearches;
+        }
+
+        public synchronized void add(String dn, String... objectClasses) throws NamingException {
+            BasicAttribute objectClass = new BasicAttribute("objectClass");
+            for (String value : objectClasses)
+                objectClass.add(value);
+            createSubcontext(new LdapName(dn), new BasicAttributes(true));
+            entries.get(new LdapName(dn)).put(objectClass);
+        }
+
+        LdapContext newContext(Control[] requestControls) {
+            return (LdapContext) Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+                    new Class[]{LdapContext.class}, new ContextHandler(this, requestControls));
+        }
+
+        synchronized Attributes getAttributes(LdapName name, String[] ids) throws NamingException {
+            Attributes attrs = entry(name);
+            if (ids == null)
+                return copy(attrs);
+
+            BasicAttributes selected = new BasicAttributes(true);
+            for (String id : ids) {
+                Attribute attr = attrs.get(id);
+                if (attr != null)
+                    selected.put((Attribute) attr.clone());
+            }
+            return selected;
+        }
+
+        synchronized void createSubcontext(LdapName name, Attributes attrs) throws NamingException {
+            if (entries.containsKey(name))
+                throw new NameAlreadyBoundException(name.toString());
+            if (!entries.isEmpty() && !entries.containsKey(parentOf(name)))
+                throw new NameNotFoundException(parentOf(name).toString());
+            entries.put(name, copy(attrs));
+        }
+
+        synchronized void modifyAttributes(LdapName name, int modOp, Attributes attrs) throws NamingException {
+            if (modOp != DirContext.REPLACE_ATTRIBUTE)
+                throw new OperationNotSupportedException("modOp " + modOp);
+
+            Attributes existing = entry(name);
+            NamingEnumeration<? extends Attribute> all = attrs.getAll();
+            while (all.hasMore()) {
+                Attribute attr = all.next();
+                if (attr.size() == 0)
+                    existing.remove(attr.getID());
+                else
+                    existing.put((Attribute) attr.clone());
+            }
+        }
+
+        synchronized List<NameClassPair> list(LdapName name) throws NamingException {
+            entry(name);
+            List<NameClassPair> list = new ArrayList<NameClassPair>();
+            for (LdapName child : childrenOf(name)) {
+                NameClassPair pair = new NameClassPair(child.getRdn(child.size() - 1).toString(), null);
+                pair.setNameInNamespace(child.toString());
+                list.add(pair);
+            }
+            return list;
+        }
+
+        synchronized void destroySubcontext(LdapName name) throws NamingException {
+            entry(name);
+            if (!childrenOf(name).isEmpty())
+                throw new ContextNotEmptyException(name.toString());
+            entries.remove(name);
+        }
+
+        synchronized List<SearchResult> search(LdapName base, String filter, SearchControls ctls)
+                throws NamingException {
+            entry(base);
+            List<SearchResult> results = new ArrayList<SearchResult>();
+            for (Map.Entry<LdapName, Attributes> entry : entries.entrySet()) {
+                LdapName name = entry.getKey();
+                if (!inScope(base, name, ctls.getSearchScope()) || !matches(entry.getValue(), filter))
+                    continue;
+
+                SearchResult sr = new SearchResult(name.getSuffix(base.size()).toString(), null,
+                        copy(entry.getValue()), true);
+                sr.setNameInNamespace(name.toString());
+                results.add(sr);
+            }
+            return results;
+        }
+
+        synchronized void pagedSearch() {
+            pagedSearches++;
+        }
+
+        private static Attributes copy(Attributes attrs) throws NamingException {
+            BasicAttributes copy = new BasicAttributes(true);
+            NamingEnumeration<? extends Attribute> all = attrs.getAll();
+            while (all.hasMore())
+                copy.put((Attribute) all.next().clone());
+            return copy;
+        }
+
+        private Attributes entry(LdapName name) throws NameNotFoundException {
+            Attributes attrs = entries.get(name);
+            if (attrs == null)
+                throw new NameNotFoundException(name.toString());
+            return attrs;
+        }
+
+        private List<LdapName> childrenOf(LdapName name) {
+            List<LdapName> children = new ArrayList<LdapName>();
+            for (LdapName other : entries.keySet())
+                if (other.size() == name.size() + 1 && other.startsWith(name))
+                    children.add(other);
+            return children;
+        }
+
+        private static LdapName parentOf(LdapName name) {
+            return (LdapName) name.getPrefix(name.size() - 1);
+        }
+
+        private static boolean inScope(LdapName base, LdapName name, int scope) {
+            switch (scope) {
+                case SearchControls.OBJECT_SCOPE:
+                    return name.equals(base);
+                case SearchControls.ONELEVEL_SCOPE:
+                    return name.size() == base.size() + 1 && name.startsWith(base);
+                default:
+                    return name.startsWith(base);
+            }
+        }
+
+        /**
+         * Supports (attr=value), (attr=*) and conjunctions (&(..)(..)) of them.
+         */
+        private static boolean matches(Attributes attrs, String filter) throws NamingException {
+            if (filter.startsWith("(") && filter.endsWith(")"))
+                filter = filter.substring(1, filter.length() - 1);
+
+            if (filter.startsWith("&")) {
+                int depth = 0, start = 0;
+                for (int i = 1; i < filter.length(); i++) {
+                    char c = filter.charAt(i);
+                    if (c == '(' && depth++ == 0)
+                        start = i;
+                    else if (c == ')' && --depth == 0 && !matches(attrs, filter.substring(start, i + 1)))
+                        return false;
+                }
+                return true;
+            }
+
+            int eq = filter.indexOf('=');
+            Attribute attr = attrs.get(filter.substring(0, eq));
+            if (attr == null)
+                return false;
+
+            String value = filter.substring(eq + 1);
+            if (value.equals("*"))
+                return true;
+
+            value = (String) Rdn.unescapeValue(value);
+            NamingEnumeration<?> values = attr.getAll();
+            while (values.hasMore())
+                if (value.equalsIgnoreCase(String.valueOf(values.next())))
+                    return true;
+            return false;
+        }
+    }
+
+    private static class ContextHandler implements InvocationHandler {
+
+        private final Directory directory;
+        private Control[] requestControls;
+        private Control[] responseControls;
+
+        ContextHandler(Directory directory, Control[] requestControls) {
+            this.directory = directory;
+            this.requestControls = requestControls;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (name.equals("toString"))
+                return "InMemoryLdapContext";
+            if (name.equals("close"))
+                return null;
+            if (name.equals("getEnvironment"))
+                return new Hashtable<Object, Object>();
+            if (name.equals("getNameInNamespace"))
+                return "";
+            if (name.equals("newInstance"))
+                return directory.newContext((Control[]) args[0]);
+            if (name.equals("setRequestControls")) {
+                requestControls = (Control[]) args[0];
+                return null;
+            }
+            if (name.equals("getRequestControls"))
+                return requestControls;
+            if (name.equals("getResponseControls"))
+                return responseControls;
+            if (name.equals("getConnectControls"))
+                return null;
+
+            if (name.equals("lookup")) {
+                LdapName dn = toName(args[0]);
+                if (dn.isEmpty())
+                    return proxy;
+                directory.getAttributes(dn, new String[0]);
+                return dn;
+            }
+            if (name.equals("getAttributes"))
+                return directory.getAttributes(toName(args[0]), args.length > 1 ? (String[]) args[1] : null);
+            if (name.equals("createSubcontext") && args.length == 2) {
+                directory.createSubcontext(toName(args[0]), (Attributes) args[1]);
+                return null;
+            }
+            if (name.equals("modifyAttributes") && args.length == 3 && args[1] instanceof Integer) {
+                directory.modifyAttributes(toName(args[0]), (Integer) args[1], (Attributes) args[2]);
+                return null;
+            }
+            if (name.equals("list"))
+                return new Results<NameClassPair>(directory.list(toName(args[0])));
+            if (name.equals("destroySubcontext")) {
+                directory.destroySubcontext(toName(args[0]));
+                return null;
+            }
+            if (name.equals("search") && args.length == 3 && args[1] instanceof String
+                    && args[2] instanceof SearchControls)
+                return search(toName(args[0]), (String) args[1], (SearchControls) args[2]);
+
+            throw new OperationNotSupportedException(method.toString());
+        }
+
+        private NamingEnumeration<SearchResult> search(LdapName base, String filter, SearchControls ctls)
+                throws NamingException, IOException {
+            List<SearchResult> results = directory.search(base, filter, ctls);
+            responseControls = null;
+
+            PagedResultsControl paged = pagedResultsControl();
+            if (paged == null)
+                return new Results<SearchResult>(results);
+
+            directory.pagedSearch();
+            int[] sizeAndCookie = decode(paged.getEncodedValue());
+            int from = sizeAndCookie[1];
+            int to = Math.min(results.size(), from + Math.min(sizeAndCookie[0], directory.maxPageSize));
+            byte[] cookie = to < results.size() ? Integer.toString(to).getBytes("US-ASCII") : new byte[0];
+            responseControls = new Control[]{new PagedResultsResponseControl(
+                    PagedResultsControl.OID, false, encode(results.size(), cookie))};
+            return new Results<SearchResult>(results.subList(from, to));
+        }
+
+        private PagedResultsControl pagedResultsControl() {
+            if (requestControls != null)
+                for (Control control : requestControls)
+                    if (control instanceof PagedResultsControl)
+                        return (PagedResultsControl) control;
+            return null;
+        }
+
+        private static LdapName toName(Object name) throws NamingException {
+            return name instanceof LdapName ? (LdapName) ((LdapName) name).clone() : new LdapName(name.toString());
+        }
+    }
+
+    /**
+     * Decodes the BER encoded SEQUENCE { INTEGER size, OCTET STRING cookie } of a paged results control.
+     *
+     * @return the size and the offset stored in the cookie
+     */
+    private static int[] decode(byte[] ber) throws IOException {
+        int pos = 2;
+        int size = 0;
+        int intLen = ber[pos + 1];
+        for (int i = 0; i < intLen; i++)
+            size = (size << 8) | (ber[pos + 2 + i] & 0xff);
+        pos += 2 + intLen;
+        int cookieLen = ber[pos + 1];
+        String cookie = new String(ber, pos + 2, cookieLen, "US-ASCII");
+        return new int[]{size, cookie.isEmpty() ? 0 : Integer.parseInt(cookie)};
+    }
+
+    private static byte[] encode(int size, byte[] cookie) {
+        byte[] ber = new byte[10 + cookie.length];
+        int pos = 0;
+        ber[pos++] = 0x30;
+        ber[pos++] = (byte) (8 + cookie.length);
+        ber[pos++] = 0x02;
+        ber[pos++] = 4;
+        for (int shift = 24; shift >= 0; shift -= 8)
+            ber[pos++] = (byte) (size >> shift);
+        ber[pos++] = 0x04;
+        ber[pos++] = (byte) cookie.length;
+        System.arraycopy(cookie, 0, ber, pos, cookie.length);
+        return ber;
+    }
+
+    private static class Results<T> implements NamingEnumeration<T> {
+        private final Iterator<T> iterator;
+
+        Results(List<T> list) {
+            this.iterator = new ArrayList<T>(list).iterator();
+        }
+
+        @Override
+        public T next() {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T nextElement() {
+            return iterator.next();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * *** BEGIN LICENSE BLOCK *****
+ *  Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ *  The contents of this file are subject to the Mozilla Public License Version
+ *  1.1 (the "License"); you may not use this file except in compliance with
+ *  the License. You may obtain a copy of the License at
+ *  http://www.mozilla.org/MPL/
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ *  for the specific language governing rights and limitations under the
+ *  License.
+ *
+ *  The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ *  Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ *  The Initial Developer of the Original Code is
+ *  Agfa Healthcare.
+ *  Portions created by the Initial Developer are Copyright (C) 2015
+ *  the Initial Developer. All Rights Reserved.
+ *
+ *  Contributor(s):
+ *  See @authors listed below
+ *
+ *  Alternatively, the contents of this file may be used under the terms of
+ *  either the GNU General Public License Version 2 or later (the "GPL"), or
+ *  the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ *  in which case the provisions of the GPL or the LGPL are applicable instead
+ *  of those above. If you wish to allow use of your version of this file only
+ *  under the terms of either the GPL or the LGPL, and not to allow others to
+ *  use your version of this file under the terms of the MPL, indicate your
+ *  decision by deleting the provisions above and replace them with the notice
+ *  and other provisions required by the GPL or the LGPL. If you do not delete
+ *  the provisions above, a recipient may use your version of this file under
+ *  the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ *  ***** END LICENSE BLOCK *****
+ */
+package org.dcm4che3.conf.dicom.ldap;
+
+import org.dcm4che3.conf.core.api.ConfigurationException;
+import org.dcm4che3.conf.dicom.CommonDicomConfigurationWithHL7;
+import org.dcm4che3.conf.dicom.DicomConfigurationBuilder;
+import org.dcm4che3.conf.dicom.SimpleStorageTest;
+import org.dcm4che3.conf.dicom.configclasses.SomeDeviceExtension;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.TCGroupConfigAEExtension;
+import org.dcm4che3.net.hl7.HL7Application;
+import org.dcm4che3.net.hl7.HL7DeviceExtension;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Reads the configuration from an in-memory directory with and without prefetching the subtree of the requested
+ * node, and checks that both paths produce the same configuration nodes.
+ *
+ * @author agent <agent@local>
+ */
+@RunWith(JUnit4.class)
+public class LdapConfigurationStorageTest {
+
+    private static final int MAX_PAGE_SIZE = 2;
+
+    // the devices of mockConfig.json, except dcm4chee-arc which needs the archive extensions
+    private static final String[] MOCK_DEVICES = {"dcmqrscp", "stgcmtscu", "storescp", "mppsscp", "ianscp",
+            "storescu", "mppsscu", "findscu", "getscu", "movescu", "hl7snd", "hl7rcv", "syslog"};
+
+    private InMemoryLdapContextFactory.Directory directory;
+    private LdapConfigurationStorage storage;
+    private CommonDicomConfigurationWithHL7 config;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new InMemoryLdapContextFactory.Directory(MAX_PAGE_SIZE);
+        directory.add("dc=example,dc=com", "top", "domain");
+        directory.add("cn=DICOM Configuration,dc=example,dc=com", "dicomConfigurationRoot");
+        directory.add("cn=Devices,cn=DICOM Configuration,dc=example,dc=com", "dicomDevicesRoot");
+
+        Hashtable<Object, Object> env = new Hashtable<Object, Object>();
+        env.put("java.naming.factory.initial", InMemoryLdapContextFactory.class.getName());
+        env.put("java.naming.provider.url", "ldap://localhost:389/dc=example,dc=com");
+        env.put(InMemoryLdapContextFactory.DIRECTORY, directory);
+
+        List<Class> extensions = new ArrayList<Class>(Arrays.<Class>asList(
+                HL7DeviceExtension.class, SomeDeviceExtension.class, TCGroupConfigAEExtension.class));
+        storage = new LdapConfigurationStorage(env, extensions);
+        config = registerExtensions(new DicomConfigurationBuilder().registerCustomConfigurationStorage(storage))
+                .build();
+    }
+
+    private static DicomConfigurationBuilder registerExtensions(DicomConfigurationBuilder builder) {
+        return builder
+                .registerDeviceExtension(HL7DeviceExtension.class)
+                .registerDeviceExtension(SomeDeviceExtension.class)
+                .registerAEExtension(TCGroupConfigAEExtension.class);
+    }
+
+    @Test
+    public void testPrefetchedSubtreeEqualsPerEntryRead() throws Exception {
+        CommonDicomConfigurationWithHL7 mockConfig = registerExtensions(new DicomConfigurationBuilder()
+                .registerCustomConfigurationStorage(SimpleStorageTest.getMockDicomConfStorage(false)))
+                .build();
+
+        List<String> deviceNames = new ArrayList<String>(Arrays.asList(MOCK_DEVICES));
+        for (String deviceName : deviceNames)
+            config.persist(mockConfig.findDevice(deviceName));
+
+        config.persist(createHL7Device("hl7test"));
+        deviceNames.add("hl7test");
+
+        for (String deviceName : deviceNames) {
+            String path = config.deviceRef(deviceName);
+
+            storage.setPrefetchSubtree(false);
+            Object perEntry = storage.getConfigurationNode(path, Device.class);
+
+            storage.setPrefetchSubtree(true);
+            Object prefetched = storage.getConfigurationNode(path, Device.class);
+
+            Assert.assertNotNull(deviceName, perEntry);
+            Assert.assertEquals(deviceName, perEntry, prefetched);
+        }
+
+        Assert.assertTrue("the subtrees should have been fetched in several pages",
+                directory.getPagedSearches() > deviceNames.size());
+    }
+
+    @Test
+    public void testPrefetchIsOptIn() {
+        Assert.assertFalse(new LdapConfigurationStorage().isPrefetchSubtree());
+    }
+
+    @Test
+    public void testMissingNode() throws Exception {
+        String path = config.deviceRef("nonexistent");
+
+        storage.setPrefetchSubtree(false);
+        Assert.assertNull(storage.getConfigurationNode(path, Device.class));
+
+        storage.setPrefetchSubtree(true);
+        Assert.assertNull(storage.getConfigurationNode(path, Device.class));
+    }
+
+    @Test
+    public void testFindDeviceWithPrefetchedSubtree() throws ConfigurationException {
+        config.persist(createHL7Device("hl7test"));
+
+        storage.setPrefetchSubtree(true);
+        Device device = config.findDevice("hl7test");
+
+        HL7DeviceExtension hl7Ext = device.getDeviceExtension(HL7DeviceExtension.class);
+        Assert.assertEquals(2, hl7Ext.getHL7Applications().size());
+        Assert.assertEquals(1, hl7Ext.getHL7Application("HL7RCV^DCM4CHEE").getConnections().size());
+        Assert.assertEquals(1, device.getApplicationEntity("HL7RCV").getConnections().size());
+    }
+
+    private static Device createHL7Device(String name) {
+        Device device = new Device(name);
+        Connection conn = new Connection("hl7", "localhost", 2575);
+        conn.setProtocol(Connection.Protocol.HL7);
+        device.addConnection(conn);
+        Connection dicom = new Connection("dicom", "localhost", 11112);
+        device.addConnection(dicom);
+
+        HL7DeviceExtension hl7Ext = new HL7DeviceExtension();
+        device.addDeviceExtension(hl7Ext);
+        for (String appName : new String[]{"HL7RCV^DCM4CHEE", "HL7SND^DCM4CHEE"}) {
+            HL7Application app = new HL7Application(appName);
+            app.addConnection(conn);
+            app.setAcceptedMessageTypes("ADT^A02", "ADT^A28");
+            hl7Ext.addHL7Application(app);
+        }
+
+        ApplicationEntity ae = new ApplicationEntity("HL7RCV");
+        ae.addConnection(dicom);
+        device.addApplicationEntity(ae);
+        return device;
+    }
+}
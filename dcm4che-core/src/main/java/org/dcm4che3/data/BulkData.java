@@ -39,7 +39,6 @@
 package org.dcm4che3.data;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -50,6 +49,7 @@ import java.net.URL;
 
 import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.io.FileChannelCache;
 import org.dcm4che3.util.ByteUtils;
 import org.dcm4che3.util.StreamUtils;
 import org.dcm4che3.util.StringUtils;
@@ -306,10 +306,7 @@ public class BulkData implements Value {
         if (!uri.startsWith("file:"))
             return new URL(uri).openStream();
 
-        InputStream in = new FileInputStream(getFile());
-        StreamUtils.skipFully(in, offset);
-        return in;
-
+        return FileChannelCache.getDefault().openStream(getFile(), offset);
     }
 
     @Override
@@ -349,6 +346,13 @@ public class BulkData implements Value {
 
     @Override
     public void writeTo(DicomOutputStream out, VR vr) throws IOException {
+        if (length > 0 && offsets == null && uri != null && uri.startsWith("file:")
+                && (this.bigEndian == out.isBigEndian() || vr.numEndianBytes() == 1)) {
+            FileChannelCache.getDefault().transferTo(getFile(), offset, length, out);
+            if ((length & 1) != 0)
+                out.write(vr.paddingByte());
+            return;
+        }
         InputStream in = openStream();
         try {
             if (this.bigEndian != out.isBigEndian())
@@ -39,12 +39,15 @@
 package org.dcm4che3.io;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -71,17 +74,34 @@ public class DicomOutputStream extends FilterOutputStream {
     private boolean bigEndian;
     private DicomEncodingOptions encOpts = DicomEncodingOptions.DEFAULT;
 
+    private static final int COPY_BUFFER_SIZE = 8192;
+
     private final byte[] buf = new byte[12];
+    private byte[] copyBuffer;
+
+    private FileChannel channel;
+    private OutputStream channelOut;
 
     public DicomOutputStream(OutputStream out, String tsuid)
             throws IOException {
         super(out);
         switchTransferSyntax(tsuid);
+        if (out instanceof FileOutputStream)
+            setChannel(((FileOutputStream) out).getChannel(), out);
     }
 
     public DicomOutputStream(File file) throws IOException {
-        this(new BufferedOutputStream(new FileOutputStream(file)),
-                UID.ExplicitVRLittleEndian);
+        this(new FileOutputStream(file));
+    }
+
+    private DicomOutputStream(FileOutputStream fout) throws IOException {
+        this(new BufferedOutputStream(fout), UID.ExplicitVRLittleEndian);
+        setChannel(fout.getChannel(), super.out);
+    }
+
+    private void setChannel(FileChannel channel, OutputStream channelOut) {
+        this.channel = channel;
+        this.channelOut = channelOut;
     }
 
     public final void setPreamble(byte[] preamble) {
@@ -114,6 +134,48 @@ public class DicomOutputStream extends FilterOutputStream {
         out.write(b, off, len);
     }
 
+    /**
+     * Writes {@code length} bytes of {@code src}, starting at file position
+     * {@code position}, without changing the position of {@code src}. If this
+     * stream writes to a file without deflating its content, the bytes are
+     * moved by {@link FileChannel#transferTo}, which lets the operating
+     * system copy them without passing them through the JVM.
+     */
+    public void transferFrom(FileChannel src, long position, long length)
+            throws IOException {
+        while (length > 0) {
+            long n = transferPart(src, position, length);
+            position += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Writes at most {@code length} bytes of {@code src}, starting at file
+     * position {@code position}, so the caller may continue the transfer
+     * from another channel of the same file, if {@code src} is closed.
+     *
+     * @return number of written bytes
+     */
+    long transferPart(FileChannel src, long position, long length)
+            throws IOException {
+        if (channel != null && out == channelOut) {
+            out.flush();
+            long n = src.transferTo(position, length, channel);
+            if (n <= 0 && position >= src.size())
+                throw new EOFException();
+            return n;
+        }
+        if (copyBuffer == null)
+            copyBuffer = new byte[COPY_BUFFER_SIZE];
+        int n = src.read(ByteBuffer.wrap(copyBuffer, 0,
+                (int) Math.min(length, copyBuffer.length)), position);
+        if (n < 0)
+            throw new EOFException();
+        out.write(copyBuffer, 0, n);
+        return n;
+    }
+
     public void writeCommand(Attributes cmd) throws IOException {
         if (explicitVR || bigEndian)
             throw new IllegalStateException("explicitVR=" + explicitVR
@@ -0,0 +1,350 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Shares read-only {@link FileChannel}s between concurrent readers of the
+ * same file, keyed by the URI of the file. The channel is opened by the first
+ * {@link #acquire} and closed when the last {@link Handle} is released, so
+ * frames or bulk data of one file read in sequence or in parallel do not
+ * open and close the file once per read. Readers must only use positional
+ * reads, which do not affect the other holders of the channel.
+ * <p>
+ * A file replaced or modified since its channel was opened, as told by its
+ * last modification time and length, is opened again by the next
+ * {@link #acquire}; the holders of the previous channel keep reading it.
+ * <p>
+ * A thread interrupted in a blocking operation on a {@link FileChannel}
+ * closes the channel for all its holders. Streams returned by
+ * {@link #openStream} and transfers by {@link #transferTo} therefore fail
+ * only for the interrupted reader; the other readers re-acquire a newly
+ * opened channel and continue.
+ *
+ * @author agent <agent@local>
+ */
+public class FileChannelCache {
+
+    private static FileChannelCache defaultCache;
+
+    private final HashMap<String, Entry> map = new HashMap<String, Entry>();
+
+    public static synchronized FileChannelCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new FileChannelCache();
+        }
+        return defaultCache;
+    }
+
+    public static synchronized void setDefault(FileChannelCache cache) {
+        if (cache == null) {
+            throw new NullPointerException();
+        }
+        defaultCache = cache;
+    }
+
+    public Handle acquire(File file) throws IOException {
+        String uri = file.toURI().toString();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (map) {
+            Entry entry = map.get(uri);
+            if (entry != null && entry.isCurrent(lastModified, length)) {
+                entry.refCount++;
+                return new Handle(entry);
+            }
+        }
+        // replace a channel closed by an interrupted reader or opened on a
+        // file which was replaced or modified meanwhile - the holders of the
+        // previous channel keep reading from it
+        Entry opened = new Entry(uri,
+                new RandomAccessFile(file, "r").getChannel(),
+                lastModified, length);
+        Entry entry;
+        synchronized (map) {
+            entry = map.get(uri);
+            if (entry == null || !entry.isCurrent(lastModified, length))
+                map.put(uri, entry = opened);
+            entry.refCount++;
+        }
+        if (entry != opened) // opened by another reader meanwhile
+            opened.channel.close();
+        return new Handle(entry);
+    }
+
+    /**
+     * Returns a stream reading {@code file} from {@code position} to its end
+     * by positional reads from a shared channel, which is released on
+     * {@link InputStream#close}.
+     *
+     * @throws EOFException if {@code position} exceeds the length of the file
+     */
+    public InputStream openStream(File file, long position)
+            throws IOException {
+        return new ChannelInputStream(file, position);
+    }
+
+    /**
+     * Writes {@code length} bytes of {@code file}, starting at
+     * {@code position}, to {@code out} by
+     * {@link DicomOutputStream#transferFrom} from a shared channel.
+     *
+     * @throws EOFException if the file ends before {@code position + length}
+     */
+    public void transferTo(File file, long position, long length,
+            DicomOutputStream out) throws IOException {
+        Handle handle = acquire(file);
+        try {
+            boolean checked = false;
+            while (length > 0) {
+                try {
+                    if (!checked) {
+                        checkLength(file, position + length,
+                                handle.channel().size());
+                        checked = true;
+                    }
+                    long n = out.transferPart(handle.channel(), position, length);
+                    position += n;
+                    length -= n;
+                } catch (ClosedChannelException e) {
+                    handle = reacquire(handle, file, e);
+                }
+            }
+        } finally {
+            handle.close();
+        }
+    }
+
+    private static void checkLength(File file, long end, long size)
+            throws EOFException {
+        if (end > size)
+            throw new EOFException("Length of " + file + ": " + size
+                    + " < " + end);
+    }
+
+    /**
+     * Rethrows {@code e} if the channel of {@code handle} is still open - so
+     * another channel was closed - or the current thread was interrupted,
+     * otherwise replaces {@code handle} of the channel closed by another,
+     * interrupted reader.
+     */
+    private Handle reacquire(Handle handle, File file,
+            ClosedChannelException e) throws IOException {
+        if (handle.channel().isOpen() || e instanceof ClosedByInterruptException
+                || Thread.currentThread().isInterrupted())
+            throw e;
+        Handle reacquired = acquire(file);
+        handle.close();
+        return reacquired;
+    }
+
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    private void release(Entry entry) throws IOException {
+        synchronized (map) {
+            if (--entry.refCount > 0)
+                return;
+            if (map.get(entry.uri) == entry)
+                map.remove(entry.uri);
+        }
+        entry.channel.close();
+    }
+
+    private static final class Entry {
+        final String uri;
+        final FileChannel channel;
+        final long lastModified;
+        final long length;
+        int refCount;
+
+        Entry(String uri, FileChannel channel, long lastModified, long length) {
+            this.uri = uri;
+            this.channel = channel;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isCurrent(long lastModified, long length) {
+            return channel.isOpen() && this.lastModified == lastModified
+                    && this.length == length;
+        }
+    }
+
+    public final class Handle implements Closeable {
+
+        private final Entry entry;
+        private boolean closed;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        public FileChannel channel() {
+            return entry.channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+            release(entry);
+        }
+    }
+
+    private final class ChannelInputStream extends InputStream {
+
+        private final File file;
+        private final byte[] one = new byte[1];
+        private Handle handle;
+        private FileChannel channel;
+        private long position;
+        private long mark;
+        private boolean closed;
+
+        ChannelInputStream(File file, long position) throws IOException {
+            this.file = file;
+            this.handle = acquire(file);
+            this.channel = handle.channel();
+            this.position = position;
+            try {
+                checkLength(file, position, size());
+            } catch (IOException e) {
+                handle.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) > 0 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            int n;
+            for (;;) {
+                try {
+                    n = channel.read(buf, position);
+                    break;
+                } catch (ClosedChannelException e) {
+                    reacquire(e);
+                }
+            }
+            if (n > 0)
+                position += n;
+            return n;
+        }
+
+        private long size() throws IOException {
+            for (;;) {
+                try {
+                    return channel.size();
+                } catch (ClosedChannelException e) {
+                    reacquire(e);
+                }
+            }
+        }
+
+        /**
+         * Rethrows {@code e} if this stream was closed, otherwise replaces
+         * the channel closed by another, interrupted reader.
+         */
+        private void reacquire(ClosedChannelException e) throws IOException {
+            if (closed)
+                throw e;
+            handle = FileChannelCache.this.reacquire(handle, file, e);
+            channel = handle.channel();
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skip = Math.max(0, Math.min(n, size() - position));
+            position += skip;
+            return skip;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.max(0,
+                    Math.min(size() - position, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            handle.close();
+        }
+    }
+}
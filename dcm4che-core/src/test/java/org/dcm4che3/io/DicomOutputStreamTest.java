@@ -1,13 +1,17 @@
 package org.dcm4che3.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -130,6 +134,55 @@ public class DicomOutputStreamTest {
         testWriteDataset(out, UID.DeflatedExplicitVRLittleEndian);
     }
 
+    @Test
+    public void testTransferFrom() throws IOException {
+        File src = new File(file.getPath() + ".src");
+        byte[] b = new byte[100000];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) (i * 31);
+        FileOutputStream fout = new FileOutputStream(src);
+        try {
+            fout.write(b);
+        } finally {
+            fout.close();
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(b, 0, 3);
+        expected.write(b, 1000, 90000);
+        expected.write(b, 7, 1);
+        RandomAccessFile raf = new RandomAccessFile(src, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            DicomOutputStream out = new DicomOutputStream(file);
+            try {
+                out.write(b, 0, 3);
+                out.transferFrom(channel, 1000, 90000);
+                out.transferFrom(channel, 7, 1);
+            } finally {
+                out.close();
+            }
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            out = new DicomOutputStream(bout, UID.ExplicitVRLittleEndian);
+            out.write(b, 0, 3);
+            out.transferFrom(channel, 1000, 90000);
+            out.transferFrom(channel, 7, 1);
+            out.close();
+            assertArrayEquals(expected.toByteArray(), bout.toByteArray());
+            assertEquals(0, channel.position());
+        } finally {
+            raf.close();
+            src.delete();
+        }
+        byte[] written = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            assertEquals(written.length, in.read(written));
+        } finally {
+            in.close();
+        }
+        assertArrayEquals(expected.toByteArray(), written);
+    }
+
     @Test
     public void testSerializeDataset() throws Exception {
         ObjectOutputStream out = new ObjectOutputStream(
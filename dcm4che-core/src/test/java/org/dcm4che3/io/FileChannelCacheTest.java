@@ -0,0 +1,276 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ */
+public class FileChannelCacheTest {
+
+    private File file;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("test", ".bin");
+        data = new byte[5000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        file.delete();
+    }
+
+    @Test
+    public void testAcquireRelease() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        FileChannelCache.Handle h1 = cache.acquire(file);
+        FileChannelCache.Handle h2 = cache.acquire(file.getAbsoluteFile());
+        FileChannel channel = h1.channel();
+        assertSame(channel, h2.channel());
+        assertEquals(1, cache.size());
+        h1.close();
+        h1.close();
+        assertTrue(channel.isOpen());
+        h2.close();
+        assertFalse(channel.isOpen());
+        assertEquals(0, cache.size());
+        FileChannelCache.Handle h3 = cache.acquire(file);
+        assertTrue(h3.channel().isOpen());
+        h3.close();
+    }
+
+    @Test
+    public void testAcquireReplacesClosedChannel() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        FileChannelCache.Handle h1 = cache.acquire(file);
+        h1.channel().close();
+        FileChannelCache.Handle h2 = cache.acquire(file);
+        assertNotSame(h1.channel(), h2.channel());
+        assertTrue(h2.channel().isOpen());
+        h1.close();
+        assertEquals(1, cache.size());
+        assertSame(h2.channel(), cache.acquire(file).channel());
+        h2.close();
+    }
+
+    @Test
+    public void testAcquireReopensReplacedFile() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        FileChannelCache.Handle h1 = cache.acquire(file);
+        File replacement = new File(file.getPath() + ".new");
+        FileOutputStream out = new FileOutputStream(replacement);
+        try {
+            out.write(data, 0, 100);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.delete());
+        assertTrue(replacement.renameTo(file));
+
+        FileChannelCache.Handle h2 = cache.acquire(file);
+        assertNotSame(h1.channel(), h2.channel());
+        assertEquals(5000, h1.channel().size());
+        assertEquals(100, h2.channel().size());
+        assertEquals(1, cache.size());
+        h1.close();
+        assertTrue(h2.channel().isOpen());
+        assertSame(h2.channel(), cache.acquire(file).channel());
+        h2.close();
+    }
+
+    @Test
+    public void testInterruptedReader() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        InputStream in1 = cache.openStream(file, 0);
+        InputStream in2 = cache.openStream(file, 100);
+        try {
+            Thread.currentThread().interrupt();
+            try {
+                in1.read();
+                fail("ClosedByInterruptException expected");
+            } catch (ClosedByInterruptException expected) {
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals(data[100] & 0xff, in2.read());
+            byte[] b = new byte[100];
+            assertEquals(100, in2.read(b));
+            assertArrayEquals(Arrays.copyOfRange(data, 101, 201), b);
+            assertEquals(4799, in2.available());
+            assertEquals(1, cache.size());
+        } finally {
+            in1.close();
+            in2.close();
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOpenStream() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        InputStream in1 = cache.openStream(file, 4000);
+        InputStream in2 = cache.openStream(file, 10);
+        try {
+            assertEquals(data[4000] & 0xff, in1.read());
+            assertEquals(10, in2.skip(10));
+            assertEquals(data[20] & 0xff, in2.read());
+            byte[] b = new byte[2000];
+            assertEquals(999, in1.read(b));
+            assertEquals(data[4999], b[998]);
+            assertEquals(-1, in1.read());
+            assertEquals(1, cache.size());
+        } finally {
+            in1.close();
+            in2.close();
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOpenStreamPastEOF() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        InputStream in = cache.openStream(file, 5000);
+        try {
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+        try {
+            cache.openStream(file, 5001);
+            fail("EOFException expected");
+        } catch (EOFException expected) {
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTransferToReacquiresClosedChannel() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream out = new DicomOutputStream(bout, UID.ExplicitVRLittleEndian) {
+            int parts;
+
+            @Override
+            long transferPart(FileChannel src, long position, long length)
+                    throws IOException {
+                // as if another reader was interrupted after the first part
+                if (parts++ == 1)
+                    src.close();
+                return super.transferPart(src, position, length);
+            }
+        };
+        // larger than the copy buffer to be transferred in several parts
+        byte[] large = new byte[20000];
+        for (int i = 0; i < large.length; i++)
+            large[i] = (byte) (i * 31);
+        FileOutputStream fout = new FileOutputStream(file);
+        try {
+            fout.write(large);
+        } finally {
+            fout.close();
+        }
+        cache.transferTo(file, 10, 19990, out);
+        out.close();
+        assertArrayEquals(Arrays.copyOfRange(large, 10, 20000), bout.toByteArray());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTransferToPastEOF() throws IOException {
+        FileChannelCache cache = new FileChannelCache();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream out = new DicomOutputStream(bout, UID.ExplicitVRLittleEndian);
+        try {
+            cache.transferTo(file, 4000, 1001, out);
+            fail("EOFException expected");
+        } catch (EOFException expected) {
+        }
+        assertEquals(0, bout.size());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBulkDataWriteTo() throws IOException {
+        BulkData bulkData = new BulkData(file.toURI().toString(), 101, 1001, false);
+        byte[] expected = new byte[1002];
+        System.arraycopy(data, 101, expected, 0, 1001);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream out = new DicomOutputStream(bout, UID.ExplicitVRLittleEndian);
+        bulkData.writeTo(out, VR.OB);
+        out.close();
+        assertArrayEquals(expected, bout.toByteArray());
+        assertArrayEquals(
+                Arrays.copyOf(expected, 1001), bulkData.toBytes(VR.OB, false));
+        assertEquals(0, FileChannelCache.getDefault().size());
+    }
+}
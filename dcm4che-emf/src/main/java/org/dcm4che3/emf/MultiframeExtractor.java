@@ -39,6 +39,7 @@
 package org.dcm4che3.emf;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -56,16 +57,25 @@ import org.dcm4che3.data.VR;
  */
 public class MultiframeExtractor {
 
-    private enum Impl {
+    enum Impl {
         EnhancedCTImageExtractor(UID.CTImageStorage),
         EnhancedMRImageExtractor(UID.MRImageStorage) {
-            Attributes extract(MultiframeExtractor mfe, Attributes emf, int frame) {
-                Attributes sf = super.extract(mfe, emf, frame);
+            @Override
+            void adjust(Attributes sf) {
                 setEchoTime(sf);
                 setScanningSequence(sf);
                 setSequenceVariant(sf);
                 setScanOptions(sf);
-                return sf;
+            }
+
+            @Override
+            int[] adjustedFrom() {
+                return MR_ADJUSTED_FROM;
+            }
+
+            @Override
+            int[] adjustedTags() {
+                return MR_ADJUSTED_TAGS;
             }
 
             void setEchoTime(Attributes sf) {
@@ -154,10 +164,67 @@ public class MultiframeExtractor {
         }
 
         Attributes extract(MultiframeExtractor mfe, Attributes emf, int frame) {
-            return mfe.extract(emf, frame, sfcuid);
+            Attributes sf = mfe.extract(emf, frame, sfcuid);
+            adjust(sf);
+            return sf;
+        }
+
+        String sfcuid() {
+            return sfcuid;
+        }
+
+        /**
+         * Sets SOP Class specific attributes of the legacy Single-frame image.
+         */
+        void adjust(Attributes sf) {
+        }
+
+        /**
+         * Returns sorted tags of attributes read by {@link #adjust}.
+         */
+        int[] adjustedFrom() {
+            return NO_TAGS;
+        }
+
+        /**
+         * Returns sorted tags of attributes set by {@link #adjust}.
+         */
+        int[] adjustedTags() {
+            return NO_TAGS;
         }
     }
 
+    private static final int[] NO_TAGS = {};
+
+    private static final int[] MR_ADJUSTED_FROM = sort(
+        Tag.EffectiveEchoTime,
+        Tag.EchoPulseSequence,
+        Tag.InversionRecovery,
+        Tag.EchoPlanarPulseSequence,
+        Tag.SegmentedKSpaceTraversal,
+        Tag.MagnetizationTransfer,
+        Tag.SteadyStatePulseSequence,
+        Tag.Spoiling,
+        Tag.OversamplingPhase,
+        Tag.RectilinearPhaseEncodeReordering,
+        Tag.ImageType,
+        Tag.PartialFourierDirection,
+        Tag.SpatialPresaturation,
+        Tag.SpectrallySelectedSuppression,
+        Tag.FlowCompensation);
+
+    private static final int[] MR_ADJUSTED_TAGS = sort(
+        Tag.EchoTime,
+        Tag.ScanningSequence,
+        Tag.SequenceVariant,
+        Tag.ScanOptions,
+        Tag.AngioFlag);
+
+    private static int[] sort(int... tags) {
+        Arrays.sort(tags);
+        return tags;
+    }
+
     private static final HashMap<String,Impl> impls = new HashMap<String,Impl>(8);
     static {
         impls.put(UID.EnhancedCTImageStorage, Impl.EnhancedCTImageExtractor);
@@ -165,7 +232,7 @@ public class MultiframeExtractor {
         impls.put(UID.EnhancedPETImageStorage, Impl.EnhancedPETImageExtractor);
     }
 
-    private static final int[] EXCLUDE_TAGS = {
+    static final int[] EXCLUDE_TAGS = {
         Tag.ReferencedImageEvidenceSequence,
         Tag.SourceImageEvidenceSequence,
         Tag.DimensionIndexSequence,
@@ -238,7 +305,7 @@ public class MultiframeExtractor {
                 .extract(this, emf, frame);
     }
 
-    private static Impl implFor(String mfcuid) {
+    static Impl implFor(String mfcuid) {
         Impl impl = impls.get(mfcuid);
         if (impl == null)
             throw new IllegalArgumentException(
@@ -275,7 +342,7 @@ public class MultiframeExtractor {
         return dest;
     }
 
-    private void adjustReferencedImages(Attributes attrs, int sqtag) {
+    void adjustReferencedImages(Attributes attrs, int sqtag) {
         Sequence sq = attrs.getSequence(sqtag);
         if (sq == null)
             return;
@@ -305,7 +372,7 @@ public class MultiframeExtractor {
             sq.add(ref);
     }
 
-    private void addFunctionGroups(Attributes dest, Attributes fgs) {
+    void addFunctionGroups(Attributes dest, Attributes fgs) {
         dest.addSelected(fgs, Tag.ReferencedImageSequence);
         Attributes fg;
         for (int sqTag : fgs.tags())
@@ -317,14 +384,20 @@ public class MultiframeExtractor {
     private void addPixelData(Attributes dest, Attributes src, int frame) {
         VR.Holder vr = new VR.Holder();
         Object pixelData = src.getValue(Tag.PixelData, vr);
+        addPixelData(dest, vr.vr, pixelData, frame,
+                pixelData instanceof Fragments ? 0 : calcFrameLength(src));
+    }
+
+    void addPixelData(Attributes dest, VR vr, Object pixelData, int frame,
+            int frameLength) {
         if (pixelData instanceof byte[]) {
-            dest.setBytes(Tag.PixelData, vr.vr, extractPixelData(
-                    (byte[]) pixelData, frame, calcFrameLength(src)));
+            dest.setBytes(Tag.PixelData, vr, extractPixelData(
+                    (byte[]) pixelData, frame, frameLength));
         } else if (pixelData instanceof BulkData) {
-            dest.setValue(Tag.PixelData, vr.vr, extractPixelData(
-                    (BulkData) pixelData, frame, calcFrameLength(src)));
+            dest.setValue(Tag.PixelData, vr, extractPixelData(
+                    (BulkData) pixelData, frame, frameLength));
         } else {
-            Fragments destFrags = dest.newFragments(Tag.PixelData, vr.vr, 2);
+            Fragments destFrags = dest.newFragments(Tag.PixelData, vr, 2);
             destFrags.add(null);
             destFrags.add(((Fragments) pixelData).get(frame + 1));
         }
@@ -343,14 +416,14 @@ public class MultiframeExtractor {
         return dest;
     }
 
-    private int calcFrameLength(Attributes src) {
+    int calcFrameLength(Attributes src) {
         return src.getInt(Tag.Rows, 0)
              * src.getInt(Tag.Columns, 0)
              * (src.getInt(Tag.BitsAllocated, 8) >> 3)
              * src.getInt(Tag.NumberOfSamples, 1);
     }
 
-    private String createInstanceNumber(String mfinstno, int frame) {
+    String createInstanceNumber(String mfinstno, int frame) {
         String s = String.format(instanceNumberFormat, mfinstno, frame + 1);
         return s.length() > 16 ? s.substring(s.length() - 16) : s;
     }
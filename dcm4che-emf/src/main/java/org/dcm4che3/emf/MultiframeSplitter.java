@@ -0,0 +1,445 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.emf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.SpecificCharacterSet;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomEncodingOptions;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.io.FileChannelCache;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Splits an Enhanced Multi-frame image into legacy Single-frame images, equal
+ * to those returned by {@link MultiframeExtractor#extract}.
+ * <p>
+ * Attributes of the Multi-frame image and of its Shared Functional Groups are
+ * collected once and encoded once per Transfer Syntax. For each frame, only
+ * the Per-frame Functional Groups, the Pixel Data and the frame specific
+ * identifiers are encoded and merged in tag order with the shared encoded
+ * attributes. Frames with private attributes in their Per-frame Functional
+ * Groups are extracted by {@link MultiframeExtractor#extract}.
+ * <p>
+ * Frames may be extracted and written concurrently, if the {@link UIDMapper}
+ * and the {@link NumberOfFramesAccessor} of the extractor are thread-safe.
+ * Settings of the extractor changed after creation of the splitter may not be
+ * applied to shared attributes.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class MultiframeSplitter {
+
+    /**
+     * Provides the streams to which the Single-frame images are written.
+     */
+    public interface Output {
+
+        DicomOutputStream open(int frame) throws IOException;
+
+        void close(int frame, DicomOutputStream out) throws IOException;
+    }
+
+    private final MultiframeExtractor extractor;
+    private final MultiframeExtractor.Impl impl;
+    private final Attributes emf;
+    private final Attributes shared;
+    private final String iuid;
+    private final String instanceNumber;
+    private final String[] frameType;
+    private final VR pixelDataVR;
+    private final Object pixelData;
+    private final int frameLength;
+    private volatile Encoded encoded;
+
+    private static final class Encoded {
+        final boolean explicitVR;
+        final boolean bigEndian;
+        final DicomEncodingOptions encOpts;
+        final int[] tags;
+        final int[] offsets;
+        final byte[] bytes;
+
+        Encoded(boolean explicitVR, boolean bigEndian,
+                DicomEncodingOptions encOpts, int[] tags, int[] offsets,
+                byte[] bytes) {
+            this.explicitVR = explicitVR;
+            this.bigEndian = bigEndian;
+            this.encOpts = encOpts;
+            this.tags = tags;
+            this.offsets = offsets;
+            this.bytes = bytes;
+        }
+
+        boolean matches(DicomOutputStream out) {
+            return explicitVR == out.isExplicitVR()
+                    && bigEndian == out.isBigEndian()
+                    && encOpts == out.getEncodingOptions();
+        }
+    }
+
+    public MultiframeSplitter(MultiframeExtractor extractor, Attributes emf) {
+        this.extractor = extractor;
+        this.impl = MultiframeExtractor.implFor(emf.getString(Tag.SOPClassUID));
+        this.emf = emf;
+        Attributes sfgs = emf.getNestedDataset(Tag.SharedFunctionalGroupsSequence);
+        if (sfgs == null)
+            throw new IllegalArgumentException(
+                    "Missing (5200,9229) Shared Functional Groups Sequence");
+        Attributes shared = new Attributes(emf.size() * 2);
+        shared.addNotSelected(emf, MultiframeExtractor.EXCLUDE_TAGS);
+        extractor.addFunctionGroups(shared, sfgs);
+        shared.setString(Tag.SOPClassUID, VR.UI, impl.sfcuid());
+        this.iuid = extractor.getUIDMapper().get(
+                shared.getString(Tag.SOPInstanceUID));
+        this.instanceNumber = shared.getString(Tag.InstanceNumber, "");
+        this.frameType = shared.getStrings(Tag.FrameType);
+        shared.remove(Tag.SOPInstanceUID);
+        shared.remove(Tag.InstanceNumber);
+        shared.remove(Tag.ImageType);
+        shared.remove(Tag.FrameType);
+        if (!extractor.isPreserveSeriesInstanceUID())
+            shared.setString(Tag.SeriesInstanceUID, VR.UI,
+                    extractor.getUIDMapper().get(
+                            shared.getString(Tag.SeriesInstanceUID)));
+        extractor.adjustReferencedImages(shared, Tag.ReferencedImageSequence);
+        extractor.adjustReferencedImages(shared, Tag.SourceImageSequence);
+        shared.getSpecificCharacterSet();
+        this.shared = shared;
+        VR.Holder vr = new VR.Holder();
+        this.pixelData = emf.getValue(Tag.PixelData, vr);
+        this.pixelDataVR = vr.vr;
+        this.frameLength = pixelData instanceof byte[]
+                || pixelData instanceof BulkData
+                        ? extractor.calcFrameLength(emf)
+                        : 0;
+    }
+
+    public int getNumberOfFrames() {
+        return emf.getInt(Tag.NumberOfFrames, 1);
+    }
+
+    /**
+     * Extract specified frame and return it as legacy Single-frame image.
+     *
+     * @param frame 0 based frame index
+     * @return legacy Single-frame image
+     */
+    public Attributes extract(int frame) {
+        Attributes perFrame = perFrame(frame);
+        if (perFrame == null)
+            return extractor.extract(emf, frame);
+
+        Attributes sf = new Attributes(shared.size() + perFrame.size());
+        sf.addAll(shared);
+        sf.addAll(perFrame);
+        return sf;
+    }
+
+    /**
+     * Returns the attributes of the specified frame which override or
+     * complement the shared attributes, or {@code null} if the Per-frame
+     * Functional Groups of the frame contain private attributes.
+     */
+    private Attributes perFrame(int frame) {
+        Attributes fgs = emf.getNestedDataset(Tag.PerFrameFunctionalGroupsSequence, frame);
+        if (fgs == null)
+            throw new IllegalArgumentException(
+                    "Missing (5200,9230) Per-frame Functional Groups Sequence Item for frame #" + (frame + 1));
+        Attributes dest = new Attributes(fgs.size() * 2 + 8);
+        // let nested string values be encoded as by the shared attributes
+        dest.addSelected(shared, Tag.SpecificCharacterSet);
+        extractor.addFunctionGroups(dest, fgs);
+        for (int tag : dest.tags())
+            if (TagUtils.isPrivateGroup(tag))
+                return null;
+
+        dest.remove(Tag.SOPClassUID);
+        extractor.addPixelData(dest, pixelDataVR, pixelData, frame, frameLength);
+        dest.setString(Tag.SOPInstanceUID, VR.UI, (dest.contains(Tag.SOPInstanceUID)
+                ? extractor.getUIDMapper().get(dest.getString(Tag.SOPInstanceUID))
+                : iuid) + '.' + (frame + 1));
+        dest.setString(Tag.InstanceNumber, VR.IS, extractor.createInstanceNumber(
+                dest.contains(Tag.InstanceNumber)
+                        ? dest.getString(Tag.InstanceNumber, "")
+                        : instanceNumber,
+                frame));
+        dest.setString(Tag.ImageType, VR.CS, dest.contains(Tag.FrameType)
+                ? dest.getStrings(Tag.FrameType)
+                : frameType);
+        dest.remove(Tag.FrameType);
+        if (!extractor.isPreserveSeriesInstanceUID()
+                && dest.contains(Tag.SeriesInstanceUID))
+            dest.setString(Tag.SeriesInstanceUID, VR.UI, extractor.getUIDMapper().get(
+                    dest.getString(Tag.SeriesInstanceUID)));
+        extractor.adjustReferencedImages(dest, Tag.ReferencedImageSequence);
+        extractor.adjustReferencedImages(dest, Tag.SourceImageSequence);
+        int[] adjustedFrom = impl.adjustedFrom();
+        if (adjustedFrom.length > 0) {
+            Attributes sf = new Attributes(shared, adjustedFrom);
+            sf.addSelected(dest, adjustedFrom);
+            impl.adjust(sf);
+            dest.addSelected(sf, impl.adjustedTags());
+        }
+        return dest;
+    }
+
+    /**
+     * Writes the specified frame as legacy Single-frame image.
+     *
+     * @param out stream to which the Single-frame image is written
+     * @param tsuid Transfer Syntax UID of the File Meta Information, or
+     *        {@code null} if no File Meta Information shall be written
+     * @param frame 0 based frame index
+     */
+    public void writeFrame(DicomOutputStream out, String tsuid, int frame)
+            throws IOException {
+        Attributes perFrame = perFrame(frame);
+        if (perFrame == null || out.getEncodingOptions().groupLength) {
+            Attributes sf = perFrame == null
+                    ? extractor.extract(emf, frame)
+                    : extract(frame);
+            out.writeDataset(tsuid != null
+                    ? sf.createFileMetaInformation(tsuid)
+                    : null, sf);
+            return;
+        }
+
+        if (tsuid != null)
+            out.writeFileMetaInformation(Attributes.createFileMetaInformation(
+                    perFrame.getString(Tag.SOPInstanceUID), impl.sfcuid(), tsuid));
+        if (perFrame.bigEndian() != out.isBigEndian())
+            perFrame = new Attributes(perFrame, out.isBigEndian());
+        write(out, encoded(out), perFrame);
+    }
+
+    /**
+     * Writes the specified frames as legacy Single-frame images, one after
+     * another.
+     */
+    public void writeFrames(int[] frames, String tsuid, Output output)
+            throws IOException {
+        FileChannelCache.Handle pinned = pinPixelDataFile();
+        try {
+            for (int frame : frames)
+                writeFrame(output, tsuid, frame);
+        } finally {
+            SafeClose.close(pinned);
+        }
+    }
+
+    /**
+     * Writes the specified frames as legacy Single-frame images by tasks
+     * executed by the specified executor. At most {@code maxPending} frames
+     * are extracted and written at the same time, which bounds the memory
+     * used for frames with Pixel Data included in the Multi-frame image.
+     * Returns after all submitted frames are written; if writing of a frame
+     * failed, no further frames are submitted and the first failure is
+     * thrown.
+     */
+    public void writeFrames(int[] frames, final String tsuid,
+            final Output output, Executor executor, int maxPending)
+            throws IOException, InterruptedException {
+        if (maxPending <= 0)
+            throw new IllegalArgumentException("maxPending: " + maxPending);
+
+        final Semaphore pending = new Semaphore(maxPending);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        FileChannelCache.Handle pinned = pinPixelDataFile();
+        try {
+            for (final int frame : frames) {
+                pending.acquire();
+                if (failure.get() != null) {
+                    pending.release();
+                    break;
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                writeFrame(output, tsuid, frame);
+                            } catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                            } finally {
+                                pending.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    pending.release();
+                    throw e;
+                }
+            }
+        } finally {
+            pending.acquireUninterruptibly(maxPending);
+            SafeClose.close(pinned);
+        }
+        Throwable e = failure.get();
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+    }
+
+    /**
+     * Keeps the file referenced by the Pixel Data open while frames are
+     * written, so reading each frame does not reopen it.
+     */
+    private FileChannelCache.Handle pinPixelDataFile() throws IOException {
+        Object value = pixelData instanceof Fragments
+                && !((Fragments) pixelData).isEmpty()
+                ? ((Fragments) pixelData).get(((Fragments) pixelData).size() - 1)
+                : pixelData;
+        if (!(value instanceof BulkData))
+            return null;
+        BulkData bulkData = (BulkData) value;
+        if (bulkData.uri == null || !bulkData.uri.startsWith("file:"))
+            return null;
+        return FileChannelCache.getDefault().acquire(bulkData.getFile());
+    }
+
+    private void writeFrame(Output output, String tsuid, int frame)
+            throws IOException {
+        DicomOutputStream out = output.open(frame);
+        try {
+            writeFrame(out, tsuid, frame);
+        } finally {
+            output.close(frame, out);
+        }
+    }
+
+    private void write(DicomOutputStream out, Encoded enc, Attributes perFrame)
+            throws IOException {
+        final int[] tags = enc.tags;
+        final int[] offsets = enc.offsets;
+        final int n = tags.length;
+        final byte[] bytes = enc.bytes;
+        final SpecificCharacterSet cs = perFrame.getSpecificCharacterSet();
+        int i = 0;
+        for (int tag : writeOrder(perFrame.tags())) {
+            int j = i;
+            while (j < n && compareTags(tags[j], tag) < 0)
+                j++;
+            out.write(bytes, offsets[i], offsets[j] - offsets[i]);
+            if (j < n && tags[j] == tag)
+                j++;
+            i = j;
+            VR.Holder vr = new VR.Holder();
+            Object value = perFrame.getValue(tag, vr);
+            out.writeAttribute(tag, vr.vr, value, cs);
+        }
+        out.write(bytes, offsets[i], offsets[n] - offsets[i]);
+    }
+
+    private Encoded encoded(DicomOutputStream out) throws IOException {
+        Encoded enc = encoded;
+        if (enc != null && enc.matches(out))
+            return enc;
+
+        synchronized (this) {
+            enc = encoded;
+            if (enc == null || !enc.matches(out))
+                encoded = enc = encode(out.isExplicitVR(), out.isBigEndian(),
+                        out.getEncodingOptions());
+        }
+        return enc;
+    }
+
+    private Encoded encode(boolean explicitVR, boolean bigEndian,
+            DicomEncodingOptions encOpts) throws IOException {
+        // copy, as DicomOutputStream.writeDataset does, to not keep lengths
+        // calculated for one Transfer Syntax in the shared attributes
+        Attributes attrs = new Attributes(shared, bigEndian);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream dout = new DicomOutputStream(bout,
+                bigEndian ? UID.ExplicitVRBigEndianRetired
+                        : explicitVR ? UID.ExplicitVRLittleEndian
+                                : UID.ImplicitVRLittleEndian);
+        dout.setEncodingOptions(encOpts);
+        SpecificCharacterSet cs = attrs.getSpecificCharacterSet();
+        int[] tags = writeOrder(attrs.tags());
+        int[] offsets = new int[tags.length + 1];
+        VR.Holder vr = new VR.Holder();
+        for (int i = 0; i < tags.length; i++) {
+            offsets[i] = bout.size();
+            Object value = attrs.getValue(tags[i], vr);
+            dout.writeAttribute(tags[i], vr.vr, value, cs);
+        }
+        offsets[tags.length] = bout.size();
+        return new Encoded(explicitVR, bigEndian, encOpts, tags, offsets,
+                bout.toByteArray());
+    }
+
+    /**
+     * Reorders tags, which are sorted as signed integers, to the order of
+     * their encoding by unsigned values.
+     */
+    private static int[] writeOrder(int[] tags) {
+        int index0 = 0;
+        while (index0 < tags.length && tags[index0] < 0)
+            index0++;
+        if (index0 == 0)
+            return tags;
+
+        int[] ordered = new int[tags.length];
+        System.arraycopy(tags, index0, ordered, 0, tags.length - index0);
+        System.arraycopy(tags, 0, ordered, tags.length - index0, index0);
+        return ordered;
+    }
+
+    private static int compareTags(int tag1, int tag2) {
+        int u1 = tag1 ^ Integer.MIN_VALUE;
+        int u2 = tag2 ^ Integer.MIN_VALUE;
+        return u1 < u2 ? -1 : u1 == u2 ? 0 : 1;
+    }
+}
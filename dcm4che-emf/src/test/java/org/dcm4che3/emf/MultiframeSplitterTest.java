@@ -0,0 +1,282 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.emf;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.Test;
+
+/**
+ * Compares the Single-frame images written by {@link MultiframeSplitter}
+ * byte by byte with the images returned by
+ * {@link MultiframeExtractor#extract} and written by
+ * {@link DicomOutputStream#writeDataset}.
+ *
+ * @author agent <agent@local>
+ */
+public class MultiframeSplitterTest {
+
+    private static final int PixelMeasuresSequence = 0x00289110;
+    private static final int PlanePositionSequence = 0x00209113;
+    private static final int FrameContentSequence = 0x00209111;
+    private static final int CTImageFrameTypeSequence = 0x00189329;
+    private static final int MRImageFrameTypeSequence = 0x00189226;
+    private static final int MREchoSequence = 0x00189114;
+    private static final int FrameAcquisitionNumber = 0x00209156;
+    private static final int InStackPositionNumber = 0x00209057;
+    private static final int ImagePositionPatient = 0x00200032;
+    private static final int SliceThickness = 0x00180050;
+
+    private static final int FRAMES = 6;
+    private static final int ROWS = 4;
+    private static final int COLUMNS = 3;
+    private static final int PRIVATE_FRAME = 4;
+
+    @Test
+    public void testEnhancedCTExplicitVR() throws Exception {
+        assertSplitEqualsExtract(createEnhancedCT(), UID.ExplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testEnhancedCTImplicitVR() throws Exception {
+        assertSplitEqualsExtract(createEnhancedCT(), UID.ImplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testEnhancedMRExplicitVR() throws Exception {
+        assertSplitEqualsExtract(createEnhancedMR(), UID.ExplicitVRLittleEndian);
+    }
+
+    @Test
+    public void testEnhancedMRImplicitVR() throws Exception {
+        assertSplitEqualsExtract(createEnhancedMR(), UID.ImplicitVRLittleEndian);
+    }
+
+    private static void assertSplitEqualsExtract(Attributes emf, String tsuid)
+            throws Exception {
+        MultiframeExtractor extractor = new MultiframeExtractor();
+        byte[][] expectedWithFmi = new byte[FRAMES][];
+        byte[][] expected = new byte[FRAMES][];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            expectedWithFmi[frame] = extract(extractor, emf, tsuid, frame, true);
+            expected[frame] = extract(extractor, emf, tsuid, frame, false);
+        }
+
+        int[] frames = new int[FRAMES];
+        for (int frame = 0; frame < FRAMES; frame++)
+            frames[frame] = frame;
+
+        MultiframeSplitter splitter = new MultiframeSplitter(extractor, emf);
+        Output output = new Output(tsuid, true);
+        splitter.writeFrames(frames, tsuid, output);
+        assertFramesEqual(expectedWithFmi, output);
+
+        output = new Output(tsuid, false);
+        splitter.writeFrames(frames, null, output);
+        assertFramesEqual(expected, output);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            output = new Output(tsuid, true);
+            new MultiframeSplitter(extractor, emf)
+                    .writeFrames(frames, tsuid, output, executor, 2);
+            assertFramesEqual(expectedWithFmi, output);
+
+            output = new Output(tsuid, false);
+            splitter.writeFrames(frames, null, output, executor, 4);
+            assertFramesEqual(expected, output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertFramesEqual(byte[][] expected, Output output) {
+        for (int frame = 0; frame < expected.length; frame++)
+            assertArrayEquals("frame #" + (frame + 1),
+                    expected[frame], output.bytes(frame));
+    }
+
+    private static byte[] extract(MultiframeExtractor extractor,
+            Attributes emf, String tsuid, int frame, boolean fmi)
+            throws IOException {
+        Attributes sf = extractor.extract(emf, frame);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream out = new DicomOutputStream(bout,
+                fmi ? UID.ExplicitVRLittleEndian : tsuid);
+        out.writeDataset(fmi ? sf.createFileMetaInformation(tsuid) : null, sf);
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    private static final class Output implements MultiframeSplitter.Output {
+
+        private final String tsuid;
+        private final boolean fmi;
+        private final ByteArrayOutputStream[] bouts =
+                new ByteArrayOutputStream[FRAMES];
+
+        Output(String tsuid, boolean fmi) {
+            this.tsuid = tsuid;
+            this.fmi = fmi;
+        }
+
+        @Override
+        public DicomOutputStream open(int frame) throws IOException {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            synchronized (bouts) {
+                bouts[frame] = bout;
+            }
+            return new DicomOutputStream(bout,
+                    fmi ? UID.ExplicitVRLittleEndian : tsuid);
+        }
+
+        @Override
+        public void close(int frame, DicomOutputStream out)
+                throws IOException {
+            out.close();
+        }
+
+        byte[] bytes(int frame) {
+            synchronized (bouts) {
+                return bouts[frame].toByteArray();
+            }
+        }
+    }
+
+    private static Attributes createEnhancedCT() {
+        Attributes emf = createEnhancedImage(UID.EnhancedCTImageStorage, "CT");
+        Attributes sfgs = emf.getNestedDataset(Tag.SharedFunctionalGroupsSequence);
+        sfgs.newSequence(CTImageFrameTypeSequence, 1).add(
+                frameType("ORIGINAL", "PRIMARY", "AXIAL", "NONE"));
+        Sequence pffgs = emf.getSequence(Tag.PerFrameFunctionalGroupsSequence);
+        pffgs.get(2).newSequence(CTImageFrameTypeSequence, 1).add(
+                frameType("DERIVED", "PRIMARY", "AXIAL", "NONE"));
+        return emf;
+    }
+
+    private static Attributes createEnhancedMR() {
+        Attributes emf = createEnhancedImage(UID.EnhancedMRImageStorage, "MR");
+        Attributes sfgs = emf.getNestedDataset(Tag.SharedFunctionalGroupsSequence);
+        Attributes mrFrameType = frameType("ORIGINAL", "PRIMARY", "ANGIO", "NONE");
+        mrFrameType.setString(Tag.EchoPulseSequence, VR.CS, "SPIN");
+        mrFrameType.setString(Tag.EchoPlanarPulseSequence, VR.CS, "NO");
+        mrFrameType.setString(Tag.SteadyStatePulseSequence, VR.CS, "NONE");
+        mrFrameType.setString(Tag.Spoiling, VR.CS, "RF");
+        sfgs.newSequence(MRImageFrameTypeSequence, 1).add(mrFrameType);
+        Sequence pffgs = emf.getSequence(Tag.PerFrameFunctionalGroupsSequence);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            Attributes echo = new Attributes(1);
+            echo.setDouble(Tag.EffectiveEchoTime, VR.FD, frame % 3 * 10.5);
+            pffgs.get(frame).newSequence(MREchoSequence, 1).add(echo);
+        }
+        mrFrameType = frameType("ORIGINAL", "PRIMARY", "CARDIAC", "NONE");
+        mrFrameType.setString(Tag.EchoPulseSequence, VR.CS, "GRADIENT");
+        pffgs.get(3).newSequence(MRImageFrameTypeSequence, 1).add(mrFrameType);
+        return emf;
+    }
+
+    private static Attributes frameType(String... values) {
+        Attributes item = new Attributes(5);
+        item.setString(Tag.FrameType, VR.CS, values);
+        return item;
+    }
+
+    private static Attributes createEnhancedImage(String cuid, String modality) {
+        Attributes emf = new Attributes();
+        emf.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 100");
+        emf.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL", "NONE");
+        emf.setString(Tag.SOPClassUID, VR.UI, cuid);
+        emf.setString(Tag.SOPInstanceUID, VR.UI, "1.2.40.0.13.1.1.99.1");
+        emf.setString(Tag.Modality, VR.CS, modality);
+        emf.setString(Tag.PatientName, VR.PN, "Müller^Hans");
+        emf.setString(Tag.PatientID, VR.LO, "P-4711");
+        emf.setString(Tag.StudyInstanceUID, VR.UI, "1.2.40.0.13.1.1.99.2");
+        emf.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.40.0.13.1.1.99.3");
+        emf.setString(Tag.InstanceNumber, VR.IS, "7");
+        emf.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        emf.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        emf.setInt(Tag.NumberOfFrames, VR.IS, FRAMES);
+        emf.setInt(Tag.Rows, VR.US, ROWS);
+        emf.setInt(Tag.Columns, VR.US, COLUMNS);
+        emf.setInt(Tag.BitsAllocated, VR.US, 16);
+        emf.setInt(Tag.BitsStored, VR.US, 12);
+        emf.setInt(Tag.PixelRepresentation, VR.US, 0);
+
+        Attributes pixelMeasures = new Attributes(2);
+        pixelMeasures.setString(Tag.PixelSpacing, VR.DS, "0.5", "0.5");
+        pixelMeasures.setString(SliceThickness, VR.DS, "1.25");
+        Attributes sfgs = new Attributes(2);
+        sfgs.newSequence(PixelMeasuresSequence, 1).add(pixelMeasures);
+        emf.newSequence(Tag.SharedFunctionalGroupsSequence, 1).add(sfgs);
+
+        Sequence pffgs = emf.newSequence(Tag.PerFrameFunctionalGroupsSequence, FRAMES);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            Attributes frameContent = new Attributes(3);
+            frameContent.setInt(FrameAcquisitionNumber, VR.US, frame / 2);
+            frameContent.setInt(InStackPositionNumber, VR.UL, frame + 1);
+            if (frame == PRIVATE_FRAME) {
+                frameContent.setString(0x00990010, VR.LO, "PRIVATE TEST");
+                frameContent.setString(0x00991001, VR.LO, "private value");
+            }
+            Attributes planePosition = new Attributes(1);
+            planePosition.setDouble(ImagePositionPatient, VR.DS,
+                    -100.0, -120.5, frame * 1.25);
+            Attributes fgs = new Attributes(3);
+            fgs.newSequence(FrameContentSequence, 1).add(frameContent);
+            fgs.newSequence(PlanePositionSequence, 1).add(planePosition);
+            pffgs.add(fgs);
+        }
+
+        byte[] pixelData = new byte[FRAMES * ROWS * COLUMNS * 2];
+        for (int i = 0; i < pixelData.length; i++)
+            pixelData[i] = (byte) (i * 7);
+        emf.setBytes(Tag.PixelData, VR.OW, pixelData);
+        return emf;
+    }
+}
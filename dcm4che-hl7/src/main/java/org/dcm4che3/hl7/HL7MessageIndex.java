@@ -0,0 +1,353 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+package org.dcm4che3.hl7;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * HL7 v2 message, which keeps the received bytes and only records the
+ * offsets of segments and fields by one scan of the message. Field values
+ * are decoded on access.
+ * <p/>
+ * Fields are indexed like by {@link HL7Segment}: index 0 refers to the
+ * segment name, so for MSH index {@code n} refers to {@code MSH-(n+1)},
+ * for all other segments to the field with the same number.
+ *
+ * @author agent <agent@local>
+ */
+public class HL7MessageIndex {
+
+    private final byte[] b;
+    private final int off;
+    private final int end;
+    private final byte fieldSeparator;
+    private final byte componentSeparator;
+    private final byte repetitionSeparator;
+    private final byte escapeCharacter;
+    private final byte subcomponentSeparator;
+    private final String charsetName;
+    private int[] segments;
+    private int[] fields;
+    private int segmentCount;
+    private int fieldCount;
+
+    private HL7MessageIndex(byte[] b, int off, int len, String defCharset) {
+        if (len < 8 || b[off] != 'M' || b[off+1] != 'S' || b[off+2] != 'H')
+            throw new IllegalArgumentException("Invalid MSH Segment: "
+                    + new String(b, off, Math.min(len, 80)));
+        this.b = b;
+        this.off = off;
+        this.end = off + len;
+        this.fieldSeparator = b[off+3];
+        this.componentSeparator = b[off+4];
+        this.repetitionSeparator = b[off+5];
+        this.escapeCharacter = b[off+6];
+        this.subcomponentSeparator = b[off+7];
+        this.segments = new int[16];
+        this.fields = new int[256];
+        scan();
+        String charset = getField(0, 17, null);
+        this.charsetName = HL7Charset.toCharsetName(
+                charset != null ? charset : defCharset);
+    }
+
+    public static HL7MessageIndex parse(byte[] b, String defCharset) {
+        return new HL7MessageIndex(b, 0, b.length, defCharset);
+    }
+
+    public static HL7MessageIndex parse(byte[] b, int off, int len,
+            String defCharset) {
+        return new HL7MessageIndex(b, off, len, defCharset);
+    }
+
+    private void scan() {
+        int i = off;
+        while (i < end) {
+            byte c = b[i];
+            if (c == '\r' || c == '\n') {
+                i++;
+                continue;
+            }
+            if (segmentCount + 1 >= segments.length)
+                segments = Arrays.copyOf(segments, segments.length << 1);
+            segments[segmentCount++] = fieldCount;
+            addField(i);
+            for (; i < end && (c = b[i]) != '\r' && c != '\n'; i++)
+                if (c == fieldSeparator)
+                    addField(i + 1);
+            addField(i + 1);
+        }
+        segments[segmentCount] = fieldCount;
+    }
+
+    private void addField(int start) {
+        if (fieldCount == fields.length)
+            fields = Arrays.copyOf(fields, fieldCount << 1);
+        fields[fieldCount++] = start;
+    }
+
+    public final byte[] getBytes() {
+        return b;
+    }
+
+    public final String getCharsetName() {
+        return charsetName;
+    }
+
+    public final char getFieldSeparator() {
+        return (char) (fieldSeparator & 0xff);
+    }
+
+    public final String getEncodingCharacters() {
+        return new String(b, off + 4, 4);
+    }
+
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    public int fieldCount(int seg) {
+        checkSegment(seg);
+        return segments[seg+1] - segments[seg] - 1;
+    }
+
+    public String getSegmentName(int seg) {
+        return getField(seg, 0, null);
+    }
+
+    public int indexOfSegment(String name) {
+        return indexOfSegment(name, 0);
+    }
+
+    /**
+     * Returns the index of the first segment with the specified name,
+     * starting the search at segment {@code fromSeg}.
+     *
+     * @return index of the segment or -1, if there is no such segment
+     */
+    public int indexOfSegment(String name, int fromSeg) {
+        int n = name.length();
+        for (int seg = Math.max(fromSeg, 0); seg < segmentCount; seg++) {
+            int start = fields[segments[seg]];
+            if (fieldEnd(segments[seg]) - start == n && regionMatches(start, name))
+                return seg;
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(int start, String name) {
+        for (int i = 0, n = name.length(); i < n; i++)
+            if (b[start + i] != name.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the segment as {@code String}, without decoding escape
+     * sequences.
+     */
+    public String getSegment(int seg) {
+        checkSegment(seg);
+        int start = fields[segments[seg]];
+        return decode(start, fields[segments[seg+1] - 1] - 1 - start);
+    }
+
+    /**
+     * Returns the segment as {@link HL7Segment}.
+     */
+    public HL7Segment getHL7Segment(int seg) {
+        return new HL7Segment(getSegment(seg), getFieldSeparator(),
+                getEncodingCharacters());
+    }
+
+    /**
+     * Returns the value of a field, without decoding escape sequences, like
+     * {@link HL7Segment#getField(int, String)}.
+     *
+     * @return the field value or {@code defVal}, if the field is absent or
+     * empty
+     */
+    public String getField(int seg, int field, String defVal) {
+        checkSegment(seg);
+        if (field < 0 || field >= fieldCount(seg))
+            return defVal;
+
+        int index = segments[seg] + field;
+        int start = fields[index];
+        int len = fieldEnd(index) - start;
+        return len > 0 ? decode(start, len) : defVal;
+    }
+
+    /**
+     * Returns the value of a field of the first segment with the specified
+     * name, without decoding escape sequences.
+     */
+    public String getField(String segName, int field, String defVal) {
+        int seg = indexOfSegment(segName);
+        return seg >= 0 ? getField(seg, field, defVal) : defVal;
+    }
+
+    /**
+     * Returns the value of a subcomponent of a field, with decoded escape
+     * sequences for delimiter characters. Repetitions, components and
+     * subcomponents are indexed starting with 0.
+     *
+     * @return the value or {@code defVal}, if the subcomponent is absent or
+     * empty
+     */
+    public String getValue(int seg, int field, int repetition, int component,
+            int subcomponent, String defVal) {
+        checkSegment(seg);
+        if (field < 0 || field >= fieldCount(seg))
+            return defVal;
+
+        if (seg == 0 && field == 1) // MSH-2 Encoding Characters
+            return repetition == 0 && component == 0 && subcomponent == 0
+                    ? getField(seg, field, defVal)
+                    : defVal;
+
+        int index = segments[seg] + field;
+        long range = range(fields[index], fieldEnd(index));
+        range = subrange(range, repetitionSeparator, repetition);
+        range = subrange(range, componentSeparator, component);
+        range = subrange(range, subcomponentSeparator, subcomponent);
+        int start = (int) (range >>> 32);
+        int len = (int) range - start;
+        return len > 0 ? unescape(start, len) : defVal;
+    }
+
+    public String getValue(int seg, int field, int component, String defVal) {
+        return getValue(seg, field, 0, component, 0, defVal);
+    }
+
+    private static long range(int start, int end) {
+        return ((long) start << 32) | end;
+    }
+
+    private long subrange(long range, byte separator, int index) {
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        if (index < 0)
+            return range(start, start);
+
+        for (int i = start; i < end; i++) {
+            if (b[i] == separator) {
+                if (index-- == 0)
+                    return range(start, i);
+                start = i + 1;
+            }
+        }
+        return index == 0 ? range(start, end) : range(end, end);
+    }
+
+    private int fieldEnd(int index) {
+        return fields[index + 1] - 1;
+    }
+
+    private void checkSegment(int seg) {
+        if (seg < 0 || seg >= segmentCount)
+            throw new IndexOutOfBoundsException("seg: " + seg
+                    + ", segmentCount: " + segmentCount);
+    }
+
+    private String decode(int start, int len) {
+        try {
+            return new String(b, start, len, charsetName != null
+                    ? charsetName : HL7Charset.toCharsetName(null));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException("charsetName: " + charsetName);
+        }
+    }
+
+    private String unescape(int start, int len) {
+        int end = start + len;
+        int i = start;
+        while (i < end && b[i] != escapeCharacter)
+            i++;
+        if (i == end)
+            return decode(start, len);
+
+        StringBuilder sb = new StringBuilder(len);
+        int from = start;
+        while (i < end) {
+            int close = i + 1;
+            while (close < end && b[close] != escapeCharacter)
+                close++;
+            if (close == end)
+                break;
+            if (close == i + 2) {
+                byte c = delimiter(b[i + 1]);
+                if (c != 0) {
+                    sb.append(decode(from, i - from)).append((char) (c & 0xff));
+                    from = close + 1;
+                }
+            }
+            i = close + 1;
+            while (i < end && b[i] != escapeCharacter)
+                i++;
+        }
+        return sb.append(decode(from, end - from)).toString();
+    }
+
+    private byte delimiter(byte code) {
+        switch (code) {
+        case 'F':
+            return fieldSeparator;
+        case 'S':
+            return componentSeparator;
+        case 'R':
+            return repetitionSeparator;
+        case 'E':
+            return escapeCharacter;
+        case 'T':
+            return subcomponentSeparator;
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int seg = 0; seg < segmentCount; seg++)
+            sb.append(getSegment(seg)).append('\r');
+        return sb.toString();
+    }
+}
@@ -41,8 +41,8 @@ package org.dcm4che3.hl7;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.StringTokenizer;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -61,6 +61,12 @@ public class HL7Parser {
     private final AttributesImpl atts = new AttributesImpl();
     private final EnumSet<Delimiter> open = EnumSet.noneOf(Delimiter.class);
     private String delimiters;
+    private char[] delims;
+    private char[] cbuf = new char[256];
+    private int clen;
+    private int[] tkOff = new int[64];
+    private int[] tkLen = new int[64];
+    private int tkCount;
 
     public HL7Parser(ContentHandler ch) {
         this.ch = ch;
@@ -82,60 +88,196 @@ public class HL7Parser {
 
     public void parse(BufferedReader reader) throws IOException, SAXException {
         startDocument();
-        delimiters = Delimiter.DEFAULT;
+        setDefaultDelimiters();
         String line;
-        while ((line = reader.readLine()) != null) {
-            line = line.trim();
-            if(line.length() == 0)
-                continue;
-
-            if (line.length() < 3)
-                throw new IOException ("Segment to short: " + line);
-
-            String seg = line.substring(0, 3);
-            String[] tks;
-            int tkindex = 0;
-            if (isHeaderSegment(line)) {
-                if (line.length() < 8)
-                    throw new IOException ("Header Segment to short: " + line);
-
-                seg = line.substring(0, 3);
-                setDelimiters(line.substring(3, 8));
-                tks = tokenize(line.substring(8));
-            } else {
-                tks = tokenize(line);
-                seg = tks[tkindex++];
+        while ((line = reader.readLine()) != null)
+            parseSegment(line);
+        endDocument();
+    }
+
+    /**
+     * Emits the same SAX events for an already received message as
+     * {@link #parse(Reader)} for the message read from a character stream.
+     * Segments are tokenized field by field at the field offsets recorded by
+     * the index, without decoding the segment as a whole.
+     *
+     * @param msg received message
+     * @throws IOException if a segment is too short
+     * @throws SAXException
+     */
+    public void parse(HL7MessageIndex msg) throws IOException, SAXException {
+        startDocument();
+        setDefaultDelimiters();
+        for (int seg = 0, n = msg.segmentCount(); seg < n; seg++)
+            parseSegment(msg, seg);
+        endDocument();
+    }
+
+    private void parseSegment(String line) throws IOException, SAXException {
+        line = line.trim();
+        if(line.length() == 0)
+            return;
+
+        if (line.length() < 3)
+            throw new IOException ("Segment to short: " + line);
+
+        String seg;
+        int tkindex = 0;
+        tkCount = 0;
+        clen = 0;
+        if (isHeaderSegment(line)) {
+            if (line.length() < 8)
+                throw new IOException ("Header Segment to short: " + line);
+
+            seg = line.substring(0, 3);
+            setDelimiters(line.substring(3, 8));
+            tokenize(line, 8, line.length());
+        } else {
+            tokenize(line, 0, line.length());
+            seg = token(tkindex++);
+        }
+        startElement(seg);
+        emitTokens(tkindex);
+        endElement(Delimiter.field);
+        endElement(seg);
+    }
+
+    /**
+     * Parses segment {@code seg} of the message field by field. Falls back
+     * to {@link #parseSegment(String)} for header segments and for segments
+     * which are not delimited by the current field delimiter or whose name
+     * is not a plain 3 character name.
+     */
+    private void parseSegment(HL7MessageIndex msg, int seg)
+            throws IOException, SAXException {
+        int n = msg.fieldCount(seg);
+        String name = msg.getField(seg, 0, "");
+        if (n < 2 || name.length() != 3 || isHeaderSegment(name)
+                || msg.getFieldSeparator() != delims[0]
+                || !isPlainName(name)) {
+            parseSegment(msg.getSegment(seg));
+            return;
+        }
+        tkCount = 0;
+        clen = 0;
+        for (int field = 1; field < n; field++) {
+            addToken(-1, Delimiter.field.ordinal());
+            String value = msg.getField(seg, field, null);
+            if (value != null) {
+                int len = value.length();
+                if (field == n - 1)
+                    while (len > 0 && value.charAt(len - 1) <= ' ')
+                        len--;
+                tokenize(value, 0, len);
             }
-            startElement(seg);
-            while (tkindex < tks.length) {
-                String tk = tks[tkindex++];
-                Delimiter d = delimiter(tk);
-                if (d != null) {
-                    if (d != Delimiter.escape) {
-                        endElement(d);
-                        startElement(d);
-                        continue;
-                    }
-                    if (tks.length > tkindex+1 && tks[tkindex+1].equals(tk)) {
-                        tk = tks[tkindex++];
-                        int e = escapeIndex(tk);
-                        if (e >= 0) {
-                            ch.characters(delimiters.toCharArray(), e, 1);
-                        } else {
-                            startElement(Delimiter.escape.name());
-                            ch.characters(tk.toCharArray(), 0, tk.length());
-                            endElement(Delimiter.escape.name());
-                        }
-                        tkindex++;
-                        continue;
+        }
+        startElement(name);
+        emitTokens(0);
+        endElement(Delimiter.field);
+        endElement(name);
+    }
+
+    private boolean isPlainName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || delimiters.indexOf(c) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits {@code s[start, end)} into tokens, which are either single
+     * delimiters or maximal runs of other characters, like a
+     * {@link java.util.StringTokenizer} returning delimiters. The characters
+     * of runs are appended to {@link #cbuf}.
+     */
+    private void tokenize(String s, int start, int end) {
+        ensureCharBufferCapacity(clen + end - start);
+        s.getChars(start, end, cbuf, clen);
+        int runStart = clen;
+        int i = clen;
+        int cend = clen + end - start;
+        for (; i < cend; i++) {
+            int d = delimiters.indexOf(cbuf[i]);
+            if (d >= 0) {
+                if (i > runStart)
+                    addToken(runStart, i - runStart);
+                addToken(-1, d);
+                runStart = i + 1;
+            }
+        }
+        if (i > runStart)
+            addToken(runStart, i - runStart);
+        clen = cend;
+    }
+
+    /**
+     * Adds a token. Delimiter tokens are added with {@code off = -1} and
+     * the index of the delimiter as {@code len}.
+     */
+    private void addToken(int off, int len) {
+        if (tkCount == tkOff.length) {
+            tkOff = Arrays.copyOf(tkOff, tkCount << 1);
+            tkLen = Arrays.copyOf(tkLen, tkCount << 1);
+        }
+        tkOff[tkCount] = off;
+        tkLen[tkCount] = len;
+        tkCount++;
+    }
+
+    private void ensureCharBufferCapacity(int len) {
+        if (cbuf.length < len)
+            cbuf = Arrays.copyOf(cbuf, Math.max(len, cbuf.length << 1));
+    }
+
+    /**
+     * @return index of the delimiter or -1 if the token is not a delimiter
+     */
+    private int delimiterIndex(int tk) {
+        return tkOff[tk] < 0 ? tkLen[tk] : -1;
+    }
+
+    private String token(int tk) {
+        return tkOff[tk] < 0
+                ? delimiters.substring(tkLen[tk], tkLen[tk] + 1)
+                : new String(cbuf, tkOff[tk], tkLen[tk]);
+    }
+
+    private void characters(int tk) throws SAXException {
+        if (tkOff[tk] < 0)
+            ch.characters(delims, tkLen[tk], 1);
+        else
+            ch.characters(cbuf, tkOff[tk], tkLen[tk]);
+    }
+
+    private void emitTokens(int tkindex) throws SAXException {
+        Delimiter[] values = Delimiter.values();
+        while (tkindex < tkCount) {
+            int tk = tkindex++;
+            int d = delimiterIndex(tk);
+            if (d >= 0) {
+                if (values[d] != Delimiter.escape) {
+                    endElement(values[d]);
+                    startElement(values[d]);
+                    continue;
+                }
+                if (tkCount > tkindex+1 && delimiterIndex(tkindex+1) == d) {
+                    tk = tkindex++;
+                    int e = escapeIndex(tk);
+                    if (e >= 0) {
+                        ch.characters(delims, e, 1);
+                    } else {
+                        startElement(Delimiter.escape.name());
+                        characters(tk);
+                        endElement(Delimiter.escape.name());
                     }
+                    tkindex++;
+                    continue;
                 }
-                ch.characters(tk.toCharArray(), 0, tk.length());
             }
-            endElement(Delimiter.field);
-            endElement(seg);
+            characters(tk);
         }
-        endDocument();
     }
 
     private boolean isHeaderSegment(String line) {
@@ -155,36 +297,27 @@ public class HL7Parser {
         ch.endDocument();
     }
 
+    private void setDefaultDelimiters() {
+        this.delimiters = Delimiter.DEFAULT;
+        this.delims = delimiters.toCharArray();
+    }
+
     private void setDelimiters(String delimiters) {
         Delimiter[] a = Delimiter.values();
         for (int i = 0; i < a.length; i++)
             addAttribute(a[i].attribute(), delimiters.substring(i,i+1));
         this.delimiters = delimiters;
+        this.delims = delimiters.toCharArray();
     }
 
     private void addAttribute(String name, String value) {
         atts.addAttribute(namespace, name, name, "NMTOKEN", value);
     }
 
-    private Delimiter delimiter(String tk) {
-        if (tk.length() != 1)
-            return null;
-
-        int index = delimiters.indexOf(tk.charAt(0));
-        return index >= 0 ? Delimiter.values()[index] : null;
-    }
-
-    private int escapeIndex(String tk) {
-        return tk.length() != 1 ? Delimiter.ESCAPE.indexOf(tk.charAt(0)) : -1;
-    }
-
-    private String[] tokenize(String s) {
-        StringTokenizer stk = new StringTokenizer(s, delimiters, true);
-        String[] tks = new String[stk.countTokens()];
-        for (int i = 0; i < tks.length; i++)
-            tks[i] = stk.nextToken();
-
-        return tks;
+    private int escapeIndex(int tk) {
+        return tkOff[tk] >= 0 && tkLen[tk] != 1
+                ? Delimiter.ESCAPE.indexOf(cbuf[tkOff[tk]])
+                : -1;
     }
 
     private void startElement(Delimiter d) throws SAXException {
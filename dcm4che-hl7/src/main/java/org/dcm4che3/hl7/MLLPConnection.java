@@ -81,6 +81,22 @@ public class MLLPConnection {
         return b;
     }
 
+    /**
+     * Reads the next message into {@code buf}, replacing its previous content.
+     *
+     * @param buf buffer to read the message into
+     * @return {@code false} if there is no more input, otherwise {@code true}
+     * @throws IOException
+     */
+    public boolean readMessage(HL7MessageBuffer buf) throws IOException {
+        buf.reset();
+        if (!mllpIn.readMessage(buf))
+            return false;
+
+        log("{} >> {}", buf.buffer(), 0, buf.length());
+        return true;
+    }
+
     private void log(String format, byte[] b, int off, int len) {
         if (!LOG.isInfoEnabled())
             return;
@@ -151,6 +151,22 @@ public class MLLPInputStream extends BufferedInputStream {
         return totlen;
     }
 
+    /**
+     * Copies the next message to {@code out}, without buffering it in an
+     * intermediate byte array.
+     *
+     * @param out stream to which the message is written
+     * @return {@code false} if there is no more input, otherwise {@code true}
+     * @throws IOException
+     */
+    public synchronized boolean readMessage(OutputStream out) throws IOException {
+        if (!hasMoreInput())
+            return false;
+
+        copyTo(out);
+        return true;
+    }
+
     public synchronized byte[] readMessage() throws IOException {
         if (!hasMoreInput())
             return null;
@@ -0,0 +1,267 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.hl7;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class HL7MessageIndexTest {
+
+    private static final String MSH =
+            "MSH|^~\\&|SENDAPP|SENDFAC|RECVAPP|RECVFAC|20150601120000||"
+            + "ADT^A01^ADT_A01|MSG0001|P|2.5||||||";
+    private static final String PID =
+            "PID|1||PID1^^^ISSUER~PID2^^^ISS2&1.2.3&ISO||M\u00fcller^Hans||"
+            + "19700101|M|||Street\\F\\1^^City\\X0D\\";
+    private static final String PV1 = "PV1|1|I";
+
+    private static byte[] message(String charset, String encoding,
+            String separator) throws Exception {
+        return (MSH + (charset != null ? charset : "") + separator
+                + PID + separator + PV1 + separator).getBytes(encoding);
+    }
+
+    @Test
+    public void testMSH() throws Exception {
+        HL7MessageIndex msg = HL7MessageIndex.parse(
+                message("8859/1", "ISO-8859-1", "\r"), null);
+        assertEquals('|', msg.getFieldSeparator());
+        assertEquals("^~\\&", msg.getEncodingCharacters());
+        assertEquals("MSH", msg.getSegmentName(0));
+        assertEquals("^~\\&", msg.getField(0, 1, null));
+        assertEquals("^~\\&", msg.getValue(0, 1, 0, null));
+        assertNull(msg.getValue(0, 1, 1, null));
+        assertEquals("SENDAPP", msg.getField(0, 2, null));
+        assertEquals("RECVFAC", msg.getField(0, 5, null));
+        assertNull(msg.getField(0, 7, null));
+        assertEquals("ADT^A01^ADT_A01", msg.getField(0, 8, null));
+        assertEquals("ADT", msg.getValue(0, 8, 0, null));
+        assertEquals("A01", msg.getValue(0, 8, 1, null));
+        assertEquals("ADT_A01", msg.getValue(0, 8, 2, null));
+        assertNull(msg.getValue(0, 8, 3, null));
+        assertEquals("MSG0001", msg.getField("MSH", 9, null));
+        assertEquals("8859/1", msg.getField(0, 17, null));
+        assertEquals(18, msg.fieldCount(0));
+        assertEquals("def", msg.getField(0, 18, "def"));
+    }
+
+    @Test
+    public void testRepetitionsComponentsSubcomponents() throws Exception {
+        HL7MessageIndex msg = HL7MessageIndex.parse(
+                message(null, "US-ASCII", "\r"), null);
+        int pid = msg.indexOfSegment("PID");
+        assertEquals(1, pid);
+        assertEquals("PID1", msg.getValue(pid, 3, 0, 0, 0, null));
+        assertEquals("ISSUER", msg.getValue(pid, 3, 0, 3, 0, null));
+        assertEquals("PID2", msg.getValue(pid, 3, 1, 0, 0, null));
+        assertEquals("ISS2", msg.getValue(pid, 3, 1, 3, 0, null));
+        assertEquals("1.2.3", msg.getValue(pid, 3, 1, 3, 1, null));
+        assertEquals("ISO", msg.getValue(pid, 3, 1, 3, 2, null));
+        assertNull(msg.getValue(pid, 3, 1, 3, 3, null));
+        assertNull(msg.getValue(pid, 3, 0, 1, 0, null));
+        assertNull(msg.getValue(pid, 3, 2, 0, 0, null));
+        assertEquals("def", msg.getValue(pid, 3, 0, 4, 0, "def"));
+        assertEquals("def", msg.getValue(pid, 30, 0, 0, 0, "def"));
+    }
+
+    @Test
+    public void testEscapeSequences() throws Exception {
+        HL7MessageIndex msg = HL7MessageIndex.parse(
+                message(null, "US-ASCII", "\r"), null);
+        assertEquals("Street\\F\\1^^City\\X0D\\", msg.getField(1, 11, null));
+        assertEquals("Street|1", msg.getValue(1, 11, 0, null));
+        assertEquals("City\\X0D\\", msg.getValue(1, 11, 2, null));
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        for (String separator : new String[] { "\r", "\n", "\r\n" }) {
+            HL7MessageIndex msg = HL7MessageIndex.parse(
+                    message(null, "US-ASCII", separator), null);
+            assertEquals(3, msg.segmentCount());
+            assertEquals("PV1", msg.getSegmentName(2));
+            assertEquals(2, msg.indexOfSegment("PV1"));
+            assertEquals(-1, msg.indexOfSegment("PID", 2));
+            assertEquals(-1, msg.indexOfSegment("OBX"));
+            assertEquals(PV1, msg.getSegment(2));
+            assertEquals(3, msg.fieldCount(2));
+            assertEquals("I", msg.getField(2, 2, null));
+        }
+    }
+
+    @Test
+    public void testParseWithOffset() throws Exception {
+        byte[] b = message(null, "US-ASCII", "\r");
+        byte[] buf = new byte[b.length + 20];
+        System.arraycopy(b, 0, buf, 10, b.length);
+        HL7MessageIndex msg = HL7MessageIndex.parse(buf, 10, b.length, null);
+        assertEquals(3, msg.segmentCount());
+        assertEquals("SENDAPP", msg.getField(0, 2, null));
+        assertEquals("I", msg.getField(2, 2, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMSH() throws Exception {
+        HL7MessageIndex.parse("PID|1||PID1".getBytes("US-ASCII"), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedMSH() throws Exception {
+        HL7MessageIndex.parse("MSH|^~".getBytes("US-ASCII"), null);
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        assertCharset("8859/1", "ISO-8859-1", null);
+        assertCharset("UNICODE UTF-8", "UTF-8", "8859/1");
+        assertCharset(null, "ISO-8859-1", "8859/1");
+        HL7MessageIndex msg = HL7MessageIndex.parse(
+                message(null, "US-ASCII", "\r"), null);
+        assertEquals("US-ASCII", msg.getCharsetName());
+    }
+
+    private static void assertCharset(String msh18, String encoding,
+            String defCharset) throws Exception {
+        HL7MessageIndex msg = HL7MessageIndex.parse(
+                message(msh18, encoding, "\r"), defCharset);
+        assertEquals(encoding, msg.getCharsetName());
+        assertEquals("M\u00fcller", msg.getValue(1, 5, 0, null));
+    }
+
+    @Test
+    public void testMatchesHL7Message() throws Exception {
+        byte[] b = message("8859/1", "ISO-8859-1", "\r");
+        HL7MessageIndex index = HL7MessageIndex.parse(b, null);
+        HL7Message msg = HL7Message.parse(b, null);
+        assertEquals(msg.size(), index.segmentCount());
+        for (int seg = 0; seg < msg.size(); seg++) {
+            HL7Segment segment = msg.get(seg);
+            assertEquals(segment.toString(), index.getSegment(seg));
+            for (int field = 0; field < segment.size() + 2; field++)
+                assertEquals(segment.getField(field, null),
+                        index.getField(seg, field, null));
+        }
+    }
+
+    @Test
+    public void testParserOutput() throws Exception {
+        assertParserOutput(false);
+        assertParserOutput(true);
+    }
+
+    @Test
+    public void testParserOutputEdgeCases() throws Exception {
+        String msg = MSH + "\r"
+                + "PID|1||A\\F\\B\\Fxx\\C\\\\\\D\\E^^~~&&|\\|\\|  \n"
+                + "ZX|1\r"
+                + " OBX|1|TX|||trailing  \r"
+                + "NTE\r"
+                + "NTE||\\X0D\\|   \r\n";
+        byte[] b = msg.getBytes("ISO-8859-1");
+        assertParserOutput(b, false);
+    }
+
+    private static void assertParserOutput(boolean includeNamespace)
+            throws Exception {
+        assertParserOutput(message("8859/1", "ISO-8859-1", "\r"),
+                includeNamespace);
+    }
+
+    private static void assertParserOutput(byte[] b, boolean includeNamespace)
+            throws Exception {
+        RecordingHandler expected = new RecordingHandler();
+        HL7Parser parser = new HL7Parser(expected);
+        parser.setIncludeNamespaceDeclaration(includeNamespace);
+        parser.parse(new StringReader(new String(b, "ISO-8859-1")));
+
+        RecordingHandler actual = new RecordingHandler();
+        parser = new HL7Parser(actual);
+        parser.setIncludeNamespaceDeclaration(includeNamespace);
+        parser.parse(HL7MessageIndex.parse(b, null));
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    private static class RecordingHandler extends DefaultHandler {
+
+        private final StringBuilder sb = new StringBuilder();
+
+        @Override
+        public void startDocument() {
+            sb.append("startDocument\n");
+        }
+
+        @Override
+        public void endDocument() {
+            sb.append("endDocument\n");
+        }
+
+        @Override
+        public void startElement(String uri, String localName,
+                String qName, Attributes atts) {
+            sb.append('<').append(uri).append(':').append(qName);
+            for (int i = 0; i < atts.getLength(); i++)
+                sb.append(' ').append(atts.getQName(i)).append("=\"")
+                        .append(atts.getValue(i)).append('"');
+            sb.append(">\n");
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            sb.append("</").append(uri).append(':').append(qName).append(">\n");
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            sb.append('[').append(ch, start, length).append("]\n");
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+}
@@ -38,6 +38,7 @@
 
 package org.dcm4che3.image;
 
+import java.awt.Rectangle;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
@@ -168,6 +169,19 @@ public class Overlays {
 
     public static void applyOverlay(int frameIndex, WritableRaster raster,
             Attributes attrs, int gg0000, int pixelValue, byte[] ovlyData) {
+        applyOverlay(frameIndex, raster, attrs, gg0000, pixelValue, ovlyData,
+                null, 1, 1);
+    }
+
+    /**
+     * Applies the overlay on a raster, which only contains the specified
+     * source region of the image, sampled by the specified subsampling factors.
+     * Like image pixels, only overlay pixels inside the source region and on
+     * the subsampling grid are applied.
+     */
+    public static void applyOverlay(int frameIndex, WritableRaster raster,
+            Attributes attrs, int gg0000, int pixelValue, byte[] ovlyData,
+            Rectangle sourceRegion, int xSubsampling, int ySubsampling) {
 
         int imageFrameOrigin = attrs.getInt(Tag.ImageFrameOrigin | gg0000, 1);
         int framesInOverlay = attrs.getInt(Tag.NumberOfFramesInOverlay | gg0000, 1);
@@ -209,6 +223,14 @@ public class Overlays {
 
         int x0 = ovlyOrigin[1] - 1;
         int y0 = ovlyOrigin[0] - 1;
+        int width = raster.getWidth() * xSubsampling;
+        int height = raster.getHeight() * ySubsampling;
+        if (sourceRegion != null) {
+            x0 -= sourceRegion.x;
+            y0 -= sourceRegion.y;
+            width = Math.min(width, sourceRegion.width);
+            height = Math.min(height, sourceRegion.height);
+        }
 
         int ovlyLen = ovlyRows * ovlyColumns;
         int ovlyOff = ovlyLen * ovlyFrameIndex;
@@ -225,9 +247,35 @@ public class Overlays {
 
                 int y = y0 + ovlyIndex / ovlyColumns;
                 int x = x0 + ovlyIndex % ovlyColumns;
-                try {
-                    raster.setSample(x, y, 0, pixelValue);
-                } catch (ArrayIndexOutOfBoundsException ignore) {}
+                if (x < 0 || y < 0 || x >= width || y >= height
+                        || x % xSubsampling != 0 || y % ySubsampling != 0)
+                    continue;
+
+                raster.setSample(x / xSubsampling, y / ySubsampling, 0,
+                        pixelValue);
+            }
+        }
+    }
+
+    /**
+     * Applies an overlay bitmap, which was extracted from the raster by
+     * {@link #extractFromPixeldata}, so its dimension matches the raster.
+     */
+    public static void applyOverlay(WritableRaster raster, byte[] ovlyData,
+            int pixelValue) {
+        int columns = raster.getWidth();
+        int len = columns * raster.getHeight();
+        for (int i = 0, end = Math.min(ovlyData.length, (len + 7) >>> 3);
+                i < end; i++) {
+            int ovlyBits = ovlyData[i] & 0xff;
+            for (int j = 0; (ovlyBits>>>j) != 0; j++) {
+                if ((ovlyBits & (1<<j)) == 0)
+                    continue;
+
+                int ovlyIndex = (i<<3) + j;
+                if (ovlyIndex < len)
+                    raster.setSample(ovlyIndex % columns, ovlyIndex / columns,
+                            0, pixelValue);
             }
         }
     }
@@ -39,6 +39,7 @@
 package org.dcm4che3.imageio.plugins.rle;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferShort;
@@ -48,6 +49,7 @@ import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import javax.imageio.ImageReadParam;
@@ -75,18 +77,15 @@ public class RLEImageReader extends ImageReader {
     private static final String UNSUPPORTED_DATA_TYPE =
             "Unsupported Data Type of ImageReadParam.destination or "
             + "ImageReadParam.destinationType: ";
+    private static final String UNSUPPORTED_SAMPLE_MODEL =
+            "Unsupported Sample Model of ImageReadParam.destination or "
+            + "ImageReadParam.destinationType: ";
     private static final String MISMATCH_NUM_RLE_SEGMENTS =
             "Number of RLE Segments does not match image type: ";
 
     private final int[] header = new int[16];
 
-    private final byte[] buf = new byte[8192];
-
-    private long headerPos;
-
-    private long bufOff;
-
-    private int bufPos;
+    private byte[] buf = {};
 
     private int bufLen;
 
@@ -156,7 +155,7 @@ public class RLEImageReader extends ImageReader {
         checkIndex(imageIndex);
 
         WritableRaster raster = getDestinationRaster(param);
-        read(raster.getDataBuffer());
+        read(raster);
         return raster;
     }
 
@@ -166,7 +165,7 @@ public class RLEImageReader extends ImageReader {
         checkIndex(imageIndex);
 
         BufferedImage bi = getDestination(param);
-        read(bi.getRaster().getDataBuffer());
+        read(bi.getRaster());
         return bi;
     }
 
@@ -217,16 +216,53 @@ public class RLEImageReader extends ImageReader {
         throw new IllegalArgumentException(UNKNOWN_IMAGE_TYPE);
     }
 
-    private void read(DataBuffer db) throws IOException {
+    /**
+     * Reads all RLE segments of the frame with bulk reads into the reusable
+     * compressed data buffer and expands the runs directly into the bank(s)
+     * of the destination, so pixel interleaved as well as banded destination
+     * rasters are supported. Runs are expanded row by row, honouring the
+     * scanline stride and the sample model translation of the raster, so the
+     * destination may also be a child raster of a larger image. Destination
+     * samples are overwritten, not combined with previous content, so a
+     * destination may be reused for subsequent frames.
+     */
+    private void read(WritableRaster raster) throws IOException {
+        SampleModel sm = raster.getSampleModel();
+        if (!(sm instanceof ComponentSampleModel))
+            throw new IllegalArgumentException(
+                    UNSUPPORTED_SAMPLE_MODEL + sm.getClass().getName());
+
+        ComponentSampleModel csm = (ComponentSampleModel) sm;
+        DataBuffer db = raster.getDataBuffer();
+        int numBands = csm.getNumBands();
+        int[] bankIndices = csm.getBankIndices();
+        int pixelStride = csm.getPixelStride();
+        int scanlineStride = csm.getScanlineStride();
+        int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+        int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+        int[] offsets = new int[numBands];
+        for (int b = 0; b < numBands; b++)
+            offsets[b] = db.getOffsets()[bankIndices[b]]
+                    + csm.getOffset(x0, y0, b);
+        Rows rows = new Rows(pixelStride, width, scanlineStride, height);
         switch (db.getDataType()) {
         case DataBuffer.TYPE_BYTE:
-            read(((DataBufferByte) db).getBankData());
+            readRLEFrame(numBands);
+            for (int b = 0; b < numBands; b++)
+                unrle(b + 1, ((DataBufferByte) db).getData(bankIndices[b]),
+                        rows.reset(offsets[b]));
             break;
         case DataBuffer.TYPE_USHORT:
-            read(((DataBufferUShort) db).getData());
-            break;
         case DataBuffer.TYPE_SHORT:
-            read(((DataBufferShort) db).getData());
+            readRLEFrame(numBands * 2);
+            for (int b = 0; b < numBands; b++) {
+                int bank = bankIndices[b];
+                short[] data = db.getDataType() == DataBuffer.TYPE_USHORT
+                        ? ((DataBufferUShort) db).getData(bank)
+                        : ((DataBufferShort) db).getData(bank);
+                unrle(b * 2 + 1, data, rows.reset(offsets[b]), true);
+                unrle(b * 2 + 2, data, rows.reset(offsets[b]), false);
+            }
             break;
         default:
             throw new IllegalArgumentException(
@@ -234,142 +270,208 @@ public class RLEImageReader extends ImageReader {
         }
     }
 
-    private void read(byte[][] bands) throws IOException {
-        readRLEHeader(bands.length);
-        for (int i = 0; i < bands.length; i++)
-            unrle(i+1, bands[i]);
-    }
-
-    private void read(short[] data) throws IOException {
-        readRLEHeader(2);
-        unrle(1, data);
-        unrle(2, data);
-    }
+    private void readRLEFrame(int numSegments) throws IOException {
+        long remaining = iis.length() - iis.getStreamPosition();
+        if (remaining > 0 && remaining <= Integer.MAX_VALUE) {
+            if (buf.length < remaining)
+                buf = new byte[(int) remaining];
+        } else if (buf.length == 0)
+            buf = new byte[8192];
 
-    private void seekSegment(int seg) throws IOException {
-        long streamPos = headerPos + (header[seg] & 0xffffffffL);
-        int bufPos = (int) (streamPos - bufOff);
-        if (bufPos >= 0 && bufPos <= bufLen)
-            this.bufPos = bufPos;
-        else {
-            iis.seek(streamPos);
-            this.bufPos = bufLen; // force fillBuffer on nextByte()
+        bufLen = 0;
+        int n;
+        for (;;) {
+            if (bufLen == buf.length) {
+                if (remaining > 0)
+                    break;
+                buf = Arrays.copyOf(buf, buf.length << 1);
+            }
+            n = iis.read(buf, bufLen, buf.length - bufLen);
+            if (n <= 0)
+                break;
+            bufLen += n;
         }
-    }
-
-
-    private void readRLEHeader(int numSegments) throws IOException {
-        fillBuffer();
         if (bufLen < 64)
             throw new EOFException();
         for (int i = 0, off = 0; i < header.length; i++, off += 4)
             header[i] = ByteUtils.bytesToIntLE(buf, off);
-        bufPos = 64;
         if (header[0] != numSegments)
             throw new IOException(MISMATCH_NUM_RLE_SEGMENTS + header[0]);
     }
 
-    private void unrle(int seg, byte[] data) throws IOException {
-        seekSegment(seg);
-        int pos = 0;
-        try {
-            int n;
-            int end;
-            byte val;
-            while (pos < data.length) {
-                n = nextByte();
-                if (n >= 0) {
-                    read(data, pos, ++n);
-                    pos += n;
-                } else if (n != -128) {
-                    end = pos + 1 - n;
-                    val = nextByte();
-                    while (pos < end)
-                        data[pos++] = val;
-                }
-            }
-        } catch (EOFException e) {
-            LOG.info("RLE Segment #{} too short, set missing {} bytes to 0",
-                    seg, data.length - pos);
-        } catch (IndexOutOfBoundsException e) {
-            LOG.info("RLE Segment #{} too long, truncate surplus bytes", seg);
-        }
+    private int segmentEnd(int seg) {
+        for (int i = seg + 1; i < header.length; i++)
+            if (header[i] > header[seg] && header[i] <= bufLen)
+                return header[i];
+        return bufLen;
     }
 
-    private void read(byte[] data, int pos, int len) throws IOException {
-        int remaining = len;
+    private void unrle(int seg, byte[] data, Rows rows) {
+        byte[] buf = this.buf;
+        int pos = header[seg];
+        int end = segmentEnd(seg);
+        int stride = rows.pixelStride;
         int n;
-        while (remaining > 0) {
-            n = bufLen - bufPos;
-            if (n <= 0) {
-                fillBuffer();
-                n = bufLen - bufPos;
-            }
-            if ((remaining -= n) < 0)
-                n += remaining;
-            System.arraycopy(buf, bufPos, data, pos, n);
-            bufPos += n;
-            pos += n;
-        }
-    }
-
-    private void unrle(int seg, short[] data) throws IOException {
-        seekSegment(seg);
-        int pos = 0;
-        try {
-            int shift = seg == 1 ? 8 : 0;
-            int n;
-            int end;
-            int val;
-            while (pos < data.length) {
-                n = nextByte();
-                if (n >= 0) {
-                    read(data, pos, ++n, shift);
-                    pos += n;
-                } else if (n != -128) {
-                    end = pos + 1 - n;
-                    val = (nextByte() & 0xff) << shift;
-                    while (pos < end)
-                        data[pos++] |= val;
+        int count;
+        int k;
+        int i;
+        while (rows.remaining > 0 && pos < end) {
+            n = buf[pos++];
+            if (n >= 0) {
+                count = Math.min(n + 1, end - pos);
+                while (count > 0 && rows.remaining > 0) {
+                    k = Math.min(count, rows.left);
+                    i = rows.i;
+                    if (stride == 1) {
+                        System.arraycopy(buf, pos, data, i, k);
+                        pos += k;
+                    } else {
+                        for (int j = 0; j < k; j++, i += stride)
+                            data[i] = buf[pos++];
+                    }
+                    count -= k;
+                    rows.skip(k);
+                }
+                if (count > 0)
+                    truncated(seg);
+            } else if (n != -128 && pos < end) {
+                count = 1 - n;
+                byte val = buf[pos++];
+                while (count > 0 && rows.remaining > 0) {
+                    k = Math.min(count, rows.left);
+                    i = rows.i;
+                    if (stride == 1) {
+                        Arrays.fill(data, i, i + k, val);
+                    } else {
+                        for (int j = 0; j < k; j++, i += stride)
+                            data[i] = val;
+                    }
+                    count -= k;
+                    rows.skip(k);
                 }
+                if (count > 0)
+                    truncated(seg);
             }
-        } catch (EOFException e) {
+        }
+        if (rows.remaining > 0) {
             LOG.info("RLE Segment #{} too short, set missing {} bytes to 0",
-                    seg, data.length - pos);
-        } catch (IndexOutOfBoundsException e) {
-            LOG.info("RLE Segment #{} to long, truncate surplus bytes", seg);
+                    seg, rows.remaining);
+            while (rows.remaining > 0) {
+                k = rows.left;
+                i = rows.i;
+                for (int j = 0; j < k; j++, i += stride)
+                    data[i] = 0;
+                rows.skip(k);
+            }
         }
     }
 
-    private void read(short[] data, int pos, int len, int shift) throws IOException {
-        int remaining = len;
+    private void unrle(int seg, short[] data, Rows rows, boolean msb) {
+        byte[] buf = this.buf;
+        int pos = header[seg];
+        int end = segmentEnd(seg);
+        int stride = rows.pixelStride;
         int n;
-        while (remaining > 0) {
-            n = bufLen - bufPos;
-            if (n <= 0) {
-                fillBuffer();
-                n = bufLen - bufPos;
+        int count;
+        int k;
+        int i;
+        while (rows.remaining > 0 && pos < end) {
+            n = buf[pos++];
+            if (n >= 0) {
+                count = Math.min(n + 1, end - pos);
+                while (count > 0 && rows.remaining > 0) {
+                    k = Math.min(count, rows.left);
+                    i = rows.i;
+                    if (msb) {
+                        for (int j = 0; j < k; j++, i += stride)
+                            data[i] = (short) (buf[pos++] << 8);
+                    } else {
+                        for (int j = 0; j < k; j++, i += stride)
+                            data[i] = (short) (data[i] | (buf[pos++] & 0xff));
+                    }
+                    count -= k;
+                    rows.skip(k);
+                }
+                if (count > 0)
+                    truncated(seg);
+            } else if (n != -128 && pos < end) {
+                count = 1 - n;
+                int val = buf[pos++] & 0xff;
+                while (count > 0 && rows.remaining > 0) {
+                    k = Math.min(count, rows.left);
+                    i = rows.i;
+                    if (msb) {
+                        short s = (short) (val << 8);
+                        for (int j = 0; j < k; j++, i += stride)
+                            data[i] = s;
+                    } else {
+                        for (int j = 0; j < k; j++, i += stride)
+                            data[i] = (short) (data[i] | val);
+                    }
+                    count -= k;
+                    rows.skip(k);
+                }
+                if (count > 0)
+                    truncated(seg);
+            }
+        }
+        if (rows.remaining > 0) {
+            LOG.info("RLE Segment #{} too short, set missing {} bytes to 0",
+                    seg, rows.remaining);
+            while (rows.remaining > 0) {
+                k = rows.left;
+                i = rows.i;
+                for (int j = 0; j < k; j++, i += stride)
+                    data[i] = (short) (msb ? 0 : data[i] & 0xff00);
+                rows.skip(k);
             }
-            if ((remaining -= n) < 0)
-                n += remaining;
-            while (n-- > 0)
-                data[pos++] |= (buf[bufPos++] & 0xff) << shift;
         }
     }
 
-    private void fillBuffer() throws IOException {
-        bufOff = iis.getStreamPosition();
-        bufPos = 0;
-        bufLen = iis.read(buf);
-        if (bufLen <= 0)
-            throw new EOFException();
+    private static void truncated(int seg) {
+        LOG.info("RLE Segment #{} too long, truncate surplus bytes", seg);
     }
 
-    private byte nextByte() throws IOException {
-        if (bufPos >= bufLen)
-            fillBuffer();
+    /**
+     * Index of the next sample of one band in its bank, which advances by
+     * the pixel stride within a row and by the scanline stride to the next
+     * row.
+     */
+    private static final class Rows {
+
+        final int pixelStride;
+        final int width;
+        final int scanlineStride;
+        final int height;
+        int i;
+        int rowStart;
+        int left;
+        int remaining;
+
+        Rows(int pixelStride, int width, int scanlineStride, int height) {
+            this.pixelStride = pixelStride;
+            this.width = width;
+            this.scanlineStride = scanlineStride;
+            this.height = height;
+        }
 
-        return buf[bufPos++];
+        Rows reset(int off) {
+            i = rowStart = off;
+            left = width;
+            remaining = width * height;
+            return this;
+        }
+
+        void skip(int n) {
+            remaining -= n;
+            left -= n;
+            if (left > 0) {
+                i += n * pixelStride;
+            } else {
+                i = rowStart += scanlineStride;
+                left = width;
+            }
+        }
     }
 
 }
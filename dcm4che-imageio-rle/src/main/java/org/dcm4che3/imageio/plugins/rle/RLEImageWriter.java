@@ -0,0 +1,268 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.imageio.plugins.rle;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.dcm4che3.util.ByteUtils;
+
+/**
+ * Encodes images to DICOM RLE Lossless (PS3.5 Annex G).
+ * <p>
+ * Each byte plane of each sample is encoded in a separate RLE Segment,
+ * starting with the most significant byte of the first sample. Each row
+ * is encoded separately, so no run crosses a row boundary.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class RLEImageWriter extends ImageWriter {
+
+    private static final String UNSUPPORTED_DATA_TYPE =
+            "Unsupported Data Type of Raster: ";
+    private static final String UNSUPPORTED_SAMPLE_MODEL =
+            "Unsupported Sample Model of Raster: ";
+    private static final String TOO_MANY_SEGMENTS =
+            "Number of RLE Segments exceeds 15: ";
+
+    private final byte[] header = new byte[64];
+
+    private byte[] row = {};
+
+    private byte[] buf = {};
+
+    private int bufLen;
+
+    protected RLEImageWriter(ImageWriterSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType,
+            ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData,
+            ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData,
+            ImageTypeSpecifier imageType, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public boolean canWriteRasters() {
+        return true;
+    }
+
+    private static Raster raster(IIOImage image) {
+        if (image.hasRaster())
+            return image.getRaster();
+
+        RenderedImage img = image.getRenderedImage();
+        return img instanceof BufferedImage
+                ? ((BufferedImage) img).getRaster()
+                : img.getData();
+    }
+
+    @Override
+    public void write(IIOMetadata streamMetadata, IIOImage image,
+            ImageWriteParam param) throws IOException {
+        ImageOutputStream out = (ImageOutputStream) getOutput();
+        if (out == null)
+            throw new IllegalStateException("Output not set");
+
+        Raster raster = raster(image);
+        if (!(raster.getSampleModel() instanceof ComponentSampleModel))
+            throw new IllegalArgumentException(
+                    UNSUPPORTED_SAMPLE_MODEL + raster.getSampleModel());
+
+        DataBuffer db = raster.getDataBuffer();
+        int bytesPerSample;
+        switch (db.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            bytesPerSample = 1;
+            break;
+        case DataBuffer.TYPE_USHORT:
+        case DataBuffer.TYPE_SHORT:
+            bytesPerSample = 2;
+            break;
+        default:
+            throw new IllegalArgumentException(
+                    UNSUPPORTED_DATA_TYPE + db.getDataType());
+        }
+        int numSegments = raster.getNumBands() * bytesPerSample;
+        if (numSegments > 15)
+            throw new IllegalArgumentException(TOO_MANY_SEGMENTS + numSegments);
+
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        if (row.length < w)
+            row = new byte[w];
+        // worst case: one header byte per 128 literal bytes and an even pad
+        int maxSegmentLength = h * (w + (w + 127) / 128) + 1;
+        if (buf.length < numSegments * maxSegmentLength)
+            buf = new byte[numSegments * maxSegmentLength];
+        bufLen = 0;
+
+        ByteUtils.intToBytesLE(numSegments, header, 0);
+        for (int band = 0, seg = 0; band < raster.getNumBands(); band++) {
+            for (int i = bytesPerSample - 1; i >= 0; i--) {
+                ByteUtils.intToBytesLE(64 + bufLen, header, (++seg) * 4);
+                encodeSegment(raster, band, i << 3);
+                if ((bufLen & 1) != 0)
+                    buf[bufLen++] = 0;
+            }
+        }
+        for (int seg = numSegments + 1; seg < 16; seg++)
+            ByteUtils.intToBytesLE(0, header, seg * 4);
+
+        out.write(header);
+        out.write(buf, 0, bufLen);
+    }
+
+    private void encodeSegment(Raster raster, int band, int shift) {
+        ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        int pixelStride = sm.getPixelStride();
+        int scanlineStride = sm.getScanlineStride();
+        int bank = sm.getBankIndices()[band];
+        int off = db.getOffsets()[bank]
+                + sm.getOffset(
+                        raster.getMinX() - raster.getSampleModelTranslateX(),
+                        raster.getMinY() - raster.getSampleModelTranslateY(),
+                        band);
+        byte[] row = this.row;
+        switch (db.getDataType()) {
+        case DataBuffer.TYPE_BYTE:
+            byte[] bytes = ((DataBufferByte) db).getData(bank);
+            for (int y = 0; y < h; y++, off += scanlineStride) {
+                for (int x = 0, i = off; x < w; x++, i += pixelStride)
+                    row[x] = bytes[i];
+                encodeRow(row, w);
+            }
+            break;
+        case DataBuffer.TYPE_USHORT:
+            short[] ushorts = ((DataBufferUShort) db).getData(bank);
+            for (int y = 0; y < h; y++, off += scanlineStride) {
+                for (int x = 0, i = off; x < w; x++, i += pixelStride)
+                    row[x] = (byte) (ushorts[i] >> shift);
+                encodeRow(row, w);
+            }
+            break;
+        case DataBuffer.TYPE_SHORT:
+            short[] shorts = ((DataBufferShort) db).getData(bank);
+            for (int y = 0; y < h; y++, off += scanlineStride) {
+                for (int x = 0, i = off; x < w; x++, i += pixelStride)
+                    row[x] = (byte) (shorts[i] >> shift);
+                encodeRow(row, w);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Encodes one row as PackBits sequences. Runs of 3 or more equal bytes
+     * are encoded as Replicate Runs, anything else is collected into Literal
+     * Runs, so a Replicate Run of 2 bytes never splits a Literal Run.
+     */
+    private void encodeRow(byte[] row, int len) {
+        byte[] buf = this.buf;
+        int pos = bufLen;
+        int i = 0;
+        while (i < len) {
+            byte b = row[i];
+            int run = 1;
+            int maxRun = Math.min(128, len - i);
+            while (run < maxRun && row[i + run] == b)
+                run++;
+            if (run >= 3) {
+                buf[pos++] = (byte) (1 - run);
+                buf[pos++] = b;
+                i += run;
+                continue;
+            }
+            int start = i;
+            int end = Math.min(start + 128, len);
+            i += run;
+            while (i < end && !(i + 2 < len
+                    && row[i] == row[i + 1] && row[i] == row[i + 2]))
+                i++;
+            int n = i - start;
+            buf[pos++] = (byte) (n - 1);
+            System.arraycopy(row, start, buf, pos, n);
+            pos += n;
+        }
+        bufLen = pos;
+    }
+
+    @Override
+    public void dispose() {
+        row = new byte[0];
+        buf = new byte[0];
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * **** END LICENSE BLOCK *****
+ */
+
+package org.dcm4che3.imageio.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe pool of Image Readers or Image Writers, keyed by the format
+ * name and class name of the configured {@code ImageReaderParam} or
+ * {@code ImageWriterParam}, so the costly service lookup and initialization
+ * of (native) codecs is not repeated for each processed Data Set.
+ * <p>
+ * Returned codecs are reset before they become available for reuse. At most
+ * {@link #getMaxIdle()} codecs are kept idle per key; codecs idle for longer
+ * than {@link #getMaxIdleTime()} ms are disposed. By default, the number of
+ * codecs per key is not limited. If {@link #setMaxTotal(int)} is set, at most
+ * that many codecs exist per key, borrowed or idle; further borrowers wait up
+ * to {@link #getMaxWait()} ms for a codec to be given back. A borrowed codec
+ * which is never given back therefore reduces the number of available codecs
+ * permanently.
+ *
+ * @author agent <agent@local>
+ *
+ * @param <P> codec configuration
+ * @param <T> codec type
+ */
+public abstract class CodecPool<P, T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodecPool.class);
+
+    private static final class Idle<T> {
+        final T codec;
+        final long since;
+
+        Idle(T codec) {
+            this.codec = codec;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Idle codecs and number of existing codecs of one key.
+     */
+    private static final class Slot<T> {
+        final LinkedBlockingDeque<Idle<T>> idle =
+                new LinkedBlockingDeque<Idle<T>>();
+        int total; // guarded by this
+    }
+
+    private final ConcurrentMap<String, Slot<T>> slots =
+            new ConcurrentHashMap<String, Slot<T>>();
+
+    private volatile int maxIdle = 4;
+    private volatile long maxIdleTime = 60000L;
+    private volatile int maxTotal;
+    private volatile long maxWait = 10000L;
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong returned = new AtomicLong();
+    private final AtomicLong disposed = new AtomicLong();
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Sets the maximal number of idle codecs kept per key. {@code 0} disables
+     * pooling.
+     */
+    public void setMaxIdle(int maxIdle) {
+        if (maxIdle < 0)
+            throw new IllegalArgumentException("maxIdle: " + maxIdle);
+        this.maxIdle = maxIdle;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime) {
+        if (maxIdleTime <= 0)
+            throw new IllegalArgumentException("maxIdleTime: " + maxIdleTime);
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * Sets the maximal number of borrowed and idle codecs per key. {@code 0}
+     * - the default - does not limit the number of codecs.
+     */
+    public void setMaxTotal(int maxTotal) {
+        if (maxTotal < 0)
+            throw new IllegalArgumentException("maxTotal: " + maxTotal);
+        this.maxTotal = maxTotal;
+        for (Slot<T> slot : slots.values())
+            synchronized (slot) {
+                slot.notifyAll();
+            }
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the maximal time in ms {@link #borrow} waits for a codec to be
+     * given back, if {@link #getMaxTotal()} codecs of the key already exist.
+     */
+    public void setMaxWait(long maxWait) {
+        if (maxWait < 0)
+            throw new IllegalArgumentException("maxWait: " + maxWait);
+        this.maxWait = maxWait;
+    }
+
+    public long getBorrowCount() {
+        return borrowed.get();
+    }
+
+    public long getCreateCount() {
+        return created.get();
+    }
+
+    public long getReturnCount() {
+        return returned.get();
+    }
+
+    public long getDisposeCount() {
+        return disposed.get();
+    }
+
+    public int getIdleCount() {
+        int count = 0;
+        for (Slot<T> slot : slots.values())
+            count += slot.idle.size();
+        return count;
+    }
+
+    /**
+     * Returns the number of borrowed and idle codecs of all keys.
+     */
+    public int getTotalCount() {
+        int count = 0;
+        for (Slot<T> slot : slots.values())
+            synchronized (slot) {
+                count += slot.total;
+            }
+        return count;
+    }
+
+    /**
+     * Returns an idle codec or a new one, if less than {@link #getMaxTotal()}
+     * codecs of the key exist. Otherwise waits up to {@link #getMaxWait()} ms
+     * for a codec to be given back.
+     *
+     * @throws IllegalStateException if no codec was given back within
+     *         {@link #getMaxWait()} ms or if the current thread was
+     *         interrupted while waiting
+     */
+    public T borrow(P param) {
+        borrowed.incrementAndGet();
+        Slot<T> slot = slot(keyOf(param));
+        long deadline = System.currentTimeMillis() + maxWait;
+        for (;;) {
+            long now = System.currentTimeMillis();
+            Idle<T> entry;
+            while ((entry = slot.idle.pollFirst()) != null) {
+                if (now - entry.since < maxIdleTime)
+                    return entry.codec;
+                dispose0(slot, entry.codec);
+            }
+            synchronized (slot) {
+                int max = maxTotal;
+                if (max == 0 || slot.total < max) {
+                    slot.total++;
+                    break;
+                }
+                // a codec given back meanwhile
+                if (!slot.idle.isEmpty())
+                    continue;
+                long remaining = deadline - now;
+                if (remaining <= 0)
+                    throw new IllegalStateException("Timeout waiting for one of "
+                            + max + " codecs " + keyOf(param) + " in use");
+                try {
+                    slot.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(
+                            "Interrupted waiting for codec " + keyOf(param));
+                }
+            }
+        }
+        T codec;
+        try {
+            codec = create(param);
+        } catch (RuntimeException e) {
+            released(slot);
+            throw e;
+        }
+        created.incrementAndGet();
+        return codec;
+    }
+
+    public void giveBack(P param, T codec) {
+        returned.incrementAndGet();
+        Slot<T> slot = slot(keyOf(param));
+        try {
+            reset(codec);
+        } catch (RuntimeException e) {
+            LOG.info("Failed to reset {} - dispose it", codec, e);
+            dispose0(slot, codec);
+            return;
+        }
+        evictExpired(slot);
+        if (slot.idle.size() < maxIdle) {
+            slot.idle.offerFirst(new Idle<T>(codec));
+            synchronized (slot) {
+                slot.notify();
+            }
+        } else
+            dispose0(slot, codec);
+    }
+
+    /**
+     * Disposes all idle codecs.
+     */
+    public void clear() {
+        for (Slot<T> slot : slots.values()) {
+            Idle<T> entry;
+            while ((entry = slot.idle.pollLast()) != null)
+                dispose0(slot, entry.codec);
+        }
+    }
+
+    private Slot<T> slot(String key) {
+        Slot<T> slot = slots.get(key);
+        if (slot == null) {
+            Slot<T> newSlot = new Slot<T>();
+            slot = slots.putIfAbsent(key, newSlot);
+            if (slot == null)
+                slot = newSlot;
+        }
+        return slot;
+    }
+
+    private void evictExpired(Slot<T> slot) {
+        long now = System.currentTimeMillis();
+        Idle<T> entry;
+        while ((entry = slot.idle.peekLast()) != null
+                && now - entry.since >= maxIdleTime) {
+            if (slot.idle.removeLastOccurrence(entry))
+                dispose0(slot, entry.codec);
+        }
+    }
+
+    private void dispose0(Slot<T> slot, T codec) {
+        disposed.incrementAndGet();
+        released(slot);
+        try {
+            dispose(codec);
+        } catch (RuntimeException e) {
+            LOG.info("Failed to dispose {}", codec, e);
+        }
+    }
+
+    private static void released(Slot<?> slot) {
+        synchronized (slot) {
+            slot.total--;
+            slot.notify();
+        }
+    }
+
+    protected abstract String keyOf(P param);
+
+    protected abstract T create(P param);
+
+    protected abstract void reset(T codec);
+
+    protected abstract void dispose(T codec);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[borrowed=" + borrowed
+                + ", created=" + created + ", returned=" + returned
+                + ", disposed=" + disposed + ", idle=" + getIdleCount()
+                + ", total=" + getTotalCount() + "]";
+    }
+}
@@ -41,8 +41,10 @@ package org.dcm4che3.imageio.codec;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
@@ -53,6 +55,14 @@ import org.dcm4che3.image.PhotometricInterpretation;
 
 
 /**
+ * Compression rules ordered by their priority.
+ * <p>
+ * The selection of the matching rule uses an index of the rules by SOP Class
+ * UID, Photometric Interpretation and Bits Stored, which is (re)built on
+ * first use after any modification of the rules, so only rules which may
+ * match these three attributes have to be tested - in the same order as
+ * they are kept in the list.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  */
 @ConfigurableClass
@@ -66,6 +76,8 @@ public class CompressionRules
     private List<CompressionRule> list =
             new ArrayList<CompressionRule>();
 
+    private transient volatile Index index;
+
     public void add(CompressionRule rule) {
         if (findByCommonName(rule.getCommonName()) != null)
             throw new IllegalStateException("CompressionRule with cn: '"
@@ -74,6 +86,7 @@ public class CompressionRules
         if (index < 0)
             index = -(index+1);
         list.add(index, rule);
+        this.index = null;
     }
 
     public List<CompressionRule> getList() {
@@ -82,6 +95,7 @@ public class CompressionRules
 
     public void setList(List<CompressionRule> list) {
         this.list.clear();
+        this.index = null;
         for (CompressionRule rule : list) add(rule);
     }
 
@@ -109,11 +123,13 @@ public class CompressionRules
                 res = true;
             }
         }
+        index = null;
         return res;
     }
 
     public void clear() {
         list.clear();
+        index = null;
     }
 
     public CompressionRule findByCommonName(String commonName) {
@@ -155,15 +171,132 @@ public class CompressionRules
             PhotometricInterpretation pmi,
             int bitsStored, int pixelRepresentation, 
             String sopClass, String[] imgTypes, String bodyPart) {
-        for (CompressionRule ac : list)
+        if (pmi == null)
+            return null;
+
+        Index index = index();
+        int slot = Index.slot(pmi, bitsStored);
+        int[] candidates;
+        int[] wildcards;
+        if (sopClass == null) {
+            candidates = index.any[slot];
+            wildcards = null;
+        } else {
+            int[][] bySOPClass = index.bySOPClass.get(sopClass);
+            candidates = bySOPClass != null ? bySOPClass[slot] : null;
+            wildcards = index.anySOPClass[slot];
+        }
+        int i = 0, j = 0;
+        int n1 = candidates != null ? candidates.length : 0;
+        int n2 = wildcards != null ? wildcards.length : 0;
+        while (i < n1 || j < n2) {
+            int pos = (j == n2 || i < n1 && candidates[i] < wildcards[j])
+                    ? candidates[i++]
+                    : wildcards[j++];
+            CompressionRule ac = index.rules[pos];
             if (ac.matchesCondition(pmi, bitsStored, pixelRepresentation,
                     aeTitle, deviceName, sopClass, imgTypes, bodyPart))
                 return ac;
+        }
         return null;
     }
 
+    private Index index() {
+        Index index = this.index;
+        if (index == null || index.list != list || index.rules.length != list.size())
+            this.index = index = new Index(list);
+        return index;
+    }
+
     @Override
     public Iterator<CompressionRule> iterator() {
         return list.iterator();
     }
+
+    /**
+     * Positions of rules in priority order, per slot of Photometric
+     * Interpretation and Bits Stored.
+     */
+    private static final class Index {
+
+        private static final int NUM_SLOTS =
+                PhotometricInterpretation.values().length << 5;
+
+        final List<CompressionRule> list;
+        final CompressionRule[] rules;
+        final Map<String, int[][]> bySOPClass = new HashMap<String, int[][]>();
+        final int[][] anySOPClass;
+        final int[][] any;
+
+        Index(List<CompressionRule> list) {
+            this.list = list;
+            this.rules = list.toArray(new CompressionRule[list.size()]);
+            Map<String, List<Integer>[]> bySOPClass0 =
+                    new HashMap<String, List<Integer>[]>();
+            List<Integer>[] anySOPClass0 = newSlots();
+            List<Integer>[] any0 = newSlots();
+            for (int pos = 0; pos < rules.length; pos++) {
+                CompressionRule.Condition condition = rules[pos].getCondition();
+                if (condition.getPmis() == null)
+                    continue;
+
+                String[] sopClasses = condition.getSopClasses();
+                for (PhotometricInterpretation pmi : condition.getPmis()) {
+                    for (int bits = 0; bits < 32; bits++) {
+                        if ((condition.getBitsStoredMask() & (1 << bits)) == 0)
+                            continue;
+
+                        int slot = slot(pmi, bits);
+                        add(any0, slot, pos);
+                        if (sopClasses == null || sopClasses.length == 0) {
+                            add(anySOPClass0, slot, pos);
+                        } else {
+                            for (String cuid : sopClasses) {
+                                List<Integer>[] slots = bySOPClass0.get(cuid);
+                                if (slots == null)
+                                    bySOPClass0.put(cuid, slots = newSlots());
+                                add(slots, slot, pos);
+                            }
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<String, List<Integer>[]> entry : bySOPClass0.entrySet())
+                bySOPClass.put(entry.getKey(), toArrays(entry.getValue()));
+            this.anySOPClass = toArrays(anySOPClass0);
+            this.any = toArrays(any0);
+        }
+
+        static int slot(PhotometricInterpretation pmi, int bitsStored) {
+            return pmi.ordinal() << 5 | (bitsStored & 31);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<Integer>[] newSlots() {
+            return new List[NUM_SLOTS];
+        }
+
+        private static void add(List<Integer>[] slots, int slot, int pos) {
+            List<Integer> positions = slots[slot];
+            if (positions == null)
+                slots[slot] = positions = new ArrayList<Integer>(4);
+            else if (positions.get(positions.size() - 1) == pos)
+                return; // SOP Class listed twice
+            positions.add(pos);
+        }
+
+        private static int[][] toArrays(List<Integer>[] slots) {
+            int[][] a = new int[slots.length][];
+            for (int slot = 0; slot < slots.length; slot++) {
+                List<Integer> positions = slots[slot];
+                if (positions != null) {
+                    int[] b = new int[positions.size()];
+                    for (int i = 0; i < b.length; i++)
+                        b[i] = positions.get(i);
+                    a[slot] = b;
+                }
+            }
+            return a;
+        }
+    }
 }
@@ -93,7 +93,9 @@ public class Compressor implements Closeable {
     private Object pixels;
     private VR.Holder pixeldataVR = new VR.Holder();
     private final TransferSyntaxType tsType;
+    private ImageWriterFactory.ImageWriterParam compressorParam;
     private ImageWriter compressor;
+    private ImageReaderFactory.ImageReaderParam verifierParam;
     private ImageReader verifier;
     private PatchJPEGLS compressPatchJPEGLS;
     private ImageWriteParam compressParam;
@@ -133,50 +135,58 @@ public class Compressor implements Closeable {
                         + " instead " + imageParams.getLength() + " bytes");
         }
 
-        if (pixels instanceof Fragments)
-            this.decompressor = new Decompressor(dataset, tsuid);
+        try {
+            if (pixels instanceof Fragments)
+                this.decompressor = new Decompressor(dataset, tsuid);
 
-        embeddedOverlays = Overlays.getEmbeddedOverlayGroupOffsets(dataset);
+            embeddedOverlays = Overlays.getEmbeddedOverlayGroupOffsets(dataset);
 
-        ImageWriterFactory.ImageWriterParam param =
-                ImageWriterFactory.getImageWriterParam(compressTsuid);
-        if (param == null)
-            throw new UnsupportedOperationException(
-                    "Unsupported Transfer Syntax: " + compressTsuid);
-
-        this.compressor = ImageWriterFactory.getImageWriter(param);
-        LOG.debug("Compressor: {}", compressor.getClass().getName());
-        this.compressPatchJPEGLS = param.patchJPEGLS;
-
-        this.compressParam = compressor.getDefaultWriteParam();
-        int count = 0;
-        for (Property property : cat(param.getImageWriteParams(), compressParams)) {
-            String name = property.getName();
-            if (name.equals("maxPixelValueError")) {
-                maxPixelValueError = ((Number) property.getValue()).intValue();
-            } else if (name.equals("avgPixelValueBlockSize")) {
-                avgPixelValueBlockSize = ((Number) property.getValue()).intValue();
-            } else if(name.equals("compressionType")) {
-                compressParam.setCompressionType((String)property.getValue());
-            } else {
-                if (count++ == 0) {
-                    compressParam.setCompressionMode(
-                            ImageWriteParam.MODE_EXPLICIT);
-                }
-                property.setAt(compressParam);
-            }
-        }
-
-        if (maxPixelValueError >= 0) {
-            ImageReaderFactory.ImageReaderParam readerParam =
-                    ImageReaderFactory.getImageReaderParam(compressTsuid);
-            if (readerParam == null)
+            ImageWriterFactory.ImageWriterParam param =
+                    ImageWriterFactory.getImageWriterParam(compressTsuid);
+            if (param == null)
                 throw new UnsupportedOperationException(
                         "Unsupported Transfer Syntax: " + compressTsuid);
 
-            this.verifier = ImageReaderFactory.getImageReader(readerParam);
-            this.verifyParam = verifier.getDefaultReadParam();
-            LOG.debug("Verifier: {}", verifier.getClass().getName());
+            this.compressorParam = param;
+            this.compressor = ImageWriterFactory.borrowImageWriter(param);
+            LOG.debug("Compressor: {}", compressor.getClass().getName());
+            this.compressPatchJPEGLS = param.patchJPEGLS;
+
+            this.compressParam = compressor.getDefaultWriteParam();
+            int count = 0;
+            for (Property property : cat(param.getImageWriteParams(), compressParams)) {
+                String name = property.getName();
+                if (name.equals("maxPixelValueError")) {
+                    maxPixelValueError = ((Number) property.getValue()).intValue();
+                } else if (name.equals("avgPixelValueBlockSize")) {
+                    avgPixelValueBlockSize = ((Number) property.getValue()).intValue();
+                } else if(name.equals("compressionType")) {
+                    compressParam.setCompressionType((String)property.getValue());
+                } else {
+                    if (count++ == 0) {
+                        compressParam.setCompressionMode(
+                                ImageWriteParam.MODE_EXPLICIT);
+                    }
+                    property.setAt(compressParam);
+                }
+            }
+
+            if (maxPixelValueError >= 0) {
+                ImageReaderFactory.ImageReaderParam readerParam =
+                        ImageReaderFactory.getImageReaderParam(compressTsuid);
+                if (readerParam == null)
+                    throw new UnsupportedOperationException(
+                            "Unsupported Transfer Syntax: " + compressTsuid);
+
+                this.verifierParam = readerParam;
+                this.verifier = ImageReaderFactory.borrowImageReader(readerParam);
+                this.verifyParam = verifier.getDefaultReadParam();
+                LOG.debug("Verifier: {}", verifier.getClass().getName());
+            }
+        } catch (RuntimeException e) {
+            // return the borrowed codecs
+            dispose();
+            throw e;
         }
     }
 
@@ -229,13 +239,13 @@ public class Compressor implements Closeable {
 
     public void dispose() {
         if (compressor != null)
-            compressor.dispose();
+            ImageWriterFactory.returnImageWriter(compressorParam, compressor);
 
         if (decompressor != null)
             decompressor.dispose();
 
         if (verifier != null)
-            verifier.dispose();
+            ImageReaderFactory.returnImageReader(verifierParam, verifier);
 
         compressor = null;
         verifier = null;
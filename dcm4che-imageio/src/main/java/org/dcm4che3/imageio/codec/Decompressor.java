@@ -78,6 +78,7 @@ public class Decompressor {
     private final TransferSyntaxType tsType;
     private ImageParams imageParams;
     private BufferedImage decompressedImage;
+    private ImageReaderFactory.ImageReaderParam readerParam;
     private ImageReader imageReader;
     private ImageReadParam readParam;
     private PatchJPEGLS patchJPEGLS;
@@ -117,22 +118,22 @@ public class Decompressor {
                 throw new UnsupportedOperationException(
                         "Unsupported Transfer Syntax: " + tsuid);
 
-            this.imageReader = ImageReaderFactory.getImageReader(param);
-            LOG.debug("Decompressor: {}", imageReader.getClass().getName());
-            this.readParam = imageReader.getDefaultReadParam();
+            // the Image Reader is borrowed on decompression of the first
+            // frame, so a Decompressor which is never used does not hold it
+            this.readerParam = param;
             this.patchJPEGLS = param.patchJPEGLS;
         }
     }
 
     public void dispose() {
         if (imageReader != null)
-            imageReader.dispose();
+            ImageReaderFactory.returnImageReader(readerParam, imageReader);
 
         imageReader = null;
     }
 
     public boolean decompress() {
-        if (imageReader == null)
+        if (readerParam == null)
             return false;
 
         imageParams.decompress(dataset, tsType);
@@ -184,8 +185,7 @@ public class Decompressor {
             if (imageParams.paddingNull())
                 out.write(0);
         } finally {
-
-            imageReader.dispose();
+            dispose();
         }
     }
 
@@ -208,6 +208,13 @@ public class Decompressor {
         if (decompressedImage == null && tsType == TransferSyntaxType.RLE)
             decompressedImage = BufferedImageUtils.createBufferedImage(imageParams, tsType);
 
+        if (imageReader == null) {
+            imageReader = ImageReaderFactory.borrowImageReader(readerParam);
+            LOG.debug("Decompressor: {}", imageReader.getClass().getName());
+            if (readParam == null)
+                readParam = imageReader.getDefaultReadParam();
+        }
+
         imageReader.setInput(patchJPEGLS != null
                 ? new PatchJPEGLSImageInputStream(iis, patchJPEGLS)
                 : iis);
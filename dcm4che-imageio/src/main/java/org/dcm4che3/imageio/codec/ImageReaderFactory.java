@@ -307,6 +307,53 @@ public class ImageReaderFactory implements Serializable {
         throw new RuntimeException("No matching Image Reader for format: " + param.formatName + " (Class: " + ((param.className == null) ? "*" : param.className) + ") registered");
     }
 
+    private static final CodecPool<ImageReaderParam, ImageReader> pool =
+            new CodecPool<ImageReaderParam, ImageReader>() {
+
+        @Override
+        protected String keyOf(ImageReaderParam param) {
+            return param.formatName + ':' + param.className;
+        }
+
+        @Override
+        protected ImageReader create(ImageReaderParam param) {
+            return getImageReader(param);
+        }
+
+        @Override
+        protected void reset(ImageReader codec) {
+            codec.reset();
+        }
+
+        @Override
+        protected void dispose(ImageReader codec) {
+            codec.dispose();
+        }
+    };
+
+    /**
+     * Returns the pool of Image Readers used by {@link #borrowImageReader} and
+     * {@link #returnImageReader}, e.g. to adjust its limits or to query its
+     * metrics.
+     */
+    public static CodecPool<ImageReaderParam, ImageReader> getImageReaderPool() {
+        return pool;
+    }
+
+    /**
+     * Returns an idle pooled Image Reader matching the specified parameters or
+     * a new one, if there is none. Waits for one to be returned, if the
+     * {@link CodecPool#getMaxTotal() limit} of the pool is reached. The caller
+     * must pass it back by {@link #returnImageReader} instead of disposing it.
+     */
+    public static ImageReader borrowImageReader(ImageReaderParam param) {
+        return pool.borrow(param);
+    }
+
+    public static void returnImageReader(ImageReaderParam param, ImageReader reader) {
+        pool.giveBack(param, reader);
+    }
+
     public static ImageReader getImageReaderForMimeType(String mimeType) {
         ImageReaderParam imageReaderParam = getDefault().getForMimeType(mimeType);
 
@@ -345,6 +345,53 @@ public class ImageWriterFactory implements Serializable {
         throw new RuntimeException("No matching Image Writer for format: " + param.formatName + " (Class: " + ((param.className == null) ? "*" : param.className) + ") registered");
     }
 
+    private static final CodecPool<ImageWriterParam, ImageWriter> pool =
+            new CodecPool<ImageWriterParam, ImageWriter>() {
+
+        @Override
+        protected String keyOf(ImageWriterParam param) {
+            return param.formatName + ':' + param.className;
+        }
+
+        @Override
+        protected ImageWriter create(ImageWriterParam param) {
+            return getImageWriter(param);
+        }
+
+        @Override
+        protected void reset(ImageWriter codec) {
+            codec.reset();
+        }
+
+        @Override
+        protected void dispose(ImageWriter codec) {
+            codec.dispose();
+        }
+    };
+
+    /**
+     * Returns the pool of Image Writers used by {@link #borrowImageWriter} and
+     * {@link #returnImageWriter}, e.g. to adjust its limits or to query its
+     * metrics.
+     */
+    public static CodecPool<ImageWriterParam, ImageWriter> getImageWriterPool() {
+        return pool;
+    }
+
+    /**
+     * Returns an idle pooled Image Writer matching the specified parameters or
+     * a new one, if there is none. Waits for one to be returned, if the
+     * {@link CodecPool#getMaxTotal() limit} of the pool is reached. The caller
+     * must pass it back by {@link #returnImageWriter} instead of disposing it.
+     */
+    public static ImageWriter borrowImageWriter(ImageWriterParam param) {
+        return pool.borrow(param);
+    }
+
+    public static void returnImageWriter(ImageWriterParam param, ImageWriter writer) {
+        pool.giveBack(param, writer);
+    }
+
     public static ImageWriter getImageWriterForMimeType(String mimeType) {
         ImageWriterParam imageWriterParam = getDefault().getForMimeType(mimeType);
 
@@ -72,11 +72,13 @@ public class StreamCompressor extends StreamDecompressor {
     private static final Logger LOG = LoggerFactory.getLogger(StreamCompressor.class);
 
     private TransferSyntaxType compressTsType;
+    private ImageWriterFactory.ImageWriterParam compressorParam;
     private ImageWriter compressor;
     private PatchJPEGLS compressPatchJPEGLS;
     private ImageWriteParam compressParam;
     private int maxPixelValueError = -1;
     private int avgPixelValueBlockSize = 1;
+    private ImageReaderFactory.ImageReaderParam verifierParam;
     private ImageReader verifier;
     private ImageReadParam verifyParam;
     private ImageParams imageParams;
@@ -101,35 +103,43 @@ public class StreamCompressor extends StreamDecompressor {
             throw new UnsupportedOperationException(
                     "Unsupported Transfer Syntax: " + compressTsuid);
 
-        this.compressor = ImageWriterFactory.getImageWriter(param);
-        LOG.debug("Compressor: {}", compressor.getClass().getName());
-        this.compressPatchJPEGLS = param.patchJPEGLS;
-        this.compressParam = compressor.getDefaultWriteParam();
-        int count = 0;
-        for (Property property : cat(param.getImageWriteParams(), params)) {
-            String name = property.getName();
-            if (name.equals("maxPixelValueError"))
-                this.maxPixelValueError = ((Number) property.getValue()).intValue();
-            else if (name.equals("avgPixelValueBlockSize"))
-                this.avgPixelValueBlockSize = ((Number) property.getValue()).intValue();
-            else {
-                if (count++ == 0)
-                    compressParam.setCompressionMode(
-                            ImageWriteParam.MODE_EXPLICIT);
-                property.setAt(compressParam);
+        try {
+            this.compressorParam = param;
+            this.compressor = ImageWriterFactory.borrowImageWriter(param);
+            LOG.debug("Compressor: {}", compressor.getClass().getName());
+            this.compressPatchJPEGLS = param.patchJPEGLS;
+            this.compressParam = compressor.getDefaultWriteParam();
+            int count = 0;
+            for (Property property : cat(param.getImageWriteParams(), params)) {
+                String name = property.getName();
+                if (name.equals("maxPixelValueError"))
+                    this.maxPixelValueError = ((Number) property.getValue()).intValue();
+                else if (name.equals("avgPixelValueBlockSize"))
+                    this.avgPixelValueBlockSize = ((Number) property.getValue()).intValue();
+                else {
+                    if (count++ == 0)
+                        compressParam.setCompressionMode(
+                                ImageWriteParam.MODE_EXPLICIT);
+                    property.setAt(compressParam);
+                }
             }
-        }
 
-        if (maxPixelValueError >= 0) {
-            ImageReaderFactory.ImageReaderParam readerParam =
-                    ImageReaderFactory.getImageReaderParam(compressTsuid);
-            if (readerParam == null)
-                throw new UnsupportedOperationException(
-                        "Unsupported Transfer Syntax: " + compressTsuid);
+            if (maxPixelValueError >= 0) {
+                ImageReaderFactory.ImageReaderParam readerParam =
+                        ImageReaderFactory.getImageReaderParam(compressTsuid);
+                if (readerParam == null)
+                    throw new UnsupportedOperationException(
+                            "Unsupported Transfer Syntax: " + compressTsuid);
 
-            this.verifier = ImageReaderFactory.getImageReader(readerParam);
-            this.verifyParam = verifier.getDefaultReadParam();
-            LOG.debug("Verifier: {}", verifier.getClass().getName());
+                this.verifierParam = readerParam;
+                this.verifier = ImageReaderFactory.borrowImageReader(readerParam);
+                this.verifyParam = verifier.getDefaultReadParam();
+                LOG.debug("Verifier: {}", verifier.getClass().getName());
+            }
+        } catch (RuntimeException e) {
+            // return the borrowed codecs
+            dispose();
+            throw e;
         }
         decompress();
         return pixeldataProcessed;
@@ -139,9 +149,11 @@ public class StreamCompressor extends StreamDecompressor {
     public void dispose() {
         super.dispose();
         if (compressor != null)
-            compressor.dispose();
+            ImageWriterFactory.returnImageWriter(compressorParam, compressor);
         if (verifier != null)
-            verifier.dispose();
+            ImageReaderFactory.returnImageReader(verifierParam, verifier);
+        compressor = null;
+        verifier = null;
     }
 
     private Property[] cat(Property[] a, Property[] b) {
@@ -74,6 +74,7 @@ public class StreamDecompressor implements CoerceAttributes {
     protected final String tsuid;
     protected final TransferSyntaxType tsType;
     protected final Attributes dataset;
+    protected ImageReaderFactory.ImageReaderParam decompressorParam;
     protected ImageReader decompressor;
     protected PatchJPEGLS patchJPEGLS;
     protected boolean pixeldataProcessed;
@@ -90,7 +91,8 @@ public class StreamDecompressor implements CoerceAttributes {
             ImageReaderFactory.ImageReaderParam param = ImageReaderFactory.getImageReaderParam(tsuid);
             if (param == null)
                 throw new IllegalArgumentException("Unsupported Transfer Syntax: " + tsuid);
-            this.decompressor = ImageReaderFactory.getImageReader(param);
+            this.decompressorParam = param;
+            this.decompressor = ImageReaderFactory.borrowImageReader(param);
             LOG.debug("Decompressor: {}", decompressor.getClass().getName());
             this.patchJPEGLS = param.getPatchJPEGLS();
         }
@@ -122,7 +124,8 @@ public class StreamDecompressor implements CoerceAttributes {
 
     public void dispose() {
         if (decompressor != null)
-            decompressor.dispose();
+            ImageReaderFactory.returnImageReader(decompressorParam, decompressor);
+        decompressor = null;
     }
 
     protected void onPixelData(DicomInputStream dis, Attributes attrs) throws IOException {
@@ -38,6 +38,7 @@
 
 package org.dcm4che3.imageio.plugins.dcm;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
@@ -116,6 +117,8 @@ public class DicomImageReader extends ImageReader {
 
     private File pixeldataFile;
 
+    private ImageReaderParam decompressorParam;
+
     private ImageReader decompressor;
 
     private boolean rle;
@@ -183,7 +186,7 @@ public class DicomImageReader extends ImageReader {
         readMetadata();
         checkIndex(frameIndex);
 
-        if (decompressor == null)
+        if (decompressorParam == null)
             return createImageType(bitsStored, dataType, banded);
         
         if (rle)
@@ -191,9 +194,10 @@ public class DicomImageReader extends ImageReader {
         
         openiis();
         try {
-            decompressor.setInput(iisOfFrame(0));
+            borrowDecompressor().setInput(iisOfFrame(0));
             return decompressor.getRawImageType(0);
         } finally {
+            returnDecompressor();
             closeiis();
         }
     }
@@ -207,16 +211,17 @@ public class DicomImageReader extends ImageReader {
         ImageTypeSpecifier imageType;
         if (pmi.isMonochrome())
             imageType = createImageType(8, DataBuffer.TYPE_BYTE, false);
-        else if (decompressor == null)
+        else if (decompressorParam == null)
             imageType = createImageType(bitsStored, dataType, banded);
         else if (rle)
             imageType = createImageType(bitsStored, dataType, true);
         else {
             openiis();
             try {
-                decompressor.setInput(iisOfFrame(0));
+                borrowDecompressor().setInput(iisOfFrame(0));
                 return decompressor.getImageTypes(0);
             } finally {
+                returnDecompressor();
                 closeiis();
             }
         }
@@ -224,6 +229,21 @@ public class DicomImageReader extends ImageReader {
         return Collections.singletonList(imageType).iterator();
     }
 
+    /**
+     * Borrows the Image Reader decompressing the Pixel Data for one
+     * operation, so a reader which is not disposed does not hold it.
+     */
+    private ImageReader borrowDecompressor() {
+        return decompressor = ImageReaderFactory.borrowImageReader(decompressorParam);
+    }
+
+    private void returnDecompressor() {
+        if (decompressor != null) {
+            ImageReaderFactory.returnImageReader(decompressorParam, decompressor);
+            decompressor = null;
+        }
+    }
+
     private void openiis() throws FileNotFoundException, IOException {
         if (pixeldataFile != null && iis == null)
             iis = new FileImageInputStream(pixeldataFile);
@@ -265,8 +285,8 @@ public class DicomImageReader extends ImageReader {
 
         openiis();
         try {
-            if (decompressor != null) {
-                decompressor.setInput(iisOfFrame(frameIndex));
+            if (decompressorParam != null) {
+                borrowDecompressor().setInput(iisOfFrame(frameIndex));
     
                 if (LOG.isDebugEnabled())
                     LOG.debug("Start decompressing frame #" + (frameIndex + 1));
@@ -275,31 +295,138 @@ public class DicomImageReader extends ImageReader {
                         : decompressor.read(0, decompressParam(param)).getRaster();
                 if (LOG.isDebugEnabled())
                     LOG.debug("Finished decompressing frame #" + (frameIndex + 1));
-                return wr;
+                return subsample(wr, param);
             }
             iis.setByteOrder(ds.bigEndian()
                     ? ByteOrder.BIG_ENDIAN
                     : ByteOrder.LITTLE_ENDIAN);
-            iis.seek(pixeldata.offset() + frameIndex * frameLength);
-            WritableRaster wr = Raster.createWritableRaster(
-                    createSampleModel(dataType, banded), null);
-            DataBuffer buf = wr.getDataBuffer();
-            if (buf instanceof DataBufferByte) {
-                byte[][] data = ((DataBufferByte) buf).getBankData();
-                for (byte[] bs : data)
-                    iis.readFully(bs);
-                if (pixeldata.bigEndian && pixeldataVR.vr == VR.OW)
-                    ByteUtils.swapShorts(data);
-            } else {
-                short[] data = ((DataBufferUShort) buf).getData();
-                iis.readFully(data, 0, data.length);
-            }
-            return wr;
+            if (isSubsampled(param) && canReadSubsampled())
+                return readSubsampledRaster(frameIndex, param);
+
+            return subsample(readFullRaster(frameIndex), param);
         } finally {
+            returnDecompressor();
             closeiis();
         }
     }
 
+    private WritableRaster readFullRaster(int frameIndex) throws IOException {
+        iis.seek(pixeldata.offset() + frameIndex * frameLength);
+        WritableRaster wr = Raster.createWritableRaster(
+                createSampleModel(dataType, banded), null);
+        DataBuffer buf = wr.getDataBuffer();
+        if (buf instanceof DataBufferByte) {
+            byte[][] data = ((DataBufferByte) buf).getBankData();
+            for (byte[] bs : data)
+                iis.readFully(bs);
+            if (pixeldata.bigEndian && pixeldataVR.vr == VR.OW)
+                ByteUtils.swapShorts(data);
+        } else {
+            short[] data = ((DataBufferUShort) buf).getData();
+            iis.readFully(data, 0, data.length);
+        }
+        return wr;
+    }
+
+    private boolean isSubsampled(ImageReadParam param) {
+        if (param == null)
+            return false;
+
+        Rectangle region = getSourceRegion(param, width, height);
+        return region.width != width || region.height != height
+                || param.getSourceXSubsampling() > 1
+                || param.getSourceYSubsampling() > 1;
+    }
+
+    private boolean canReadSubsampled() {
+        return !pmi.isSubSambled()
+                && (bitsAllocated == 8 || bitsAllocated == 16)
+                && !(pixeldata.bigEndian && pixeldataVR.vr == VR.OW
+                        && bitsAllocated == 8);
+    }
+
+    /**
+     * Reads only the rows and columns of the source region selected by the
+     * subsampling factors of <tt>param</tt> into a raster of the reduced
+     * size, instead of reading the whole frame.
+     */
+    private WritableRaster readSubsampledRaster(int frameIndex,
+            ImageReadParam param) throws IOException {
+        Rectangle region = getSourceRegion(param, width, height);
+        int xss = param.getSourceXSubsampling();
+        int yss = param.getSourceYSubsampling();
+        int w = (region.width + xss - 1) / xss;
+        int h = (region.height + yss - 1) / yss;
+        int pixelStride = banded ? 1 : samples;
+        int bytesPerSample = bitsAllocated >> 3;
+        int lineLength = ((w - 1) * xss + 1) * pixelStride;
+        long frameOffset = pixeldata.offset() + (long) frameIndex * frameLength;
+        long bankLength = (long) width * height * pixelStride;
+        WritableRaster wr = Raster.createWritableRaster(
+                createSampleModel(dataType, w, h, banded), null);
+        DataBuffer buf = wr.getDataBuffer();
+        if (buf instanceof DataBufferByte) {
+            byte[][] data = ((DataBufferByte) buf).getBankData();
+            byte[] line = new byte[lineLength];
+            for (int b = 0; b < data.length; b++) {
+                byte[] bank = data[b];
+                for (int y = 0, dstPos = 0; y < h; y++) {
+                    iis.seek(frameOffset + (b * bankLength
+                            + ((long) (region.y + y * yss) * width + region.x)
+                                * pixelStride) * bytesPerSample);
+                    iis.readFully(line, 0, lineLength);
+                    for (int srcPos = 0; srcPos < lineLength;
+                            srcPos += xss * pixelStride)
+                        for (int s = 0; s < pixelStride; s++)
+                            bank[dstPos++] = line[srcPos + s];
+                }
+            }
+        } else {
+            short[][] data = ((DataBufferUShort) buf).getBankData();
+            short[] line = new short[lineLength];
+            for (int b = 0; b < data.length; b++) {
+                short[] bank = data[b];
+                for (int y = 0, dstPos = 0; y < h; y++) {
+                    iis.seek(frameOffset + (b * bankLength
+                            + ((long) (region.y + y * yss) * width + region.x)
+                                * pixelStride) * bytesPerSample);
+                    iis.readFully(line, 0, lineLength);
+                    for (int srcPos = 0; srcPos < lineLength;
+                            srcPos += xss * pixelStride)
+                        for (int s = 0; s < pixelStride; s++)
+                            bank[dstPos++] = line[srcPos + s];
+                }
+            }
+        }
+        return wr;
+    }
+
+    /**
+     * Returns the source region of the raster selected by the subsampling
+     * factors of <tt>param</tt>, if the raster still contains the whole frame
+     * - e.g. because the decompressor ignored the source region and
+     * subsampling of the passed read param.
+     */
+    private Raster subsample(Raster raster, ImageReadParam param) {
+        if (!isSubsampled(param)
+                || raster.getWidth() != width || raster.getHeight() != height)
+            return raster;
+
+        Rectangle region = getSourceRegion(param, width, height);
+        int xss = param.getSourceXSubsampling();
+        int yss = param.getSourceYSubsampling();
+        int w = (region.width + xss - 1) / xss;
+        int h = (region.height + yss - 1) / yss;
+        WritableRaster dest = raster.createCompatibleWritableRaster(w, h);
+        Object pixel = null;
+        for (int y = 0, srcY = region.y; y < h; y++, srcY += yss)
+            for (int x = 0, srcX = region.x; x < w; x++, srcX += xss) {
+                pixel = raster.getDataElements(srcX, srcY, pixel);
+                dest.setDataElements(x, y, pixel);
+            }
+        return dest;
+    }
+
     private ImageReadParam decompressParam(ImageReadParam param) {
         ImageReadParam decompressParam = decompressor.getDefaultReadParam();
         ImageTypeSpecifier imageType = null;
@@ -312,6 +439,14 @@ public class DicomImageReader extends ImageReader {
             imageType = createImageType(bitsStored, dataType, true);
         decompressParam.setDestinationType(imageType);
         decompressParam.setDestination(dest);
+        if (param != null && !rle) {
+            decompressParam.setSourceRegion(param.getSourceRegion());
+            decompressParam.setSourceSubsampling(
+                    param.getSourceXSubsampling(),
+                    param.getSourceYSubsampling(),
+                    param.getSubsamplingXOffset(),
+                    param.getSubsamplingYOffset());
+        }
         return decompressParam;
     }
 
@@ -322,20 +457,23 @@ public class DicomImageReader extends ImageReader {
         checkIndex(frameIndex);
 
         WritableRaster raster;
-        if (decompressor != null) {
+        if (decompressorParam != null) {
             openiis();
             try {
-                decompressor.setInput(iisOfFrame(frameIndex));
+                borrowDecompressor().setInput(iisOfFrame(frameIndex));
                 if (LOG.isDebugEnabled())
                     LOG.debug("Start decompressing frame #" + (frameIndex + 1));
                 BufferedImage bi = decompressor.read(0, decompressParam(param));
                 if (LOG.isDebugEnabled())
                     LOG.debug("Finished decompressing frame #" + (frameIndex + 1));
+                raster = (WritableRaster) subsample(bi.getRaster(), param);
                 if (samples > 1)
-                    return bi;
-                
-                raster = bi.getRaster();
+                    return raster == bi.getRaster() ? bi
+                            : new BufferedImage(bi.getColorModel(), raster,
+                                    bi.isAlphaPremultiplied(), null);
+
             } finally {
+                returnDecompressor();
                 closeiis();
             }
         } else
@@ -349,7 +487,8 @@ public class DicomImageReader extends ImageReader {
                 overlayData[i] = extractOverlay(overlayGroupOffsets[i], raster);
             }
             cm = createColorModel(8, DataBuffer.TYPE_BYTE);
-            SampleModel sm = createSampleModel(DataBuffer.TYPE_BYTE, false);
+            SampleModel sm = createSampleModel(DataBuffer.TYPE_BYTE,
+                    raster.getWidth(), raster.getHeight(), false);
             raster = applyLUTs(raster, frameIndex, param, sm, 8);
             for (int i = 0; i < overlayGroupOffsets.length; i++) {
                 applyOverlay(overlayGroupOffsets[i], 
@@ -372,7 +511,9 @@ public class DicomImageReader extends ImageReader {
         int bitPosition = attrs.getInt(Tag.OverlayBitPosition | gg0000, 0);
 
         int mask = 1<<bitPosition;
-        int length = ovlyRows * ovlyColumns;
+        int length = raster.getWidth() != width || raster.getHeight() != height
+                ? raster.getWidth() * raster.getHeight()
+                : ovlyRows * ovlyColumns;
 
         byte[] ovlyData = new byte[(((length+7)>>>3)+1)&(~1)] ;
         Overlays.extractFromPixeldata(raster, mask, ovlyData, 0, length);
@@ -404,8 +545,18 @@ public class DicomImageReader extends ImageReader {
             } else
                 grayscaleValue = dParam.getOverlayGrayscaleValue();
         }
-        Overlays.applyOverlay(ovlyData != null ? 0 : frameIndex, raster,
-                ovlyAttrs, gg0000, grayscaleValue >>> (16-outBits), ovlyData);
+        if (!isSubsampled(param))
+            Overlays.applyOverlay(ovlyData != null ? 0 : frameIndex, raster,
+                    ovlyAttrs, gg0000, grayscaleValue >>> (16-outBits), ovlyData);
+        else if (ovlyData != null)
+            Overlays.applyOverlay(raster, ovlyData,
+                    grayscaleValue >>> (16-outBits));
+        else
+            Overlays.applyOverlay(frameIndex, raster, ovlyAttrs, gg0000,
+                    grayscaleValue >>> (16-outBits), null,
+                    getSourceRegion(param, width, height),
+                    param.getSourceXSubsampling(),
+                    param.getSourceYSubsampling());
     }
 
     private int[] getActiveOverlayGroupOffsets(ImageReadParam param) {
@@ -555,7 +706,7 @@ public class DicomImageReader extends ImageReader {
                 if (param == null)
                     throw new UnsupportedOperationException("Unsupported Transfer Syntax: " + tsuid);
                 this.rle = tsuid.equals(UID.RLELossless);
-                this.decompressor = ImageReaderFactory.getImageReader(param);
+                this.decompressorParam = param;
                 this.patchJpegLS = param.patchJPEGLS;
                 this.pixeldataFragments = (Fragments) pixeldata;
             }
@@ -563,7 +714,12 @@ public class DicomImageReader extends ImageReader {
     }
 
     private SampleModel createSampleModel(int dataType, boolean banded) {
-        return pmi.createSampleModel(dataType, width, height, samples, banded);
+        return createSampleModel(dataType, width, height, banded);
+    }
+
+    private SampleModel createSampleModel(int dataType, int w, int h,
+            boolean banded) {
+        return pmi.createSampleModel(dataType, w, h, samples, banded);
     }
 
     private ImageTypeSpecifier createImageType(int bits, int dataType, boolean banded) {
@@ -585,10 +741,8 @@ public class DicomImageReader extends ImageReader {
         height = 0;
         pixeldata = null;
         pixeldataFragments = null;
-        if (decompressor != null) {
-            decompressor.dispose();
-            decompressor = null;
-        }
+        returnDecompressor();
+        decompressorParam = null;
         patchJpegLS = null;
         pmi = null;
     }
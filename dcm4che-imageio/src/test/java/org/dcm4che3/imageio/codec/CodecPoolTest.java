@@ -0,0 +1,182 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * **** END LICENSE BLOCK *****
+ */
+
+package org.dcm4che3.imageio.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.imageio.codec.ImageReaderFactory.ImageReaderParam;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class CodecPoolTest {
+
+    @Test
+    public void testReuseReader() {
+        ImageReaderParam param = ImageReaderFactory.getImageReaderParam(UID.RLELossless);
+        CodecPool<ImageReaderParam, ImageReader> pool = ImageReaderFactory.getImageReaderPool();
+        pool.clear();
+        long created = pool.getCreateCount();
+        ImageReader reader1 = ImageReaderFactory.borrowImageReader(param);
+        ImageReader reader2 = ImageReaderFactory.borrowImageReader(param);
+        assertNotSame(reader1, reader2);
+        assertEquals(created + 2, pool.getCreateCount());
+        reader1.setInput(new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(new byte[0])));
+        ImageReaderFactory.returnImageReader(param, reader1);
+        ImageReaderFactory.returnImageReader(param, reader2);
+        assertEquals(2, pool.getIdleCount());
+        ImageReader reader3 = ImageReaderFactory.borrowImageReader(param);
+        assertSame(reader2, reader3);
+        ImageReader reader4 = ImageReaderFactory.borrowImageReader(param);
+        assertSame(reader1, reader4);
+        assertNull(reader4.getInput());
+        assertEquals(created + 2, pool.getCreateCount());
+        ImageReaderFactory.returnImageReader(param, reader3);
+        ImageReaderFactory.returnImageReader(param, reader4);
+    }
+
+    @Test
+    public void testMaxIdle() {
+        ImageReaderParam param = ImageReaderFactory.getImageReaderParam(UID.RLELossless);
+        CodecPool<ImageReaderParam, ImageReader> pool = ImageReaderFactory.getImageReaderPool();
+        pool.clear();
+        int maxIdle = pool.getMaxIdle();
+        pool.setMaxIdle(1);
+        try {
+            long disposed = pool.getDisposeCount();
+            ImageReader reader1 = ImageReaderFactory.borrowImageReader(param);
+            ImageReader reader2 = ImageReaderFactory.borrowImageReader(param);
+            ImageReaderFactory.returnImageReader(param, reader1);
+            ImageReaderFactory.returnImageReader(param, reader2);
+            assertEquals(1, pool.getIdleCount());
+            assertEquals(disposed + 1, pool.getDisposeCount());
+        } finally {
+            pool.setMaxIdle(maxIdle);
+            pool.clear();
+        }
+    }
+
+    @Test
+    public void testMaxTotal() throws Exception {
+        final AtomicInteger live = new AtomicInteger();
+        final CodecPool<String, Object> pool = new CodecPool<String, Object>() {
+
+            @Override
+            protected String keyOf(String param) {
+                return param;
+            }
+
+            @Override
+            protected Object create(String param) {
+                live.incrementAndGet();
+                return new Object();
+            }
+
+            @Override
+            protected void reset(Object codec) {
+            }
+
+            @Override
+            protected void dispose(Object codec) {
+                live.decrementAndGet();
+            }
+        };
+        pool.setMaxTotal(2);
+        pool.setMaxWait(100);
+        final Object codec1 = pool.borrow("a");
+        Object codec2 = pool.borrow("a");
+        assertNotSame(codec1, pool.borrow("b"));
+        assertEquals(3, live.get());
+        try {
+            pool.borrow("a");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {}
+        assertEquals(3, live.get());
+
+        // a waiting borrower gets the codec given back
+        pool.setMaxWait(10000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> borrowed = executor.submit(
+                    new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    return pool.borrow("a");
+                }
+            });
+            Thread.sleep(100);
+            assertFalse(borrowed.isDone());
+            pool.giveBack("a", codec1);
+            assertSame(codec1, borrowed.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(3, live.get());
+
+        // disposing a codec, which is not kept idle, frees its slot
+        pool.setMaxIdle(0);
+        pool.giveBack("a", codec2);
+        assertEquals(2, live.get());
+        assertEquals(2, pool.getTotalCount());
+        assertNotSame(codec2, pool.borrow("a"));
+        assertEquals(3, live.get());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * **** END LICENSE BLOCK *****
+ */
+
+package org.dcm4che3.imageio.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.image.PhotometricInterpretation;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class CompressionRulesTest {
+
+    private static final String[] NONE = {};
+    private static final String[] MONOCHROME = { "MONOCHROME1", "MONOCHROME2" };
+    private static final int[] BITS_8_16 = { 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+    private static CompressionRules createRules() {
+        CompressionRules rules = new CompressionRules();
+        rules.add(new CompressionRule("default", MONOCHROME, BITS_8_16, -1,
+                NONE, NONE, NONE, NONE, NONE, UID.JPEGLossless));
+        rules.add(new CompressionRule("ct", MONOCHROME, new int[] { 12 }, -1,
+                NONE, NONE, new String[] { UID.CTImageStorage }, NONE, NONE,
+                UID.RLELossless));
+        rules.add(new CompressionRule("ct-chest", MONOCHROME, BITS_8_16, -1,
+                NONE, NONE, new String[] { UID.CTImageStorage }, NONE,
+                new String[] { "CHEST" }, UID.JPEG2000LosslessOnly));
+        rules.add(new CompressionRule("store-scu", MONOCHROME, BITS_8_16, 0,
+                new String[] { "STORESCU" }, NONE, NONE, NONE, NONE,
+                UID.JPEGLSLossless));
+        return rules;
+    }
+
+    @Test
+    public void testFindCompressionRule() {
+        CompressionRules rules = createRules();
+        assertEquals("store-scu", find(rules, "STORESCU", PhotometricInterpretation.MONOCHROME2,
+                12, 0, UID.CTImageStorage, "CHEST"));
+        assertEquals("ct", find(rules, "STORESCU", PhotometricInterpretation.MONOCHROME2,
+                12, 1, UID.CTImageStorage, "HEAD"));
+        assertEquals("ct-chest", find(rules, "STORESCU", PhotometricInterpretation.MONOCHROME2,
+                16, 1, UID.CTImageStorage, "CHEST"));
+        assertEquals("default", find(rules, "STORESCU", PhotometricInterpretation.MONOCHROME2,
+                16, 1, UID.CTImageStorage, "HEAD"));
+        assertEquals("ct-chest", find(rules, "OTHER", PhotometricInterpretation.MONOCHROME1,
+                12, 0, null, "CHEST"));
+        assertEquals("default", find(rules, "OTHER", PhotometricInterpretation.MONOCHROME1,
+                12, 0, UID.MRImageStorage, "CHEST"));
+        assertNull(find(rules, "OTHER", PhotometricInterpretation.RGB,
+                8, 0, UID.CTImageStorage, null));
+        assertNull(find(rules, "OTHER", PhotometricInterpretation.MONOCHROME2,
+                7, 0, UID.CTImageStorage, null));
+    }
+
+    @Test
+    public void testReconfigure() {
+        CompressionRules rules = createRules();
+        assertEquals("ct", find(rules, "OTHER", PhotometricInterpretation.MONOCHROME2,
+                12, 0, UID.CTImageStorage, "HEAD"));
+        rules.remove(rules.findByCommonName("ct"));
+        assertEquals("default", find(rules, "OTHER", PhotometricInterpretation.MONOCHROME2,
+                12, 0, UID.CTImageStorage, "HEAD"));
+        rules.clear();
+        assertNull(find(rules, "OTHER", PhotometricInterpretation.MONOCHROME2,
+                12, 0, UID.CTImageStorage, "HEAD"));
+        rules.setList(createRules().getList());
+        assertEquals("ct", find(rules, "OTHER", PhotometricInterpretation.MONOCHROME2,
+                12, 0, UID.CTImageStorage, "HEAD"));
+    }
+
+    private static String find(CompressionRules rules, String aet,
+            PhotometricInterpretation pmi, int bitsStored, int pixelRepresentation,
+            String cuid, String bodyPart) {
+        CompressionRule rule = rules.findCompressionRule(aet, pmi, bitsStored,
+                pixelRepresentation, cuid, null, bodyPart);
+        return rule != null ? rule.getCommonName() : null;
+    }
+}
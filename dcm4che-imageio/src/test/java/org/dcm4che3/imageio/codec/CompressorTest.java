@@ -0,0 +1,295 @@
+/*
+ * **** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * **** END LICENSE BLOCK *****
+ */
+
+package org.dcm4che3.imageio.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.SafeClose;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class CompressorTest {
+
+    private static final String NM_MF = "src/test/data/NM-MONO2-16-13x-heart";
+
+    @Test
+    public void testCompressRLE() throws Exception {
+        File srcFile = new File(NM_MF);
+        File outFile = new File("target", srcFile.getName() + "-rle");
+        DicomInputStream dis = new DicomInputStream(srcFile);
+        Attributes fmi;
+        Attributes attrs;
+        try {
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+            fmi = dis.readFileMetaInformation();
+            attrs = dis.readDataset(-1, -1);
+        } finally {
+            SafeClose.close(dis);
+        }
+        String tsuid = fmi.getString(Tag.TransferSyntaxUID);
+        Compressor compressor = new Compressor(attrs, tsuid, UID.RLELossless);
+        DicomOutputStream dos = new DicomOutputStream(outFile);
+        try {
+            assertTrue(compressor.compress());
+            fmi.setString(Tag.TransferSyntaxUID, VR.UI, UID.RLELossless);
+            dos.writeDataset(fmi, attrs);
+        } finally {
+            SafeClose.close(dos);
+            compressor.close();
+        }
+        assertTrue(outFile.length() < srcFile.length());
+
+        int frames = attrs.getInt(Tag.NumberOfFrames, 1);
+        for (int i = 0; i < frames; i++)
+            assertArrayEquals(readFrame(srcFile, i), readFrame(outFile, i));
+    }
+
+    @Test
+    public void testWriteReadRLE() throws Exception {
+        int w = 300;
+        int h = 7;
+        byte[] pixels = new byte[w * h * 3];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = (byte) ((i % 7 == 0) ? i : (i / 200));
+        BufferedImage bi = createRGB(w, h, pixels);
+        byte[] rle = writeRLE(bi);
+        assertEquals(3, rle[0]);
+        assertEquals(0, rle.length & 1);
+
+        ImageReader reader = ImageIO.getImageReadersByFormatName("rle").next();
+        try {
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(rle)));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestinationType(new ImageTypeSpecifier(bi.getColorModel(),
+                    new BandedSampleModel(DataBuffer.TYPE_BYTE, w, h, 3)));
+            Raster raster = reader.readRaster(0, param);
+            for (int y = 0, i = 0; y < h; y++)
+                for (int x = 0; x < w; x++)
+                    for (int b = 0; b < 3; b++, i++)
+                        assertEquals(pixels[i] & 0xff,
+                                raster.getSample(x, y, b));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadRLEIntoReusedPixelInterleavedImage() throws Exception {
+        int w = 33;
+        int h = 5;
+        byte[] pixels1 = new byte[w * h * 3];
+        byte[] pixels2 = new byte[w * h * 3];
+        for (int i = 0; i < pixels1.length; i++) {
+            pixels1[i] = (byte) (i / 10);
+            pixels2[i] = (byte) ((i & 1) == 0 ? 0xff : i);
+        }
+        byte[] rle1 = writeRLE(createRGB(w, h, pixels1));
+        byte[] rle2 = writeRLE(createRGB(w, h, pixels2));
+        BufferedImage dest = createRGB(w, h, new byte[w * h * 3]);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("rle").next();
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(dest);
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(rle1)));
+            reader.read(0, param);
+            assertArrayEquals(pixels1, ((DataBufferByte)
+                    dest.getRaster().getDataBuffer()).getData());
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(rle2)));
+            reader.read(0, param);
+            assertArrayEquals(pixels2, ((DataBufferByte)
+                    dest.getRaster().getDataBuffer()).getData());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadRLEIntoSubimage() throws Exception {
+        int w = 33;
+        int h = 5;
+        byte[] pixels = new byte[w * h * 3];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = (byte) (i / 10);
+        byte[] rle = writeRLE(createRGB(w, h, pixels));
+        byte[] destPixels = new byte[(w + 4) * (h + 3) * 3];
+        Arrays.fill(destPixels, (byte) 0x55);
+        BufferedImage dest = createRGB(w + 4, h + 3, destPixels);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("rle").next();
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(dest.getSubimage(3, 2, w, h));
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(rle)));
+            reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+        Raster raster = dest.getRaster();
+        for (int y = 0; y < h + 3; y++)
+            for (int x = 0; x < w + 4; x++)
+                for (int b = 0; b < 3; b++)
+                    assertEquals("(" + x + "," + y + "," + b + ")",
+                            x >= 3 && x < w + 3 && y >= 2 && y < h + 2
+                                ? pixels[((y - 2) * w + x - 3) * 3 + b] & 0xff
+                                : 0x55,
+                            raster.getSample(x, y, b));
+    }
+
+    @Test
+    public void testReadRLEIntoPaddedRaster() throws Exception {
+        int w = 21;
+        int h = 6;
+        short[] pixels = new short[w * h];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = (short) (i < 40 ? 0x1234 : i * 311);
+        BufferedImage bi = new BufferedImage(w, h,
+                BufferedImage.TYPE_USHORT_GRAY);
+        bi.getRaster().setDataElements(0, 0, w, h, pixels);
+        byte[] rle = writeRLE(bi);
+        int scanlineStride = w + 7;
+        short[] destPixels = new short[scanlineStride * h + 3];
+        Arrays.fill(destPixels, (short) 0x5555);
+        WritableRaster destRaster = Raster.createWritableRaster(
+                new PixelInterleavedSampleModel(DataBuffer.TYPE_USHORT, w, h,
+                        1, scanlineStride, new int[] { 0 }),
+                new DataBufferUShort(destPixels, destPixels.length - 3, 3),
+                null);
+        BufferedImage dest = new BufferedImage(bi.getColorModel(), destRaster,
+                false, null);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("rle").next();
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(dest);
+            reader.setInput(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(rle)));
+            reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+        for (int i = 0; i < destPixels.length; i++) {
+            int x = (i - 3) % scanlineStride;
+            int y = (i - 3) / scanlineStride;
+            assertEquals("[" + i + "]",
+                    i >= 3 && x < w ? pixels[y * w + x] : 0x5555,
+                    destPixels[i]);
+        }
+    }
+
+    private static byte[] writeRLE(BufferedImage bi) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("rle").next();
+        MemoryCacheImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(bi, null, null), null);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage createRGB(int w, int h, byte[] pixels) {
+        ComponentColorModel cm = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                new int[] { 8, 8, 8 }, false, false, Transparency.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+        WritableRaster raster = Raster.createWritableRaster(
+                new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h,
+                        3, w * 3, new int[] { 0, 1, 2 }),
+                new DataBufferByte(pixels, pixels.length), null);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    private static short[] readFrame(File file, int frameIndex)
+            throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("DICOM").next();
+        FileImageInputStream iis = new FileImageInputStream(file);
+        try {
+            reader.setInput(iis);
+            Raster raster = reader.readRaster(frameIndex, null);
+            return ((DataBufferUShort) raster.getDataBuffer()).getData();
+        } finally {
+            SafeClose.close(iis);
+            reader.dispose();
+        }
+    }
+}
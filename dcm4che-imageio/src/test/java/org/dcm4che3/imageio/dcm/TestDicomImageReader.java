@@ -38,20 +38,33 @@
 
 package org.dcm4che3.imageio.dcm;
 
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.FileImageInputStream;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
 import org.dcm4che3.imageio.plugins.dcm.DicomMetaData;
 import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.ByteUtils;
 import org.dcm4che3.util.SafeClose;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -63,6 +76,9 @@ public class TestDicomImageReader {
     private static final String NM_MF = "src/test/data/NM-MONO2-16-13x-heart";
     private static final String US_MF_RLE = "src/test/data/US-PAL-8-10x-echo";
 
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     ImageReader reader;
 
     @Before
@@ -96,6 +112,156 @@ public class TestDicomImageReader {
         testReadRasterFromAttributes(US_MF_RLE, 5);
     }
 
+    @Test
+    public void testReadSubsampledRaster() throws IOException {
+        testReadSubsampledRaster(16, 1, 0);
+    }
+
+    @Test
+    public void testReadSubsampledRaster8() throws IOException {
+        testReadSubsampledRaster(8, 1, 0);
+    }
+
+    @Test
+    public void testReadSubsampledRGB() throws IOException {
+        testReadSubsampledRaster(8, 3, 0);
+    }
+
+    @Test
+    public void testReadSubsampledRGBPlanar() throws IOException {
+        testReadSubsampledRaster(8, 3, 1);
+    }
+
+    private void testReadSubsampledRaster(int bitsAllocated, int samples,
+            int planarConfiguration) throws IOException {
+        Attributes attrs = createImage(8, 6, 2, bitsAllocated, samples,
+                planarConfiguration);
+        FileImageInputStream iis = new FileImageInputStream(writeFile(attrs));
+        try {
+            reader.setInput(iis);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(2, 1, 5, 4));
+            param.setSourceSubsampling(2, 2, 0, 0);
+            Raster raster = reader.readRaster(1, param);
+            assertEquals(3, raster.getWidth());
+            assertEquals(2, raster.getHeight());
+            assertEquals(samples, raster.getNumBands());
+            for (int s = 0; s < samples; s++)
+                for (int y = 0; y < 2; y++)
+                    for (int x = 0; x < 3; x++)
+                        assertEquals(sampleOf(1, 2 + x * 2, 1 + y * 2, s),
+                                raster.getSample(x, y, s));
+        } finally {
+            SafeClose.close(iis);
+        }
+    }
+
+    @Test
+    public void testReadSubsampledOverlay() throws IOException {
+        int columns = 8;
+        int rows = 6;
+        Attributes attrs = createImage(columns, rows, 1, 16, 1, 0);
+        Arrays.fill(attrs.getBytes(Tag.PixelData), (byte) 0);
+        attrs.setString(Tag.WindowCenter, VR.DS, "128");
+        attrs.setString(Tag.WindowWidth, VR.DS, "256");
+        byte[] ovlyData = new byte[(columns * rows + 7) >>> 3];
+        // source region (2,1) - (6,3), sampled at x = 2,4,6 and y = 1,3
+        setOverlayBit(ovlyData, columns, 2, 1);  // -> (0,0)
+        setOverlayBit(ovlyData, columns, 6, 3);  // -> (2,1)
+        setOverlayBit(ovlyData, columns, 5, 3);  // not on subsampling grid
+        setOverlayBit(ovlyData, columns, 3, 1);  // not on subsampling grid
+        setOverlayBit(ovlyData, columns, 7, 1);  // right of source region
+        setOverlayBit(ovlyData, columns, 2, 4);  // below source region
+        setOverlayBit(ovlyData, columns, 0, 1);  // left of source region
+        setOverlayBit(ovlyData, columns, 2, 0);  // above source region
+        attrs.setInt(Tag.OverlayRows, VR.US, rows);
+        attrs.setInt(Tag.OverlayColumns, VR.US, columns);
+        attrs.setString(Tag.OverlayType, VR.CS, "G");
+        attrs.setInt(Tag.OverlayOrigin, VR.SS, 1, 1);
+        attrs.setInt(Tag.OverlayBitsAllocated, VR.US, 1);
+        attrs.setInt(Tag.OverlayBitPosition, VR.US, 0);
+        attrs.setBytes(Tag.OverlayData, VR.OW, ovlyData);
+        FileImageInputStream iis = new FileImageInputStream(writeFile(attrs));
+        try {
+            reader.setInput(iis);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(2, 1, 5, 3));
+            param.setSourceSubsampling(2, 2, 0, 0);
+            Raster raster = reader.read(0, param).getRaster();
+            assertEquals(3, raster.getWidth());
+            assertEquals(2, raster.getHeight());
+            for (int y = 0; y < 2; y++)
+                for (int x = 0; x < 3; x++)
+                    assertEquals("(" + x + "," + y + ")",
+                            x == 0 && y == 0 || x == 2 && y == 1 ? 255 : 0,
+                            raster.getSample(x, y, 0));
+        } finally {
+            SafeClose.close(iis);
+        }
+    }
+
+    private static void setOverlayBit(byte[] ovlyData, int columns,
+            int x, int y) {
+        int i = y * columns + x;
+        ovlyData[i >>> 3] |= 1 << (i & 7);
+    }
+
+    private static int sampleOf(int frame, int x, int y, int sample) {
+        return frame * 100 + y * 10 + x + sample * 50;
+    }
+
+    private static Attributes createImage(int columns, int rows, int frames,
+            int bitsAllocated, int samples, int planarConfiguration) {
+        int bytesPerSample = bitsAllocated >> 3;
+        int frameLength = columns * rows * samples;
+        byte[] pixels = new byte[frameLength * frames * bytesPerSample];
+        for (int f = 0; f < frames; f++)
+            for (int y = 0; y < rows; y++)
+                for (int x = 0; x < columns; x++)
+                    for (int s = 0; s < samples; s++) {
+                        int i = planarConfiguration == 0
+                                ? (y * columns + x) * samples + s
+                                : (s * rows + y) * columns + x;
+                        int off = (f * frameLength + i) * bytesPerSample;
+                        if (bytesPerSample == 2)
+                            ByteUtils.shortToBytesLE(
+                                    sampleOf(f, x, y, s), pixels, off);
+                        else
+                            pixels[off] = (byte) sampleOf(f, x, y, s);
+                    }
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPClassUID, VR.UI,
+                UID.SecondaryCaptureImageStorage);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, samples);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS,
+                samples == 1 ? "MONOCHROME2" : "RGB");
+        if (samples > 1)
+            attrs.setInt(Tag.PlanarConfiguration, VR.US, planarConfiguration);
+        attrs.setInt(Tag.NumberOfFrames, VR.IS, frames);
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, columns);
+        attrs.setInt(Tag.BitsAllocated, VR.US, bitsAllocated);
+        attrs.setInt(Tag.BitsStored, VR.US, bitsAllocated);
+        attrs.setInt(Tag.HighBit, VR.US, bitsAllocated - 1);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        attrs.setBytes(Tag.PixelData, bitsAllocated == 8 ? VR.OB : VR.OW,
+                pixels);
+        return attrs;
+    }
+
+    private File writeFile(Attributes attrs) throws IOException {
+        File file = tmpFolder.newFile("mf.dcm");
+        DicomOutputStream dos = new DicomOutputStream(file);
+        try {
+            dos.writeDataset(attrs.createFileMetaInformation(
+                    UID.ExplicitVRLittleEndian), attrs);
+        } finally {
+            SafeClose.close(dos);
+        }
+        return file;
+    }
+
     private void testReadRasterFromImageInputStream(String pathname, int imageIndex)
             throws IOException {
         FileImageInputStream iis = new FileImageInputStream(new File(pathname));
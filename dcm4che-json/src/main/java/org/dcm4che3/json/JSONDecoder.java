@@ -0,0 +1,980 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2013
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParsingException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.Base64;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Parses DICOM JSON from a UTF-8 encoded byte stream without an underlying
+ * {@link javax.json.stream.JsonParser}. Values are decoded directly into the
+ * types stored in {@link Attributes}: numbers without intermediate
+ * {@code BigDecimal}s, Person Name objects directly into their DICOM string
+ * representation. Results are equal to those of {@link JSONReader}.
+ * <p>
+ * Arrays of Data Sets can be read one Data Set at a time by
+ * {@link #nextDataset()} or {@link #readDatasets(JSONReader.Callback)}, so
+ * memory usage is bounded by the largest Data Set, not by the whole array.
+ * Attributes with specified tags, or bulk data, may be skipped without
+ * decoding their values.
+ *
+ * @author agent <agent@local>
+ */
+public class JSONDecoder {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int MAX_EXACT_DIGITS = 18;
+    private static final VR[] VR_OF = new VR[26 * 26];
+
+    static {
+        for (VR vr : VR.values())
+            VR_OF[((vr.code() >> 8) - 'A') * 26 + (vr.code() & 0xff) - 'A'] = vr;
+    }
+
+    private enum ArrayState { NOT_STARTED, IN_ARRAY, ENDED }
+
+    private final InputStream in;
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+    private long offset;
+    private long tokenOffset;
+    private long line = 1;
+    private long lineOffset;
+    private long tokenLine;
+    private long tokenColumn;
+    private boolean addBulkDataReferences;
+    private boolean skipBulkData;
+    private int[] skipTags = {};
+    private Attributes fmi;
+    private ArrayState arrayState = ArrayState.NOT_STARTED;
+    private char[] chars = new char[64];
+    private int charsLength;
+    private char[] number = new char[32];
+    private int numberLength;
+    private boolean numberExact;
+    private long numberValue;
+    private int[] ints = new int[16];
+    private double[] doubles = new double[16];
+    private final ArrayList<String> stringValues = new ArrayList<String>();
+    private final StringBuilder[] personNameGroups = {
+            new StringBuilder(), new StringBuilder(), new StringBuilder() };
+    private final boolean[] hasPersonNameGroup = new boolean[3];
+    private final StringBuilder personName = new StringBuilder(64);
+    private final ByteArrayOutputStream bout = new ByteArrayOutputStream(64);
+
+    public JSONDecoder(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JSONDecoder(InputStream in, int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    public boolean isAddBulkDataReferences() {
+        return addBulkDataReferences;
+    }
+
+    public void setAddBulkDataReferences(boolean addBulkDataReferences) {
+        this.addBulkDataReferences = addBulkDataReferences;
+    }
+
+    public boolean isSkipBulkData() {
+        return skipBulkData;
+    }
+
+    /**
+     * Skips attributes with {@code "InlineBinary"}, {@code "BulkDataURI"} or
+     * {@code "DataFragment"} values without decoding them.
+     */
+    public void setSkipBulkData(boolean skipBulkData) {
+        this.skipBulkData = skipBulkData;
+    }
+
+    public int[] getSkipTags() {
+        return skipTags.clone();
+    }
+
+    /**
+     * Skips attributes with the specified tags, in the Data Set and in
+     * nested Sequence Items, without decoding their values.
+     */
+    public void setSkipTags(int... skipTags) {
+        int[] tags = skipTags.clone();
+        Arrays.sort(tags);
+        this.skipTags = tags;
+    }
+
+    public Attributes getFileMetaInformation() {
+        return fmi;
+    }
+
+    public Attributes readDataset(Attributes attrs) throws IOException {
+        int c = next();
+        if (c != '{')
+            throw unexpected(c, "Data Set object");
+        if (attrs == null) {
+            attrs = new Attributes();
+        }
+        fmi = null;
+        doReadDataset(attrs);
+        return attrs;
+    }
+
+    /**
+     * Reads the next Data Set of an array of Data Sets.
+     *
+     * @return the next Data Set, or {@code null} if the end of the array
+     *         was reached
+     */
+    public Attributes nextDataset() throws IOException {
+        int c;
+        switch (arrayState) {
+        case NOT_STARTED:
+            c = next();
+            if (c != '[')
+                throw unexpected(c, "array of Data Set objects");
+            arrayState = ArrayState.IN_ARRAY;
+            c = next();
+            break;
+        case IN_ARRAY:
+            c = next();
+            if (c == ',')
+                c = next();
+            else if (c != ']')
+                throw unexpected(c, "',' or ']'");
+            break;
+        default:
+            return null;
+        }
+        if (c == ']') {
+            arrayState = ArrayState.ENDED;
+            return null;
+        }
+        if (c != '{')
+            throw unexpected(c, "Data Set object");
+        fmi = null;
+        Attributes attrs = new Attributes();
+        doReadDataset(attrs);
+        return attrs;
+    }
+
+    public void readDatasets(JSONReader.Callback callback) throws IOException {
+        Attributes attrs;
+        while ((attrs = nextDataset()) != null)
+            callback.onDataset(fmi, attrs);
+    }
+
+    private void doReadDataset(Attributes attrs) throws IOException {
+        int c = next();
+        if (c != '}') {
+            for (;;) {
+                if (c != '"')
+                    throw unexpected(c, "Tag value");
+                readAttribute(attrs);
+                c = next();
+                if (c == '}')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or '}'");
+                c = next();
+            }
+        }
+        attrs.trimToSize();
+    }
+
+    private void readAttribute(Attributes attrs) throws IOException {
+        int tag = readTag();
+        expect(':');
+        if (Arrays.binarySearch(skipTags, tag) >= 0) {
+            skipValue();
+            return;
+        }
+        if (TagUtils.isFileMetaInformation(tag)) {
+            if (fmi == null)
+                fmi = new Attributes();
+            attrs = fmi;
+        }
+        expect('{', "attribute object");
+        expect('"', "\"vr\"");
+        readChars();
+        if (!keyEquals("vr"))
+            throw unexpectedKey("\"vr\"");
+        expect(':');
+        expect('"', "vr value");
+        VR vr = readVR();
+        int c = next();
+        if (c == '}') {
+            attrs.setNull(tag, vr);
+            return;
+        }
+        if (c != ',')
+            throw unexpected(c, "',' or '}'");
+        expect('"', "\"Value\" or \"InlineBinary\" or \"BulkDataURI\"");
+        readChars();
+        expect(':');
+        if (keyEquals("Value")) {
+            switch (vr) {
+            case AE:
+            case AS:
+            case AT:
+            case CS:
+            case DA:
+            case DT:
+            case LO:
+            case LT:
+            case SH:
+            case ST:
+            case TM:
+            case UC:
+            case UI:
+            case UR:
+            case UT:
+                readStringValues(attrs, tag, vr);
+                break;
+            case DS:
+            case FL:
+            case FD:
+                readDoubleValues(attrs, tag, vr);
+                break;
+            case IS:
+            case SL:
+            case SS:
+            case UL:
+            case US:
+                readIntValues(attrs, tag, vr);
+                break;
+            case PN:
+                readPersonNames(attrs, tag);
+                break;
+            case SQ:
+                readSequence(attrs, tag);
+                break;
+            case OB:
+            case OD:
+            case OF:
+            case OL:
+            case OW:
+            case UN:
+                throw new JsonParsingException("Unexpected \"Value\""
+                        + ", expected \"InlineBinary\""
+                        + " or \"BulkDataURI\" or  \"DataFragment\"", location());
+            }
+        } else if (keyEquals("InlineBinary")) {
+            if (skipBulkData)
+                skipValue();
+            else
+                attrs.setBytes(tag, vr, readInlineBinary());
+        } else if (keyEquals("BulkDataURI")) {
+            if (skipBulkData) {
+                skipValue();
+            } else {
+                BulkData bulkData = readBulkData(attrs.bigEndian());
+                attrs.setValue(tag, vr,
+                        bulkData.hasFragments()
+                                ? bulkData.toFragments(attrs.privateCreatorOf(tag), tag, vr)
+                                : bulkData);
+                if (addBulkDataReferences)
+                    attrs.getRoot().addBulkDataReference(
+                            attrs.privateCreatorOf(tag), tag, vr, bulkData, attrs.itemPointers());
+            }
+        } else if (keyEquals("DataFragment")) {
+            if (skipBulkData)
+                skipValue();
+            else
+                readDataFragments(attrs, tag, vr);
+        } else {
+            throw unexpectedKey("\"Value\" or \"InlineBinary\""
+                    + " or \"BulkDataURI\" or  \"DataFragment\"");
+        }
+        expect('}', "end of attribute object");
+    }
+
+    private int readTag() throws IOException {
+        int len = readChars();
+        if (len == 0 || len > 8)
+            throw unexpectedKey("Tag value");
+        int tag = 0;
+        for (int i = 0; i < len; i++) {
+            int d = Character.digit(chars[i], 16);
+            if (d < 0)
+                throw unexpectedKey("Tag value");
+            tag = (tag << 4) | d;
+        }
+        return tag;
+    }
+
+    private VR readVR() throws IOException {
+        int len = readChars();
+        VR vr = null;
+        if (len == 2) {
+            int c1 = chars[0] - 'A';
+            int c2 = chars[1] - 'A';
+            if (c1 >= 0 && c1 < 26 && c2 >= 0 && c2 < 26)
+                vr = VR_OF[c1 * 26 + c2];
+        }
+        if (vr == null)
+            throw new JsonParsingException("Unexpected VR \""
+                    + new String(chars, 0, len) + '"', location());
+        return vr;
+    }
+
+    private void readStringValues(Attributes attrs, int tag, VR vr)
+            throws IOException {
+        expect('[', "array of values");
+        int c = next();
+        if (c != ']') {
+            for (;;) {
+                if (c == '"') {
+                    int len = readChars();
+                    stringValues.add(new String(chars, 0, len));
+                } else if (c == 'n') {
+                    readNull();
+                    stringValues.add(null);
+                } else
+                    throw unexpected(c, "string value");
+                c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or ']'");
+                c = next();
+            }
+        }
+        attrs.setString(tag, vr,
+                stringValues.toArray(new String[stringValues.size()]));
+        stringValues.clear();
+    }
+
+    private void readDoubleValues(Attributes attrs, int tag, VR vr)
+            throws IOException {
+        expect('[', "array of values");
+        int n = 0;
+        int c = next();
+        if (c != ']') {
+            for (;;) {
+                readNumber(c);
+                if (n == doubles.length)
+                    doubles = Arrays.copyOf(doubles, n << 1);
+                doubles[n++] = doubleValue();
+                c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or ']'");
+                c = next();
+            }
+        }
+        attrs.setDouble(tag, vr, Arrays.copyOf(doubles, n));
+    }
+
+    private void readIntValues(Attributes attrs, int tag, VR vr)
+            throws IOException {
+        expect('[', "array of values");
+        int n = 0;
+        int c = next();
+        if (c != ']') {
+            for (;;) {
+                readNumber(c);
+                if (n == ints.length)
+                    ints = Arrays.copyOf(ints, n << 1);
+                ints[n++] = intValue();
+                c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or ']'");
+                c = next();
+            }
+        }
+        attrs.setInt(tag, vr, Arrays.copyOf(ints, n));
+    }
+
+    /**
+     * Reads a JSON number starting with {@code c}. Integers of up to 18
+     * digits are accumulated in {@link #numberValue}; all other numbers are
+     * kept as characters for conversion by {@link BigDecimal} or
+     * {@link Double#parseDouble}. Numbers not matching the JSON number
+     * grammar - like {@code 007}, {@code 1.} or {@code -.5} - are rejected.
+     */
+    private void readNumber(int c) throws IOException {
+        if (c != '-' && (c < '0' || c > '9'))
+            throw unexpected(c, "number value");
+        int len = 0;
+        for (;;) {
+            if (len == number.length)
+                number = Arrays.copyOf(number, len << 1);
+            number[len++] = (char) c;
+            if (pos == limit && !fill())
+                break;
+            c = buf[pos];
+            if (!(c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E'
+                    || c == '+' || c == '-'))
+                break;
+            pos++;
+        }
+        numberLength = len;
+        char[] cs = number;
+        int i = cs[0] == '-' ? 1 : 0;
+        int start = i;
+        long value = 0;
+        if (i < len && cs[i] == '0')
+            i++;
+        else
+            while (i < len && cs[i] >= '0' && cs[i] <= '9')
+                value = value * 10 + (cs[i++] - '0');
+        int digits = i - start;
+        boolean integer = true;
+        if (i < len && cs[i] == '.') {
+            integer = false;
+            i = skipDigits(cs, i + 1, len);
+        }
+        if (i > 0 && i < len && (cs[i] == 'e' || cs[i] == 'E')) {
+            integer = false;
+            if (++i < len && (cs[i] == '+' || cs[i] == '-'))
+                i++;
+            i = skipDigits(cs, i, len);
+        }
+        if (digits == 0 || i != len)
+            throw illegalNumber();
+        numberExact = integer && digits <= MAX_EXACT_DIGITS;
+        numberValue = start > 0 ? -value : value;
+    }
+
+    /**
+     * Returns the index after the digits starting at {@code i}, or
+     * {@code -1} if there is no digit at {@code i}.
+     */
+    private static int skipDigits(char[] cs, int i, int len) {
+        int start = i;
+        while (i < len && cs[i] >= '0' && cs[i] <= '9')
+            i++;
+        return i > start ? i : -1;
+    }
+
+    private int intValue() {
+        if (numberExact)
+            return (int) numberValue;
+        try {
+            return new BigDecimal(number, 0, numberLength).intValue();
+        } catch (NumberFormatException e) {
+            throw illegalNumber();
+        }
+    }
+
+    private double doubleValue() {
+        if (numberExact)
+            return numberValue;
+        double d;
+        try {
+            d = Double.parseDouble(new String(number, 0, numberLength));
+        } catch (NumberFormatException e) {
+            throw illegalNumber();
+        }
+        // BigDecimal, used by JSONReader, has no negative zero
+        return d == 0 ? 0 : d;
+    }
+
+    private JsonParsingException illegalNumber() {
+        return new JsonParsingException("Illegal number: "
+                + new String(number, 0, numberLength), location());
+    }
+
+    private void readPersonNames(Attributes attrs, int tag)
+            throws IOException {
+        expect('[', "array of person name objects");
+        int c = next();
+        if (c != ']') {
+            for (;;) {
+                if (c == '{')
+                    stringValues.add(readPersonName());
+                else if (c == 'n') {
+                    readNull();
+                    stringValues.add(null);
+                } else
+                    throw unexpected(c, "person name object");
+                c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or ']'");
+                c = next();
+            }
+        }
+        attrs.setString(tag, VR.PN,
+                stringValues.toArray(new String[stringValues.size()]));
+        stringValues.clear();
+    }
+
+    private String readPersonName() throws IOException {
+        boolean[] has = hasPersonNameGroup;
+        Arrays.fill(has, false);
+        int c = next();
+        if (c != '}') {
+            for (;;) {
+                if (c != '"')
+                    throw unexpected(c, "\"Alphabetic\" or \"Ideographic\" or \"Phonetic\"");
+                readChars();
+                int group;
+                if (keyEquals("Alphabetic"))
+                    group = 0;
+                else if (keyEquals("Ideographic"))
+                    group = 1;
+                else if (keyEquals("Phonetic"))
+                    group = 2;
+                else
+                    throw unexpectedKey("\"Alphabetic\" or \"Ideographic\" or \"Phonetic\"");
+                expect(':');
+                expect('"', "person name value");
+                int len = readChars();
+                StringBuilder sb = personNameGroups[group];
+                sb.setLength(0);
+                sb.append(chars, 0, len);
+                has[group] = true;
+                c = next();
+                if (c == '}')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or '}'");
+                c = next();
+            }
+        }
+        if (has[0] && !has[1] && !has[2])
+            return personNameGroups[0].toString();
+
+        StringBuilder sb = personName;
+        sb.setLength(0);
+        if (has[0])
+            sb.append(personNameGroups[0]);
+        sb.append('=');
+        if (has[1])
+            sb.append(personNameGroups[1]);
+        if (has[2])
+            sb.append('=').append(personNameGroups[2]);
+        return sb.toString();
+    }
+
+    private void readSequence(Attributes attrs, int tag) throws IOException {
+        Sequence seq = attrs.newSequence(tag, 10);
+        Attributes fmi0 = fmi;
+        expect('[', "array of Data Set objects");
+        int c = next();
+        if (c != ']') {
+            for (;;) {
+                if (c != '{')
+                    throw unexpected(c, "Data Set object");
+                fmi = null;
+                Attributes item = new Attributes();
+                seq.add(item);
+                doReadDataset(item);
+                c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or ']'");
+                c = next();
+            }
+        }
+        fmi = fmi0;
+        seq.trimToSize();
+    }
+
+    private byte[] readInlineBinary() throws IOException {
+        expect('"', "inline binary value");
+        int len = readChars();
+        bout.reset();
+        Base64.decode(chars, 0, len, bout);
+        return bout.toByteArray();
+    }
+
+    private BulkData readBulkData(boolean bigEndian) throws IOException {
+        expect('"', "bulk data URI");
+        int len = readChars();
+        return new BulkData(null, new String(chars, 0, len), bigEndian);
+    }
+
+    private void readDataFragments(Attributes attrs, int tag, VR vr)
+            throws IOException {
+        expect('[', "array of data fragment objects");
+        Fragments frags = attrs.newFragments(tag, vr, 10);
+        int c = next();
+        if (c != ']') {
+            for (;;) {
+                if (c == '{')
+                    frags.add(readDataFragment(attrs.bigEndian()));
+                else if (c == 'n') {
+                    readNull();
+                    frags.add(null);
+                } else
+                    throw unexpected(c, "data fragment object");
+                c = next();
+                if (c == ']')
+                    break;
+                if (c != ',')
+                    throw unexpected(c, "',' or ']'");
+                c = next();
+            }
+        }
+        frags.trimToSize();
+    }
+
+    private Object readDataFragment(boolean bigEndian) throws IOException {
+        int c = next();
+        if (c == '}')
+            return null;
+        if (c != '"')
+            throw unexpected(c, "\"InlineBinary\" or \"BulkDataURI\"");
+        readChars();
+        expect(':');
+        Object value;
+        if (keyEquals("BulkDataURI"))
+            value = readBulkData(bigEndian);
+        else if (keyEquals("InlineBinary"))
+            value = readInlineBinary();
+        else
+            throw unexpectedKey("\"InlineBinary\" or \"BulkDataURI\"");
+        expect('}', "end of data fragment object");
+        return value;
+    }
+
+    private void readNull() throws IOException {
+        if (read() != 'u' || read() != 'l' || read() != 'l')
+            throw new JsonParsingException("Unexpected literal, expected null",
+                    location());
+    }
+
+    /**
+     * Skips the next value without decoding or validating its content.
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = next();
+            switch (c) {
+            case '{':
+            case '[':
+                depth++;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                break;
+            case '"':
+                skipString();
+                break;
+            case ',':
+            case ':':
+                break;
+            case -1:
+                throw unexpected(c, "value");
+            default:
+                skipScalar();
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\')
+                c = read();
+            else if ((c & 0xc0) == 0x80)
+                lineOffset++;
+            if (c < 0)
+                throw unexpected(c, "'\"'");
+        }
+    }
+
+    private void skipScalar() throws IOException {
+        while (pos < limit || fill()) {
+            switch (buf[pos]) {
+            case ',':
+            case ':':
+            case ']':
+            case '}':
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean keyEquals(String key) {
+        int len = charsLength;
+        if (len != key.length())
+            return false;
+        char[] cs = chars;
+        for (int i = 0; i < len; i++)
+            if (cs[i] != key.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Decodes the JSON string following an already consumed quotation mark
+     * into {@link #chars}. Malformed UTF-8 sequences are replaced by
+     * U+FFFD, as by a UTF-8 {@link java.io.InputStreamReader}.
+     *
+     * @return the number of decoded characters
+     */
+    private int readChars() throws IOException {
+        char[] cs = chars;
+        int len = 0;
+        for (;;) {
+            if (len + 2 > cs.length)
+                cs = chars = Arrays.copyOf(cs, cs.length << 1);
+            int b = read();
+            if (b == '"')
+                break;
+            if (b < 0)
+                throw unexpected(b, "'\"'");
+            if (b < 0x20)
+                throw new JsonParsingException(
+                        "Unexpected control character in string", location());
+            if (b == '\\')
+                cs[len++] = readEscaped();
+            else if (b < 0x80)
+                cs[len++] = (char) b;
+            else
+                len = decodeUTF8(b, cs, len);
+        }
+        return charsLength = len;
+    }
+
+    private char readEscaped() throws IOException {
+        int c = read();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            return (char) c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int ch = 0;
+            for (int i = 0; i < 4; i++) {
+                int d = Character.digit(read(), 16);
+                if (d < 0)
+                    throw new JsonParsingException(
+                            "Illegal unicode escape sequence", location());
+                ch = (ch << 4) | d;
+            }
+            return (char) ch;
+        default:
+            throw new JsonParsingException("Illegal escape sequence \\"
+                    + (char) c, location());
+        }
+    }
+
+    private int decodeUTF8(int b, char[] cs, int len) throws IOException {
+        int n;
+        int cp;
+        int min;
+        if (b >= 0xc2 && b <= 0xdf) {
+            n = 1;
+            cp = b & 0x1f;
+            min = 0x80;
+        } else if (b >= 0xe0 && b <= 0xef) {
+            n = 2;
+            cp = b & 0x0f;
+            min = 0x800;
+        } else if (b >= 0xf0 && b <= 0xf4) {
+            n = 3;
+            cp = b & 0x07;
+            min = 0x10000;
+        } else {
+            cs[len++] = '\uFFFD';
+            return len;
+        }
+        for (int i = 0; i < n; i++) {
+            if (pos == limit && !fill()) {
+                cs[len++] = '\uFFFD';
+                return len;
+            }
+            int c = buf[pos] & 0xff;
+            if ((c & 0xc0) != 0x80) {
+                cs[len++] = '\uFFFD';
+                return len;
+            }
+            pos++;
+            lineOffset++;
+            cp = (cp << 6) | (c & 0x3f);
+        }
+        if (cp < min || cp > Character.MAX_CODE_POINT
+                || cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)
+            cs[len++] = '\uFFFD';
+        else if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+            cs[len++] = (char) cp;
+        else {
+            len += Character.toChars(cp, cs, len);
+            lineOffset--;
+        }
+        return len;
+    }
+
+    private void expect(int expected) throws IOException {
+        expect(expected, "'" + (char) expected + "'");
+    }
+
+    private void expect(int expected, String what) throws IOException {
+        int c = next();
+        if (c != expected)
+            throw unexpected(c, what);
+    }
+
+    private JsonParsingException unexpected(int c, String expected) {
+        return new JsonParsingException("Unexpected "
+                + (c < 0 ? "EOF" : "'" + (char) c + "'")
+                + ", expected " + expected, location());
+    }
+
+    private JsonParsingException unexpectedKey(String expected) {
+        return new JsonParsingException("Unexpected \""
+                + new String(chars, 0, charsLength)
+                + "\", expected " + expected, location());
+    }
+
+    private JsonLocation location() {
+        final long lineNumber = tokenLine;
+        final long columnNumber = tokenColumn;
+        final long streamOffset = tokenOffset;
+        return new JsonLocation() {
+
+            @Override
+            public long getLineNumber() {
+                return lineNumber;
+            }
+
+            @Override
+            public long getColumnNumber() {
+                return columnNumber;
+            }
+
+            @Override
+            public long getStreamOffset() {
+                return streamOffset;
+            }
+        };
+    }
+
+    /**
+     * Returns the next byte which is not white space, or -1 at the end of
+     * the stream. Records the position of the returned token for
+     * {@link #location()}: line breaks can only occur in white space between
+     * tokens, and columns are counted in characters, not in bytes, by
+     * adjusting {@link #lineOffset} for multi-byte UTF-8 sequences in
+     * strings.
+     */
+    private int next() throws IOException {
+        for (;;) {
+            if (pos == limit && !fill()) {
+                markToken(offset + pos);
+                return -1;
+            }
+            int c = buf[pos++];
+            if (c == '\n') {
+                line++;
+                lineOffset = offset + pos;
+            } else if (c != ' ' && c != '\r' && c != '\t') {
+                markToken(offset + pos - 1);
+                return c & 0xff;
+            }
+        }
+    }
+
+    private void markToken(long streamOffset) {
+        tokenOffset = streamOffset;
+        tokenLine = line;
+        tokenColumn = streamOffset - lineOffset + 1;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill())
+            return -1;
+        return buf[pos++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = limit = 0;
+        int n = in.read(buf);
+        if (n == 0) {
+            // block on a single byte instead of spinning on an InputStream
+            // which has no bytes available without blocking
+            int b = in.read();
+            if (b >= 0) {
+                buf[0] = (byte) b;
+                n = 1;
+            }
+        }
+        if (n <= 0)
+            return false;
+        limit = n;
+        return true;
+    }
+}
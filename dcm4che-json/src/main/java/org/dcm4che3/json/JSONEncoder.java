@@ -0,0 +1,656 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011-2014
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.PersonName;
+import org.dcm4che3.data.PersonName.Group;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.SpecificCharacterSet;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.data.Value;
+import org.dcm4che3.io.DicomInputHandler;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes DICOM data sets to DICOM JSON, writing UTF-8 directly into a byte
+ * buffer instead of passing each element through a
+ * {@link javax.json.stream.JsonGenerator}. Produces the same bytes as
+ * {@link JSONWriter} using a JsonGenerator without pretty printing.
+ *
+ * @author agent <agent@local>
+ */
+public class JSONEncoder implements DicomInputHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JSONEncoder.class);
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final byte[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+    private static final byte[] HEX_LC = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+    private static final byte[] BASE64 = {
+        'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
+        'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
+        'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
+        'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/' };
+    private static final byte[][] VR_MEMBERS = new byte[VR.values().length][];
+    private static final byte[] VALUE = ascii("\"Value\":[");
+    private static final byte[] DATA_FRAGMENT = ascii("\"DataFragment\":[");
+    private static final byte[] INLINE_BINARY = ascii("\"InlineBinary\":\"");
+    private static final byte[] BULK_DATA_URI = ascii("\"BulkDataURI\":");
+    private static final byte[] ALPHABETIC = ascii("\"Alphabetic\":");
+    private static final byte[] IDEOGRAPHIC = ascii("\"Ideographic\":");
+    private static final byte[] PHONETIC = ascii("\"Phonetic\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] MIN_INT = ascii(Integer.toString(Integer.MIN_VALUE));
+
+    static {
+        for (VR vr : VR.values())
+            VR_MEMBERS[vr.ordinal()] = ascii("\":{\"vr\":\"" + vr.name() + '"');
+    }
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count;
+    private boolean comma;
+    private final Deque<Boolean> hasItems = new ArrayDeque<Boolean>();
+    private final Attributes.Visitor visitor = new Attributes.Visitor() {
+
+        @Override
+        public boolean visit(Attributes attrs, int tag, VR vr, Object value)
+                throws Exception {
+            writeAttribute(tag, vr, value, attrs);
+            return true;
+        }
+    };
+
+    public JSONEncoder(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JSONEncoder(OutputStream out, int bufferSize) {
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+        this.out = out;
+        this.buf = new byte[bufferSize];
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    /**
+     * Writes buffered JSON to the underlying stream and flushes it.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    public void write(Attributes attrs) throws IOException {
+        startObject();
+        try {
+            attrs.accept(visitor, false);
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        end('}');
+    }
+
+    private void writeAttribute(int tag, VR vr, Object value, Attributes attrs)
+            throws IOException {
+        if (TagUtils.isGroupLength(tag))
+            return;
+
+        startAttribute(tag, vr);
+        if (value instanceof Value)
+            writeValue((Value) value, attrs.bigEndian());
+        else
+            writeValue(vr, value, attrs.bigEndian(),
+                    attrs.getSpecificCharacterSet(vr), true);
+        end('}');
+    }
+
+    private void writeValue(Value value, boolean bigEndian) throws IOException {
+        if (value.isEmpty())
+            return;
+
+        if (value instanceof Sequence) {
+            startArray(VALUE);
+            for (Attributes item : (Sequence) value) {
+                write(item);
+            }
+            end(']');
+        } else if (value instanceof Fragments) {
+            Fragments frags = (Fragments) value;
+            if (frags.size() > 1 && frags.get(1) instanceof BulkData) {
+                writeBulkData(BulkData.fromFragments(frags));
+            } else {
+                startArray(DATA_FRAGMENT);
+                for (Object frag : frags) {
+                    startObject();
+                    if (!(frag instanceof Value && ((Value) frag).isEmpty()))
+                        writeInlineBinary(frags.vr(), (byte[]) frag, bigEndian, true);
+                    end('}');
+                }
+                end(']');
+            }
+        } else if (value instanceof BulkData) {
+            writeBulkData((BulkData) value);
+        }
+    }
+
+    @Override
+    public void readValue(DicomInputStream dis, Attributes attrs)
+            throws IOException {
+        int tag = dis.tag();
+        VR vr = dis.vr();
+        int len = dis.length();
+        if (TagUtils.isGroupLength(tag)) {
+            dis.readValue(dis, attrs);
+        } else if (dis.getIncludeBulkData() == IncludeBulkData.NO
+                && dis.isBulkData(attrs)) {
+            if (len == -1)
+                dis.readValue(dis, attrs);
+            else
+                dis.skipFully(len);
+        } else {
+            startAttribute(tag, vr);
+            if (vr == VR.SQ || len == -1) {
+                hasItems.addLast(false);
+                dis.readValue(dis, attrs);
+                if (hasItems.removeLast())
+                    end(']');
+                if (vr != VR.SQ && dis.getIncludeFragmentBulkData() == IncludeBulkData.URI) {
+                    writeBulkData(BulkData.fromFragments((Fragments) attrs.remove(attrs.privateCreatorOf(tag), tag)));
+                }
+            } else if (len > 0) {
+                if (dis.getIncludeBulkData() ==  IncludeBulkData.URI
+                        && dis.isBulkData(attrs)) {
+                    writeBulkData(dis.createBulkData());
+                } else {
+                    byte[] b = dis.readValue();
+                    if (tag == Tag.TransferSyntaxUID
+                            || tag == Tag.SpecificCharacterSet)
+                        attrs.setBytes(tag, vr, b);
+                    writeValue(vr, b, dis.bigEndian(),
+                                attrs.getSpecificCharacterSet(vr), false);
+                 }
+            }
+            end('}');
+        }
+    }
+
+    private void writeValue(VR vr, Object val, boolean bigEndian,
+            SpecificCharacterSet cs, boolean preserve) throws IOException {
+        switch (vr) {
+        case AE:
+        case AS:
+        case AT:
+        case CS:
+        case DA:
+        case DS:
+        case DT:
+        case IS:
+        case LO:
+        case LT:
+        case PN:
+        case SH:
+        case ST:
+        case TM:
+        case UC:
+        case UI:
+        case UR:
+        case UT:
+            writeStringValues(vr, val, bigEndian, cs);
+            break;
+        case FL:
+        case FD:
+            writeDoubleValues(vr, val, bigEndian);
+            break;
+        case SL:
+        case SS:
+        case UL:
+        case US:
+            writeIntValues(vr, val, bigEndian);
+            break;
+        case OB:
+        case OD:
+        case OF:
+        case OL:
+        case OW:
+        case UN:
+            writeInlineBinary(vr, (byte[]) val, bigEndian, preserve);
+            break;
+        case SQ:
+            assert true;
+        }
+    }
+
+    private void writeStringValues(VR vr, Object val, boolean bigEndian,
+            SpecificCharacterSet cs) throws IOException {
+        startArray(VALUE);
+        Object o = vr.toStrings(val, bigEndian, cs);
+        if (o instanceof String[]) {
+            for (String s : (String[]) o)
+                writeStringValue(vr, s);
+        } else {
+            writeStringValue(vr, (String) o);
+        }
+        end(']');
+    }
+
+    private void writeStringValue(VR vr, String s) throws IOException {
+        if (s == null || s.isEmpty())
+            writeNull();
+        else switch (vr) {
+        case DS:
+            double d;
+            try {
+                d = StringUtils.parseDS(s);
+            } catch (NumberFormatException e) {
+                d = Double.NaN;
+            }
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                LOG.info("illegal DS value: {} - encoded as null", s);
+                writeNull();
+            } else
+                writeNumber(d);
+            break;
+        case IS:
+            try {
+                writeNumber(StringUtils.parseIS(s));
+            } catch (NumberFormatException e) {
+                LOG.info("illegal IS value: {} - encoded as null", s);
+                writeNull();
+            }
+            break;
+        case PN:
+            writePersonName(s);
+            break;
+        default:
+            writeComma();
+            writeString(s);
+            comma = true;
+        }
+    }
+
+    private void writeDoubleValues(VR vr, Object val, boolean bigEndian)
+            throws IOException {
+        startArray(VALUE);
+        int vm = vr.vmOf(val);
+        for (int i = 0; i < vm; i++) {
+            double d = vr.toDouble(val, bigEndian, i, 0);
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                throw new NumberFormatException(
+                        "JSON number cannot be Infinite or NaN: " + d);
+            writeNumber(d);
+        }
+        end(']');
+    }
+
+    private void writeIntValues(VR vr, Object val, boolean bigEndian)
+            throws IOException {
+        startArray(VALUE);
+        int vm = vr.vmOf(val);
+        for (int i = 0; i < vm; i++) {
+            writeNumber(vr.toInt(val, bigEndian, i, 0));
+        }
+        end(']');
+    }
+
+    private void writePersonName(String s) throws IOException {
+        PersonName pn = new PersonName(s, true);
+        startObject();
+        writePNGroup(ALPHABETIC, pn, PersonName.Group.Alphabetic);
+        writePNGroup(IDEOGRAPHIC, pn, PersonName.Group.Ideographic);
+        writePNGroup(PHONETIC, pn, PersonName.Group.Phonetic);
+        end('}');
+    }
+
+    private void writePNGroup(byte[] name, PersonName pn, Group group)
+            throws IOException {
+        if (pn.contains(group))
+            writeMember(name, pn.toString(group, true));
+    }
+
+    private void writeInlineBinary(VR vr, byte[] b, boolean bigEndian,
+            boolean preserve) throws IOException {
+        if (bigEndian)
+            b = vr.toggleEndian(b, preserve);
+        writeComma();
+        writeBytes(INLINE_BINARY);
+        writeBase64(b);
+        writeByte('"');
+        comma = true;
+    }
+
+    private void writeBulkData(BulkData blkdata) throws IOException {
+        writeMember(BULK_DATA_URI, blkdata.uri);
+    }
+
+    @Override
+    public void readValue(DicomInputStream dis, Sequence seq)
+            throws IOException {
+        if (!hasItems.getLast()) {
+            startArray(VALUE);
+            hasItems.removeLast();
+            hasItems.addLast(true);
+        }
+        startObject();
+        dis.readValue(dis, seq);
+        end('}');
+    }
+
+    @Override
+    public void readValue(DicomInputStream dis, Fragments frags)
+            throws IOException {
+        int len = dis.length();
+        switch (dis.getIncludeFragmentBulkData()) {
+            case NO:
+                dis.skipFully(len);
+                break;
+            case URI:
+                frags.add(len > 0 ? dis.createBulkData() : null);
+                break;
+            case YES:
+                if (!hasItems.getLast()) {
+                    startArray(DATA_FRAGMENT);
+                    hasItems.removeLast();
+                    hasItems.add(true);
+                }
+
+                startObject();
+                if (len > 0)
+                     writeInlineBinary(frags.vr(), dis.readValue(),  dis.bigEndian(), false);
+                end('}');
+        }
+    }
+
+    @Override
+    public void startDataset(DicomInputStream dis) throws IOException {
+        startObject();
+    }
+
+    @Override
+    public void endDataset(DicomInputStream dis) throws IOException {
+        end('}');
+    }
+
+    private void writeComma() throws IOException {
+        if (comma)
+            writeByte(',');
+    }
+
+    private void startObject() throws IOException {
+        writeComma();
+        writeByte('{');
+        comma = false;
+    }
+
+    private void startArray(byte[] name) throws IOException {
+        writeComma();
+        writeBytes(name);
+        comma = false;
+    }
+
+    private void end(char c) throws IOException {
+        writeByte(c);
+        comma = true;
+    }
+
+    private void startAttribute(int tag, VR vr) throws IOException {
+        writeComma();
+        if (count + 9 > buf.length)
+            flushBuffer();
+        byte[] b = buf;
+        b[count++] = '"';
+        for (int shift = 28; shift >= 0; shift -= 4)
+            b[count++] = HEX[(tag >>> shift) & 0xf];
+        writeBytes(VR_MEMBERS[vr.ordinal()]);
+        comma = true;
+    }
+
+    private void writeMember(byte[] name, String value) throws IOException {
+        writeComma();
+        writeBytes(name);
+        writeString(value);
+        comma = true;
+    }
+
+    private void writeNull() throws IOException {
+        writeComma();
+        writeBytes(NULL);
+        comma = true;
+    }
+
+    private void writeNumber(int i) throws IOException {
+        writeComma();
+        if (i == Integer.MIN_VALUE)
+            writeBytes(MIN_INT);
+        else
+            writeDigits(i);
+        comma = true;
+    }
+
+    /**
+     * Writes {@code d} as formatted by {@link Double#toString(double)}, which
+     * is the format used by JsonGenerator. Integral values of less than seven
+     * digits - the common case for DS values - are formatted without creating
+     * a String.
+     */
+    private void writeNumber(double d) throws IOException {
+        writeComma();
+        long l = (long) d;
+        if (l == d && l > -10000000L && l < 10000000L
+                && (l != 0 || Double.doubleToRawLongBits(d) == 0L)) {
+            writeDigits((int) l);
+            writeByte('.');
+            writeByte('0');
+        } else {
+            String s = Double.toString(d);
+            for (int i = 0, n = s.length(); i < n; i++)
+                writeByte(s.charAt(i));
+        }
+        comma = true;
+    }
+
+    private void writeDigits(int i) throws IOException {
+        if (count + 11 > buf.length)
+            flushBuffer();
+        if (i < 0) {
+            buf[count++] = '-';
+            i = -i;
+        }
+        int end = count + digits(i);
+        int pos = end;
+        do {
+            buf[--pos] = (byte) ('0' + i % 10);
+            i /= 10;
+        } while (i != 0);
+        count = end;
+    }
+
+    private static int digits(int i) {
+        int n = 1;
+        while (i >= 10) {
+            i /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Writes {@code s} as JSON string, escaped as by JsonGenerator: quotation
+     * mark, reverse solidus and control characters are escaped, all other
+     * characters are encoded in UTF-8 as they are.
+     */
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        byte[] b = buf;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            if (count + 6 > b.length)
+                flushBuffer();
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\')
+                    b[count++] = '\\';
+                b[count++] = (byte) c;
+            } else if (c < 0x20) {
+                b[count++] = '\\';
+                switch (c) {
+                case '\b':
+                    b[count++] = 'b';
+                    break;
+                case '\t':
+                    b[count++] = 't';
+                    break;
+                case '\n':
+                    b[count++] = 'n';
+                    break;
+                case '\f':
+                    b[count++] = 'f';
+                    break;
+                case '\r':
+                    b[count++] = 'r';
+                    break;
+                default:
+                    b[count++] = 'u';
+                    b[count++] = '0';
+                    b[count++] = '0';
+                    b[count++] = HEX_LC[c >> 4];
+                    b[count++] = HEX_LC[c & 0xf];
+                }
+            } else if (c < 0x800) {
+                b[count++] = (byte) (0xc0 | (c >> 6));
+                b[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c < Character.MIN_SURROGATE
+                    || c > Character.MAX_SURROGATE) {
+                b[count++] = (byte) (0xe0 | (c >> 12));
+                b[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[count++] = (byte) (0xf0 | (cp >> 18));
+                b[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[count++] = (byte) (0x80 | (cp & 0x3f));
+            } else {
+                b[count++] = '?';
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeBase64(byte[] src) throws IOException {
+        byte[] b = buf;
+        int i = 0;
+        int n = src.length - 2;
+        while (i < n) {
+            if (count + 4 > b.length)
+                flushBuffer();
+            int v = (src[i++] & 0xff) << 16 | (src[i++] & 0xff) << 8 | (src[i++] & 0xff);
+            b[count++] = BASE64[v >>> 18];
+            b[count++] = BASE64[(v >>> 12) & 0x3f];
+            b[count++] = BASE64[(v >>> 6) & 0x3f];
+            b[count++] = BASE64[v & 0x3f];
+        }
+        int remaining = src.length - i;
+        if (remaining > 0) {
+            if (count + 4 > b.length)
+                flushBuffer();
+            int v = (src[i] & 0xff) << 16
+                    | (remaining > 1 ? (src[i + 1] & 0xff) << 8 : 0);
+            b[count++] = BASE64[v >>> 18];
+            b[count++] = BASE64[(v >>> 12) & 0x3f];
+            b[count++] = remaining > 1 ? BASE64[(v >>> 6) & 0x3f] : (byte) '=';
+            b[count++] = '=';
+        }
+    }
+
+    private void writeByte(int c) throws IOException {
+        if (count == buf.length)
+            flushBuffer();
+        buf[count++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] src) throws IOException {
+        if (count + src.length > buf.length) {
+            flushBuffer();
+            if (src.length > buf.length) {
+                out.write(src);
+                return;
+            }
+        }
+        System.arraycopy(src, 0, buf, count, src.length);
+        count += src.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -39,13 +39,21 @@
 package org.dcm4che3.json;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParsingException;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.BulkData;
@@ -53,10 +61,14 @@ import org.dcm4che3.data.Fragments;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.io.DicomOutputStream;
 import org.junit.Test;
 
 /**
- * Tests for {@link JSONReader} and {@link JSONWriter}.
+ * Tests for {@link JSONReader}, {@link JSONWriter}, {@link JSONEncoder} and
+ * {@link JSONDecoder}.
  * 
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @author Hermann Czedik-Eysenberg <hermann-agfa@czedik.net>
@@ -102,6 +114,76 @@ public class JSONTest {
         assertEquals(RESULT, json);
     }
 
+    @Test
+    public void testJSONEncoding() throws IOException {
+        Attributes dataset = createTestDataset();
+        addEncodingTestAttributes(dataset);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONEncoder encoder = new JSONEncoder(out, 16);
+        encoder.write(dataset);
+        encoder.flush();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonGenerator gen = Json.createGenerator(expected);
+        new JSONWriter(gen).write(dataset);
+        gen.flush();
+        assertEquals(expected.toString("UTF-8"), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testJSONEncodingFromDicomInputStream() throws IOException {
+        Attributes dataset = createTestDataset();
+        dataset.remove(Tag.OverlayData);
+        dataset.remove(Tag.PixelData);
+        addEncodingTestAttributes(dataset);
+        Fragments frags = dataset.newFragments(Tag.PixelData, VR.OB, 3);
+        frags.add(null);
+        frags.add(new byte[] { 1, 2, 3, 4 });
+        frags.add(new byte[] { 5, 6 });
+        ByteArrayOutputStream dicom = new ByteArrayOutputStream();
+        DicomOutputStream dos = new DicomOutputStream(dicom, UID.ExplicitVRBigEndianRetired);
+        dos.writeDataset(null, dataset);
+        dos.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONEncoder encoder = new JSONEncoder(out);
+        DicomInputStream dis = new DicomInputStream(
+                new ByteArrayInputStream(dicom.toByteArray()), UID.ExplicitVRBigEndianRetired);
+        dis.setIncludeBulkData(IncludeBulkData.YES);
+        dis.setDicomInputHandler(encoder);
+        dis.readDataset(-1, -1);
+        encoder.flush();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonGenerator gen = Json.createGenerator(expected);
+        dis = new DicomInputStream(
+                new ByteArrayInputStream(dicom.toByteArray()), UID.ExplicitVRBigEndianRetired);
+        dis.setIncludeBulkData(IncludeBulkData.YES);
+        dis.setDicomInputHandler(new JSONWriter(gen));
+        dis.readDataset(-1, -1);
+        gen.flush();
+        assertEquals(expected.toString("UTF-8"), out.toString("UTF-8"));
+    }
+
+    private static void addEncodingTestAttributes(Attributes dataset) {
+        dataset.setString(Tag.SpecificCharacterSet, VR.CS, "ISO_IR 192");
+        dataset.setString(Tag.StudyDescription, VR.LO,
+                "\"quoted\" back\\slash \u00e4\u00f6\u00fc \u4e2d\ud83d\ude00 \ud83d");
+        dataset.setString("PRIVATE", 0x00091010, VR.LT, "line1\r\nline2\ttab back\\slash\u0001\u001f\u007f");
+        dataset.setString(Tag.WindowCenter, VR.DS, "-0.0");
+        dataset.setString(Tag.WindowWidth, VR.DS, "1e-5");
+        dataset.setString(Tag.PixelSpacing, VR.DS, "12345678", "-9999999", "0.5", "3", "NaN", "x");
+        dataset.setString(Tag.SeriesNumber, VR.IS, "+5");
+        dataset.setString(Tag.InstanceNumber, VR.IS, "-2147483648");
+        dataset.setFloat(Tag.RescaleSlope, VR.FL, 1.1f, -0.0f, 1e10f);
+        dataset.setDouble(Tag.RescaleIntercept, VR.FD, -1024.0, 1.0 / 3);
+        dataset.setInt(Tag.Rows, VR.US, 65535);
+        dataset.setInt("PRIVATE", 0x00091011, VR.UL, -1, 0, Integer.MIN_VALUE);
+        dataset.setBytes(Tag.RedPaletteColorLookupTableData, VR.OW, new byte[] { 1, 2, 3, 4, 5, 6 });
+        dataset.setBytes(Tag.GreenPaletteColorLookupTableData, VR.OW, new byte[] { 1, 2, 3, 4 });
+        dataset.setBytes(Tag.BluePaletteColorLookupTableData, VR.OB, new byte[] { (byte) 0xff });
+    }
+
     private Attributes createTestDataset() {
         Attributes dataset = new Attributes();
         dataset.setString(Tag.SpecificCharacterSet, VR.CS, "ISO 2022 IR 87");
@@ -139,4 +221,139 @@ public class JSONTest {
         assertEquals(referenceDataset, dataset);
     }
 
+    @Test
+    public void testJSONDecoding() throws IOException {
+        JSONDecoder decoder = new JSONDecoder(
+                new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8)), 7);
+        Attributes dataset = decoder.readDataset(null);
+
+        Attributes referenceDataset = new JSONReader(Json.createParser(
+                new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8))))
+                .readDataset(null);
+        assertEquals(referenceDataset, dataset);
+    }
+
+    @Test
+    public void testJSONDecodingEncoded() throws IOException {
+        Attributes dataset = createTestDataset();
+        addEncodingTestAttributes(dataset);
+        // JSONReader does not accept null for numeric values
+        dataset.setString(Tag.PixelSpacing, VR.DS, "12345678", "-9999999", "0.5", "3");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator gen = Json.createGenerator(out);
+        new JSONWriter(gen).write(dataset);
+        gen.flush();
+        byte[] json = out.toByteArray();
+
+        Attributes decoded = new JSONDecoder(new ByteArrayInputStream(json))
+                .readDataset(null);
+        Attributes expected = new JSONReader(Json.createParser(new ByteArrayInputStream(json)))
+                .readDataset(null);
+        assertEquals(expected, decoded);
+    }
+
+    @Test
+    public void testJSONDecodingDatasets() throws IOException {
+        String json = "[ " + RESULT + ",\n" + RESULT + " ]";
+        JSONDecoder decoder = new JSONDecoder(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        decoder.setSkipTags(Tag.PixelData, Tag.SourceImageSequence);
+        decoder.setSkipBulkData(true);
+
+        Attributes expected = new JSONReader(Json.createParser(
+                new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8))))
+                .readDataset(null);
+        expected.remove(Tag.PixelData);
+        expected.remove(Tag.SourceImageSequence);
+        expected.remove(Tag.OverlayData);
+        expected.remove("PRIVATE", 0x00090002);
+        assertEquals(expected, decoder.nextDataset());
+        assertEquals(expected, decoder.nextDataset());
+        assertNull(decoder.nextDataset());
+        assertNull(decoder.nextDataset());
+    }
+
+    @Test
+    public void testJSONDecodingNumbers() throws IOException {
+        for (String number : new String[] {
+                "0", "-0", "0.5", "-0.5", "1e5", "1E+5", "1e-05", "-1.25E2",
+                "12345678", "123456789012345678", "1234567890123456789" }) {
+            byte[] json = numberDataset("DS", number);
+            assertEquals(number,
+                    new JSONReader(Json.createParser(new ByteArrayInputStream(json)))
+                            .readDataset(null),
+                    new JSONDecoder(new ByteArrayInputStream(json)).readDataset(null));
+        }
+        for (String number : new String[] { "0", "-0", "-7", "65535" }) {
+            byte[] json = numberDataset("US", number);
+            assertEquals(number,
+                    new JSONReader(Json.createParser(new ByteArrayInputStream(json)))
+                            .readDataset(null),
+                    new JSONDecoder(new ByteArrayInputStream(json)).readDataset(null));
+        }
+    }
+
+    @Test
+    public void testJSONDecodingIllegalNumbers() throws IOException {
+        for (String number : new String[] {
+                "007", "-01", "1.", "-.5", "1.e5", "1e", "1e+", "--1", "1-2",
+                "1e5.5", "-", "+1", ".5" }) {
+            byte[] json = numberDataset("DS", number);
+            try {
+                new JSONReader(Json.createParser(new ByteArrayInputStream(json)))
+                        .readDataset(null);
+                fail(number + ": JsonParsingException expected from JSONReader");
+            } catch (JsonParsingException expected) {
+            }
+            try {
+                new JSONDecoder(new ByteArrayInputStream(json)).readDataset(null);
+                fail(number + ": JsonParsingException expected from JSONDecoder");
+            } catch (JsonParsingException expected) {
+            }
+        }
+    }
+
+    private static byte[] numberDataset(String vr, String number) {
+        return ("{\"00181063\":{\"vr\":\"" + vr + "\",\"Value\":[" + number + "]}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testJSONDecodingLocation() throws IOException {
+        String line2 = "  \"00100010\":{\"vr\":\"PN\",\"Value\":"
+                + "[{\"Alphabetic\":\"W\u00e4l^\u00d6\u20ac\ud834\udd1e\"}]},"
+                + " \"00181063\":{\"vr\":\"DS\",\"Value\":[1.]}";
+        String json = "{\r\n  \"00080005\":{\"vr\":\"CS\"},\n" + line2 + "\n}";
+        int column = line2.indexOf("1.]") + 1;
+        long streamOffset = json.substring(0, json.indexOf("1.]"))
+                .getBytes(StandardCharsets.UTF_8).length;
+        for (int bufferSize : new int[] { 1, 3, 8192 }) {
+            JSONDecoder decoder = new JSONDecoder(new ByteArrayInputStream(
+                    json.getBytes(StandardCharsets.UTF_8)), bufferSize);
+            try {
+                decoder.readDataset(null);
+                fail("JsonParsingException expected");
+            } catch (JsonParsingException e) {
+                JsonLocation location = e.getLocation();
+                assertEquals(3, location.getLineNumber());
+                assertEquals(column, location.getColumnNumber());
+                assertEquals(streamOffset, location.getStreamOffset());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testJSONDecodingZeroLengthReads() throws IOException {
+        InputStream in = new FilterInputStream(
+                new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return 0;
+            }
+        };
+        Attributes expected = new JSONReader(Json.createParser(
+                new ByteArrayInputStream(RESULT.getBytes(StandardCharsets.UTF_8))))
+                .readDataset(null);
+        assertEquals(expected, new JSONDecoder(in).readDataset(null));
+    }
 }
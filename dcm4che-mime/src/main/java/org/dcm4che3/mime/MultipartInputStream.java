@@ -42,33 +42,74 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
+ * Body part of a multipart stream. Reads from a buffer, shared by all parts of the stream, which is filled in large
+ * blocks and searched for the boundary with the Boyer-Moore-Horspool algorithm.
+ *
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
 public class MultipartInputStream extends FilterInputStream {
 
+    static final int BUFFER_SIZE = 65536;
+
+    private final Buffer buf;
     private final byte[] boundary;
-    private final byte[] buffer;
-    private int rpos;
+    private final int[] skip;
+    private int safe; // number of bytes at buf.pos which do not start a boundary
+    private boolean boundaryAhead;
     private boolean boundarySeen;
 
     protected MultipartInputStream(InputStream in, String boundary) {
-        super(in);
-        this.boundary = boundary.getBytes();
-        this.buffer = new byte[this.boundary.length];
-        this.rpos = buffer.length;
-        
+        this(new Buffer(in, BUFFER_SIZE), boundary.getBytes());
+    }
+
+    MultipartInputStream(Buffer buf, byte[] boundary) {
+        this(buf, boundary, skipTable(boundary));
+    }
+
+    MultipartInputStream(Buffer buf, byte[] boundary, int[] skip) {
+        super(buf.in);
+        this.buf = buf;
+        this.boundary = boundary;
+        this.skip = skip;
+    }
+
+    static int[] skipTable(byte[] pattern) {
+        int[] skip = new int[256];
+        Arrays.fill(skip, pattern.length);
+        for (int i = 0, last = pattern.length - 1; i < last; i++)
+            skip[pattern[i] & 0xff] = last - i;
+        return skip;
+    }
+
+    /**
+     * Boyer-Moore-Horspool search of pattern in b[from,to).
+     */
+    static int indexOf(byte[] pattern, int[] skip, byte[] b, int from, int to) {
+        int last = pattern.length - 1;
+        for (int i = from; i + last < to; i += skip[b[i + last] & 0xff]) {
+            int j = last;
+            while (b[i + j] == pattern[j])
+                if (j-- == 0)
+                    return i;
+        }
+        return -1;
     }
 
     @Override
     public int read() throws IOException {
-        return isBoundary() ? -1 : buffer[rpos++];
+        if (isBoundary())
+            return -1;
+
+        safe--;
+        return buf.buf[buf.pos++] & 0xff;
     }
 
     @Override
@@ -76,9 +117,10 @@ public class MultipartInputStream extends FilterInputStream {
         if (isBoundary())
             return -1;
 
-        int l = Math.min(remaining(), len);
-        System.arraycopy(buffer, rpos, b, off, l);
-        rpos += l;
+        int l = Math.min(safe, len);
+        System.arraycopy(buf.buf, buf.pos, b, off, l);
+        buf.pos += l;
+        safe -= l;
         return l;
     }
 
@@ -87,64 +129,82 @@ public class MultipartInputStream extends FilterInputStream {
         if (isBoundary())
             return 0L;
 
-        long l = Math.min(remaining(), n);
-        rpos += l;
+        int l = (int) Math.min(safe, n);
+        buf.pos += l;
+        safe -= l;
         return l;
     }
 
+    @Override
+    public int available() throws IOException {
+        return safe;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
     public void skipAll() throws IOException {
-        while (!isBoundary())
-            rpos += remaining();
+        while (!isBoundary()) {
+            buf.pos += safe;
+            safe = 0;
+        }
     }
 
     public boolean isZIP() throws IOException {
-        return !isBoundary() 
-                && buffer[rpos] == 'P'
-                && buffer[rpos+1] == 'K';
+        if (isBoundary())
+            return false;
+
+        // ensure that the first two bytes are available
+        while (safe < 2 && !boundaryAhead && buf.fill())
+            scan();
+
+        return safe >= 2
+                && buf.buf[buf.pos] == 'P'
+                && buf.buf[buf.pos+1] == 'K';
     }
 
     private boolean isBoundary() throws IOException {
         if (boundarySeen)
             return true;
 
-        if (rpos < buffer.length) {
-            if (buffer[rpos] != boundary[0])
-                return false;
-
-            System.arraycopy(buffer, rpos, buffer, 0, buffer.length - rpos);
-        }
-        readFully(in, buffer, buffer.length - rpos, rpos);
-        rpos = 0;
-
-        for (int i = 0; i < buffer.length; i++)
-            if (buffer[i] != boundary[i])
-                return false;
+        if (safe == 0)
+            scan();
 
-        boundarySeen = true;
-        return true;
+        return boundarySeen;
     }
 
-    private static void readFully(InputStream in, byte b[], int off, int len)
-            throws IOException {
-        if (off < 0 || len < 0 || off + len > b.length)
-            throw new IndexOutOfBoundsException();
-        while (len > 0) {
-            int count = in.read(b, off, len);
-            if (count < 0)
+    /**
+     * Determines how many bytes at the current position are part data, reading more data if necessary.
+     * Consumes the boundary if it is at the current position.
+     */
+    private void scan() throws IOException {
+        for (;;) {
+            int index = indexOf(boundary, skip, buf.buf, buf.pos, buf.limit);
+            if (index == buf.pos) {
+                buf.pos += boundary.length;
+                safe = 0;
+                boundarySeen = true;
+                return;
+            }
+            if (index >= 0) {
+                safe = index - buf.pos;
+                boundaryAhead = true;
+                return;
+            }
+
+            // the last bytes may be the beginning of the boundary
+            int n = buf.limit - buf.pos - boundary.length + 1;
+            if (n > 0) {
+                safe = n;
+                return;
+            }
+            if (!buf.fill())
                 throw new EOFException();
-            off += count;
-            len -= count;
         }
     }
 
-    private int remaining() {
-        for (int i = rpos+1; i < buffer.length; i++)
-            if (buffer[i] == boundary[0])
-                return i - rpos;
-
-        return buffer.length - rpos;
-    }
-
     public Map<String, List<String>> readHeaderParams() throws IOException {
         Map<String, List<String>> map = new TreeMap<String, List<String>>(
                 new Comparator<String>() {
@@ -190,10 +250,11 @@ public class MultipartInputStream extends FilterInputStream {
         field.reset();
         OUTER:
         while (!isBoundary()) {
-            field.growBuffer(buffer.length);
-            while (rpos < buffer.length)
-                if (!field.append(buffer[rpos++]))
+            while (safe > 0) {
+                safe--;
+                if (!field.append(buf.buf[buf.pos++]))
                     break OUTER;
+            }
         }
         return !field.isEmpty();
     }
@@ -210,20 +271,14 @@ public class MultipartInputStream extends FilterInputStream {
             return length == 0;
         }
 
-        void growBuffer(int grow) {
-            if (length + grow > buffer.length) {
-                byte[] copy = new byte[length + grow];
-                System.arraycopy(buffer, 0, copy, 0, length);
-                buffer = copy;
-            }
-        }
-
         boolean append(byte b) {
             if (b == '\n' && length > 0 && buffer[length-1] == '\r') {
                 length--;
                 return false;
             }
 
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, length << 1);
             buffer[length++] = b;
             return true;
         }
@@ -234,4 +289,48 @@ public class MultipartInputStream extends FilterInputStream {
 
     }
 
+    /**
+     * Buffer for reading a multipart stream in large blocks.
+     */
+    static final class Buffer {
+        final InputStream in;
+        final byte[] buf;
+        int pos;
+        int limit;
+
+        Buffer(InputStream in, int size) {
+            this.in = in;
+            this.buf = new byte[size];
+        }
+
+        int read() throws IOException {
+            if (pos == limit && !fill())
+                return -1;
+
+            return buf[pos++] & 0xff;
+        }
+
+        /**
+         * Moves the unread bytes to the beginning of the buffer and reads more.
+         *
+         * @return false if the end of the stream is reached or the buffer is full
+         */
+        boolean fill() throws IOException {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            if (limit == buf.length)
+                return false;
+
+            int count = in.read(buf, limit, buf.length - limit);
+            if (count < 0)
+                return false;
+
+            limit += count;
+            return true;
+        }
+    }
+
 }
@@ -0,0 +1,243 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.mime;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a multipart body, e.g. of a {@code multipart/related} STOW-RS request. Part headers may be encoded once by
+ * {@link #encodeHeaders} and passed to {@link #startPart(byte[])} for each part. Part content is written through
+ * this stream or copied from files, file channels and input streams in chunks of configurable size, so memory use
+ * does not depend on the size of the parts.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class MultipartOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] CLOSE = { '-', '-', '\r', '\n' };
+
+    private final byte[] delimiter;
+    private final int chunkSize;
+    private byte[] chunk;
+    private int parts;
+    private boolean finished;
+
+    public MultipartOutputStream(OutputStream out, String boundary) {
+        this(out, boundary, DEFAULT_CHUNK_SIZE);
+    }
+
+    public MultipartOutputStream(OutputStream out, String boundary, int chunkSize) {
+        super(out);
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        this.delimiter = encode("\r\n--" + boundary);
+        this.chunkSize = chunkSize;
+    }
+
+    public final int getChunkSize() {
+        return chunkSize;
+    }
+
+    public final int getPartCount() {
+        return parts;
+    }
+
+    /**
+     * Encodes header fields, given as alternating names and values, together with the empty line which terminates
+     * the header of a body part.
+     */
+    public static byte[] encodeHeaders(String... namesAndValues) {
+        if ((namesAndValues.length & 1) != 0)
+            throw new IllegalArgumentException("odd number of header names and values");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i++, i++)
+            sb.append(namesAndValues[i]).append(": ").append(namesAndValues[i+1]).append("\r\n");
+        sb.append("\r\n");
+        return encode(sb.toString());
+    }
+
+    private static byte[] encode(String s) {
+        try {
+            return s.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public void startPart(String... namesAndValues) throws IOException {
+        startPart(encodeHeaders(namesAndValues));
+    }
+
+    /**
+     * Writes the boundary delimiter and the encoded header of the next body part.
+     *
+     * @param headers header fields including the terminating empty line, as returned by {@link #encodeHeaders}
+     */
+    public void startPart(byte[] headers) throws IOException {
+        checkNotFinished();
+        if (parts++ == 0)
+            out.write(delimiter, 2, delimiter.length - 2);
+        else
+            out.write(delimiter);
+        out.write(CRLF);
+        out.write(headers);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkInPart();
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkInPart();
+        out.write(b);
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code file}, starting at {@code position}, to the current body part.
+     */
+    public void write(File file, long position, long length) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            write(in.getChannel(), position, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code channel}, starting at {@code position}, to the current body part. The
+     * position of the channel is not modified.
+     */
+    public void write(FileChannel channel, long position, long length) throws IOException {
+        checkInPart();
+        byte[] b = chunk();
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        long remaining = length;
+        while (remaining > 0) {
+            bb.clear();
+            if (remaining < b.length)
+                bb.limit((int) remaining);
+            int read = channel.read(bb, position);
+            if (read < 0)
+                throw new EOFException();
+            out.write(b, 0, read);
+            position += read;
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes, or all remaining bytes if {@code length} is negative, from {@code in} to the
+     * current body part.
+     */
+    public void write(InputStream in, long length) throws IOException {
+        checkInPart();
+        byte[] b = chunk();
+        long remaining = length < 0 ? Long.MAX_VALUE : length;
+        while (remaining > 0) {
+            int read = in.read(b, 0, (int) Math.min(remaining, b.length));
+            if (read < 0) {
+                if (length < 0)
+                    break;
+                throw new EOFException();
+            }
+            out.write(b, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Writes the closing boundary delimiter and flushes the underlying stream, which remains open.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+
+        if (parts == 0)
+            throw new IllegalStateException("no body part");
+
+        finished = true;
+        out.write(delimiter);
+        out.write(CLOSE);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (parts > 0)
+                finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] chunk() {
+        if (chunk == null)
+            chunk = new byte[chunkSize];
+        return chunk;
+    }
+
+    private void checkNotFinished() {
+        if (finished)
+            throw new IllegalStateException("finished");
+    }
+
+    private void checkInPart() {
+        checkNotFinished();
+        if (parts == 0)
+            throw new IllegalStateException("no body part started");
+    }
+}
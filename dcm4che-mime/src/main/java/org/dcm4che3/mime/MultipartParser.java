@@ -59,10 +59,14 @@ public class MultipartParser {
 
     @SuppressWarnings("resource")
     public void parse(InputStream in, Handler handler) throws IOException {
-        new MultipartInputStream(in, "--" + boundary).skipAll(); // skip preamble
+        MultipartInputStream.Buffer buffer =
+                new MultipartInputStream.Buffer(in, MultipartInputStream.BUFFER_SIZE);
+        new MultipartInputStream(buffer, ("--" + boundary).getBytes()).skipAll(); // skip preamble
+        byte[] partBoundary = ("\r\n--" + boundary).getBytes();
+        int[] skip = MultipartInputStream.skipTable(partBoundary);
         for (int i=1;;i++) {
-            int ch1 = in.read();
-            int ch2 = in.read();
+            int ch1 = buffer.read();
+            int ch2 = buffer.read();
             if ((ch1 | ch2) < 0)
                 throw new EOFException();
 
@@ -72,7 +76,7 @@ public class MultipartParser {
             if (ch1 != '\r' || ch2 != '\n')
                 throw new IOException("missing CR/LF after boundary");
 
-            MultipartInputStream mis = new MultipartInputStream(in, "\r\n--" + boundary);
+            MultipartInputStream mis = new MultipartInputStream(buffer, partBoundary, skip);
             handler.bodyPart(i, mis);
             mis.skipAll();
         }
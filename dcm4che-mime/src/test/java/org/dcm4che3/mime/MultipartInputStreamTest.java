@@ -0,0 +1,238 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.mime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Parses randomly generated multipart streams, which are read in chunks of
+ * random size, so boundaries are split across refills of the buffer.
+ *
+ * @author agent <agent@local>
+ */
+public class MultipartInputStreamTest {
+
+    private static final String BOUNDARY = "b0undary-4711";
+    private static final byte[] DASH_BOUNDARY = ("--" + BOUNDARY).getBytes();
+    private static final byte[] DELIMITER = ("\r\n--" + BOUNDARY).getBytes();
+    private static final byte[] ALPHABET = "\r\n-b0undary4711 x".getBytes();
+
+    @Test
+    public void testRandomBodies() throws IOException {
+        for (long seed = 0; seed < 100; seed++)
+            assertParse(new Random(seed), 8, 2000, 200);
+    }
+
+    @Test
+    public void testBodiesLargerThanBuffer() throws IOException {
+        for (long seed = 0; seed < 5; seed++)
+            assertParse(new Random(seed), 3,
+                    MultipartInputStream.BUFFER_SIZE * 2, 16384);
+    }
+
+    @Test
+    public void testEmptyBodies() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "\r\n");
+        out.write(DASH_BOUNDARY);
+        for (int i = 1; i <= 3; i++) {
+            write(out, "\r\n\r\n");
+            out.write(DELIMITER);
+        }
+        write(out, "--\r\n");
+
+        List<byte[]> parts = parse(new Random(0), out.toByteArray(), 1);
+        assertEquals(3, parts.size());
+        for (byte[] part : parts)
+            assertEquals(0, part.length);
+    }
+
+    private static void assertParse(Random rnd, int maxParts, int maxBodyLength,
+            int maxChunkLength) throws IOException {
+        int numParts = 1 + rnd.nextInt(maxParts);
+        List<byte[]> bodies = new ArrayList<byte[]>(numParts);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(randomBytes(rnd, rnd.nextInt(200), DASH_BOUNDARY)); // preamble
+        out.write(DASH_BOUNDARY);
+        for (int i = 1; i <= numParts; i++) {
+            byte[] body = randomBytes(rnd, rnd.nextInt(maxBodyLength), DELIMITER);
+            bodies.add(body);
+            write(out, "\r\nContent-Type: application/octet-stream\r\nContent-ID: <"
+                    + i + ">\r\n\r\n");
+            out.write(body);
+            out.write(DELIMITER);
+        }
+        write(out, "--");
+        // the epilogue is not parsed and may even contain the delimiter
+        out.write(randomBytes(rnd, rnd.nextInt(200), null));
+        out.write(DELIMITER);
+
+        List<byte[]> parts = parse(rnd, out.toByteArray(), maxChunkLength);
+        assertEquals(bodies.size(), parts.size());
+        for (int i = 0; i < parts.size(); i++)
+            assertArrayEquals("part " + (i + 1), bodies.get(i), parts.get(i));
+    }
+
+    private static List<byte[]> parse(final Random rnd, byte[] multipart,
+            int maxChunkLength) throws IOException {
+        final List<byte[]> parts = new ArrayList<byte[]>();
+        new MultipartParser(BOUNDARY).parse(
+                new ChunkedInputStream(multipart, rnd, maxChunkLength),
+                new MultipartParser.Handler() {
+                    @Override
+                    public void bodyPart(int partNumber, MultipartInputStream in)
+                            throws IOException {
+                        Map<String, List<String>> headers = in.readHeaderParams();
+                        if (!headers.isEmpty())
+                            assertEquals(Collections.singletonList("<" + partNumber + ">"),
+                                    headers.get("content-id"));
+                        parts.add(readBody(rnd, in));
+                    }
+                });
+        return parts;
+    }
+
+    /**
+     * Reads the body by a random mix of single byte and array reads.
+     */
+    private static byte[] readBody(Random rnd, InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[1000];
+        for (;;) {
+            if (rnd.nextBoolean()) {
+                int ch = in.read();
+                if (ch < 0)
+                    break;
+                out.write(ch);
+            } else {
+                int n = in.read(b, 0, 1 + rnd.nextInt(b.length));
+                if (n < 0)
+                    break;
+                out.write(b, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns random bytes, mostly of characters of the boundary, with
+     * near-misses of the delimiter inserted, which do not contain and do not
+     * form with the following delimiter an earlier occurrence of it.
+     */
+    private static byte[] randomBytes(Random rnd, int length, byte[] delimiter) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = rnd.nextInt(4) == 0
+                    ? (byte) rnd.nextInt(256)
+                    : ALPHABET[rnd.nextInt(ALPHABET.length)];
+        byte[] nearMiss = DELIMITER.clone();
+        for (int n = rnd.nextInt(1 + length / 50); n > 0; n--) {
+            // CRLF-adjacent prefix of the delimiter, or the delimiter with one wrong byte
+            int len = 1 + rnd.nextInt(nearMiss.length);
+            if (len == nearMiss.length)
+                nearMiss[rnd.nextInt(len)] ^= 0x20;
+            int pos = rnd.nextBoolean() ? length - len : rnd.nextInt(length + 1);
+            if (pos >= 0 && pos + len <= length)
+                System.arraycopy(nearMiss, 0, b, pos, len);
+            System.arraycopy(DELIMITER, 0, nearMiss, 0, nearMiss.length);
+        }
+        if (delimiter != null) {
+            int index;
+            while ((index = indexOf(concat(b, delimiter), delimiter)) < b.length)
+                b[index] = 'x';
+        }
+        return b;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = new byte[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static int indexOf(byte[] b, byte[] pattern) {
+        OUTER:
+        for (int i = 0; i + pattern.length <= b.length; i++) {
+            for (int j = 0; j < pattern.length; j++)
+                if (b[i + j] != pattern[j])
+                    continue OUTER;
+            return i;
+        }
+        return -1;
+    }
+
+    private static void write(ByteArrayOutputStream out, String s)
+            throws IOException {
+        out.write(s.getBytes("US-ASCII"));
+    }
+
+    /**
+     * Returns at most a random number of bytes on each read.
+     */
+    private static final class ChunkedInputStream extends FilterInputStream {
+
+        private final Random rnd;
+        private final int maxChunkLength;
+
+        ChunkedInputStream(byte[] b, Random rnd, int maxChunkLength) {
+            super(new ByteArrayInputStream(b));
+            this.rnd = rnd;
+            this.maxChunkLength = maxChunkLength;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1 + rnd.nextInt(maxChunkLength)));
+        }
+    }
+}
@@ -48,7 +48,6 @@ import org.dcm4che3.net.Device;
 import org.dcm4che3.net.DeviceExtension;
 import org.dcm4che3.net.IncompatibleConnectionException;
 import org.dcm4che3.util.SafeClose;
-import org.dcm4che3.util.StreamUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,8 +59,12 @@ import java.net.*;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -71,16 +74,34 @@ import java.util.concurrent.TimeUnit;
 @ConfigurableClass
 public class AuditLogger extends DeviceExtension {
 
-    private static final String DEVICE_NAME_IN_FILENAME_SEPARATOR = "-._";
-
     public enum SendStatus {
-        SENT, QUEUED, SUPPRESSED
+        SENT, QUEUED, SUPPRESSED, DROPPED
+    }
+
+    public enum SpoolSync {
+        NONE, DATA, ALL
     }
 
     private static final long serialVersionUID = 1595714214186063103L;
 
     private static final int MSG_PROMPT_LEN = 8192;
 
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private static final long MAX_SPOOL_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int MESSAGE_BUFFER_SIZE = 4096;
+
+    private static final int MAX_RETAINED_MESSAGE_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<MessageBuilder> BUILDERS =
+            new ThreadLocal<MessageBuilder>() {
+                @Override
+                protected MessageBuilder initialValue() {
+                    return new MessageBuilder();
+                }
+            };
+
     private static Logger LOG = LoggerFactory.getLogger(AuditLogger.class);
 
     public enum Facility {
@@ -151,13 +172,6 @@ public class AuditLogger extends DeviceExtension {
     private static final char SYSLOG_VERSION = '1';
     private static final InetAddress localHost = localHost();
     private static final String processID = processID();
-    private static final Comparator<File> FILE_COMPARATOR = new Comparator<File>() {
-        @Override
-        public int compare(File o1, File o2) {
-            long diff = o1.lastModified() - o2.lastModified();
-            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
-        }
-    };
     private static volatile AuditLogger defaultLogger;
 
     @ConfigurableProperty(name = "dcmAuditRecordRepositoryDeviceReference",
@@ -249,13 +263,22 @@ public class AuditLogger extends DeviceExtension {
     @ConfigurableProperty(name = "dcmAuditLoggerRetryInterval", defaultValue = "0")
     private int retryInterval;
 
+    @ConfigurableProperty(name = "dcmAuditLoggerSpoolSync", defaultValue = "NONE")
+    private SpoolSync spoolSync = SpoolSync.NONE;
+
+    @ConfigurableProperty(name = "dcmAuditLoggerAsync", defaultValue = "false")
+    private boolean async;
+
+    @ConfigurableProperty(name = "dcmAuditLoggerQueueCapacity", defaultValue = "1000")
+    private int queueCapacity = 1000;
+
     @LDAP(
             noContainerNode = true,
             distinguishingField = "cn"
     )
     @ConfigurableProperty(name = "dcmAuditSuppressCriteria")
     private final List<AuditSuppressCriteria> suppressAuditMessageFilters =
-            new ArrayList<AuditSuppressCriteria>(0);
+            new SuppressCriteriaList();
 
     @ConfigurableProperty(name = "dicomNetworkConnectionReference",
             label = "Connections",
@@ -264,26 +287,34 @@ public class AuditLogger extends DeviceExtension {
             collectionOfReferences = true)
     private List<Connection> connections = new ArrayList<Connection>(1);
 
-    private transient MessageBuilder builder;
+    private transient volatile byte[] headerSuffix;
+    private transient volatile SuppressCriteriaIndex suppressCriteriaIndex;
     private transient Map<String,ActiveConnection> activeConnection = new HashMap<String, ActiveConnection>();
+    private transient final Map<String, AuditSpool> spools = new HashMap<String, AuditSpool>();
+    private transient volatile boolean noSpoolDirectory;
+    private transient final Object sendQueuedMessagesLock = new Object();
     private transient ScheduledFuture<?> retryTimer;
     private transient Exception lastException;
     private transient long lastSentTimeInMillis;
-    private transient final FilenameFilter FILENAME_FILTER = new FilenameFilter() {
-        @Override
-        public boolean accept(File dir, String name) {
-            return name.startsWith(spoolFileNamePrefix) && name.endsWith(spoolFileNameSuffix);
-        }
-    };
-
+    private transient final ConcurrentLinkedQueue<DatagramPacket> asyncQueue =
+            new ConcurrentLinkedQueue<DatagramPacket>();
+    private transient final AtomicInteger asyncQueueSize = new AtomicInteger();
+    private transient final AtomicBoolean asyncSenderActive = new AtomicBoolean();
+    private transient final ConcurrentLinkedQueue<DatagramPacket> overflowQueue =
+            new ConcurrentLinkedQueue<DatagramPacket>();
+    private transient final AtomicInteger overflowQueueSize = new AtomicInteger();
+    private transient final AtomicBoolean overflowSpoolerActive = new AtomicBoolean();
+    private transient final AtomicLong queuedCount = new AtomicLong();
+    private transient final AtomicLong sentCount = new AtomicLong();
+    private transient final AtomicLong spooledCount = new AtomicLong();
+    private transient final AtomicLong droppedCount = new AtomicLong();
 
     public List<AuditSuppressCriteria> getSuppressAuditMessageFilters() {
         return suppressAuditMessageFilters;
     }
 
     public void setSuppressAuditMessageFilters(List<AuditSuppressCriteria> suppressAuditMessageFilters) {
-        this.suppressAuditMessageFilters.clear();
-        for (AuditSuppressCriteria filter : suppressAuditMessageFilters) this.suppressAuditMessageFilters.add(filter);
+        setAuditSuppressCriteriaList(suppressAuditMessageFilters);
     }
 
     public final List<Device> getAuditRecordRepositoryDevices() {
@@ -377,6 +408,7 @@ public class AuditLogger extends DeviceExtension {
 
     public final void setApplicationName(String applicationName) {
         this.applicationName = applicationName;
+        this.headerSuffix = null;
     }
 
     public final String getAuditSourceID() {
@@ -385,6 +417,7 @@ public class AuditLogger extends DeviceExtension {
 
     public final void setAuditSourceID(String auditSourceID) {
         this.auditSourceID = auditSourceID;
+        this.headerSuffix = null;
     }
 
     private String auditSourceID() {
@@ -478,6 +511,7 @@ public class AuditLogger extends DeviceExtension {
 
     public final void setMessageID(String messageID) {
         this.messageID = messageID;
+        this.headerSuffix = null;
     }
 
     public final String getEncoding() {
@@ -489,6 +523,7 @@ public class AuditLogger extends DeviceExtension {
             throw new IllegalArgumentException(
                     "Charset not supported: " + encoding);
         this.encoding = encoding;
+        this.headerSuffix = null;
     }
 
     public final String getSchemaURI() {
@@ -513,6 +548,7 @@ public class AuditLogger extends DeviceExtension {
 
     public final void setIncludeBOM(boolean includeBOM) {
         this.includeBOM = includeBOM;
+        this.headerSuffix = null;
     }
 
     public final boolean isFormatXML() {
@@ -573,6 +609,8 @@ public class AuditLogger extends DeviceExtension {
      *                  directory is to be used
      */
     public void setSpoolDirectory(File directory) {
+        if (directory == null ? spoolDirectory != null : !directory.equals(spoolDirectory))
+            closeSpools();
         this.spoolDirectory = directory;
     }
 
@@ -581,7 +619,7 @@ public class AuditLogger extends DeviceExtension {
     }
 
     public void setSpoolDirectoryURI(String uri) {
-        this.spoolDirectory = uri != null ? new File(URI.create(uri)) : null;
+        setSpoolDirectory(uri != null ? new File(URI.create(uri)) : null);
     }
 
     public String getSpoolNameFilePrefix() {
@@ -591,6 +629,8 @@ public class AuditLogger extends DeviceExtension {
     public void setSpoolFileNamePrefix(String prefix) {
         if (prefix.length() < 3)
             throw new IllegalArgumentException("Spool file name prefix too short");
+        if (!prefix.equals(spoolFileNamePrefix))
+            closeSpools();
         this.spoolFileNamePrefix = prefix;
     }
 
@@ -601,6 +641,8 @@ public class AuditLogger extends DeviceExtension {
     public void setSpoolFileNameSuffix(String suffix) {
         if (suffix.isEmpty())
             throw new IllegalArgumentException("Spool file name suffix cannot be empty");
+        if (!suffix.equals(spoolFileNameSuffix))
+            closeSpools();
         this.spoolFileNameSuffix = suffix;
     }
 
@@ -628,6 +670,94 @@ public class AuditLogger extends DeviceExtension {
         this.retryInterval = interval;
     }
 
+    /**
+     * Get if spooled messages are forced to the storage device before
+     * they are counted as spooled. With {@link SpoolSync#NONE}, spooled
+     * messages may be lost by a system crash; {@link SpoolSync#DATA} forces
+     * the message data, {@link SpoolSync#ALL} also the file metadata.
+     *
+     * @return policy for forcing spooled messages to the storage device
+     */
+    public SpoolSync getSpoolSync() {
+        return spoolSync;
+    }
+
+    public synchronized void setSpoolSync(SpoolSync spoolSync) {
+        if (spoolSync == null)
+            throw new NullPointerException("spoolSync");
+        for (AuditSpool spool : spools.values())
+            spool.setSync(spoolSync);
+        this.spoolSync = spoolSync;
+    }
+
+    /**
+     * Indicates if audit messages are sent asynchronously by a dedicated
+     * sender, so {@link #write(Calendar, AuditMessage)} does not block the
+     * calling thread by sending the message to the record repository.
+     *
+     * @return {@code true} if audit messages are sent asynchronously
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * Get maximal number of messages queued for asynchronous sending. Further
+     * messages are spooled for later re-send by a separate task, if a
+     * {@code RetryInterval} is configured, otherwise dropped.
+     *
+     * @return maximal number of messages queued for asynchronous sending
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("queueCapacity: " + queueCapacity);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return number of messages accepted for asynchronous sending
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return number of messages sent to an Audit Record Repository
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return number of messages spooled for later re-send to an Audit
+     * Record Repository
+     */
+    public long getSpooledCount() {
+        return spooledCount.get();
+    }
+
+    /**
+     * @return number of messages neither sent nor spooled
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return number of messages currently waiting for asynchronous sending
+     */
+    public int getAsyncQueueSize() {
+        return asyncQueueSize.get();
+    }
+
     public void addConnection(Connection conn) {
         if (!conn.getProtocol().isSyslog())
             throw new IllegalArgumentException(
@@ -658,6 +788,13 @@ public class AuditLogger extends DeviceExtension {
         return connections;
     }
 
+    /**
+     * Returns the configured {@code AuditSuppressCriteria}. Modifications of
+     * the returned list are reflected by the index of criteria used by
+     * {@link #isAuditMessageSuppressed}, which is rebuilt on its next use.
+     *
+     * @return list of configured {@code AuditSuppressCriteria}
+     */
     public List<AuditSuppressCriteria> getAuditSuppressCriteriaList() {
         return suppressAuditMessageFilters;
     }
@@ -670,33 +807,45 @@ public class AuditLogger extends DeviceExtension {
         return null;
     }
 
-    public void setAuditSuppressCriteriaList(List<AuditSuppressCriteria> filters) {
+    public synchronized void setAuditSuppressCriteriaList(List<AuditSuppressCriteria> filters) {
+        ArrayList<AuditSuppressCriteria> copy = new ArrayList<AuditSuppressCriteria>(filters);
         this.suppressAuditMessageFilters.clear();
-        this.suppressAuditMessageFilters.addAll(filters);
+        this.suppressAuditMessageFilters.addAll(copy);
     }
 
-    public void addAuditSuppressCriteria(AuditSuppressCriteria criteria) {
+    public synchronized void addAuditSuppressCriteria(AuditSuppressCriteria criteria) {
         this.suppressAuditMessageFilters.add(criteria);
     }
 
-    public void clearAllAuditSuppressCriteria() {
+    public synchronized void clearAllAuditSuppressCriteria() {
         this.suppressAuditMessageFilters.clear();
     }
 
     /**
      * Test if the Event Identification and the Active ActiveParticipant of an
      * Audit Message matches one of the {@code AuditSuppressCriteria}
+     * <p/>
+     * Only {@code AuditSuppressCriteria} which are indexed by the Event ID,
+     * Event Action Code and Event Outcome Indicator of the message - or
+     * which do not specify values for these - are tested.
      *
      * @param msg Audit Message to test
      * @return {@code true} the specified audit message will be suppressed;
      * otherwise {@code false}
      */
     public boolean isAuditMessageSuppressed(AuditMessage msg) {
-        for (AuditSuppressCriteria criteria : suppressAuditMessageFilters) {
-            if (criteria.match(msg))
-                return true;
-        }
-        return false;
+        SuppressCriteriaIndex index = suppressCriteriaIndex;
+        if (index == null || index.isStale(suppressAuditMessageFilters))
+            index = suppressCriteriaIndex();
+        return index.match(msg);
+    }
+
+    private synchronized SuppressCriteriaIndex suppressCriteriaIndex() {
+        SuppressCriteriaIndex index = suppressCriteriaIndex;
+        if (index == null || index.isStale(suppressAuditMessageFilters))
+            suppressCriteriaIndex = index =
+                    new SuppressCriteriaIndex(suppressAuditMessageFilters);
+        return index;
     }
 
     @Override
@@ -724,11 +873,15 @@ public class AuditLogger extends DeviceExtension {
         setSpoolFileNamePrefix(from.spoolFileNamePrefix);
         setSpoolFileNameSuffix(from.spoolFileNameSuffix);
         setRetryInterval(from.retryInterval);
+        setAsync(from.async);
+        setQueueCapacity(from.queueCapacity);
+        setSpoolSync(from.spoolSync);
         setAuditLoggerInstalled(from.auditLoggerInstalled);
         setAuditRecordRepositoryDevices(from.auditRecordRepositoryDevices);
         setAuditSuppressCriteriaList(from.suppressAuditMessageFilters);
         device.reconfigureConnections(connections, from.connections);
         closeActiveConnection();
+        headerSuffix = null;
     }
 
     public Calendar timeStamp() {
@@ -749,12 +902,24 @@ public class AuditLogger extends DeviceExtension {
      * <p/>
      * Attention: sending via UDP without getting an I/O error does not ensure
      * that the Audit Record Repository actually received the message!
+     * <p/>
+     * If the Audit Logger is configured to send messages asynchronously, the
+     * message is only queued for sending by a dedicated sender and the method
+     * returns {@code SendStatus.QUEUED}. If the queue is full, the message is
+     * passed to a separate task, which spools it for later re-send, if a
+     * {@code RetryInterval} is configured; otherwise the message is dropped
+     * and the method returns {@code SendStatus.DROPPED}. If also
+     * {@code QueueCapacity} messages wait for that task, the message is
+     * spooled by the calling thread.
      *
      * @param timeStamp included in Syslog Header
      * @param msg       Audit Message
      * @return {@code SendStatus.SUPPRESSED} if the message was suppressed;
      * {@code SendStatus.SENT} if the message was successfully emitted;
-     * {@code SendStatus.QUEUED} if the message was spooled for later re-send
+     * {@code SendStatus.QUEUED} if the message was queued for asynchronous
+     * sending or spooled for later re-send;
+     * {@code SendStatus.DROPPED} if the queue for asynchronous sending was
+     * full and no {@code RetryInterval} is configured
      * @throws IllegalStateException           if there is no {@code AuditRecordRepository} associated with
      *                                         this {@code AuditLogger}
      * @throws IncompatibleConnectionException if no {@code Connection) of this {@code AuditLogger} is compatible
@@ -769,21 +934,195 @@ public class AuditLogger extends DeviceExtension {
         if (isAuditMessageSuppressed(msg))
             return SendStatus.SUPPRESSED;
 
-        return sendMessage(builder().createMessage(timeStamp, msg));
+        DatagramPacket packet = builder().createMessage(this, timeStamp, msg);
+        return async ? queueMessage(packet) : sendMessage(packet);
     }
 
     public SendStatus write(Calendar timeStamp, Severity severity,
                             byte[] data, int off, int len)
             throws IncompatibleConnectionException, GeneralSecurityException, IOException {
-        return sendMessage(
-                builder().createMessage(timeStamp, severity, data, off, len));
+        DatagramPacket packet =
+                builder().createMessage(this, timeStamp, severity, data, off, len);
+        return async ? queueMessage(packet) : sendMessage(packet);
+    }
+
+    private SendStatus queueMessage(DatagramPacket msg) throws IOException {
+        if (auditRecordRepositoryDevices.isEmpty())
+            throw new IllegalStateException("No AuditRecordRepositoryDevice initalized");
+        DatagramPacket copy = new DatagramPacket(Arrays.copyOfRange(
+                msg.getData(), msg.getOffset(), msg.getOffset() + msg.getLength()),
+                msg.getLength());
+        if (asyncQueueSize.incrementAndGet() > queueCapacity) {
+            asyncQueueSize.decrementAndGet();
+            if (retryInterval <= 0) {
+                droppedCount.incrementAndGet();
+                LOG.warn("Audit message queue full - drop audit message");
+                return SendStatus.DROPPED;
+            }
+            if (overflowQueueSize.incrementAndGet() > queueCapacity) {
+                overflowQueueSize.decrementAndGet();
+                LOG.info("Audit message queue and spool queue full - spool audit message");
+                for (Device arrDev : auditRecordRepositoryDevices) {
+                    try {
+                        spoolMessage(arrDev.getDeviceName(), copy);
+                    } catch (IOException e) {
+                        droppedCount.incrementAndGet();
+                        throw e;
+                    }
+                }
+                scheduleRetry();
+                return SendStatus.QUEUED;
+            }
+            LOG.info("Audit message queue full - spool audit message");
+            overflowQueue.offer(copy);
+            if (overflowSpoolerActive.compareAndSet(false, true))
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        spoolOverflowMessages();
+                    }
+                }, overflowSpoolerActive);
+            return SendStatus.QUEUED;
+        }
+        asyncQueue.offer(copy);
+        queuedCount.incrementAndGet();
+        if (asyncSenderActive.compareAndSet(false, true))
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendAsyncQueuedMessages();
+                }
+            }, asyncSenderActive);
+        return SendStatus.QUEUED;
     }
 
-    private MessageBuilder builder() {
-        if (builder == null)
-            builder = new MessageBuilder();
+    private void execute(Runnable task, AtomicBoolean active) {
+        try {
+            getDevice().execute(task);
+        } catch (RuntimeException e) {
+            active.set(false);
+            throw e;
+        }
+    }
 
-        return builder;
+    /**
+     * Spools messages, which did not fit into the queue for asynchronous
+     * sending, so the calling threads do not wait for file I/O.
+     */
+    private void spoolOverflowMessages() {
+        for (;;) {
+            DatagramPacket msg;
+            while ((msg = overflowQueue.poll()) != null) {
+                overflowQueueSize.decrementAndGet();
+                for (Device arrDev : auditRecordRepositoryDevices) {
+                    try {
+                        spoolMessage(arrDev.getDeviceName(), msg);
+                    } catch (IOException e) {
+                        droppedCount.incrementAndGet();
+                        LOG.warn("Failed to spool audit message:", e);
+                    }
+                }
+            }
+            overflowSpoolerActive.set(false);
+            synchronized (this) {
+                notifyAll();
+            }
+            if (overflowQueue.isEmpty()
+                    || !overflowSpoolerActive.compareAndSet(false, true))
+                break;
+        }
+        scheduleRetry();
+    }
+
+    private void sendAsyncQueuedMessages() {
+        ArrayList<DatagramPacket> batch = new ArrayList<DatagramPacket>(MAX_BATCH_SIZE);
+        for (;;) {
+            DatagramPacket msg;
+            while (batch.size() < MAX_BATCH_SIZE
+                    && (msg = asyncQueue.poll()) != null) {
+                asyncQueueSize.decrementAndGet();
+                batch.add(msg);
+            }
+            if (batch.isEmpty()) {
+                asyncSenderActive.set(false);
+                synchronized (this) {
+                    notifyAll();
+                }
+                if (asyncQueue.isEmpty()
+                        || !asyncSenderActive.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+            sendMessages(batch);
+            batch.clear();
+        }
+    }
+
+    private void sendMessages(List<DatagramPacket> batch) {
+        ArrayList<DatagramPacket> pending =
+                new ArrayList<DatagramPacket>(batch.size());
+        for (Device arrDev : auditRecordRepositoryDevices) {
+            String deviceName = arrDev.getDeviceName();
+            pending.clear();
+            pending.addAll(batch);
+            try {
+                if (!isSpoolingFor(arrDev)) {
+                    activeConnection(arrDev).sendMessages(pending);
+                    lastSentTimeInMillis = System.currentTimeMillis();
+                }
+            } catch (Exception e) {
+                lastException = e;
+                LOG.info("Failed to send audit messages:", e);
+            }
+            sentCount.addAndGet(batch.size() - pending.size());
+            if (pending.isEmpty())
+                continue;
+
+            if (retryInterval <= 0) {
+                droppedCount.addAndGet(pending.size());
+                LOG.warn("Drop {} audit messages for device {}",
+                        pending.size(), deviceName);
+                continue;
+            }
+            for (DatagramPacket msg : pending) {
+                try {
+                    spoolMessage(deviceName, msg);
+                } catch (IOException e) {
+                    droppedCount.incrementAndGet();
+                    LOG.warn("Failed to spool audit message:", e);
+                }
+            }
+            scheduleRetry();
+        }
+    }
+
+    static MessageBuilder builder() {
+        return BUILDERS.get();
+    }
+
+    /**
+     * Returns the part of the Syslog header following the TIMESTAMP, which
+     * only depends on the configuration of the Audit Logger.
+     */
+    private byte[] headerSuffix() throws UnsupportedEncodingException {
+        byte[] b = headerSuffix;
+        if (b == null) {
+            StringBuilder sb = new StringBuilder(64);
+            sb.append(' ');
+            sb.append(localHost != null ? localHost.getCanonicalHostName() : "-");
+            sb.append(' ').append(applicationName());
+            sb.append(' ').append(processID);
+            sb.append(' ').append(messageID != null ? messageID : "-");
+            sb.append(" - ");
+            byte[] s = sb.toString().getBytes(encoding);
+            if (includeBOM && encoding.equals("UTF-8")) {
+                b = Arrays.copyOf(s, s.length + BOM.length);
+                System.arraycopy(BOM, 0, b, s.length, BOM.length);
+            } else
+                b = s;
+            headerSuffix = b;
+        }
+        return b;
     }
 
     private SendStatus sendMessage(DatagramPacket msg) throws IncompatibleConnectionException,
@@ -794,12 +1133,13 @@ public class AuditLogger extends DeviceExtension {
         SendStatus status = SendStatus.SENT;
         for (Device arrDev : auditRecordRepositoryDevices) {
         	deviceName = arrDev.getDeviceName();
-	        if (getNumberOfQueuedMessages(deviceName) > 0) {
+	        if (isSpoolingFor(arrDev)) {
 	            spoolMessage(deviceName, msg);
 	        } else {
 	            try {
 	                activeConnection(arrDev).sendMessage(msg);
 	                lastSentTimeInMillis = System.currentTimeMillis();
+	                sentCount.incrementAndGet();
 	            } catch (IOException e) {
 	                lastException = e;
 	                if (retryInterval > 0) {
@@ -808,6 +1148,7 @@ public class AuditLogger extends DeviceExtension {
 	                    scheduleRetry();
 	                    status = SendStatus.QUEUED;
 	                } else {
+	                    droppedCount.incrementAndGet();
 	                    throw e;
 	                }
 	            }
@@ -816,6 +1157,21 @@ public class AuditLogger extends DeviceExtension {
         return status;
     }
 
+    /**
+     * Indicates if messages for the specified device have to be spooled
+     * behind already spooled messages, which are re-sent by the retry timer.
+     * Without retry timer, the spooled messages are re-sent immediately and
+     * subsequent messages are sent directly.
+     */
+    private boolean isSpoolingFor(Device arrDev) {
+        if (getNumberOfQueuedMessages(arrDev.getDeviceName()) == 0)
+            return false;
+        if (retryInterval > 0)
+            return true;
+        sendQueuedMessages(arrDev);
+        return false;
+    }
+
     private synchronized void scheduleRetry() {
         if (retryTimer != null || retryInterval <= 0) {
             return;
@@ -836,83 +1192,47 @@ public class AuditLogger extends DeviceExtension {
     }
 
     private void spoolMessage(String deviceName, DatagramPacket msg) throws IOException {
-        if (spoolDirectory != null)
-            spoolDirectory.mkdirs();
-
-        File f = null;
         try {
-            f = File.createTempFile(spoolFileNamePrefix+DEVICE_NAME_IN_FILENAME_SEPARATOR+deviceName+DEVICE_NAME_IN_FILENAME_SEPARATOR, spoolFileNameSuffix, spoolDirectory);
-            if (spoolDirectory == null)
-                spoolDirectory = f.getParentFile();
-
-            LOG.info("Spool audit message to {}", f);
-            FileOutputStream out = new FileOutputStream(f);
-            try {
-                out.write(msg.getData(), msg.getOffset(), msg.getLength());
-            } finally {
-                SafeClose.close(out);
-            }
-            f = null;
+            AuditSpool spool = spool(deviceName);
+            LOG.info("Spool audit message for device {}", deviceName);
+            spool.append(msg.getData(), msg.getOffset(), msg.getLength());
+            spooledCount.incrementAndGet();
         } catch (IOException e) {
             throw new IOException("Failed to spool audit message for device "+deviceName, e);
-        } finally {
-            if (f != null)
-                f.delete();
         }
     }
 
+    private synchronized AuditSpool spool(String deviceName) throws IOException {
+        AuditSpool spool = spools.get(deviceName);
+        if (spool == null) {
+            if (spoolDirectory == null)
+                spoolDirectory = new File(System.getProperty("java.io.tmpdir"));
+            spool = new AuditSpool(spoolDirectory, spoolFileNamePrefix,
+                    spoolFileNameSuffix, deviceName, MAX_SPOOL_SEGMENT_SIZE);
+            spool.setSync(spoolSync);
+            spools.put(deviceName, spool);
+        }
+        return spool;
+    }
+
+    private synchronized void closeSpools() {
+        for (AuditSpool spool : spools.values())
+            spool.close();
+        spools.clear();
+        noSpoolDirectory = false;
+    }
+
+    private synchronized AuditSpool openedSpool(String deviceName) {
+        return spools.get(deviceName);
+    }
+
     public void sendQueuedMessages() {
-        File dir = spoolDirectory;
-        if (dir == null)
+        if (spoolDirectory == null)
             return;
         boolean failed = false;
-        for (final Device arrDev : this.auditRecordRepositoryDevices) {
-	        try {
-	        	FilenameFilter fnFilter = new FilenameFilter() {
-	        		String prefix = spoolFileNamePrefix+DEVICE_NAME_IN_FILENAME_SEPARATOR+arrDev.getDeviceName()+DEVICE_NAME_IN_FILENAME_SEPARATOR;
-	                @Override
-	                public boolean accept(File dir, String name) {
-	                    return name.startsWith(prefix) 
-	                    		&& name.endsWith(spoolFileNameSuffix);
-	                }
-	            };
-	            File[] queuedMessages = dir.listFiles(fnFilter);
-	            byte[] b = null;
-	            while (queuedMessages != null && queuedMessages.length > 0) {
-	                Arrays.sort(queuedMessages, FILE_COMPARATOR);
-	                for (File file : queuedMessages) {
-	                    LOG.debug("Read audit message from {}", file);
-	                    int len = (int) file.length();
-	                    if (b == null || b.length < len)
-	                        b = new byte[len];
-	                    try {
-	                        FileInputStream in = new FileInputStream(file);
-	                        try {
-	                            StreamUtils.readFully(in, b, 0, len);
-	                        } finally {
-	                            SafeClose.close(in);
-	                        }
-	                    } catch (IOException e) {
-	                        LOG.warn("Failed to read audit message from {}", file, e);
-	                        File dest = new File(file.getParent(), file.getName() + ".err");
-	                        file.renameTo(dest);
-	                        continue;
-	                    }
-                    	activeConnection(arrDev).sendMessage(new DatagramPacket(b, 0, len));
-	                    lastSentTimeInMillis = System.currentTimeMillis();
-	                    if (file.delete())
-	                        LOG.debug("Delete spool file {}", file);
-	                    else
-	                        LOG.warn("Failed to delete spool file {}", file);
-	                }
-	                queuedMessages = dir.listFiles(FILENAME_FILTER);
-	            }
-	        } catch (Exception e) {
-	            lastException = e;
-	            LOG.info("Failed to send audit message:", e);
-	            failed = true;
-	        }
-        }
+        for (Device arrDev : this.auditRecordRepositoryDevices)
+            if (!sendQueuedMessages(arrDev))
+                failed = true;
         if (failed)
         	scheduleRetry();
         synchronized (this) {
@@ -920,6 +1240,39 @@ public class AuditLogger extends DeviceExtension {
         }
     }
 
+    /**
+     * Re-sends the spooled messages for the specified device.
+     *
+     * @return {@code true} if all spooled messages were sent
+     */
+    private boolean sendQueuedMessages(Device arrDev) {
+        // serialize concurrent re-sends, which would otherwise interleave
+        // peek() and remove() of the same spool
+        synchronized (sendQueuedMessagesLock) {
+            try {
+                String deviceName = arrDev.getDeviceName();
+                AuditSpool spool = openedSpool(deviceName);
+                if (spool == null) {
+                    if (getNumberOfQueuedMessages(deviceName) == 0)
+                        return true;
+                    spool = spool(deviceName);
+                }
+                byte[] b;
+                while ((b = spool.peek()) != null) {
+                    activeConnection(arrDev).sendMessage(new DatagramPacket(b, 0, b.length));
+                    lastSentTimeInMillis = System.currentTimeMillis();
+                    sentCount.incrementAndGet();
+                    spool.remove();
+                }
+                return true;
+            } catch (Exception e) {
+                lastException = e;
+                LOG.info("Failed to send audit message:", e);
+                return false;
+            }
+        }
+    }
+
 	public Exception getLastException() {
         return lastException;
     }
@@ -935,33 +1288,77 @@ public class AuditLogger extends DeviceExtension {
     	return tot;
     }
     
-    public int getNumberOfQueuedMessages(final String deviceName) {
+    public int getNumberOfQueuedMessages(String deviceName) {
+        if (spoolDirectory == null)
+            return 0;
+        AuditSpool spool = openedSpool(deviceName);
+        if (spool != null)
+            return spool.size();
+        if (noSpoolDirectory)
+            return 0;
+        if (!spoolDirectory.isDirectory()) {
+            noSpoolDirectory = true;
+            return 0;
+        }
+        // count without opening the spool, which would create its files
         try {
-        	FilenameFilter fnFilter = new FilenameFilter() {
-        		String prefix = spoolFileNamePrefix+DEVICE_NAME_IN_FILENAME_SEPARATOR+deviceName+DEVICE_NAME_IN_FILENAME_SEPARATOR;
-                @Override
-                public boolean accept(File dir, String name) {
-                    return name.startsWith(prefix) 
-                    		&& name.endsWith(spoolFileNameSuffix);
-                }
-            };
-
-            return spoolDirectory.list(fnFilter).length;
-        } catch (NullPointerException e) {
+            return AuditSpool.count(spoolDirectory, spoolFileNamePrefix,
+                    spoolFileNameSuffix, deviceName);
+        } catch (IOException e) {
+            LOG.warn("Failed to count spooled audit messages for device {}",
+                    deviceName, e);
             return 0;
         }
     }
 
+    /**
+     * Returns the files holding spooled messages. Spooled messages are kept
+     * in append-only segment files containing several messages, so the
+     * number of files does not match the number of spooled messages.
+     *
+     * @return files holding spooled messages or {@code null}, if there is
+     *         no spool directory
+     * @deprecated use {@link #getNumberOfQueuedMessages()} to check for
+     *             spooled messages and {@link #sendQueuedMessages()} to
+     *             re-send them
+     */
+    @Deprecated
     public File[] getQueuedMessages() {
-        try {
-            return spoolDirectory.listFiles(FILENAME_FILTER);
-        } catch (NullPointerException e) {
+        if (spoolDirectory == null || !spoolDirectory.isDirectory())
             return null;
-        }
+        List<File> files = new ArrayList<File>();
+        for (Device arrDev : auditRecordRepositoryDevices)
+            files.addAll(Arrays.asList(AuditSpool.listFiles(spoolDirectory,
+                    spoolFileNamePrefix, spoolFileNameSuffix,
+                    arrDev.getDeviceName())));
+        return files.toArray(new File[files.size()]);
     }
 
+    /**
+     * Waits until the asynchronous sender has emitted all queued messages
+     * and until there are no spooled messages. Waiting for the asynchronous
+     * sender is limited by {@code timeout}; if it elapses, the method returns
+     * with messages still queued.
+     *
+     * @param timeout maximal time to wait for the asynchronous sender in ms
+     *                or {@code 0} to wait without limit
+     * @throws InterruptedException if the current thread was interrupted
+     */
     public synchronized void waitForNoQueuedMessages(long timeout)
             throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (asyncSenderActive.get() || overflowSpoolerActive.get()) {
+            long remaining = 0;
+            if (timeout > 0
+                    && (remaining = deadline - System.currentTimeMillis()) <= 0) {
+                LOG.info("Timeout waiting for {} Audit Messages queued for asynchronous sending",
+                        asyncQueueSize.get());
+                return;
+            }
+            LOG.debug("Wait for {} Audit Messages queued for asynchronous sending!",
+                    asyncQueueSize.get());
+            wait(remaining);
+        }
     	int count;
     	for (Device arrDev : this.auditRecordRepositoryDevices) {
     		while ( (count = getNumberOfQueuedMessages(arrDev.getDeviceName())) > 0) {
@@ -985,7 +1382,7 @@ public class AuditLogger extends DeviceExtension {
 
     private synchronized ActiveConnection activeConnection(Device arrDev)
             throws IncompatibleConnectionException {
-        ActiveConnection activeConnection = this.activeConnection.get(device.getDeviceName());
+        ActiveConnection activeConnection = this.activeConnection.get(arrDev.getDeviceName());
         if (activeConnection != null)
             return activeConnection;
 
@@ -1055,24 +1452,45 @@ public class AuditLogger extends DeviceExtension {
         AuditLogger.defaultLogger = defaultLogger;
     }
 
-    private class MessageBuilder extends ByteArrayOutputStream {
+    /**
+     * Builds the Syslog message in a buffer reused by the same thread, so
+     * concurrent threads may build messages simultaneously. The returned
+     * {@code DatagramPacket} refers to that buffer and is only valid until
+     * the next message is built by the same thread - for any Audit Logger.
+     * The builder does not refer to an Audit Logger, so its thread local
+     * does not keep a discarded Audit Logger reachable.
+     */
+    static final class MessageBuilder extends ByteArrayOutputStream {
+
+        MessageBuilder() {
+            super(MESSAGE_BUFFER_SIZE);
+        }
 
-        DatagramPacket createMessage(Calendar timeStamp, AuditMessage msg) {
+        @Override
+        public void reset() {
+            super.reset();
+            if (buf.length > MAX_RETAINED_MESSAGE_BUFFER_SIZE)
+                buf = new byte[MESSAGE_BUFFER_SIZE];
+        }
+
+        DatagramPacket createMessage(AuditLogger logger, Calendar timeStamp,
+                                     AuditMessage msg) {
             try {
                 reset();
-                writeHeader(severityOf(msg), timeStamp);
-                AuditMessages.toXML(msg, builder, formatXML, encoding, schemaURI);
+                writeHeader(logger, logger.severityOf(msg), timeStamp);
+                AuditMessages.toXML(msg, this, logger.formatXML,
+                        logger.encoding, logger.schemaURI);
             } catch (IOException e) {
                 assert false : e;
             }
             return new DatagramPacket(buf, 0, count);
         }
 
-        DatagramPacket createMessage(Calendar timeStamp, Severity severity,
-                                     byte[] data, int off, int len) {
+        DatagramPacket createMessage(AuditLogger logger, Calendar timeStamp,
+                                     Severity severity, byte[] data, int off, int len) {
             try {
                 reset();
-                writeHeader(severity, timeStamp);
+                writeHeader(logger, severity, timeStamp);
                 write(data, off, len);
             } catch (IOException e) {
                 assert false : e;
@@ -1080,33 +1498,15 @@ public class AuditLogger extends DeviceExtension {
             return new DatagramPacket(buf, 0, count);
         }
 
-        void writeHeader(Severity severity, Calendar timeStamp)
-                throws IOException {
+        void writeHeader(AuditLogger logger, Severity severity,
+                         Calendar timeStamp) throws IOException {
             write('<');
-            writeInt(prival(severity));
+            writeInt(logger.prival(severity));
             write('>');
             write(SYSLOG_VERSION);
             write(' ');
             write(timeStamp);
-            write(' ');
-            if (localHost != null)
-                write(localHost.getCanonicalHostName().getBytes(encoding));
-            else
-                write('-');
-            write(' ');
-            write(applicationName().getBytes(encoding));
-            write(' ');
-            write(processID.getBytes(encoding));
-            write(' ');
-            if (messageID != null)
-                write(messageID.getBytes(encoding));
-            else
-                write('-');
-            write(' ');
-            write('-');
-            write(' ');
-            if (includeBOM && encoding.equals("UTF-8"))
-                write(BOM);
+            write(logger.headerSuffix());
         }
 
         void writeInt(int i) {
@@ -1171,6 +1571,160 @@ public class AuditLogger extends DeviceExtension {
 
     }
 
+    /**
+     * List of {@code AuditSuppressCriteria}, which counts its modifications
+     * and the modifications of the indexed values of its elements to detect
+     * a stale {@link SuppressCriteriaIndex}.
+     */
+    private static final class SuppressCriteriaList
+            extends ArrayList<AuditSuppressCriteria> {
+
+        private static final long serialVersionUID = -2937431836178466251L;
+
+        private int setCount;
+        private final AtomicInteger valuesModCount = new AtomicInteger();
+
+        SuppressCriteriaList() {
+            super(0);
+        }
+
+        /**
+         * @return number of structural modifications, replaced elements and
+         *         modifications of indexed values of indexed elements
+         */
+        int modCount() {
+            return modCount + setCount + valuesModCount.get();
+        }
+
+        /**
+         * Lets the elements report modifications of their indexed values to
+         * this list.
+         */
+        void indexed() {
+            for (AuditSuppressCriteria c : this)
+                c.setIndexedValuesModCount(valuesModCount);
+        }
+
+        @Override
+        public AuditSuppressCriteria set(int index,
+                AuditSuppressCriteria element) {
+            setCount++;
+            return super.set(index, element);
+        }
+    }
+
+    /**
+     * Index of {@code AuditSuppressCriteria} by values of Event ID, Event
+     * Action Code and Event Outcome Indicator, with {@link #ANY} as key for
+     * criteria which do not specify values for one of them.
+     */
+    private static final class SuppressCriteriaIndex {
+
+        private static final String ANY = "*";
+
+        private final Map<String, Map<String, Map<String, List<AuditSuppressCriteria>>>> map =
+                new HashMap<String, Map<String, Map<String, List<AuditSuppressCriteria>>>>();
+
+        private final int modCount;
+
+        SuppressCriteriaIndex(List<AuditSuppressCriteria> list) {
+            ((SuppressCriteriaList) list).indexed();
+            modCount = modCount(list);
+            for (AuditSuppressCriteria c : list)
+                for (String eventID : keys(c.getEventIDs()))
+                    for (String actionCode : keys(c.getEventActionCodes()))
+                        for (String outcome : keys(c.getEventOutcomeIndicators()))
+                            bucket(eventID, actionCode, outcome).add(c);
+        }
+
+        boolean isStale(List<AuditSuppressCriteria> list) {
+            return modCount != modCount(list);
+        }
+
+        private static int modCount(List<AuditSuppressCriteria> list) {
+            return ((SuppressCriteriaList) list).modCount();
+        }
+
+        private static String[] keys(EventID[] eventIDs) {
+            if (eventIDs == null || eventIDs.length == 0)
+                return new String[] { ANY };
+
+            String[] keys = new String[eventIDs.length];
+            for (int i = 0; i < eventIDs.length; i++)
+                keys[i] = key(eventIDs[i]);
+            return keys;
+        }
+
+        private static String[] keys(String[] values) {
+            return values == null || values.length == 0
+                    ? new String[] { ANY }
+                    : values;
+        }
+
+        private static String key(EventID eventID) {
+            return eventID.getCode() + '^' + eventID.getCodeSystemName()
+                    + '^' + eventID.getCodeSystem();
+        }
+
+        private List<AuditSuppressCriteria> bucket(String eventID,
+                String actionCode, String outcome) {
+            Map<String, Map<String, List<AuditSuppressCriteria>>> byActionCode =
+                    map.get(eventID);
+            if (byActionCode == null)
+                map.put(eventID, byActionCode =
+                        new HashMap<String, Map<String, List<AuditSuppressCriteria>>>());
+            Map<String, List<AuditSuppressCriteria>> byOutcome =
+                    byActionCode.get(actionCode);
+            if (byOutcome == null)
+                byActionCode.put(actionCode, byOutcome =
+                        new HashMap<String, List<AuditSuppressCriteria>>());
+            List<AuditSuppressCriteria> bucket = byOutcome.get(outcome);
+            if (bucket == null)
+                byOutcome.put(outcome, bucket =
+                        new ArrayList<AuditSuppressCriteria>(1));
+            return bucket;
+        }
+
+        boolean match(AuditMessage msg) {
+            EventIdentification ei = msg.getEventIdentification();
+            EventID eventID = ei.getEventID();
+            return matchActionCode(msg, map.get(eventID != null ? key(eventID) : ANY), ei)
+                    || eventID != null && matchActionCode(msg, map.get(ANY), ei);
+        }
+
+        private static boolean matchActionCode(AuditMessage msg,
+                Map<String, Map<String, List<AuditSuppressCriteria>>> byActionCode,
+                EventIdentification ei) {
+            if (byActionCode == null)
+                return false;
+
+            String actionCode = ei.getEventActionCode();
+            return actionCode != null
+                    && matchOutcome(msg, byActionCode.get(actionCode), ei)
+                    || matchOutcome(msg, byActionCode.get(ANY), ei);
+        }
+
+        private static boolean matchOutcome(AuditMessage msg,
+                Map<String, List<AuditSuppressCriteria>> byOutcome,
+                EventIdentification ei) {
+            if (byOutcome == null)
+                return false;
+
+            String outcome = ei.getEventOutcomeIndicator();
+            return outcome != null && match(msg, byOutcome.get(outcome))
+                    || match(msg, byOutcome.get(ANY));
+        }
+
+        private static boolean match(AuditMessage msg,
+                List<AuditSuppressCriteria> bucket) {
+            if (bucket != null)
+                for (AuditSuppressCriteria c : bucket)
+                    if (c.match(msg))
+                        return true;
+            return false;
+        }
+    }
+
     private static String toString(DatagramPacket packet) {
         try {
             int len = packet.getLength();
@@ -1197,6 +1751,23 @@ public class AuditLogger extends DeviceExtension {
         abstract void sendMessage(DatagramPacket msg) throws IOException,
                 IncompatibleConnectionException, GeneralSecurityException;
 
+        /**
+         * Sends the messages and removes each sent message from the list,
+         * so on failure the list only contains messages not sent.
+         */
+        void sendMessages(List<DatagramPacket> msgs) throws IOException,
+                IncompatibleConnectionException, GeneralSecurityException {
+            int sent = 0;
+            try {
+                for (DatagramPacket msg : msgs) {
+                    sendMessage(msg);
+                    sent++;
+                }
+            } finally {
+                msgs.subList(0, sent).clear();
+            }
+        }
+
     }
 
     private class UDPConnection extends ActiveConnection {
@@ -1207,7 +1778,7 @@ public class AuditLogger extends DeviceExtension {
         }
 
         @Override
-        void sendMessage(DatagramPacket msg) throws IOException {
+        synchronized void sendMessage(DatagramPacket msg) throws IOException {
             if (ds == null)
                 ds = conn.createDatagramSocket();
 
@@ -1220,7 +1791,7 @@ public class AuditLogger extends DeviceExtension {
         }
 
         @Override
-        public void close() {
+        public synchronized void close() {
             if (ds != null) {
                 ds.close();
                 ds = null;
@@ -1242,7 +1813,7 @@ public class AuditLogger extends DeviceExtension {
                 IncompatibleConnectionException, GeneralSecurityException {
             if (sock == null) {
                 sock = conn.connect(remoteConn);
-                out = sock.getOutputStream();
+                out = new BufferedOutputStream(sock.getOutputStream());
             }
         }
 
@@ -1263,14 +1834,49 @@ public class AuditLogger extends DeviceExtension {
             startIdleTimer();
         }
 
+        /**
+         * Writes all messages before flushing the connection once. Bytes
+         * accepted by the socket may not have been received by the record
+         * repository, so on failure all messages are sent again over the new
+         * connection, and the record repository may receive some of them
+         * twice. If that also fails, the list still contains all messages.
+         */
+        @Override
+        synchronized void sendMessages(List<DatagramPacket> packets) throws IOException,
+                IncompatibleConnectionException, GeneralSecurityException {
+            stopIdleTimer();
+            connect();
+            try {
+                trySendMessages(packets);
+            } catch (IOException e) {
+                LOG.info("Failed to send audit messages to {} - reconnect",
+                        sock, e);
+                close();
+                connect();
+                trySendMessages(packets);
+            }
+            startIdleTimer();
+        }
+
         void trySendMessage(DatagramPacket packet) throws IOException {
+            writeMessage(packet);
+            out.flush();
+        }
+
+        void trySendMessages(List<DatagramPacket> packets) throws IOException {
+            for (DatagramPacket packet : packets)
+                writeMessage(packet);
+            out.flush();
+            packets.clear();
+        }
+
+        private void writeMessage(DatagramPacket packet) throws IOException {
             LOG.info("Send audit message to {}", sock);
             if (LOG.isDebugEnabled())
                 LOG.debug(AuditLogger.toString(packet));
             out.write(Integer.toString(packet.getLength()).getBytes(encoding));
             out.write(' ');
             out.write(packet.getData(), packet.getOffset(), packet.getLength());
-            out.flush();
         }
 
         private void startIdleTimer() {
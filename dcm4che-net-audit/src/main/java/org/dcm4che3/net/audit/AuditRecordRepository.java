@@ -41,12 +41,17 @@ package org.dcm4che3.net.audit;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.dcm4che3.conf.core.api.ConfigurableClass;
 import org.dcm4che3.conf.core.api.ConfigurableProperty;
 import org.dcm4che3.conf.core.api.LDAP;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.DeviceExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -58,6 +63,9 @@ public class AuditRecordRepository extends DeviceExtension {
 
     private static final long serialVersionUID = -2279487409324427161L;
 
+    private static final Logger LOG =
+            LoggerFactory.getLogger(AuditRecordRepository.class);
+
     static {
         Connection.registerTCPProtocolHandler(
                 Connection.Protocol.SYSLOG_TLS, SyslogProtocolHandler.INSTANCE);
@@ -71,8 +79,24 @@ public class AuditRecordRepository extends DeviceExtension {
     @ConfigurableProperty(name="dicomNetworkConnectionReference", collectionOfReferences = true)
     private final List<Connection> connections = new ArrayList<Connection>(1);
 
+    @ConfigurableProperty(name = "dcmAuditRecordRepositoryWorkerThreads", defaultValue = "0")
+    private int workerThreads;
+
+    @ConfigurableProperty(name = "dcmAuditRecordRepositoryQueueCapacity", defaultValue = "1000")
+    private int queueCapacity = 1000;
+
+    @ConfigurableProperty(name = "dcmAuditRecordRepositoryBatchSize", defaultValue = "1")
+    private int batchSize = 1;
+
     private transient AuditRecordHandler handler;
 
+    private final transient ConcurrentLinkedQueue<AuditRecord> queue =
+            new ConcurrentLinkedQueue<AuditRecord>();
+    private final transient AtomicInteger queueSize = new AtomicInteger();
+    private final transient AtomicInteger activeWorkers = new AtomicInteger();
+    private final transient AtomicLong receivedCount = new AtomicLong();
+    private final transient AtomicLong droppedCount = new AtomicLong();
+
     public boolean isInstalled() {
         return device != null && device.isInstalled() 
                 && (arrInstalled == null || arrInstalled.booleanValue());
@@ -112,6 +136,76 @@ public class AuditRecordRepository extends DeviceExtension {
         for (Connection connection : connections) addConnection(connection);
     }
 
+    /**
+     * Get maximal number of threads processing received messages. If 0,
+     * messages are processed by the thread which received them.
+     *
+     * @return maximal number of threads processing received messages
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 0)
+            throw new IllegalArgumentException("workerThreads: " + workerThreads);
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Get maximal number of received messages waiting for processing by a
+     * worker thread. Further received messages are dropped.
+     *
+     * @return maximal number of received messages waiting for processing
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("queueCapacity: " + queueCapacity);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Get maximal number of received messages passed at once to an
+     * {@link AuditRecordBatchHandler} by a worker thread.
+     *
+     * @return maximal number of messages passed at once to the handler
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return number of received audit messages
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * @return number of received audit messages dropped because the queue
+     * was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return number of received audit messages waiting for processing
+     */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
     public AuditRecordHandler getAuditRecordHandler() {
         return handler;
     }
@@ -127,14 +221,105 @@ public class AuditRecordRepository extends DeviceExtension {
 
     private void reconfigure(AuditRecordRepository from) {
         setArrInstalled(from.arrInstalled);
+        setWorkerThreads(from.workerThreads);
+        setQueueCapacity(from.queueCapacity);
+        setBatchSize(from.batchSize);
         device.reconfigureConnections(connections, from.connections);
     }
 
+    /**
+     * Process received audit message. If {@code WorkerThreads} are
+     * configured, the message is copied and queued for processing by a
+     * worker thread, so {@code data} may be reused by the caller.
+     */
     public void onMessage(byte[] data, int xmlOffset, int xmlLength,
             Connection conn, InetAddress from) {
         if (handler == null)
             throw new IllegalStateException("No AuditRecordHandler initialized");
 
-        handler.onMessage(data, xmlOffset, xmlLength, conn, from);
+        receivedCount.incrementAndGet();
+        if (workerThreads == 0) {
+            handler.onMessage(data, xmlOffset, xmlLength, conn, from);
+            return;
+        }
+
+        if (queueSize.incrementAndGet() > queueCapacity) {
+            queueSize.decrementAndGet();
+            droppedCount.incrementAndGet();
+            LOG.warn("Drop audit message received from {} - queue full", from);
+            return;
+        }
+        byte[] copy = new byte[xmlLength];
+        System.arraycopy(data, xmlOffset, copy, 0, xmlLength);
+        queue.offer(new AuditRecord(copy, 0, xmlLength, conn, from));
+        startWorker();
+    }
+
+    private void startWorker() {
+        int n;
+        do {
+            n = activeWorkers.get();
+            if (n >= workerThreads)
+                return;
+        } while (!activeWorkers.compareAndSet(n, n + 1));
+
+        try {
+            device.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    processQueuedMessages();
+                }
+            });
+        } catch (RuntimeException e) {
+            activeWorkers.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void processQueuedMessages() {
+        try {
+            List<AuditRecord> batch = new ArrayList<AuditRecord>(batchSize);
+            AuditRecord record;
+            do {
+                record = queue.poll();
+                if (record != null) {
+                    queueSize.decrementAndGet();
+                    batch.add(record);
+                    if (batch.size() < batchSize)
+                        continue;
+                }
+                if (!batch.isEmpty()) {
+                    process(batch);
+                    batch.clear();
+                }
+            } while (record != null);
+        } finally {
+            activeWorkers.decrementAndGet();
+        }
+        if (!queue.isEmpty())
+            startWorker();
+    }
+
+    private void process(List<AuditRecord> batch) {
+        AuditRecordHandler handler = this.handler;
+        if (batch.size() > 1 && handler instanceof AuditRecordBatchHandler) {
+            try {
+                ((AuditRecordBatchHandler) handler).onMessages(batch);
+            } catch (Throwable e) {
+                LOG.warn("Failed to process {} audit messages:", batch.size(), e);
+            }
+            return;
+        }
+        for (AuditRecord record : batch) {
+            try {
+                handler.onMessage(record.getData(), record.getXmlOffset(),
+                        record.getXmlLength(), record.getConnection(),
+                        record.getFrom());
+            } catch (Throwable e) {
+                LOG.warn("Failed to process audit message received from {}:",
+                        record.getFrom(), e);
+            }
+        }
     }
 }
@@ -0,0 +1,490 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.audit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.dcm4che3.util.ByteUtils;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only spool of audit messages for one Audit Record Repository.
+ * <p>
+ * Messages are appended as length-prefixed records with CRC-32 checksum to
+ * segment files named {@code <prefix><deviceName>-._seg<seqNo><suffix>}, which
+ * are deleted after all their messages were removed from the spool. The
+ * position of the next message to re-send is persisted in the cursor file
+ * {@code <prefix><deviceName>-._pos}. The number of spooled messages is
+ * only determined once by scanning the segments on opening the spool.
+ * <p>
+ * The cursor file is never forced to the storage device, so messages may be
+ * re-sent twice after a system crash. Appended messages survive a system
+ * crash only if they are forced to the storage device, see {@link #setSync}.
+ *
+ * @author agent <agent@local>
+ */
+final class AuditSpool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditSpool.class);
+
+    static final String SEPARATOR = "-._";
+    private static final String SEGMENT = "seg";
+    private static final String CURSOR = "pos";
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private final File dir;
+    private final String namePrefix;
+    private final String suffix;
+    private final long maxSegmentSize;
+    private AuditLogger.SpoolSync sync = AuditLogger.SpoolSync.NONE;
+    private final TreeSet<Long> segments = new TreeSet<Long>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[16];
+    private byte[] buf = {};
+    private RandomAccessFile cursor;
+    private FileOutputStream out;
+    private RandomAccessFile in;
+    private long inSeq = -1;
+    private long readSeq;
+    private long readPos;
+    private long peekedPos = -1;
+    private long writeSeq;
+    private long writePos;
+    private int count;
+
+    AuditSpool(File dir, String prefix, String suffix, String deviceName,
+            long maxSegmentSize) throws IOException {
+        this(dir, namePrefix(prefix, deviceName), suffix, maxSegmentSize);
+        dir.mkdirs();
+        List<File> legacyFiles = listFiles();
+        openCursor();
+        scanSegments();
+        importLegacyFiles(legacyFiles);
+    }
+
+    private AuditSpool(File dir, String namePrefix, String suffix,
+            long maxSegmentSize) {
+        this.dir = dir;
+        this.namePrefix = namePrefix;
+        this.suffix = suffix;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    private static String namePrefix(String prefix, String deviceName) {
+        return prefix + SEPARATOR + deviceName + SEPARATOR;
+    }
+
+    /**
+     * Returns the segment files and the not yet imported spool files of the
+     * previous one file per message format of the spool for the specified
+     * device, without opening the spool.
+     */
+    static File[] listFiles(File dir, String prefix, String suffix,
+            String deviceName) {
+        AuditSpool spool = new AuditSpool(dir, namePrefix(prefix, deviceName), suffix, 0L);
+        List<File> files = spool.listFiles();
+        for (long seq : spool.segments)
+            files.add(spool.segmentFile(seq));
+        return files.toArray(new File[files.size()]);
+    }
+
+    /**
+     * Counts the messages spooled for the specified device without opening
+     * the spool, so no files are created and no file handles are kept open.
+     */
+    static int count(File dir, String prefix, String suffix, String deviceName)
+            throws IOException {
+        AuditSpool spool = new AuditSpool(dir, namePrefix(prefix, deviceName), suffix, 0L);
+        int count = spool.listFiles().size();
+        if (!spool.segments.isEmpty()) {
+            spool.readCursor();
+            count += spool.countRecords();
+        }
+        return count;
+    }
+
+    /**
+     * Adds the sequence numbers of the segment files to {@link #segments}.
+     *
+     * @return spool files of the previous one file per message format
+     */
+    private List<File> listFiles() {
+        List<File> legacyFiles = new ArrayList<File>();
+        String[] names = dir.list();
+        if (names != null)
+            for (String name : names) {
+                if (!name.startsWith(namePrefix) || !name.endsWith(suffix))
+                    continue;
+                Long seq = parseSegmentNo(name);
+                if (seq != null)
+                    segments.add(seq);
+                else
+                    legacyFiles.add(new File(dir, name));
+            }
+        return legacyFiles;
+    }
+
+    private Long parseSegmentNo(String name) {
+        String s = name.substring(namePrefix.length(),
+                name.length() - suffix.length());
+        if (!s.startsWith(SEGMENT) || s.length() != SEGMENT.length() + 16)
+            return null;
+        try {
+            return Long.parseLong(s.substring(SEGMENT.length()), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private File segmentFile(long seq) {
+        String hex = Long.toHexString(seq);
+        StringBuilder sb = new StringBuilder(namePrefix).append(SEGMENT);
+        for (int i = hex.length(); i < 16; i++)
+            sb.append('0');
+        return new File(dir, sb.append(hex).append(suffix).toString());
+    }
+
+    private void openCursor() throws IOException {
+        cursor = new RandomAccessFile(new File(dir, namePrefix + CURSOR), "rw");
+        if (cursor.length() >= 16) {
+            cursor.readFully(header, 0, 16);
+            readSeq = ByteUtils.bytesToLongBE(header, 0);
+            readPos = ByteUtils.bytesToLongBE(header, 8);
+        } else if (!segments.isEmpty()) {
+            readSeq = segments.first();
+            readPos = 0;
+        }
+        while (!segments.isEmpty() && segments.first() < readSeq)
+            deleteSegment(segments.pollFirst());
+        if (segments.isEmpty() || segments.first() > readSeq) {
+            readSeq = segments.isEmpty() ? readSeq : segments.first();
+            readPos = 0;
+        }
+        writeSeq = segments.isEmpty() ? readSeq : segments.last();
+    }
+
+    private void readCursor() throws IOException {
+        File file = new File(dir, namePrefix + CURSOR);
+        if (file.length() >= 16) {
+            FileInputStream fin = new FileInputStream(file);
+            try {
+                StreamUtils.readFully(fin, header, 0, 16);
+            } finally {
+                SafeClose.close(fin);
+            }
+            readSeq = ByteUtils.bytesToLongBE(header, 0);
+            readPos = ByteUtils.bytesToLongBE(header, 8);
+        } else {
+            readSeq = segments.first();
+            readPos = 0;
+        }
+    }
+
+    private int countRecords() throws IOException {
+        int count = 0;
+        for (long seq : segments.tailSet(readSeq)) {
+            RandomAccessFile raf = new RandomAccessFile(segmentFile(seq), "r");
+            try {
+                long pos = seq == readSeq ? readPos : 0L;
+                while ((pos = readRecord(raf, pos)) >= 0)
+                    count++;
+            } finally {
+                SafeClose.close(raf);
+            }
+        }
+        return count;
+    }
+
+    private void scanSegments() throws IOException {
+        for (long seq : segments) {
+            File file = segmentFile(seq);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                long pos = seq == readSeq ? readPos : 0L;
+                long len = raf.length();
+                while (pos < len) {
+                    long next = readRecord(raf, pos);
+                    if (next < 0)
+                        break;
+                    pos = next;
+                    count++;
+                }
+                if (pos < len) {
+                    if (seq == writeSeq) {
+                        LOG.warn("Truncate incomplete audit message record at {} from {}",
+                                pos, file);
+                        raf.setLength(pos);
+                    } else {
+                        LOG.warn("Skip corrupted audit message records at {} from {}",
+                                pos, file);
+                    }
+                }
+                if (seq == writeSeq)
+                    writePos = pos;
+            } finally {
+                SafeClose.close(raf);
+            }
+        }
+    }
+
+    private void importLegacyFiles(List<File> files) throws IOException {
+        if (files.isEmpty())
+            return;
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long diff = o1.lastModified() - o2.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            int len = (int) file.length();
+            byte[] b = new byte[len];
+            FileInputStream fin = new FileInputStream(file);
+            try {
+                StreamUtils.readFully(fin, b, 0, len);
+            } finally {
+                SafeClose.close(fin);
+            }
+            append(b, 0, len);
+            if (!file.delete())
+                LOG.warn("Failed to delete spool file {}", file);
+        }
+        LOG.info("Imported {} spooled audit messages into {}", files.size(),
+                segmentFile(writeSeq));
+    }
+
+    /**
+     * Reads record at the specified position into {@link #buf}.
+     *
+     * @return position of the next record or {@code -1}, if there is no
+     *         complete and valid record at the specified position
+     */
+    private long readRecord(RandomAccessFile raf, long pos)
+            throws IOException {
+        long len = raf.length();
+        if (pos + RECORD_HEADER_LENGTH > len)
+            return -1;
+
+        raf.seek(pos);
+        raf.readFully(header, 0, RECORD_HEADER_LENGTH);
+        int msgLen = ByteUtils.bytesToIntBE(header, 0);
+        if (msgLen < 0 || pos + RECORD_HEADER_LENGTH + msgLen > len)
+            return -1;
+
+        if (buf.length < msgLen)
+            buf = new byte[msgLen];
+        raf.readFully(buf, 0, msgLen);
+        crc.reset();
+        crc.update(buf, 0, msgLen);
+        if ((int) crc.getValue() != ByteUtils.bytesToIntBE(header, 4))
+            return -1;
+
+        return pos + RECORD_HEADER_LENGTH + msgLen;
+    }
+
+    /**
+     * Sets if appended messages are forced to the storage device before
+     * {@link #append} returns.
+     *
+     * @param sync {@link AuditLogger.SpoolSync#NONE} to leave writing to the
+     *             operating system, {@link AuditLogger.SpoolSync#DATA} to force
+     *             the message data or {@link AuditLogger.SpoolSync#ALL} to also
+     *             force the file metadata
+     */
+    synchronized void setSync(AuditLogger.SpoolSync sync) {
+        if (sync == null)
+            throw new NullPointerException("sync");
+        this.sync = sync;
+    }
+
+    /**
+     * @return number of spooled messages
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized void append(byte[] b, int off, int len) throws IOException {
+        if (out == null || writePos >= maxSegmentSize) {
+            if (out != null) {
+                SafeClose.close(out);
+                out = null;
+                writeSeq++;
+                writePos = 0;
+            }
+            File file = segmentFile(writeSeq);
+            out = new FileOutputStream(file, true);
+            segments.add(writeSeq);
+            writePos = file.length();
+        }
+        int recLen = RECORD_HEADER_LENGTH + len;
+        byte[] rec = new byte[recLen];
+        crc.reset();
+        crc.update(b, off, len);
+        ByteUtils.intToBytesBE(len, rec, 0);
+        ByteUtils.intToBytesBE((int) crc.getValue(), rec, 4);
+        System.arraycopy(b, off, rec, RECORD_HEADER_LENGTH, len);
+        out.write(rec);
+        switch (sync) {
+        case DATA:
+            out.getChannel().force(false);
+            break;
+        case ALL:
+            out.getFD().sync();
+            break;
+        default:
+            break;
+        }
+        writePos += recLen;
+        count++;
+    }
+
+    /**
+     * Returns the next spooled message without removing it from the spool.
+     *
+     * @return the next spooled message or {@code null} if the spool is empty
+     */
+    synchronized byte[] peek() throws IOException {
+        while (count > 0) {
+            if (inSeq != readSeq) {
+                SafeClose.close(in);
+                in = new RandomAccessFile(segmentFile(readSeq), "r");
+                inSeq = readSeq;
+            }
+            long next = readRecord(in, readPos);
+            if (next >= 0) {
+                peekedPos = next;
+                return Arrays.copyOf(buf, (int) (next - readPos - RECORD_HEADER_LENGTH));
+            }
+            Long nextSeq = segments.higher(readSeq);
+            if (nextSeq == null) {
+                LOG.warn("Missing {} spooled audit messages in {}", count,
+                        segmentFile(readSeq));
+                count = 0;
+                break;
+            }
+            if (readPos < in.length())
+                LOG.warn("Skip corrupted audit message records at {} from {}",
+                        readPos, segmentFile(readSeq));
+            SafeClose.close(in);
+            in = null;
+            inSeq = -1;
+            segments.remove(readSeq);
+            deleteSegment(readSeq);
+            readSeq = nextSeq;
+            readPos = 0;
+            writeCursor();
+        }
+        return null;
+    }
+
+    /**
+     * Removes the message returned by the previous {@link #peek()} from the
+     * spool.
+     */
+    synchronized void remove() throws IOException {
+        if (peekedPos < 0)
+            throw new IllegalStateException("No message peeked");
+
+        readPos = peekedPos;
+        peekedPos = -1;
+        if (--count == 0)
+            reset();
+        writeCursor();
+    }
+
+    /**
+     * Deletes all segments after the last spooled message was removed.
+     */
+    private void reset() {
+        SafeClose.close(in);
+        SafeClose.close(out);
+        in = null;
+        out = null;
+        inSeq = -1;
+        for (long seq : segments)
+            deleteSegment(seq);
+        segments.clear();
+        readSeq = ++writeSeq;
+        readPos = 0;
+        writePos = 0;
+    }
+
+    private void writeCursor() throws IOException {
+        ByteUtils.longToBytesBE(readSeq, header, 0);
+        ByteUtils.longToBytesBE(readPos, header, 8);
+        cursor.seek(0);
+        cursor.write(header, 0, 16);
+    }
+
+    private void deleteSegment(long seq) {
+        File file = segmentFile(seq);
+        if (file.delete())
+            LOG.debug("Delete spool file {}", file);
+        else
+            LOG.warn("Failed to delete spool file {}", file);
+    }
+
+    @Override
+    public synchronized void close() {
+        SafeClose.close(in);
+        SafeClose.close(out);
+        SafeClose.close(cursor);
+        in = null;
+        out = null;
+        inSeq = -1;
+    }
+}
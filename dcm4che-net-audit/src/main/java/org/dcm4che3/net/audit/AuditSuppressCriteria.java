@@ -39,6 +39,7 @@
 package org.dcm4che3.net.audit;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dcm4che3.audit.ActiveParticipant;
 import org.dcm4che3.audit.AuditMessage;
@@ -102,6 +103,8 @@ public class AuditSuppressCriteria {
     @ConfigurableProperty(name="dcmAuditUserIsRequestor")
     private Boolean userIsRequestor;
 
+    private volatile AtomicInteger indexedValuesModCount;
+
     public AuditSuppressCriteria() {
     }
 
@@ -134,6 +137,7 @@ public class AuditSuppressCriteria {
      */
     public void setEventIDs(EventID... eventIDs) {
         this.eventIDs = eventIDs;
+        indexedValuesModified();
     }
 
     public String[] getEventIDsAsStringArray() {
@@ -193,6 +197,7 @@ public class AuditSuppressCriteria {
      */
     public void setEventActionCodes(String... eventActionCodes) {
         this.eventActionCodes = eventActionCodes;
+        indexedValuesModified();
     }
 
     public String[] getEventOutcomeIndicators() {
@@ -210,6 +215,23 @@ public class AuditSuppressCriteria {
      */
     public void setEventOutcomeIndicators(String... eventOutcomeIndicators) {
         this.eventOutcomeIndicators = eventOutcomeIndicators;
+        indexedValuesModified();
+    }
+
+    /**
+     * Sets the counter of the list of criteria of an {@link AuditLogger},
+     * which is incremented on modification of Event IDs, Event Action Codes
+     * and Event Outcome Indicators of this {@code AuditSuppressCriteria}, so
+     * the {@code AuditLogger} detects that its index of criteria is stale.
+     */
+    void setIndexedValuesModCount(AtomicInteger indexedValuesModCount) {
+        this.indexedValuesModCount = indexedValuesModCount;
+    }
+
+    private void indexedValuesModified() {
+        AtomicInteger modCount = indexedValuesModCount;
+        if (modCount != null)
+            modCount.incrementAndGet();
     }
 
     public String[] getUserIDs() {
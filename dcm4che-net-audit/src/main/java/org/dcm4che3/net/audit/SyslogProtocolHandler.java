@@ -68,62 +68,89 @@ enum SyslogProtocolHandler implements TCPProtocolHandler, UDPProtocolHandler {
 
     @Override
     public void onAccept(Connection conn, Socket s) throws IOException {
-        InputStream in = s.getInputStream();
-        byte[] data = new byte[INIT_MSG_LEN];
+        MessageReader reader = new MessageReader(s.getInputStream(), s);
         int length;
         s.setSoTimeout(conn.getIdleTimeout());
-        while ((length = readMessageLength(in, s)) > 0) {
+        while ((length = reader.readMessageLength()) > 0) {
             if (length > MAX_MSG_LEN) {
                 LOG.warn("Message length: {} received from {} exceeds limit {}",
                         length, s, MAX_MSG_LEN);
                 break;
             }
-            if (length > data.length)
-                data = new byte[length];
-
-            if (readMessage(in, data, length) < length) {
+            if (!reader.fill(length)) {
                 LOG.warn("Connection closed by remote host {} during receive of message",
                          s);
                 break;
             }
             LOG.info("Received Syslog message of {} bytes from {}",
                     length, s);
-            onMessage(data, 0, length, conn, s.getInetAddress());
+            onMessage(reader.buf, reader.pos, length, conn, s.getInetAddress());
+            reader.pos += length;
         }
         conn.close(s);
     }
 
-    private int readMessageLength(InputStream in, Socket s) throws IOException {
-        int ch;
-        try {
-            ch = in.read();
-        } catch (SocketTimeoutException e) {
-            LOG.info("Timeout expired for connection to {}", s);
-            return -1;
+    /**
+     * Frames RFC 5425 messages from bulk reads of the socket input stream,
+     * so several messages received in one TCP segment are framed without
+     * further reads.
+     */
+    private static final class MessageReader {
+        final InputStream in;
+        final Socket s;
+        byte[] buf = new byte[INIT_MSG_LEN];
+        int pos;
+        int limit;
+
+        MessageReader(InputStream in, Socket s) {
+            this.in = in;
+            this.s = s;
         }
-        if (ch < 0)
-            return -1;
-
-        int d, len = 0;
-        do {
-            d = ch - '0';
-            if (d < 0 || d > 9) {
-                LOG.warn("Illegal character code: {} in message length received from {}",
-                        ch, s);
+
+        int readMessageLength() throws IOException {
+            try {
+                if (!fill(1))
+                    return -1;
+            } catch (SocketTimeoutException e) {
+                LOG.info("Timeout expired for connection to {}", s);
                 return -1;
             }
-            len = (len << 3) + (len << 1) + d; // 10 * len + d
-            ch = in.read();
-        } while (ch > 0 && ch != ' ');
-        return len;
-   }
-
-    private int readMessage(InputStream in, byte[] data, int len) throws IOException {
-        int count, n = 0;
-        while (n < len && (count = in.read(data, n, len - n)) > 0) {
-            n += count;
+            int ch, len = 0;
+            while ((ch = buf[pos++]) != ' ') {
+                int d = ch - '0';
+                if (d < 0 || d > 9) {
+                    LOG.warn("Illegal character code: {} in message length received from {}",
+                            ch & 0xff, s);
+                    return -1;
+                }
+                len = (len << 3) + (len << 1) + d; // 10 * len + d
+                if (len > MAX_MSG_LEN)
+                    return len;
+                if (!fill(1))
+                    return -1;
+            }
+            return len;
+        }
+
+        boolean fill(int len) throws IOException {
+            if (limit - pos >= len)
+                return true;
+
+            if (buf.length - pos < len) {
+                byte[] dest = buf.length < len ? new byte[len] : buf;
+                System.arraycopy(buf, pos, dest, 0, limit - pos);
+                buf = dest;
+                limit -= pos;
+                pos = 0;
+            }
+            int count;
+            while (limit - pos < len) {
+                if ((count = in.read(buf, limit, buf.length - limit)) <= 0)
+                    return false;
+                limit += count;
+            }
+            return true;
         }
-        return n;
     }
 
     @Override
@@ -139,40 +166,41 @@ enum SyslogProtocolHandler implements TCPProtocolHandler, UDPProtocolHandler {
         AuditRecordRepository arr = conn.getDevice()
                 .getDeviceExtension(AuditRecordRepository.class);
         if (LOG.isDebugEnabled()) {
-            LOG.debug(prompt(data, MSG_PROMPT_LEN));
+            LOG.debug(prompt(data, offset, length, MSG_PROMPT_LEN));
         }
-        int xmlOffset = indexOfXML(data, offset, Math.min(MAX_MSG_PREFIX, length));
+        int xmlOffset = indexOfXML(data, offset, offset + length,
+                offset + Math.min(MAX_MSG_PREFIX, length));
         if (xmlOffset != -1) {
             int xmlLength = length - xmlOffset + offset;
             arr.onMessage(data, xmlOffset, xmlLength, conn, from);
         } else {
             LOG.warn("Ignore unexpected message from {}: {}", from,
-                    prompt(data, MAX_MSG_PREFIX));
+                    prompt(data, offset, length, MAX_MSG_PREFIX));
         }
     }
 
-    private static int indexOfXML(byte[] buf, int offset, int maxIndex) {
-        for(int index = offset, xmlDeclIndex = -1; index <= maxIndex; index++) {
+    private static int indexOfXML(byte[] buf, int offset, int end, int maxIndex) {
+        for(int index = offset, xmlDeclIndex = -1; index < maxIndex; index++) {
             if (buf[index] != '<')
                 continue;
-            if (isAuditMessage(buf, index) || isIHEYr4(buf, index))
+            if (isAuditMessage(buf, index, end) || isIHEYr4(buf, index, end))
                 return xmlDeclIndex == -1 ? index : xmlDeclIndex;
-            else if (xmlDeclIndex == -1 && isXMLDecl(buf, index))
+            else if (xmlDeclIndex == -1 && isXMLDecl(buf, index, end))
                 xmlDeclIndex = index;
         }
         return -1;
     }
 
-    private static boolean isXMLDecl(byte[] buf, int index) {
-        return index + 4 < buf.length
+    private static boolean isXMLDecl(byte[] buf, int index, int end) {
+        return index + 4 < end
             && buf[index+1] == '?'
             && buf[index+2] == 'x'
             && buf[index+3] == 'm'
             && buf[index+4] == 'l';
     }
 
-    private static boolean isAuditMessage(byte[] buf, int index) {
-        return index + 12 < buf.length
+    private static boolean isAuditMessage(byte[] buf, int index, int end) {
+        return index + 12 < end
             && buf[index+1] == 'A'
             && buf[index+2] == 'u'
             && buf[index+3] == 'd'
@@ -187,8 +215,8 @@ enum SyslogProtocolHandler implements TCPProtocolHandler, UDPProtocolHandler {
             && buf[index+12] == 'e';
     }
 
-    private static boolean isIHEYr4(byte[] buf, int index) {
-        return index + 6 < buf.length
+    private static boolean isIHEYr4(byte[] buf, int index, int end) {
+        return index + 6 < end
             && buf[index+1] == 'I'
             && buf[index+2] == 'H'
             && buf[index+3] == 'E'
@@ -197,11 +225,12 @@ enum SyslogProtocolHandler implements TCPProtocolHandler, UDPProtocolHandler {
             && buf[index+6] == '4';
     }
 
-    private static String prompt(byte[] data, int maxLen) {
+    private static String prompt(byte[] data, int offset, int length,
+            int maxLen) {
         try {
-            return data.length > maxLen
-                    ? (new String(data, 0, maxLen, "UTF-8") + "...") 
-                    : new String(data, "UTF-8");
+            return length > maxLen
+                    ? (new String(data, offset, maxLen, "UTF-8") + "...")
+                    : new String(data, offset, length, "UTF-8");
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
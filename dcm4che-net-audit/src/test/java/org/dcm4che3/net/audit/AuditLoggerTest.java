@@ -0,0 +1,440 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.audit;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.dcm4che3.audit.AuditMessage;
+import org.dcm4che3.audit.AuditMessages;
+import org.dcm4che3.audit.AuditMessages.EventID;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.audit.AuditLogger.SendStatus;
+import org.dcm4che3.net.audit.AuditLogger.Severity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class AuditLoggerTest {
+
+    private static final byte[] MSG = "<AuditMessage/>".getBytes();
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private DatagramSocket arrSocket;
+    private QueuedExecutor executor;
+    private AuditLogger logger;
+
+    @Before
+    public void setUp() throws Exception {
+        arrSocket = new DatagramSocket(0, InetAddress.getByName("localhost"));
+        arrSocket.setSoTimeout(5000);
+        executor = new QueuedExecutor();
+        logger = createAuditLogger(arrSocket.getLocalPort(), executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        logger.closeActiveConnection();
+        arrSocket.close();
+    }
+
+    @Test
+    public void testAsyncQueueAndDrain() throws Exception {
+        logger.setAsync(true);
+        for (int i = 0; i < 3; i++)
+            assertEquals(SendStatus.QUEUED, write());
+        assertEquals(3, logger.getAsyncQueueSize());
+        assertEquals(3, logger.getQueuedCount());
+        assertEquals(0, logger.getSentCount());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(0, logger.getAsyncQueueSize());
+        assertEquals(3, logger.getSentCount());
+        assertEquals(0, logger.getDroppedCount());
+        for (int i = 0; i < 3; i++)
+            assertTrue(receive().endsWith("<AuditMessage/>"));
+    }
+
+    @Test
+    public void testAsyncQueueOverflow() throws Exception {
+        logger.setAsync(true);
+        logger.setQueueCapacity(2);
+        assertEquals(SendStatus.QUEUED, write());
+        assertEquals(SendStatus.QUEUED, write());
+        assertEquals(SendStatus.DROPPED, write());
+        assertEquals(2, logger.getAsyncQueueSize());
+        assertEquals(2, logger.getQueuedCount());
+        assertEquals(1, logger.getDroppedCount());
+
+        executor.runAll();
+        assertEquals(0, logger.getAsyncQueueSize());
+        assertEquals(2, logger.getSentCount());
+        receive();
+        receive();
+    }
+
+    @Test
+    public void testAsyncQueueOverflowSpooled() throws Exception {
+        File spoolDir = tmpFolder.newFolder();
+        ScheduledExecutorService scheduledExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        try {
+            logger.getDevice().setScheduledExecutor(scheduledExecutor);
+            logger.setSpoolDirectory(spoolDir);
+            logger.setRetryInterval(3600);
+            logger.setAsync(true);
+            logger.setQueueCapacity(2);
+            for (int i = 0; i < 3; i++)
+                assertEquals(SendStatus.QUEUED, write());
+            // spooling is left to a separate task
+            assertEquals(2, executor.tasks.size());
+            assertEquals(0, logger.getSpooledCount());
+
+            executor.runAll();
+            assertEquals(2, logger.getSentCount());
+            assertEquals(1, logger.getSpooledCount());
+            assertEquals(0, logger.getDroppedCount());
+            assertEquals(1, logger.getNumberOfQueuedMessages());
+            receive();
+            receive();
+        } finally {
+            scheduledExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOverflowSpooledByCaller() throws Exception {
+        File spoolDir = tmpFolder.newFolder();
+        ScheduledExecutorService scheduledExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        try {
+            logger.getDevice().setScheduledExecutor(scheduledExecutor);
+            logger.setSpoolDirectory(spoolDir);
+            logger.setRetryInterval(3600);
+            logger.setAsync(true);
+            logger.setQueueCapacity(1);
+            for (int i = 0; i < 3; i++)
+                assertEquals(SendStatus.QUEUED, write());
+            // the third message did fit neither into the queue nor into
+            // the queue of the spooling task
+            assertEquals(1, logger.getSpooledCount());
+
+            // the queued message is spooled behind the spooled one
+            executor.runAll();
+            assertEquals(0, logger.getSentCount());
+            assertEquals(3, logger.getSpooledCount());
+            assertEquals(3, logger.getNumberOfQueuedMessages());
+        } finally {
+            scheduledExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSpoolDrainedWithoutRetry() throws Exception {
+        File spoolDir = tmpFolder.newFolder();
+        ScheduledExecutorService scheduledExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        try {
+            logger.getDevice().setScheduledExecutor(scheduledExecutor);
+            logger.setSpoolDirectory(spoolDir);
+            logger.setRetryInterval(3600);
+            logger.setAsync(true);
+            logger.setQueueCapacity(2);
+            for (int i = 0; i < 3; i++)
+                write();
+            executor.runAll();
+            assertEquals(1, logger.getNumberOfQueuedMessages());
+            receive();
+            receive();
+
+            // without retry timer, the spool is drained by the next batch
+            logger.setRetryInterval(0);
+            write();
+            executor.runAll();
+            assertEquals(0, logger.getNumberOfQueuedMessages());
+            assertEquals(4, logger.getSentCount());
+            assertEquals(0, logger.getDroppedCount());
+            receive();
+            receive();
+        } finally {
+            scheduledExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncQueueRestartsSender() throws Exception {
+        logger.setAsync(true);
+        write();
+        executor.runAll();
+        write();
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(2, logger.getSentCount());
+    }
+
+    @Test
+    public void testWaitForNoQueuedMessagesTimeout() throws Exception {
+        logger.setAsync(true);
+        write();
+        long start = System.currentTimeMillis();
+        logger.waitForNoQueuedMessages(100);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed: " + elapsed, elapsed >= 100 && elapsed < 5000);
+        assertEquals(1, logger.getAsyncQueueSize());
+
+        executor.runAll();
+        logger.waitForNoQueuedMessages(100);
+        assertEquals(0, logger.getAsyncQueueSize());
+    }
+
+    @Test
+    public void testMessageBuilderReusedByLoggers() throws Exception {
+        AuditLogger other = createAuditLogger(arrSocket.getLocalPort(), executor);
+        try {
+            logger.setApplicationName("app1");
+            other.setApplicationName("app2");
+            AuditLogger.MessageBuilder builder = AuditLogger.builder();
+            assertEquals(SendStatus.SENT, write());
+            assertEquals(SendStatus.SENT, other.write(Calendar.getInstance(),
+                    Severity.notice, MSG, 0, MSG.length));
+            assertEquals(SendStatus.SENT, write());
+            assertSame(builder, AuditLogger.builder());
+            assertTrue(receive().contains(" app1 "));
+            assertTrue(receive().contains(" app2 "));
+            assertTrue(receive().contains(" app1 "));
+        } finally {
+            other.closeActiveConnection();
+        }
+    }
+
+    @Test
+    public void testSuppressMatchesLinearMatch() {
+        Random rnd = new Random(12345);
+        int suppressed = 0;
+        for (int i = 0; i < 20; i++) {
+            ArrayList<AuditSuppressCriteria> list =
+                    new ArrayList<AuditSuppressCriteria>();
+            int n = rnd.nextInt(6);
+            for (int j = 0; j < n; j++)
+                list.add(randomCriteria(rnd, "cn" + j));
+            logger.setAuditSuppressCriteriaList(list);
+            for (int k = 0; k < 200; k++) {
+                AuditMessage msg = randomMessage(rnd);
+                boolean expected = matchLinear(list, msg);
+                assertEquals(expected, logger.isAuditMessageSuppressed(msg));
+                if (expected)
+                    suppressed++;
+            }
+        }
+        assertTrue("suppressed: " + suppressed,
+                suppressed > 0 && suppressed < 4000);
+    }
+
+    @Test
+    public void testSuppressIndexInvalidation() {
+        AuditMessage msg = createMessage(EventID.Query, "E", "0", "user", true);
+        assertFalse(logger.isAuditMessageSuppressed(msg));
+        AuditSuppressCriteria criteria = new AuditSuppressCriteria("query");
+        criteria.setEventIDs(EventID.Query);
+        logger.addAuditSuppressCriteria(criteria);
+        assertTrue(logger.isAuditMessageSuppressed(msg));
+        logger.clearAllAuditSuppressCriteria();
+        assertFalse(logger.isAuditMessageSuppressed(msg));
+        logger.setSuppressAuditMessageFilters(
+                Collections.singletonList(criteria));
+        assertTrue(logger.isAuditMessageSuppressed(msg));
+        logger.setAuditSuppressCriteriaList(
+                logger.getAuditSuppressCriteriaList());
+        assertTrue(logger.isAuditMessageSuppressed(msg));
+    }
+
+    @Test
+    public void testSuppressIndexReflectsLiveList() {
+        AuditMessage msg = createMessage(EventID.Query, "E", "0", "user", true);
+        AuditSuppressCriteria query = new AuditSuppressCriteria("query");
+        query.setEventIDs(EventID.Query);
+        AuditSuppressCriteria export = new AuditSuppressCriteria("export");
+        export.setEventIDs(EventID.Export);
+        List<AuditSuppressCriteria> list = logger.getAuditSuppressCriteriaList();
+        assertSame(list, logger.getSuppressAuditMessageFilters());
+        list.add(query);
+        assertTrue(logger.isAuditMessageSuppressed(msg));
+        list.set(0, export);
+        assertFalse(logger.isAuditMessageSuppressed(msg));
+        list.set(0, query);
+        assertTrue(logger.isAuditMessageSuppressed(msg));
+        query.setEventIDs(EventID.Export);
+        assertFalse(logger.isAuditMessageSuppressed(msg));
+        query.setEventIDs(EventID.Query);
+        assertTrue(logger.isAuditMessageSuppressed(msg));
+        list.remove(0);
+        assertFalse(logger.isAuditMessageSuppressed(msg));
+    }
+
+    private static final EventID[] EVENT_IDS = {
+        EventID.ApplicationActivity, EventID.Query, EventID.Export };
+    private static final String[] ACTION_CODES = { "C", "R", "E" };
+    private static final String[] OUTCOMES = { "0", "4", "8" };
+    private static final String[] USER_IDS = { "user1", "user2" };
+
+    private static boolean matchLinear(List<AuditSuppressCriteria> list,
+            AuditMessage msg) {
+        for (AuditSuppressCriteria criteria : list)
+            if (criteria.match(msg))
+                return true;
+        return false;
+    }
+
+    private static AuditSuppressCriteria randomCriteria(Random rnd, String cn) {
+        AuditSuppressCriteria criteria = new AuditSuppressCriteria(cn);
+        criteria.setEventIDs(randomSubset(rnd, EVENT_IDS, new EventID[0]));
+        criteria.setEventActionCodes(randomSubset(rnd, ACTION_CODES, new String[0]));
+        criteria.setEventOutcomeIndicators(randomSubset(rnd, OUTCOMES, new String[0]));
+        criteria.setUserIDs(randomSubset(rnd, USER_IDS, new String[0]));
+        int requestor = rnd.nextInt(3);
+        criteria.setUserIsRequestor(requestor == 0 ? null : requestor == 1);
+        return criteria;
+    }
+
+    private static <T> T[] randomSubset(Random rnd, T[] values, T[] a) {
+        ArrayList<T> subset = new ArrayList<T>();
+        for (T value : values)
+            if (rnd.nextInt(3) == 0)
+                subset.add(value);
+        return subset.toArray(a);
+    }
+
+    private static AuditMessage randomMessage(Random rnd) {
+        AuditMessage msg = createMessage(
+                EVENT_IDS[rnd.nextInt(EVENT_IDS.length)],
+                ACTION_CODES[rnd.nextInt(ACTION_CODES.length)],
+                OUTCOMES[rnd.nextInt(OUTCOMES.length)],
+                USER_IDS[rnd.nextInt(USER_IDS.length)],
+                rnd.nextBoolean());
+        if (rnd.nextBoolean())
+            msg.getActiveParticipant().add(AuditMessages.createActiveParticipant(
+                    USER_IDS[rnd.nextInt(USER_IDS.length)], null, null,
+                    rnd.nextBoolean(), null, null, null));
+        return msg;
+    }
+
+    private static AuditMessage createMessage(EventID eventID,
+            String actionCode, String outcome, String userID,
+            boolean requestor) {
+        AuditMessage msg = new AuditMessage();
+        msg.setEventIdentification(AuditMessages.createEventIdentification(
+                eventID, actionCode, null, outcome, null));
+        msg.getActiveParticipant().add(AuditMessages.createActiveParticipant(
+                userID, null, null, requestor, null, null, null));
+        return msg;
+    }
+
+    private SendStatus write() throws Exception {
+        return logger.write(Calendar.getInstance(), Severity.notice,
+                MSG, 0, MSG.length);
+    }
+
+    private String receive() throws Exception {
+        DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+        arrSocket.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength());
+    }
+
+    static AuditLogger createAuditLogger(int arrPort, Executor executor) {
+        Device arrDevice = new Device("arr");
+        Connection arrConn = new Connection("syslog", "localhost", arrPort);
+        arrConn.setProtocol(Connection.Protocol.SYSLOG_UDP);
+        arrDevice.addConnection(arrConn);
+        AuditRecordRepository arr = new AuditRecordRepository();
+        arrDevice.addDeviceExtension(arr);
+        arr.addConnection(arrConn);
+
+        Device device = new Device("test");
+        Connection conn = new Connection("syslog", "localhost");
+        conn.setProtocol(Connection.Protocol.SYSLOG_UDP);
+        device.addConnection(conn);
+        AuditLogger logger = new AuditLogger();
+        device.addDeviceExtension(logger);
+        logger.addConnection(conn);
+        logger.addAuditRecordRepositoryDevice(arrDevice);
+        device.setExecutor(executor);
+        return logger;
+    }
+
+    static class QueuedExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable[] commands;
+            synchronized (this) {
+                commands = tasks.toArray(new Runnable[tasks.size()]);
+                tasks.clear();
+            }
+            for (Runnable command : commands)
+                command.run();
+        }
+    }
+}
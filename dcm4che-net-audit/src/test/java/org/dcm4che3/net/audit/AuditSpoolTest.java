@@ -0,0 +1,319 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.audit;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class AuditSpoolTest {
+
+    private static final String PREFIX = "audit";
+    private static final String SUFFIX = ".log";
+    private static final String DEVICE = "arr";
+
+    private File dir;
+    private AuditSpool spool;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("spool", null);
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        if (spool != null)
+            spool.close();
+        delete(dir);
+    }
+
+    @Test
+    public void testAppendPeekRemove() throws IOException {
+        spool = open(1024);
+        append("msg1", "msg2", "msg3");
+        assertEquals(3, spool.size());
+        assertEquals("msg1", peek());
+        assertEquals("msg1", peek());
+        spool.remove();
+        assertEquals(2, spool.size());
+        assertEquals("msg2", peek());
+        spool.remove();
+        assertEquals("msg3", peek());
+        spool.remove();
+        assertEquals(0, spool.size());
+        assertNull(spool.peek());
+        assertEquals(0, segmentFiles().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRemoveWithoutPeek() throws IOException {
+        spool = open(1024);
+        append("msg1");
+        spool.remove();
+    }
+
+    @Test
+    public void testAppendAfterDrain() throws IOException {
+        spool = open(1024);
+        append("msg1");
+        peek();
+        spool.remove();
+        append("msg2");
+        assertEquals(1, spool.size());
+        assertEquals("msg2", peek());
+    }
+
+    @Test
+    public void testSegmentRollover() throws IOException {
+        spool = open(20);
+        append("msg1", "msg2", "msg3", "msg4", "msg5");
+        assertEquals(3, segmentFiles().length);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals("msg" + i, peek());
+            spool.remove();
+        }
+        assertEquals(0, segmentFiles().length);
+    }
+
+    @Test
+    public void testSegmentDeletedAfterRead() throws IOException {
+        spool = open(20);
+        append("msg1", "msg2", "msg3", "msg4", "msg5");
+        for (int i = 1; i <= 3; i++) {
+            peek();
+            spool.remove();
+        }
+        assertEquals("msg4", peek());
+        assertEquals(2, segmentFiles().length);
+    }
+
+    @Test
+    public void testRecoverTruncatedRecord() throws IOException {
+        spool = open(1024);
+        append("msg1", "msg2", "msg3");
+        spool.close();
+        File[] files = segmentFiles();
+        assertEquals(1, files.length);
+        truncate(files[0], 2);
+
+        spool = open(1024);
+        assertEquals(2, spool.size());
+        append("msg4");
+        assertEquals(3, spool.size());
+        assertEquals("msg1", peek());
+        spool.remove();
+        assertEquals("msg2", peek());
+        spool.remove();
+        assertEquals("msg4", peek());
+    }
+
+    @Test
+    public void testRecoverCorruptedRecord() throws IOException {
+        spool = open(1024);
+        append("msg1", "msg2");
+        spool.close();
+        File file = segmentFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            raf.write('X');
+        } finally {
+            raf.close();
+        }
+
+        spool = open(1024);
+        assertEquals(1, spool.size());
+        assertEquals("msg1", peek());
+        spool.remove();
+        assertNull(spool.peek());
+    }
+
+    @Test
+    public void testPersistCursor() throws IOException {
+        spool = open(20);
+        append("msg1", "msg2", "msg3", "msg4");
+        peek();
+        spool.remove();
+        peek();
+        spool.remove();
+        peek();
+        spool.remove();
+        spool.close();
+
+        spool = open(20);
+        assertEquals(1, spool.size());
+        assertEquals("msg4", peek());
+        spool.remove();
+        spool.close();
+
+        spool = open(20);
+        assertEquals(0, spool.size());
+        assertNull(spool.peek());
+    }
+
+    @Test
+    public void testImportLegacyFiles() throws IOException {
+        String prefix = PREFIX + AuditSpool.SEPARATOR + DEVICE
+                + AuditSpool.SEPARATOR;
+        write(new File(dir, prefix + "1" + SUFFIX), "msg1", 1000L);
+        write(new File(dir, prefix + "2" + SUFFIX), "msg2", 2000L);
+        write(new File(dir, PREFIX + AuditSpool.SEPARATOR + "other"
+                + AuditSpool.SEPARATOR + "3" + SUFFIX), "msg3", 3000L);
+
+        spool = open(1024);
+        assertEquals(1, segmentFiles().length);
+        assertFalse(new File(dir, prefix + "1" + SUFFIX).exists());
+        assertFalse(new File(dir, prefix + "2" + SUFFIX).exists());
+        assertEquals(2, spool.size());
+        assertEquals("msg1", peek());
+        spool.remove();
+        assertEquals("msg2", peek());
+        spool.remove();
+        assertNull(spool.peek());
+    }
+
+    @Test
+    public void testSyncAppend() throws IOException {
+        spool = open(20);
+        spool.setSync(AuditLogger.SpoolSync.DATA);
+        append("msg1", "msg2");
+        spool.setSync(AuditLogger.SpoolSync.ALL);
+        append("msg3");
+        spool.close();
+        spool = open(20);
+        assertEquals(3, spool.size());
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("msg" + i, peek());
+            spool.remove();
+        }
+    }
+
+    @Test
+    public void testCountWithoutOpening() throws IOException {
+        assertEquals(0, AuditSpool.count(dir, PREFIX, SUFFIX, DEVICE));
+        assertEquals(0, dir.list().length);
+
+        spool = open(20);
+        append("msg1", "msg2", "msg3", "msg4");
+        peek();
+        spool.remove();
+        spool.close();
+        spool = null;
+        String[] names = dir.list();
+        long cursorLength = cursorFile().length();
+
+        assertEquals(3, AuditSpool.count(dir, PREFIX, SUFFIX, DEVICE));
+        assertEquals(2, AuditSpool.listFiles(dir, PREFIX, SUFFIX, DEVICE).length);
+        assertEquals(names.length, dir.list().length);
+        assertEquals(cursorLength, cursorFile().length());
+    }
+
+    private AuditSpool open(long maxSegmentSize) throws IOException {
+        return new AuditSpool(dir, PREFIX, SUFFIX, DEVICE, maxSegmentSize);
+    }
+
+    private void append(String... msgs) throws IOException {
+        for (String msg : msgs) {
+            byte[] b = msg.getBytes("UTF-8");
+            spool.append(b, 0, b.length);
+        }
+    }
+
+    private String peek() throws IOException {
+        byte[] b = spool.peek();
+        return b != null ? new String(b, "UTF-8") : null;
+    }
+
+    private File[] segmentFiles() {
+        final String prefix = PREFIX + AuditSpool.SEPARATOR + DEVICE
+                + AuditSpool.SEPARATOR + "seg";
+        return dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(SUFFIX);
+            }
+        });
+    }
+
+    private File cursorFile() {
+        return new File(dir, PREFIX + AuditSpool.SEPARATOR + DEVICE
+                + AuditSpool.SEPARATOR + "pos");
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File f : files)
+                delete(f);
+        file.delete();
+    }
+
+    private static void truncate(File file, int n) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - n);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void write(File file, String msg, long lastModified)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(msg.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        file.setLastModified(lastModified);
+    }
+}
@@ -0,0 +1,202 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2015
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.audit;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class SyslogProtocolHandlerTest {
+
+    private static final String HEADER =
+            "<85>1 2015-06-01T12:00:00.000+02:00 host app 1234 DICOM+RFC3881 - ";
+
+    private Connection conn;
+    private final List<String> received = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        Device device = new Device("arr");
+        conn = new Connection("syslog", "localhost", 514);
+        conn.setProtocol(Connection.Protocol.SYSLOG_TLS);
+        conn.setIdleTimeout(10000);
+        device.addConnection(conn);
+        AuditRecordRepository arr = new AuditRecordRepository();
+        device.addDeviceExtension(arr);
+        arr.addConnection(conn);
+        arr.setAuditRecordHandler(new AuditRecordHandler() {
+
+            @Override
+            public void onMessage(byte[] data, int xmlOffset, int xmlLength,
+                    Connection conn, InetAddress from) {
+                received.add(new String(data, xmlOffset, xmlLength));
+            }
+        });
+    }
+
+    @Test
+    public void testOctetCounting() throws Exception {
+        List<String> xmls = xmls(3, 100);
+        receive(octetCounted(xmls), Integer.MAX_VALUE);
+        assertEquals(xmls, received);
+    }
+
+    @Test
+    public void testOctetCountingSplit() throws Exception {
+        List<String> xmls = xmls(3, 100);
+        receive(octetCounted(xmls), 1);
+        assertEquals(xmls, received);
+    }
+
+    @Test
+    public void testOctetCountingLargeMessages() throws Exception {
+        List<String> xmls = xmls(3, 20000);
+        receive(octetCounted(xmls), 4096);
+        assertEquals(xmls, received);
+    }
+
+    @Test
+    public void testOctetCountingIllegalLength() throws Exception {
+        List<String> xmls = xmls(2, 100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(octetCounted(xmls.subList(0, 1)));
+        out.write("1x ".getBytes());
+        out.write(octetCounted(xmls.subList(1, 2)));
+        receive(out.toByteArray(), 7);
+        assertEquals(xmls.subList(0, 1), received);
+    }
+
+    @Test
+    public void testOctetCountingLengthExceedsLimit() throws Exception {
+        List<String> xmls = xmls(1, 100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(octetCounted(xmls));
+        out.write("70000 ".getBytes());
+        out.write(new byte[70000]);
+        receive(out.toByteArray(), 8192);
+        assertEquals(xmls, received);
+    }
+
+    @Test
+    public void testUDP() throws Exception {
+        byte[] b = (HEADER + xml(0, 100)).getBytes();
+        SyslogProtocolHandler.INSTANCE.onReceive(conn,
+                new DatagramPacket(b, b.length, InetAddress.getLocalHost(), 514));
+        assertEquals(Arrays.asList(xml(0, 100)), received);
+    }
+
+    private void receive(final byte[] b, final int chunkSize)
+            throws Exception {
+        ServerSocket ss = new ServerSocket(0, 1,
+                InetAddress.getByName("localhost"));
+        try {
+            final Socket client = new Socket(ss.getInetAddress(),
+                    ss.getLocalPort());
+            Thread sender = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        client.setTcpNoDelay(true);
+                        OutputStream out = client.getOutputStream();
+                        for (int off = 0; off < b.length; off += chunkSize) {
+                            out.write(b, off, Math.min(chunkSize, b.length - off));
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        try {
+                            client.shutdownOutput();
+                        } catch (IOException ignore) {}
+                    }
+                }
+            };
+            sender.start();
+            Socket s = ss.accept();
+            SyslogProtocolHandler.INSTANCE.onAccept(conn, s);
+            sender.join();
+            client.close();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private static List<String> xmls(int n, int size) {
+        List<String> xmls = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++)
+            xmls.add(xml(i, size));
+        return xmls;
+    }
+
+    private static String xml(int i, int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("<?xml version=\"1.0\"?><AuditMessage id=\"").append(i)
+                .append("\">");
+        while (sb.length() < size)
+            sb.append(i % 10);
+        return sb.append("</AuditMessage>").toString();
+    }
+
+    private static byte[] octetCounted(List<String> xmls) {
+        StringBuilder sb = new StringBuilder();
+        for (String xml : xmls) {
+            String msg = HEADER + xml;
+            sb.append(msg.length()).append(' ').append(msg);
+        }
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,532 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.hl7;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.dcm4che3.hl7.HL7MessageIndex;
+import org.dcm4che3.hl7.MLLPConnection;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.util.SafeClose;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends HL7 messages from a local HL7 Application over long-lived MLLP
+ * connections, which are kept open for further messages to the same remote
+ * HL7 Application until they were idle for {@code IdleTimeout}.
+ * <p/>
+ * With a {@code WindowSize} greater than 1, up to that number of messages
+ * are sent over one connection before awaiting their acknowledgments, which
+ * are correlated by the Message Control ID (MSH-10, MSA-2).
+ *
+ * @author agent <agent@local>
+ *
+ */
+public class HL7ConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HL7ConnectionPool.class);
+
+    private final HL7Application hl7App;
+    private final Map<String, Pool> pools = new HashMap<String, Pool>();
+    private volatile int maxConnectionsPerRemote = 4;
+    private volatile int idleTimeout = 60000;
+    private volatile int windowSize = 1;
+    private volatile boolean closed;
+
+    public HL7ConnectionPool(HL7Application hl7App) {
+        if (hl7App == null)
+            throw new NullPointerException("hl7App");
+        this.hl7App = hl7App;
+    }
+
+    public final HL7Application getHL7Application() {
+        return hl7App;
+    }
+
+    public final int getMaxConnectionsPerRemote() {
+        return maxConnectionsPerRemote;
+    }
+
+    public final void setMaxConnectionsPerRemote(int maxConnectionsPerRemote) {
+        if (maxConnectionsPerRemote <= 0)
+            throw new IllegalArgumentException("maxConnectionsPerRemote: "
+                    + maxConnectionsPerRemote);
+        this.maxConnectionsPerRemote = maxConnectionsPerRemote;
+    }
+
+    /**
+     * Get timeout in ms after which an unused connection is closed.
+     *
+     * @return idle timeout in ms
+     */
+    public final int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public final void setIdleTimeout(int idleTimeout) {
+        if (idleTimeout <= 0)
+            throw new IllegalArgumentException("idleTimeout: " + idleTimeout);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get maximal number of messages sent over one connection, which are
+     * not yet acknowledged.
+     *
+     * @return maximal number of not yet acknowledged messages per connection
+     */
+    public final int getWindowSize() {
+        return windowSize;
+    }
+
+    public final void setWindowSize(int windowSize) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("windowSize: " + windowSize);
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Sends message to remote HL7 Application and waits for its
+     * acknowledgment.
+     *
+     * @return acknowledgment message
+     */
+    public byte[] send(HL7Application remote, byte[] msg)
+            throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        try {
+            return sendAsync(remote, msg).get();
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    /**
+     * Sends message to remote HL7 Application, without waiting for its
+     * acknowledgment, if the {@code WindowSize} of a pooled connection is
+     * not exhausted.
+     *
+     * @return pending acknowledgment message. {@link Future#get()} throws an
+     * {@link ExecutionException} caused by an {@link IOException}, if the
+     * connection failed before the acknowledgment was received.
+     */
+    public Future<byte[]> sendAsync(HL7Application remote, byte[] msg)
+            throws IOException, InterruptedException,
+            IncompatibleConnectionException, GeneralSecurityException {
+        String msgControlID = HL7MessageIndex.parse(msg, null).getField(0, 9, null);
+        Pool pool = pool(remote);
+        for (;;) {
+            PooledConnection conn = pool.acquire(remote);
+            boolean reused = pool.reused(conn);
+            PendingAck ack = conn.register(msgControlID);
+            conn.startReader();
+            try {
+                conn.mllp.writeMessage(msg);
+                return ack;
+            } catch (IOException e) {
+                conn.fail(e);
+                if (!reused)
+                    throw e;
+                LOG.info("Failed to send message over {} - reconnect",
+                        conn.sock, e);
+            }
+        }
+    }
+
+    /**
+     * Closes all pooled connections. Pending acknowledgments fail.
+     */
+    public void close() {
+        closed = true;
+        List<Pool> list;
+        synchronized (pools) {
+            list = new ArrayList<Pool>(pools.values());
+            pools.clear();
+        }
+        for (Pool pool : list)
+            pool.close();
+    }
+
+    private Pool pool(HL7Application remote) {
+        if (closed)
+            throw new IllegalStateException("Connection pool closed");
+
+        String name = remote.getApplicationName();
+        synchronized (pools) {
+            Pool pool = pools.get(name);
+            if (pool == null)
+                pools.put(name, pool = new Pool());
+            return pool;
+        }
+    }
+
+    private final class Pool {
+        final List<PooledConnection> conns = new ArrayList<PooledConnection>();
+
+        int connecting; // number of reserved connection slots
+
+        PooledConnection acquire(HL7Application remote)
+                throws IOException, InterruptedException,
+                IncompatibleConnectionException, GeneralSecurityException {
+            synchronized (this) {
+                for (;;) {
+                    if (closed)
+                        throw new IllegalStateException("Connection pool closed");
+
+                    for (PooledConnection conn : conns)
+                        if (conn.pending < windowSize) {
+                            conn.pending++;
+                            return conn;
+                        }
+
+                    if (conns.size() + connecting < maxConnectionsPerRemote) {
+                        connecting++;
+                        break;
+                    }
+                    wait();
+                }
+            }
+            PooledConnection conn = null;
+            boolean published = false;
+            try {
+                conn = connect(remote);
+            } finally {
+                synchronized (this) {
+                    connecting--;
+                    if (conn != null && !closed) {
+                        conns.add(conn);
+                        conn.pending++;
+                        published = true;
+                    }
+                    notifyAll();
+                }
+            }
+            if (!published) {
+                SafeClose.close(conn.sock);
+                throw new IllegalStateException("Connection pool closed");
+            }
+            return conn;
+        }
+
+        private PooledConnection connect(HL7Application remote)
+                throws IOException, IncompatibleConnectionException,
+                GeneralSecurityException {
+            MLLPConnection mllp = hl7App.connect(remote);
+            try {
+                return new PooledConnection(this, mllp);
+            } catch (IOException e) {
+                SafeClose.close(mllp.getSocket());
+                throw e;
+            }
+        }
+
+        synchronized boolean reused(PooledConnection conn) {
+            return conn.sent > 0;
+        }
+
+        synchronized void release(PooledConnection conn) {
+            conn.pending--;
+            notifyAll();
+        }
+
+        synchronized boolean remove(PooledConnection conn, boolean onlyIfIdle) {
+            if (onlyIfIdle && conn.pending > 0)
+                return false;
+
+            conns.remove(conn);
+            conn.closed = true;
+            notifyAll();
+            return true;
+        }
+
+        void close() {
+            List<PooledConnection> list;
+            synchronized (this) {
+                list = new ArrayList<PooledConnection>(conns);
+                notifyAll();
+            }
+            for (PooledConnection conn : list)
+                conn.fail(new IOException("Connection pool closed"));
+        }
+    }
+
+    private final class PooledConnection implements Runnable {
+        final Pool pool;
+        final MLLPConnection mllp;
+        final Socket sock;
+        final int responseTimeout;
+        final LinkedHashMap<Object, PendingAck> inflight =
+                new LinkedHashMap<Object, PendingAck>();
+        int pending; // guarded by pool
+        int sent; // guarded by pool
+        boolean readerStarted; // guarded by this
+        long idleSince = System.nanoTime(); // guarded by this
+        volatile boolean closed;
+
+        PooledConnection(Pool pool, MLLPConnection mllp) throws IOException {
+            this.pool = pool;
+            this.mllp = mllp;
+            this.sock = mllp.getSocket();
+            this.responseTimeout = sock.getSoTimeout();
+        }
+
+        /**
+         * Starts reading acknowledgments, if not already started. Invoked
+         * after the first message was registered, so the reader awaits its
+         * acknowledgment with the response timeout.
+         */
+        void startReader() {
+            synchronized (this) {
+                if (readerStarted || closed)
+                    return;
+                readerStarted = true;
+            }
+            try {
+                hl7App.getDevice().execute(this);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+                throw e;
+            }
+        }
+
+        PendingAck register(String msgControlID) {
+            PendingAck ack = new PendingAck(this, System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(responseTimeout));
+            synchronized (this) {
+                if (!closed) {
+                    Object key = msgControlID != null
+                            && !inflight.containsKey(msgControlID)
+                            ? msgControlID : new Object();
+                    inflight.put(key, ack);
+                    synchronized (pool) {
+                        sent++;
+                    }
+                    return ack;
+                }
+            }
+            ack.complete(null, new IOException("Connection closed"));
+            return ack;
+        }
+
+        /**
+         * Reads acknowledgments with a socket timeout not exceeding the
+         * response timeout, so the deadline of a message registered while
+         * the reader was already waiting is checked in time.
+         */
+        @Override
+        public void run() {
+            try {
+                sock.setSoTimeout(responseTimeout > 0
+                        ? Math.min(idleTimeout, responseTimeout)
+                        : idleTimeout);
+                for (;;) {
+                    byte[] msg;
+                    try {
+                        msg = mllp.readMessage();
+                    } catch (SocketTimeoutException e) {
+                        long now = System.nanoTime();
+                        boolean idle;
+                        synchronized (this) {
+                            Iterator<PendingAck> iter = inflight.values().iterator();
+                            idle = !iter.hasNext();
+                            if (!idle && responseTimeout > 0
+                                    && iter.next().deadline - now <= 0)
+                                throw new SocketTimeoutException(
+                                        "No acknowledgment received within "
+                                        + responseTimeout + " ms");
+                        }
+                        if (idle && now - idleSince() >= idleTimeoutNanos()
+                                && pool.remove(this, true)) {
+                            LOG.debug("Close idle connection {}", sock);
+                            SafeClose.close(sock);
+                            return;
+                        }
+                        continue;
+                    }
+                    if (msg == null) {
+                        if (pool.remove(this, true)) {
+                            LOG.debug("Connection {} closed by remote", sock);
+                            SafeClose.close(sock);
+                            return;
+                        }
+                        throw new EOFException();
+                    }
+                    onAcknowledgment(msg);
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    LOG.info("Connection {} failed:", sock, e);
+                fail(e);
+            } catch (RuntimeException e) {
+                LOG.warn("Connection {} failed:", sock, e);
+                fail(new IOException(e));
+            }
+        }
+
+        private synchronized long idleSince() {
+            return idleSince;
+        }
+
+        private long idleTimeoutNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        }
+
+        private void onAcknowledgment(byte[] msg) {
+            HL7MessageIndex ack = HL7MessageIndex.parse(msg, null);
+            int msa = ack.indexOfSegment("MSA");
+            String msgControlID = msa >= 0 ? ack.getField(msa, 2, null) : null;
+            PendingAck pendingAck;
+            synchronized (this) {
+                pendingAck = msgControlID != null ? inflight.remove(msgControlID) : null;
+                if (pendingAck == null) {
+                    Iterator<PendingAck> iter = inflight.values().iterator();
+                    if (!iter.hasNext()) {
+                        LOG.warn("Ignore unexpected message received from {}", sock);
+                        return;
+                    }
+                    pendingAck = iter.next();
+                    iter.remove();
+                }
+                if (inflight.isEmpty())
+                    idleSince = System.nanoTime();
+            }
+            pendingAck.complete(msg, null);
+        }
+
+        void fail(IOException e) {
+            pool.remove(this, false);
+            SafeClose.close(sock);
+            List<PendingAck> list;
+            synchronized (this) {
+                list = new ArrayList<PendingAck>(inflight.values());
+                inflight.clear();
+            }
+            for (PendingAck ack : list)
+                ack.complete(null, e);
+        }
+    }
+
+    private static final class PendingAck implements Future<byte[]> {
+        private final PooledConnection conn;
+        private final long deadline; // System.nanoTime() based, if responseTimeout > 0
+        private byte[] ack;
+        private IOException exception;
+        private boolean completing;
+        private boolean done;
+
+        PendingAck(PooledConnection conn, long deadline) {
+            this.conn = conn;
+            this.deadline = deadline;
+        }
+
+        void complete(byte[] ack, IOException exception) {
+            synchronized (this) {
+                if (completing)
+                    return;
+                completing = true;
+            }
+            // release the connection before waking up the sender, so a
+            // subsequent message of the sender may reuse it
+            conn.pool.release(conn);
+            synchronized (this) {
+                this.ack = ack;
+                this.exception = exception;
+                this.done = true;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized byte[] get()
+                throws InterruptedException, ExecutionException {
+            while (!done)
+                wait();
+            return result();
+        }
+
+        @Override
+        public synchronized byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long remaining;
+            while (!done) {
+                if ((remaining = deadline - System.nanoTime()) <= 0)
+                    throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+
+        private byte[] result() throws ExecutionException {
+            if (exception != null)
+                throw new ExecutionException(exception);
+            return ack;
+        }
+    }
+}
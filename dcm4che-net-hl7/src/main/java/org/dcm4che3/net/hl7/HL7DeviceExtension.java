@@ -55,7 +55,7 @@ import java.util.TreeMap;
  * @author Gunter Zeilinger <gunterze@gmail.com>
  *
  */
-@LDAP(noContainerNode = true)
+@LDAP(objectClasses = "hl7Device", noContainerNode = true)
 @ConfigurableClass
 public class HL7DeviceExtension extends DeviceExtension {
 
@@ -72,6 +72,20 @@ public class HL7DeviceExtension extends DeviceExtension {
 
     private transient HL7MessageListener hl7MessageListener;
 
+    @ConfigurableProperty(name = "hl7MaxWorkerThreads", defaultValue = "0")
+    private int maxWorkerThreads;
+
+    @ConfigurableProperty(name = "hl7MaxPendingMessages", defaultValue = "64")
+    private int maxPendingMessages = 64;
+
+    @ConfigurableProperty(name = "hl7MessageOrder", defaultValue = "PATIENT_ID")
+    private HL7MessageOrder messageOrder = HL7MessageOrder.PATIENT_ID;
+
+    @ConfigurableProperty(name = "hl7ReuseReceiveBuffers", defaultValue = "false")
+    private boolean reuseReceiveBuffers;
+
+    private transient volatile HL7MessageDispatcher messageDispatcher;
+
 
     public Map<String, HL7Application> getHl7apps() {
         return hl7apps;
@@ -137,6 +151,89 @@ public class HL7DeviceExtension extends DeviceExtension {
         this.hl7MessageListener = listener;
     }
 
+    /**
+     * Get maximal number of threads processing received messages. If 0,
+     * messages are processed one after another by the thread which received
+     * them.
+     *
+     * @return maximal number of threads processing received messages
+     */
+    public final int getMaxWorkerThreads() {
+        return maxWorkerThreads;
+    }
+
+    public final void setMaxWorkerThreads(int maxWorkerThreads) {
+        if (maxWorkerThreads < 0)
+            throw new IllegalArgumentException("maxWorkerThreads: " + maxWorkerThreads);
+        this.maxWorkerThreads = maxWorkerThreads;
+        HL7MessageDispatcher dispatcher = messageDispatcher;
+        if (dispatcher != null)
+            dispatcher.setMaxWorkerThreads(maxWorkerThreads);
+    }
+
+    /**
+     * Get maximal number of messages received on one connection, which are
+     * not yet acknowledged. Reading of further messages is deferred until
+     * pending messages are acknowledged. Only effective, if received messages
+     * are processed by worker threads.
+     *
+     * @return maximal number of not yet acknowledged messages per connection
+     */
+    public final int getMaxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    public final void setMaxPendingMessages(int maxPendingMessages) {
+        if (maxPendingMessages <= 0)
+            throw new IllegalArgumentException("maxPendingMessages: " + maxPendingMessages);
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * Get which messages received on one connection are processed in
+     * received order, if received messages are processed by worker threads.
+     *
+     * @return order of processing received messages
+     */
+    public final HL7MessageOrder getMessageOrder() {
+        return messageOrder;
+    }
+
+    public final void setMessageOrder(HL7MessageOrder messageOrder) {
+        if (messageOrder == null)
+            throw new NullPointerException("messageOrder");
+        this.messageOrder = messageOrder;
+    }
+
+    /**
+     * Indicates if received messages are passed to the message listener in
+     * pooled buffers, which are reused for other received messages after
+     * {@link HL7MessageListener#onMessage} returns. If {@code false}, each
+     * message is passed in a newly allocated array.
+     *
+     * @return {@code true} if received messages are passed in pooled buffers
+     */
+    public final boolean isReuseReceiveBuffers() {
+        return reuseReceiveBuffers;
+    }
+
+    public final void setReuseReceiveBuffers(boolean reuseReceiveBuffers) {
+        this.reuseReceiveBuffers = reuseReceiveBuffers;
+    }
+
+    HL7MessageDispatcher getMessageDispatcher() {
+        HL7MessageDispatcher dispatcher = messageDispatcher;
+        if (dispatcher == null) {
+            synchronized (this) {
+                dispatcher = messageDispatcher;
+                if (dispatcher == null)
+                    messageDispatcher = dispatcher =
+                            new HL7MessageDispatcher(device, maxWorkerThreads);
+            }
+        }
+        return dispatcher;
+    }
+
     byte[] onMessage(HL7Segment msh, byte[] msg, int off, int len, int mshlen,
             Connection conn, Socket s) throws HL7Exception {
         HL7Application hl7App = getHL7Application(msh.getReceivingApplicationWithFacility());
@@ -147,7 +244,12 @@ public class HL7DeviceExtension extends DeviceExtension {
 
     @Override
     public void reconfigure(DeviceExtension from)  {
-        reconfigureHL7Applications((HL7DeviceExtension) from);
+        HL7DeviceExtension hl7Ext = (HL7DeviceExtension) from;
+        setMaxWorkerThreads(hl7Ext.maxWorkerThreads);
+        setMaxPendingMessages(hl7Ext.maxPendingMessages);
+        setMessageOrder(hl7Ext.messageOrder);
+        setReuseReceiveBuffers(hl7Ext.reuseReceiveBuffers);
+        reconfigureHL7Applications(hl7Ext);
     }
 
     private void reconfigureHL7Applications(HL7DeviceExtension from) {
@@ -0,0 +1,154 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.hl7;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.net.Device;
+
+/**
+ * Executes tasks by a bounded number of worker threads of the device
+ * executor. Tasks with equal key are executed one after another in
+ * submission order.
+ *
+ * @author agent <agent@local>
+ *
+ */
+class HL7MessageDispatcher {
+
+    private final Device device;
+    private final ConcurrentLinkedQueue<Runnable> queue =
+            new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final Map<String, ArrayDeque<Runnable>> waitingByKey =
+            new HashMap<String, ArrayDeque<Runnable>>();
+    private volatile int maxWorkerThreads;
+
+    HL7MessageDispatcher(Device device, int maxWorkerThreads) {
+        this.device = device;
+        this.maxWorkerThreads = maxWorkerThreads;
+    }
+
+    void setMaxWorkerThreads(int maxWorkerThreads) {
+        this.maxWorkerThreads = maxWorkerThreads;
+    }
+
+    void execute(String key, Runnable task) {
+        if (key != null) {
+            synchronized (waitingByKey) {
+                ArrayDeque<Runnable> waiting = waitingByKey.get(key);
+                if (waiting != null) {
+                    waiting.add(task);
+                    return;
+                }
+                waitingByKey.put(key, new ArrayDeque<Runnable>());
+            }
+            task = new KeyedTask(key, task);
+        }
+        queue.offer(task);
+        startWorker();
+    }
+
+    private void startWorker() {
+        int n;
+        do {
+            n = activeWorkers.get();
+            if (n >= maxWorkerThreads)
+                return;
+        } while (!activeWorkers.compareAndSet(n, n + 1));
+
+        try {
+            device.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    runQueuedTasks();
+                }
+            });
+        } catch (RuntimeException e) {
+            activeWorkers.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void runQueuedTasks() {
+        try {
+            Runnable task;
+            while ((task = queue.poll()) != null)
+                task.run();
+        } finally {
+            activeWorkers.decrementAndGet();
+        }
+        if (!queue.isEmpty())
+            startWorker();
+    }
+
+    private final class KeyedTask implements Runnable {
+        private final String key;
+        private final Runnable task;
+
+        KeyedTask(String key, Runnable task) {
+            this.key = key;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                Runnable next;
+                synchronized (waitingByKey) {
+                    ArrayDeque<Runnable> waiting = waitingByKey.get(key);
+                    next = waiting.poll();
+                    if (next == null)
+                        waitingByKey.remove(key);
+                }
+                if (next != null) {
+                    queue.offer(new KeyedTask(key, next));
+                    startWorker();
+                }
+            }
+        }
+    }
+}
@@ -8,6 +8,15 @@ import org.dcm4che3.net.Connection;
 
 public interface HL7MessageListener {
 
+    /**
+     * Process received message. Unless
+     * {@link HL7DeviceExtension#isReuseReceiveBuffers()} is enabled,
+     * {@code msg} is a newly allocated array, which may be kept by the
+     * implementation. Otherwise the buffer containing the message is reused
+     * for other received messages after this method returns.
+     *
+     * @return acknowledgment message
+     */
     byte[] onMessage(HL7Application hl7App, Connection conn,
             Socket s, HL7Segment msh, byte[] msg, int off, int len, int mshlen)
             throws HL7Exception;
@@ -0,0 +1,106 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.net.hl7;
+
+import java.nio.charset.Charset;
+
+/**
+ * Specifies which messages received on one connection have to be processed
+ * in received order, if messages are processed concurrently by several
+ * worker threads.
+ *
+ * @author agent <agent@local>
+ *
+ */
+public enum HL7MessageOrder {
+    /**
+     * Messages may be processed in any order.
+     */
+    NONE {
+        @Override
+        String keyOf(byte[] msg, int len) {
+            return null;
+        }
+    },
+    /**
+     * Messages with equal Patient Identifier List (PID-3) are processed in
+     * received order. Messages without PID segment may be processed in any
+     * order.
+     */
+    PATIENT_ID {
+        @Override
+        String keyOf(byte[] msg, int len) {
+            return patientID(msg, len);
+        }
+    };
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    abstract String keyOf(byte[] msg, int len);
+
+    private static String patientID(byte[] b, int len) {
+        if (len < 8)
+            return null;
+
+        byte fieldSeparator = b[3];
+        byte repetitionSeparator = b[5];
+        int i = 0;
+        while (i + 3 < len) {
+            if (b[i] == 'P' && b[i+1] == 'I' && b[i+2] == 'D'
+                    && b[i+3] == fieldSeparator) {
+                int field = 0;
+                for (int j = i + 3; j < len && b[j] != '\r'; j++) {
+                    if (b[j] == fieldSeparator && ++field == 3) {
+                        int end = ++j;
+                        while (end < len && b[end] != fieldSeparator
+                                && b[end] != repetitionSeparator
+                                && b[end] != '\r')
+                            end++;
+                        return end > j ? new String(b, j, end - j, ISO_8859_1) : null;
+                    }
+                }
+                return null;
+            }
+            while (i < len && b[i] != '\r')
+                i++;
+            i++;
+        }
+        return null;
+    }
+}
@@ -39,15 +39,24 @@
 package org.dcm4che3.net.hl7;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.Socket;
 import java.text.ParsePosition;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dcm4che3.hl7.HL7Exception;
 import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7MessageBuffer;
 import org.dcm4che3.hl7.HL7Segment;
 import org.dcm4che3.hl7.MLLPConnection;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.TCPProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -56,23 +65,234 @@ import org.dcm4che3.net.TCPProtocolHandler;
 enum HL7ProtocolHandler implements TCPProtocolHandler {
     INSTANCE;
 
+    private static final Logger LOG = LoggerFactory.getLogger(HL7ProtocolHandler.class);
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final int MAX_POOLED_BUFFER_SIZE = 0x100000;
+
+    private static final ConcurrentLinkedQueue<HL7MessageBuffer> bufferPool =
+            new ConcurrentLinkedQueue<HL7MessageBuffer>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
     @Override
     public void onAccept(Connection conn, Socket s) throws IOException {
         s.setSoTimeout(conn.getIdleTimeout());
         MLLPConnection mllp = new MLLPConnection(s);
-        byte[] msg;
-        while ((msg = mllp.readMessage()) != null) {
-            ParsePosition pos = new ParsePosition(0);
-            HL7Segment msh = HL7Segment.parseMSH(msg, msg.length, pos);
+        HL7DeviceExtension hl7Ext =
+                conn.getDevice().getDeviceExtension(HL7DeviceExtension.class);
+        if (hl7Ext.getMaxWorkerThreads() > 0)
+            new Pipeline(hl7Ext, conn, s, mllp).receive();
+        else
+            receive(hl7Ext, conn, s, mllp);
+        conn.close(s);
+    }
+
+    private static void receive(HL7DeviceExtension hl7Ext, Connection conn,
+            Socket s, MLLPConnection mllp) throws IOException {
+        HL7MessageBuffer buf = borrowBuffer();
+        try {
+            while (mllp.readMessage(buf))
+                mllp.writeMessage(onMessage(hl7Ext, buf, conn, s));
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    private static byte[] onMessage(HL7DeviceExtension hl7Ext,
+            HL7MessageBuffer buf, Connection conn, Socket s) {
+        int len = buf.length();
+        byte[] msg = hl7Ext.isReuseReceiveBuffers()
+                ? buf.buffer()
+                : Arrays.copyOf(buf.buffer(), len);
+        ParsePosition pos = new ParsePosition(0);
+        HL7Segment msh = HL7Segment.parseMSH(msg, len, pos);
+        try {
+            return hl7Ext.onMessage(msh, msg, 0, len, pos.getIndex(), conn, s);
+        } catch (HL7Exception e) {
+            return HL7Message.makeACK(msh, e.getAcknowledgmentCode(), e.getErrorMessage())
+                    .getBytes(null);
+        }
+    }
+
+    private static HL7MessageBuffer borrowBuffer() {
+        HL7MessageBuffer buf = bufferPool.poll();
+        if (buf == null)
+            return new HL7MessageBuffer();
+
+        pooledBuffers.decrementAndGet();
+        return buf;
+    }
+
+    private static void returnBuffer(HL7MessageBuffer buf) {
+        if (buf.capacity() > MAX_POOLED_BUFFER_SIZE
+                || pooledBuffers.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        buf.reset();
+        bufferPool.offer(buf);
+    }
+
+    /**
+     * Reads messages from one connection and passes them to worker threads.
+     * Acknowledgments are returned in the order the messages were received,
+     * independent of the order in which the worker threads complete them.
+     */
+    private static final class Pipeline {
+        private final HL7DeviceExtension hl7Ext;
+        private final Connection conn;
+        private final Socket s;
+        private final MLLPConnection mllp;
+        private final int maxPendingMessages;
+        private final ArrayDeque<PendingMessage> pending =
+                new ArrayDeque<PendingMessage>();
+        private Throwable failure;
+        private boolean writing;
+
+        Pipeline(HL7DeviceExtension hl7Ext, Connection conn, Socket s,
+                MLLPConnection mllp) {
+            this.hl7Ext = hl7Ext;
+            this.conn = conn;
+            this.s = s;
+            this.mllp = mllp;
+            this.maxPendingMessages = hl7Ext.getMaxPendingMessages();
+        }
+
+        void receive() throws IOException {
+            HL7MessageDispatcher dispatcher = hl7Ext.getMessageDispatcher();
+            HL7MessageOrder order = hl7Ext.getMessageOrder();
             try {
-                msg = conn.getDevice().getDeviceExtension(HL7DeviceExtension.class)
-                        .onMessage(msh, msg, 0, msg.length, pos.getIndex(), conn, s);
-            } catch (HL7Exception e) {
-                msg = HL7Message.makeACK(msh, e.getAcknowledgmentCode(), e.getErrorMessage())
-                        .getBytes(null);
+                while (awaitCapacity()) {
+                    HL7MessageBuffer buf = borrowBuffer();
+                    if (!mllp.readMessage(buf)) {
+                        returnBuffer(buf);
+                        break;
+                    }
+                    PendingMessage msg = new PendingMessage(buf);
+                    synchronized (this) {
+                        pending.add(msg);
+                    }
+                    dispatcher.execute(order.keyOf(buf.buffer(), buf.length()), msg);
+                }
+            } finally {
+                awaitCompletion();
+            }
+        }
+
+        private synchronized boolean awaitCapacity() throws IOException {
+            try {
+                while (failure == null && pending.size() >= maxPendingMessages)
+                    wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return checkFailure();
+        }
+
+        private synchronized void awaitCompletion() throws IOException {
+            try {
+                while (failure == null && (writing || !pending.isEmpty()))
+                    wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            checkFailure();
+        }
+
+        private boolean checkFailure() throws IOException {
+            if (failure == null)
+                return true;
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure instanceof Error)
+                throw (Error) failure;
+            throw new IOException(failure);
+        }
+
+        /**
+         * Sends the acknowledgments of completed messages at the head of the
+         * pending queue. Only one thread is writing at a time, so
+         * acknowledgments are sent in received order, but the socket is not
+         * written while holding the monitor of the Pipeline.
+         */
+        private void onCompleted() {
+            synchronized (this) {
+                if (writing)
+                    return;
+                writing = true;
+            }
+            ArrayList<byte[]> acks = new ArrayList<byte[]>();
+            for (;;) {
+                synchronized (this) {
+                    pollCompleted(acks);
+                    if (acks.isEmpty()) {
+                        writing = false;
+                        notifyAll();
+                        return;
+                    }
+                }
+                writeACKs(acks);
+                acks.clear();
+            }
+        }
+
+        private void pollCompleted(ArrayList<byte[]> acks) {
+            PendingMessage head;
+            while ((head = pending.peek()) != null
+                    && (head.ack != null || head.exception != null)) {
+                pending.poll();
+                if (failure != null)
+                    continue;
+                if (head.exception != null) {
+                    failure = head.exception;
+                    conn.close(s);
+                    continue;
+                }
+                acks.add(head.ack);
+            }
+            notifyAll();
+        }
+
+        private void writeACKs(ArrayList<byte[]> acks) {
+            for (byte[] ack : acks) {
+                try {
+                    mllp.writeMessage(ack);
+                } catch (IOException e) {
+                    LOG.info("Failed to send acknowledgment to {}:", s, e);
+                    synchronized (this) {
+                        if (failure == null)
+                            failure = e;
+                    }
+                    conn.close(s);
+                    return;
+                }
+            }
+        }
+
+        private final class PendingMessage implements Runnable {
+            private HL7MessageBuffer buf;
+            private volatile byte[] ack;
+            private volatile Throwable exception;
+
+            PendingMessage(HL7MessageBuffer buf) {
+                this.buf = buf;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    ack = onMessage(hl7Ext, buf, conn, s);
+                } catch (Throwable e) {
+                    LOG.warn("Failed to process message received from {}:", s, e);
+                    exception = e;
+                } finally {
+                    returnBuffer(buf);
+                    buf = null;
+                    onCompleted();
+                }
             }
-            mllp.writeMessage(msg);
         }
-        conn.close(s);
     }
 }
@@ -0,0 +1,368 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.hl7;
+
+import static org.junit.Assert.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcm4che3.hl7.HL7Exception;
+import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7Segment;
+import org.dcm4che3.hl7.MLLPConnection;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.util.SafeClose;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class HL7ConnectionPoolTest {
+
+    private static final long TIMEOUT = 10;
+
+    private ExecutorService executor;
+    private Connection conn;
+    private HL7ConnectionPool pool;
+    private ServerSocket ss;
+    private HL7Application remote;
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    private interface Responder {
+        void serve(MLLPConnection mllp, int connNo) throws IOException;
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        Device device = new Device("hl7snd");
+        device.setExecutor(executor);
+        conn = new Connection("hl7", "localhost");
+        conn.setProtocol(Connection.Protocol.HL7);
+        device.addConnection(conn);
+        HL7DeviceExtension hl7Ext = new HL7DeviceExtension();
+        device.addDeviceExtension(hl7Ext);
+        HL7Application hl7App = new HL7Application("SND^SNDFAC");
+        hl7Ext.addHL7Application(hl7App);
+        hl7App.addConnection(conn);
+        pool = new HL7ConnectionPool(hl7App);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        SafeClose.close(ss);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPooling() throws Exception {
+        startServer(new AcknowledgeAll());
+        for (int i = 0; i < 10; i++)
+            assertAck("MSG" + i, pool.send(remote, message("MSG" + i)));
+        assertEquals(1, accepted.get());
+    }
+
+    @Test
+    public void testMaxConnectionsPerRemote() throws Exception {
+        pool.setMaxConnectionsPerRemote(2);
+        startServer(new AcknowledgeAll() {
+
+            @Override
+            byte[] ack(byte[] msg) {
+                sleep(20);
+                return super.ack(msg);
+            }
+        });
+        List<Future<byte[]>> acks = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < 8; i++) {
+            final String msgControlID = "MSG" + i;
+            acks.add(executor.submit(new Callable<byte[]>() {
+
+                @Override
+                public byte[] call() throws Exception {
+                    return pool.send(remote, message(msgControlID));
+                }
+            }));
+        }
+        for (int i = 0; i < 8; i++)
+            assertAck("MSG" + i, acks.get(i).get(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(accepted.get() <= 2);
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        final int n = 4;
+        pool.setMaxConnectionsPerRemote(1);
+        pool.setWindowSize(n);
+        startServer(new Responder() {
+
+            @Override
+            public void serve(MLLPConnection mllp, int connNo)
+                    throws IOException {
+                // acknowledge all messages of the window in reverse order
+                byte[][] msgs = new byte[n][];
+                for (int i = 0; i < n; i++)
+                    msgs[i] = mllp.readMessage();
+                for (int i = n; --i >= 0;)
+                    mllp.writeMessage(ack(msgs[i]));
+                mllp.readMessage();
+            }
+        });
+        List<Future<byte[]>> acks = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < n; i++)
+            acks.add(pool.sendAsync(remote, message("MSG" + i)));
+        for (int i = 0; i < n; i++)
+            assertAck("MSG" + i, acks.get(i).get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, accepted.get());
+    }
+
+    @Test
+    public void testInvalidAcknowledgment() throws Exception {
+        startServer(new AcknowledgeAll() {
+
+            @Override
+            public void serve(MLLPConnection mllp, int connNo)
+                    throws IOException {
+                if (connNo > 1) {
+                    super.serve(mllp, connNo);
+                    return;
+                }
+                mllp.readMessage();
+                mllp.writeMessage("XYZ".getBytes());
+                mllp.readMessage();
+            }
+        });
+        Future<byte[]> ack = pool.sendAsync(remote, message("MSG1"));
+        try {
+            ack.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertAck("MSG2", pool.send(remote, message("MSG2")));
+        assertEquals(2, accepted.get());
+    }
+
+    @Test
+    public void testConnectionClosedByRemote() throws Exception {
+        startServer(new Responder() {
+
+            @Override
+            public void serve(MLLPConnection mllp, int connNo)
+                    throws IOException {
+                mllp.readMessage();
+            }
+        });
+        try {
+            pool.sendAsync(remote, message("MSG1")).get(TIMEOUT, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void testResponseTimeout() throws Exception {
+        conn.setResponseTimeout(200);
+        pool.setIdleTimeout(60000);
+        startServer(new Responder() {
+
+            @Override
+            public void serve(MLLPConnection mllp, int connNo)
+                    throws IOException {
+                mllp.readMessage();
+                mllp.readMessage();
+            }
+        });
+        try {
+            pool.sendAsync(remote, message("MSG1")).get(TIMEOUT, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void testResponseTimeoutOfMessageSentToIdleConnection() throws Exception {
+        conn.setResponseTimeout(200);
+        pool.setIdleTimeout(60000);
+        startServer(new Responder() {
+
+            @Override
+            public void serve(MLLPConnection mllp, int connNo)
+                    throws IOException {
+                // acknowledge only the first message
+                mllp.writeMessage(ack(mllp.readMessage()));
+                mllp.readMessage();
+                mllp.readMessage();
+            }
+        });
+        assertAck("MSG1", pool.send(remote, message("MSG1")));
+        // let the reader wait for messages on the idle connection
+        sleep(100);
+        try {
+            pool.sendAsync(remote, message("MSG2")).get(TIMEOUT, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertEquals(1, accepted.get());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        startServer(new Responder() {
+
+            @Override
+            public void serve(MLLPConnection mllp, int connNo)
+                    throws IOException {
+                mllp.readMessage();
+                mllp.readMessage();
+            }
+        });
+        Future<byte[]> ack = pool.sendAsync(remote, message("MSG1"));
+        pool.close();
+        try {
+            ack.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        try {
+            pool.send(remote, message("MSG2"));
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {}
+    }
+
+    private void startServer(final Responder responder) throws IOException {
+        ss = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        Device device = new Device("hl7rcv");
+        Connection remoteConn = new Connection("hl7", "localhost",
+                ss.getLocalPort());
+        remoteConn.setProtocol(Connection.Protocol.HL7);
+        device.addConnection(remoteConn);
+        HL7DeviceExtension hl7Ext = new HL7DeviceExtension();
+        device.addDeviceExtension(hl7Ext);
+        remote = new HL7Application("RCV^RCVFAC");
+        hl7Ext.addHL7Application(remote);
+        remote.addConnection(remoteConn);
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        final Socket s = ss.accept();
+                        final int connNo = accepted.incrementAndGet();
+                        executor.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                try {
+                                    s.setTcpNoDelay(true);
+                                    responder.serve(new MLLPConnection(s), connNo);
+                                } catch (IOException ignore) {
+                                } finally {
+                                    SafeClose.close(s);
+                                }
+                            }
+                        });
+                    }
+                } catch (IOException closed) {
+                }
+            }
+        });
+    }
+
+    private static class AcknowledgeAll implements Responder {
+
+        @Override
+        public void serve(MLLPConnection mllp, int connNo) throws IOException {
+            byte[] msg;
+            while ((msg = mllp.readMessage()) != null)
+                mllp.writeMessage(ack(msg));
+        }
+
+        byte[] ack(byte[] msg) {
+            return HL7ConnectionPoolTest.ack(msg);
+        }
+    }
+
+    private static byte[] message(String msgControlID) {
+        return ("MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150601120000||ADT^A08|"
+                + msgControlID + "|P|2.5\rPID|||PID1||DOE^JOHN\r").getBytes();
+    }
+
+    private static byte[] ack(byte[] msg) {
+        return HL7Message.makeACK(HL7Segment.parseMSH(msg, msg.length),
+                HL7Exception.AA, null).getBytes(null);
+    }
+
+    private static void assertAck(String msgControlID, byte[] ack) {
+        HL7Segment msa = HL7Message.parse(ack, null).getSegment("MSA");
+        assertEquals(HL7Exception.AA, msa.getField(1, null));
+        assertEquals(msgControlID, msa.getField(2, null));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4che3.net.hl7;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dcm4che3.hl7.HL7Exception;
+import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7Segment;
+import org.dcm4che3.hl7.MLLPConnection;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent <agent@local>
+ *
+ */
+public class HL7ProtocolHandlerTest {
+
+    private static final int MESSAGES = 20;
+
+    private ExecutorService executor;
+    private Connection conn;
+    private HL7DeviceExtension hl7Ext;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        Device device = new Device("hl7rcv");
+        device.setExecutor(executor);
+        conn = new Connection("hl7", "localhost", 2575);
+        conn.setProtocol(Connection.Protocol.HL7);
+        conn.setIdleTimeout(10000);
+        device.addConnection(conn);
+        hl7Ext = new HL7DeviceExtension();
+        device.addDeviceExtension(hl7Ext);
+        HL7Application hl7App = new HL7Application("*");
+        hl7App.setAcceptedMessageTypes("*");
+        hl7Ext.addHL7Application(hl7App);
+        hl7App.addConnection(conn);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReceive() throws Exception {
+        final List<byte[]> received = new ArrayList<byte[]>();
+        hl7Ext.setHL7MessageListener(new HL7MessageListener() {
+
+            @Override
+            public byte[] onMessage(HL7Application hl7App, Connection conn,
+                    Socket s, HL7Segment msh, byte[] msg, int off, int len,
+                    int mshlen) throws HL7Exception {
+                assertEquals(0, off);
+                assertEquals(len, msg.length);
+                received.add(msg);
+                return ack(msh);
+            }
+        });
+        List<byte[]> msgs = messages(MESSAGES);
+        assertEquals(controlIDs(MESSAGES), receive(msgs));
+        assertEquals(MESSAGES, received.size());
+        for (int i = 0; i < MESSAGES; i++)
+            assertArrayEquals(msgs.get(i), received.get(i));
+    }
+
+    @Test
+    public void testReceiveReuseReceiveBuffers() throws Exception {
+        hl7Ext.setReuseReceiveBuffers(true);
+        final List<byte[]> received = new ArrayList<byte[]>();
+        final Set<byte[]> buffers = Collections.newSetFromMap(
+                new IdentityHashMap<byte[], Boolean>());
+        hl7Ext.setHL7MessageListener(new HL7MessageListener() {
+
+            @Override
+            public byte[] onMessage(HL7Application hl7App, Connection conn,
+                    Socket s, HL7Segment msh, byte[] msg, int off, int len,
+                    int mshlen) throws HL7Exception {
+                buffers.add(msg);
+                received.add(Arrays.copyOfRange(msg, off, off + len));
+                return ack(msh);
+            }
+        });
+        List<byte[]> msgs = messages(MESSAGES);
+        assertEquals(controlIDs(MESSAGES), receive(msgs));
+        for (int i = 0; i < MESSAGES; i++)
+            assertArrayEquals(msgs.get(i), received.get(i));
+        assertTrue(buffers.size() < MESSAGES);
+    }
+
+    @Test
+    public void testReceivePipelined() throws Exception {
+        hl7Ext.setMaxWorkerThreads(4);
+        hl7Ext.setMaxPendingMessages(3);
+        hl7Ext.setMessageOrder(HL7MessageOrder.NONE);
+        final Map<String, byte[]> received = new HashMap<String, byte[]>();
+        hl7Ext.setHL7MessageListener(new HL7MessageListener() {
+
+            @Override
+            public byte[] onMessage(HL7Application hl7App, Connection conn,
+                    Socket s, HL7Segment msh, byte[] msg, int off, int len,
+                    int mshlen) throws HL7Exception {
+                String controlID = msh.getField(9, null);
+                // complete messages out of received order
+                sleep(MESSAGES - Integer.parseInt(controlID.substring(3)));
+                synchronized (received) {
+                    received.put(controlID, msg);
+                }
+                return ack(msh);
+            }
+        });
+        List<byte[]> msgs = messages(MESSAGES);
+        List<String> controlIDs = controlIDs(MESSAGES);
+        assertEquals(controlIDs, receive(msgs));
+        assertEquals(MESSAGES, received.size());
+        for (int i = 0; i < MESSAGES; i++)
+            assertArrayEquals(msgs.get(i), received.get(controlIDs.get(i)));
+    }
+
+    @Test
+    public void testReceivePipelinedPatientOrder() throws Exception {
+        hl7Ext.setMaxWorkerThreads(4);
+        hl7Ext.setMessageOrder(HL7MessageOrder.PATIENT_ID);
+        final Map<String, List<String>> processed =
+                new HashMap<String, List<String>>();
+        final Set<String> active = new HashSet<String>();
+        final List<String> overlapping = new ArrayList<String>();
+        hl7Ext.setHL7MessageListener(new HL7MessageListener() {
+
+            @Override
+            public byte[] onMessage(HL7Application hl7App, Connection conn,
+                    Socket s, HL7Segment msh, byte[] msg, int off, int len,
+                    int mshlen) throws HL7Exception {
+                String controlID = msh.getField(9, null);
+                String pid = HL7Message.parse(msg, len, null)
+                        .getSegment("PID").getField(3, null);
+                synchronized (processed) {
+                    if (!active.add(pid))
+                        overlapping.add(controlID);
+                }
+                sleep(MESSAGES - Integer.parseInt(controlID.substring(3)));
+                synchronized (processed) {
+                    active.remove(pid);
+                    List<String> list = processed.get(pid);
+                    if (list == null)
+                        processed.put(pid, list = new ArrayList<String>());
+                    list.add(controlID);
+                }
+                return ack(msh);
+            }
+        });
+        assertEquals(controlIDs(MESSAGES), receive(messages(MESSAGES)));
+        assertEquals(Collections.emptyList(), overlapping);
+        for (int i = 0; i < 3; i++) {
+            List<String> expected = new ArrayList<String>();
+            for (int j = i; j < MESSAGES; j += 3)
+                expected.add("MSG" + j);
+            assertEquals(expected, processed.get("PID" + i));
+        }
+    }
+
+    private List<String> receive(final List<byte[]> msgs) throws Exception {
+        ServerSocket ss = new ServerSocket(0, 1,
+                InetAddress.getByName("localhost"));
+        try {
+            final Socket client = new Socket(ss.getInetAddress(),
+                    ss.getLocalPort());
+            Future<List<String>> acks = executor.submit(
+                    new Callable<List<String>>() {
+
+                @Override
+                public List<String> call() throws Exception {
+                    try {
+                        MLLPConnection mllp = new MLLPConnection(client);
+                        for (byte[] msg : msgs)
+                            mllp.writeMessage(msg);
+                        client.shutdownOutput();
+                        List<String> controlIDs = new ArrayList<String>();
+                        byte[] ack;
+                        while ((ack = mllp.readMessage()) != null) {
+                            HL7Segment msa = HL7Message.parse(ack, null)
+                                    .getSegment("MSA");
+                            assertEquals(HL7Exception.AA, msa.getField(1, null));
+                            controlIDs.add(msa.getField(2, null));
+                        }
+                        return controlIDs;
+                    } finally {
+                        client.close();
+                    }
+                }
+            });
+            Socket s = ss.accept();
+            HL7ProtocolHandler.INSTANCE.onAccept(conn, s);
+            return acks.get();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private static List<byte[]> messages(int n) {
+        List<byte[]> msgs = new ArrayList<byte[]>(n);
+        for (int i = 0; i < n; i++)
+            msgs.add(("MSH|^~\\&|SND|SNDFAC|RCV|RCVFAC|20150601120000||ADT^A08|MSG"
+                    + i + "|P|2.5\rPID|||PID" + (i % 3) + "||DOE^JOHN\r")
+                    .getBytes());
+        return msgs;
+    }
+
+    private static List<String> controlIDs(int n) {
+        List<String> controlIDs = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++)
+            controlIDs.add("MSG" + i);
+        return controlIDs;
+    }
+
+    private static byte[] ack(HL7Segment msh) {
+        return HL7Message.makeACK(msh, HL7Exception.AA, null).getBytes(null);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
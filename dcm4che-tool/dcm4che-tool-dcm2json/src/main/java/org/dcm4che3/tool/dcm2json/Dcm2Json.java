@@ -65,6 +65,7 @@ import org.dcm4che3.io.BulkDataDescriptor;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.json.JSONReader;
+import org.dcm4che3.json.JSONEncoder;
 import org.dcm4che3.json.JSONWriter;
 import org.dcm4che3.tool.common.CLIUtils;
 import org.dcm4che3.util.SafeClose;
@@ -245,6 +246,13 @@ public class Dcm2Json {
         dis.setBulkDataFilePrefix(blkFilePrefix);
         dis.setBulkDataFileSuffix(blkFileSuffix);
         dis.setConcatenateBulkDataFiles(catBlkFiles);
+        if (!indent) {
+            JSONEncoder jsonEncoder = new JSONEncoder(out);
+            dis.setDicomInputHandler(jsonEncoder);
+            dis.readDataset(-1, -1);
+            jsonEncoder.flush();
+            return;
+        }
         JsonGenerator jsonGen = createGenerator(out);
         JSONWriter jsonWriter = new JSONWriter(jsonGen);
         dis.setDicomInputHandler(jsonWriter);
@@ -40,10 +40,13 @@ package org.dcm4che3.tool.emf2sf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -52,6 +55,7 @@ import org.apache.commons.cli.ParseException;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.emf.MultiframeExtractor;
+import org.dcm4che3.emf.MultiframeSplitter;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
@@ -71,6 +75,7 @@ public class Emf2sf {
     private int[] frames;
     private DecimalFormat outFileFormat;
     private File outDir;
+    private int threads = 1;
 
     public final void setOutputDirectory(File outDir) {
         outDir.mkdirs();
@@ -92,6 +97,12 @@ public class Emf2sf {
     public void setInstanceNumberFormat(String instanceNumberFormat) {
         extractor.setInstanceNumberFormat(instanceNumberFormat);
     }
+
+    public final void setThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads: " + threads);
+        this.threads = threads;
+    }
     
     
     @SuppressWarnings("unchecked")
@@ -105,6 +116,8 @@ public class Emf2sf {
             main.setOutputDirectory(new File(cl.getOptionValue("out-dir", ".")));
             if (cl.hasOption("out-file"))
                 main.setOutputFileFormat(cl.getOptionValue("out-file"));
+            if (cl.hasOption("threads"))
+                main.setThreads(Integer.parseInt(cl.getOptionValue("threads")));
             long start = System.currentTimeMillis();
             int n = main.extract(new File(fname(cl.getArgList())));
             long end = System.currentTimeMillis();
@@ -147,7 +160,7 @@ public class Emf2sf {
         return String.format(srcFile.getName() + "-%04d", frame);
     }
 
-    public int extract(File file) throws IOException {
+    public int extract(final File file) throws IOException {
         Attributes src;
         DicomInputStream dis = new DicomInputStream(file);
         try {
@@ -157,32 +170,42 @@ public class Emf2sf {
             SafeClose.close(dis);
         }
         Attributes fmi = dis.getFileMetaInformation();
+        int[] frames = this.frames;
         if (frames == null) {
-            int n = src.getInt(Tag.NumberOfFrames, 1);
-            for (int frame = 0; frame < n; ++frame)
-                extract(file, fmi, src, frame);
-            return n;
-        } else {
-            for (int frame : frames)
-                extract(file, fmi, src, frame);
-            return frames.length;
+            frames = new int[src.getInt(Tag.NumberOfFrames, 1)];
+            for (int frame = 0; frame < frames.length; ++frame)
+                frames[frame] = frame;
         }
-    }
+        MultiframeSplitter splitter = new MultiframeSplitter(extractor, src);
+        String tsuid = fmi != null ? fmi.getString(Tag.TransferSyntaxUID) : null;
+        MultiframeSplitter.Output output = new MultiframeSplitter.Output() {
 
-    private void extract(File file, Attributes fmi, Attributes src, int frame)
-            throws IOException {
-        Attributes sf = extractor.extract(src, frame);
-        DicomOutputStream out = new DicomOutputStream(
-                new File(outDir, fname(file, frame+1)));
-        try {
-            out.writeDataset(fmi != null
-                    ? sf.createFileMetaInformation(
-                            fmi.getString(Tag.TransferSyntaxUID))
-                    : null, sf);
-            System.out.print('.');
-        } finally {
-            SafeClose.close(out);
+            @Override
+            public DicomOutputStream open(int frame) throws IOException {
+                return new DicomOutputStream(
+                        new File(outDir, fname(file, frame+1)));
+            }
+
+            @Override
+            public void close(int frame, DicomOutputStream out) {
+                SafeClose.close(out);
+                System.out.print('.');
+            }
+        };
+        if (threads == 1) {
+            splitter.writeFrames(frames, tsuid, output);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                splitter.writeFrames(frames, tsuid, output, executor, threads * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                executor.shutdown();
+            }
         }
+        return frames.length;
     }
 
     @SuppressWarnings("static-access")
@@ -216,6 +239,12 @@ public class Emf2sf {
                 .withArgName("name")
                 .withDescription(rb.getString("out-file"))
                 .create());
+        opts.addOption(OptionBuilder
+                .withLongOpt("threads")
+                .hasArg()
+                .withArgName("no")
+                .withDescription(rb.getString("threads"))
+                .create());
         return CLIUtils.parseComandLine(args, opts, rb, Emf2sf.class);
     }
 
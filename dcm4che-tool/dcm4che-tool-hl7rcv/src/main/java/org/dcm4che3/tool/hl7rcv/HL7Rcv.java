@@ -38,13 +38,11 @@
 
 package org.dcm4che3.tool.hl7rcv;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.Socket;
@@ -72,6 +70,7 @@ import org.dcm4che3.hl7.HL7Charset;
 import org.dcm4che3.hl7.HL7ContentHandler;
 import org.dcm4che3.hl7.HL7Exception;
 import org.dcm4che3.hl7.HL7Message;
+import org.dcm4che3.hl7.HL7MessageIndex;
 import org.dcm4che3.hl7.HL7Parser;
 import org.dcm4che3.hl7.HL7Segment;
 import org.dcm4che3.io.SAXTransformer;
@@ -284,9 +283,7 @@ public class HL7Rcv {
                 t.setParameter(xsltParams[i-1], xsltParams[i]);
         th.setResult(new SAXResult(new HL7ContentHandler(
                 new OutputStreamWriter(out, charsetName))));
-        new HL7Parser(th).parse(new InputStreamReader(
-                new ByteArrayInputStream(msg, off, len),
-                charsetName));
+        new HL7Parser(th).parse(HL7MessageIndex.parse(msg, off, len, charset));
         return out.toByteArray();
     }
 
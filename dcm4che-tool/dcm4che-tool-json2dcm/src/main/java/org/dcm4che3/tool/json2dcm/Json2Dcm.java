@@ -45,13 +45,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.ResourceBundle;
 
-import javax.json.Json;
-
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.OptionGroup;
@@ -65,7 +62,7 @@ import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.io.DicomOutputStream;
-import org.dcm4che3.json.JSONReader;
+import org.dcm4che3.json.JSONDecoder;
 import org.dcm4che3.tool.common.CLIUtils;
 import org.dcm4che3.util.SafeClose;
 
@@ -354,7 +351,7 @@ public class Json2Dcm {
     public void mergeJSON(String fname) throws Exception {
         if (dataset == null)
             dataset = new Attributes();
-        JSONReader reader = parseJSON(fname, dataset);
+        JSONDecoder reader = parseJSON(fname, dataset);
         Attributes fmi2 = reader.getFileMetaInformation();
         if (fmi2 != null)
             fmi = fmi2;
@@ -366,13 +363,12 @@ public class Json2Dcm {
         return attrs;
     }
 
-    private static JSONReader parseJSON(String fname, Attributes attrs)
+    private static JSONDecoder parseJSON(String fname, Attributes attrs)
             throws IOException {
         @SuppressWarnings("resource")
         InputStream in = fname.equals("-") ? System.in : new FileInputStream(fname);
         try {
-            JSONReader reader = new JSONReader(
-                    Json.createParser(new InputStreamReader(in, "UTF-8")));
+            JSONDecoder reader = new JSONDecoder(in);
             reader.readDataset(attrs);
             return reader;
         } finally {
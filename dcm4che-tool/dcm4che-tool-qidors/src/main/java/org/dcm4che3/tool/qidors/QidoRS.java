@@ -53,7 +53,6 @@ import java.util.List;
 import java.util.Properties;
 import java.util.ResourceBundle;
 
-import javax.json.Json;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Templates;
@@ -72,7 +71,7 @@ import org.dcm4che3.data.ElementDictionary;
 import org.dcm4che3.data.Sequence;
 import org.dcm4che3.io.SAXReader;
 import org.dcm4che3.io.SAXWriter;
-import org.dcm4che3.json.JSONReader;
+import org.dcm4che3.json.JSONDecoder;
 import org.dcm4che3.json.JSONReader.Callback;
 import org.dcm4che3.tool.common.CLIUtils;
 import org.dcm4che3.util.SafeClose;
@@ -537,8 +536,7 @@ public static String qido(QidoRS main, boolean cli) throws IOException {
                     throws IOException, ParserConfigurationException, SAXException {
                 if(qidors.isRunningModeTest()) {
                     try {
-                        JSONReader reader = new JSONReader(
-                                Json.createParser(new InputStreamReader(in, "UTF-8")));
+                        JSONDecoder reader = new JSONDecoder(in);
                         reader.readDatasets(new Callback() {
                             @Override
                             public void onDataset(Attributes fmi, Attributes dataset) {
@@ -38,12 +38,10 @@
 
 package org.dcm4che3.tool.stowrs;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -57,7 +55,6 @@ import java.util.UUID;
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
 import javax.ws.rs.core.MediaType;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.stream.StreamResult;
@@ -76,13 +73,13 @@ import org.dcm4che3.data.VR;
 import org.dcm4che3.io.ContentHandlerAdapter;
 import org.dcm4che3.io.SAXReader;
 import org.dcm4che3.io.SAXTransformer;
-import org.dcm4che3.json.JSONReader;
+import org.dcm4che3.json.JSONDecoder;
 import org.dcm4che3.json.JSONWriter;
+import org.dcm4che3.mime.MultipartOutputStream;
 import org.dcm4che3.tool.common.CLIUtils;
 import org.dcm4che3.tool.stowrs.test.StowRSResponse;
 import org.dcm4che3.tool.stowrs.test.StowRSTool.StowMetaDataType;
 import org.dcm4che3.util.SafeClose;
-import org.dcm4che3.util.StreamUtils;
 import org.dcm4che3.ws.rs.MediaTypes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -109,6 +106,8 @@ public class StowRS {
     private StowMetaDataType mediaType;
     private String transferSyntax;
     private List<File> files = new ArrayList<File>();
+    private int chunkSize = MultipartOutputStream.DEFAULT_CHUNK_SIZE;
+    private int instancesPerRequest = 1;
 
     public StowRS() {
         // empty
@@ -163,6 +162,12 @@ public class StowRS {
 
             if (instance.files.isEmpty())
                 throw new IllegalArgumentException("Missing files");
+
+            if (cl.hasOption("chunk-size"))
+                instance.setChunkSize(Integer.parseInt(cl.getOptionValue("chunk-size")));
+            if (cl.hasOption("instances-per-request"))
+                instance.setInstancesPerRequest(
+                        Integer.parseInt(cl.getOptionValue("instances-per-request")));
             
             instance.stow();
 
@@ -181,19 +186,21 @@ public class StowRS {
 
     public void stow() {
 
-        for (File file : files) {
-            
-            LOG.info("Sending {}", file);
-            
-            if (mediaType == StowMetaDataType.NO_METADATA_DICOM) {
-                stowDicomFile(file);
-            } else {
-                stowMetaDataAndBulkData(file);
+        for (int i = 0, n = files.size(); i < n; i += instancesPerRequest) {
+            List<File> batch = files.subList(i, Math.min(i + instancesPerRequest, n));
+            try {
+                StowRSResponse response = mediaType == StowMetaDataType.NO_METADATA_DICOM
+                        ? sendDicomFiles(batch)
+                        : sendMetaDataAndBulkData(batch);
+                if (response != null)
+                    addResponse(response);
+            } catch (IOException e) {
+                LOG.error("Error for files {}", batch, e);
             }
         }
     }
 
-    private void stowMetaDataAndBulkData(File file) {
+    private Attributes readMetaData(File file) {
 
         Attributes metadata;
         if (mediaType == StowMetaDataType.JSON) {
@@ -201,7 +208,7 @@ public class StowRS {
                 metadata = parseJSON(file.getPath());
             } catch (Exception e) {
                 LOG.error("error parsing metadata JSON file {}", file);
-                return;
+                return null;
             }
         } else if (mediaType == StowMetaDataType.XML) {
 
@@ -214,11 +221,15 @@ public class StowRS {
                 	metadata.addAll(fmi);
             } catch (Exception e) {
                 LOG.error("error parsing metadata XML file {}", file);
-                return;
+                return null;
             }
         } else {
             throw new IllegalArgumentException("Unsupported media type " + mediaType);
         }
+        return metadata;
+    }
+
+    private ExtractedBulkData extractBulkData(File file, Attributes metadata) {
 
         ExtractedBulkData extractedBulkData = extractBulkData(metadata);
 
@@ -229,7 +240,7 @@ public class StowRS {
                 // multiple fragments - reject
                 LOG.error("Compressed multiframe with multiple fragments in file {} is not supported by STOW-RS in the current DICOM standard (2015b)", file);
 
-                return;
+                return null;
             }
         }
 
@@ -239,23 +250,7 @@ public class StowRS {
 
             metadata.setValue(Tag.PixelData, metadata.getVR(Tag.PixelData), new BulkData(null, extractedBulkData.pixelDataBulkDataURI, extractedBulkData.pixelDataBulkData.get(0).bigEndian));
         }
-
-        try {
-            addResponse(sendMetaDataAndBulkData(metadata, extractedBulkData));
-        } catch (IOException e) {
-            LOG.error("Error for file {}", file, e);
-        }
-    }
-
-    private void stowDicomFile(File file) {
-        try {
-
-            addResponse(sendDicomFile(URL, file));
-            LOG.info(file.getPath() + " with size : " + file.length());
-
-        } catch (IOException e) {
-            LOG.error("Error for file {}", file, e);
-        }
+        return extractedBulkData;
     }
 
     private static class ExtractedBulkData {
@@ -344,6 +339,14 @@ public class StowRS {
                 rb.getString("metadata-type"));
         opts.addOption("ts", "transfer-syntax", true,
                 rb.getString("transfer-syntax"));
+        opts.addOption(OptionBuilder.hasArg().withArgName("size")
+                .withLongOpt("chunk-size")
+                .withDescription(rb.getString("chunk-size"))
+                .create());
+        opts.addOption(OptionBuilder.hasArg().withArgName("count")
+                .withLongOpt("instances-per-request")
+                .withDescription(rb.getString("instances-per-request"))
+                .create());
         CLIUtils.addCommonOptions(opts);
         return CLIUtils.parseComandLine(args, opts, rb, StowRS.class);
     }
@@ -368,9 +371,7 @@ public class StowRS {
         }
     }
 
-    private StowRSResponse sendMetaDataAndBulkData(Attributes metadata, ExtractedBulkData extractedBulkData) throws IOException {
-        Attributes responseAttrs = new Attributes();
-
+    private HttpURLConnection openConnection(String type) throws IOException {
         URL newUrl;
         try {
             newUrl = new URL(URL);
@@ -379,39 +380,69 @@ public class StowRS {
         }
 
         HttpURLConnection connection = (HttpURLConnection) newUrl.openConnection();
-        connection.setChunkedStreamingMode(2048);
+        connection.setChunkedStreamingMode(chunkSize);
         connection.setDoOutput(true);
         connection.setDoInput(true);
         connection.setInstanceFollowRedirects(false);
         connection.setRequestMethod("POST");
-
-        String metaDataType = mediaType == StowMetaDataType.XML ? "application/dicom+xml" : "application/json";
-        connection.setRequestProperty("Content-Type", "multipart/related; type=" + metaDataType + "; boundary=" + MULTIPART_BOUNDARY);
-        String bulkDataTransferSyntax = "transfer-syntax=" + transferSyntax;
-
-        MediaType pixelDataMediaType = getBulkDataMediaType(metadata);
+        connection.setRequestProperty("Content-Type", "multipart/related; type=" + type + "; boundary=" + MULTIPART_BOUNDARY);
         connection.setRequestProperty("Accept", "application/dicom+xml");
         connection.setRequestProperty("charset", "utf-8");
         connection.setUseCaches(false);
+        return connection;
+    }
 
-        DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
+    private StowRSResponse sendMetaDataAndBulkData(List<File> batch) throws IOException {
+        String metaDataType = mediaType == StowMetaDataType.XML ? "application/dicom+xml" : "application/json";
+        byte[] metaDataHeaders = MultipartOutputStream.encodeHeaders(
+                "Content-Type", metaDataType + "; transfer-syntax=" + transferSyntax);
 
-        // write metadata
-        wr.writeBytes("\r\n--" + MULTIPART_BOUNDARY + "\r\n");
+        HttpURLConnection connection = null;
+        MultipartOutputStream out = null;
+        try {
+            for (File file : batch) {
+                Attributes metadata = readMetaData(file);
+                if (metadata == null)
+                    continue;
+
+                ExtractedBulkData extractedBulkData = extractBulkData(file, metadata);
+                if (extractedBulkData == null)
+                    continue;
+
+                LOG.info("Sending {}", file);
+                if (out == null) {
+                    connection = openConnection(metaDataType);
+                    out = new MultipartOutputStream(connection.getOutputStream(), MULTIPART_BOUNDARY, chunkSize);
+                }
+                writeMetaDataAndBulkData(out, metaDataHeaders, metadata, extractedBulkData);
+            }
+            if (out == null)
+                return null;
 
-        if (mediaType == StowMetaDataType.XML)
-            wr.writeBytes("Content-Type: application/dicom+xml; " + bulkDataTransferSyntax + " \r\n");
-        else
-            wr.writeBytes("Content-Type: application/json; " + bulkDataTransferSyntax + " \r\n");
-        wr.writeBytes("\r\n");
+            out.close();
+            out = null;
+            return readResponse(connection);
+        } finally {
+            SafeClose.close(out);
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    private void writeMetaDataAndBulkData(MultipartOutputStream out, byte[] metaDataHeaders, Attributes metadata,
+            ExtractedBulkData extractedBulkData) throws IOException {
+        MediaType pixelDataMediaType = getBulkDataMediaType(metadata);
+
+        // write metadata
+        out.startPart(metaDataHeaders);
 
         coerceAttributes(metadata, keys);
 
         try {
             if (mediaType == StowMetaDataType.XML)
-                SAXTransformer.getSAXWriter(new StreamResult(wr)).write(metadata);
+                SAXTransformer.getSAXWriter(new StreamResult(out)).write(metadata);
             else {
-                JsonGenerator gen = Json.createGenerator(wr);
+                JsonGenerator gen = Json.createGenerator(out);
                 JSONWriter writer = new JSONWriter(gen);
                 writer.write(metadata);
                 gen.flush();
@@ -425,7 +456,7 @@ public class StowRS {
         // write bulkdata
 
         for (BulkData chunk : extractedBulkData.otherBulkDataChunks) {
-            writeBulkDataPart(MediaType.APPLICATION_OCTET_STREAM_TYPE, wr, chunk.getURIOrUUID(), Collections.singletonList(chunk));
+            writeBulkDataPart(MediaType.APPLICATION_OCTET_STREAM_TYPE, out, chunk.getURIOrUUID(), Collections.singletonList(chunk));
         }
 
 
@@ -436,33 +467,34 @@ public class StowRS {
                 LOG.info("Combining bulk data of multiple pixel data fragments");
             }
 
-            writeBulkDataPart(pixelDataMediaType, wr, extractedBulkData.pixelDataBulkDataURI, extractedBulkData.pixelDataBulkData);
-        }
-
-        // end of multipart message
-        wr.writeBytes("\r\n--" + MULTIPART_BOUNDARY + "--\r\n");
-        wr.close();
-        String response = connection.getResponseMessage();
-        int rspCode = connection.getResponseCode();
-        LOG.info("response: " + response);
-        try {
-            responseAttrs = SAXReader.parse(connection.getInputStream());
-        } catch (Exception e) {
-            LOG.error("Error creating response attributes", e);
+            writeBulkDataPart(pixelDataMediaType, out, extractedBulkData.pixelDataBulkDataURI, extractedBulkData.pixelDataBulkData);
         }
-        connection.disconnect();
-
-        return new StowRSResponse(rspCode, response, responseAttrs);
     }
 
-    private static void writeBulkDataPart(MediaType mediaType, DataOutputStream wr, String uri, List<BulkData> chunks) throws IOException {
-        wr.writeBytes("\r\n--" + MULTIPART_BOUNDARY + "\r\n");
-        wr.writeBytes("Content-Type: " + toContentType(mediaType) + " \r\n");
-        wr.writeBytes("Content-Location: " + uri + " \r\n");
-        wr.writeBytes("\r\n");
+    private static void writeBulkDataPart(MediaType mediaType, MultipartOutputStream out, String uri, List<BulkData> chunks) throws IOException {
+        out.startPart(
+                "Content-Type", toContentType(mediaType),
+                "Content-Location", uri);
 
-        for (BulkData chunk : chunks) {
-            writeBulkDataToStream(chunk, wr);
+        FileInputStream file = null;
+        String fileURI = null;
+        try {
+            for (BulkData chunk : chunks) {
+                if (chunk.length() >= 0 && chunk.uri.startsWith("file:")) {
+                    // copy file regions of consecutive fragments through one channel
+                    if (!chunk.uriWithoutQuery().equals(fileURI)) {
+                        SafeClose.close(file);
+                        file = null;
+                        file = new FileInputStream(chunk.getFile());
+                        fileURI = chunk.uriWithoutQuery();
+                    }
+                    out.write(file.getChannel(), chunk.offset(), chunk.length());
+                } else {
+                    writeBulkDataToStream(chunk, out);
+                }
+            }
+        } finally {
+            SafeClose.close(file);
         }
     }
 
@@ -480,19 +512,11 @@ public class StowRS {
         return MediaTypes.forTransferSyntax(metadata.getString(Tag.TransferSyntaxUID, getTransferSyntax()));
     }
 
-    private static void writeBulkDataToStream(BulkData bulkData, DataOutputStream wr) throws IOException {
+    private static void writeBulkDataToStream(BulkData bulkData, MultipartOutputStream out) throws IOException {
         InputStream in = null;
         try {
             in = bulkData.openStream();
-
-            int length = bulkData.length();
-
-            if (length >= 0) {
-                StreamUtils.copy(in, wr, length);
-            } else { // unspecified length
-                StreamUtils.copy(in, wr);
-            }
-
+            out.write(in, bulkData.length()); // negative length: unspecified length
         } finally {
             if (in != null)
                 try {
@@ -503,55 +527,44 @@ public class StowRS {
         }
     }
 
-    private static StowRSResponse sendDicomFile(String url, File f) throws IOException {
-        int rspCode = 0;
-        String rspMessage = null;
-
-        URL newUrl = new URL(url);
-        HttpURLConnection connection = (HttpURLConnection) newUrl.openConnection();
-        connection.setDoOutput(true);
-        connection.setDoInput(true);
-        connection.setInstanceFollowRedirects(false);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "multipart/related; type=application/dicom; boundary=" + MULTIPART_BOUNDARY);
-        connection.setRequestProperty("Accept", "application/dicom+xml");
-        connection.setRequestProperty("charset", "utf-8");
-        connection.setUseCaches(false);
-
-        DataOutputStream wr;
-        wr = new DataOutputStream(connection.getOutputStream());
-        wr.writeBytes("\r\n--" + MULTIPART_BOUNDARY + "\r\n");
-        wr.writeBytes("Content-Disposition: inline; name=\"file[]\"; filename=\"" + f.getName() + "\"\r\n");
-        wr.writeBytes("Content-Type: application/dicom \r\n");
-        wr.writeBytes("\r\n");
-        FileInputStream fis = new FileInputStream(f);
-        StreamUtils.copy(fis, wr);
-        fis.close();
-        wr.writeBytes("\r\n--" + MULTIPART_BOUNDARY + "--\r\n");
-        wr.flush();
-        wr.close();
-        String response = connection.getResponseMessage();
-        rspCode = connection.getResponseCode();
-        rspMessage = connection.getResponseMessage();
-        LOG.info("response: " + response);
-        Attributes responseAttrs = null;
+    private StowRSResponse sendDicomFiles(List<File> batch) throws IOException {
+        HttpURLConnection connection = openConnection("application/dicom");
+        MultipartOutputStream out = null;
         try {
-            InputStream in;
-            boolean isErrorCase = rspCode >= HttpURLConnection.HTTP_BAD_REQUEST;
-            if (!isErrorCase) {
-                in = connection.getInputStream();
-            } else {
-                in = connection.getErrorStream();
+            out = new MultipartOutputStream(connection.getOutputStream(), MULTIPART_BOUNDARY, chunkSize);
+            for (File f : batch) {
+                LOG.info("Sending {}", f);
+                out.startPart(MultipartOutputStream.encodeHeaders(
+                        "Content-Disposition", "inline; name=\"file[]\"; filename=\"" + f.getName() + "\"",
+                        "Content-Type", "application/dicom"));
+                out.write(f, 0, f.length());
+                LOG.info(f.getPath() + " with size : " + f.length());
             }
-            if (!isErrorCase || rspCode == HttpURLConnection.HTTP_CONFLICT)
+            out.close();
+            out = null;
+            return readResponse(connection);
+        } finally {
+            SafeClose.close(out);
+            connection.disconnect();
+        }
+    }
+
+    private static StowRSResponse readResponse(HttpURLConnection connection) throws IOException {
+        int rspCode = connection.getResponseCode();
+        String rspMessage = connection.getResponseMessage();
+        LOG.info("response: " + rspMessage);
+        Attributes responseAttrs = null;
+        boolean isErrorCase = rspCode >= HttpURLConnection.HTTP_BAD_REQUEST;
+        if (!isErrorCase || rspCode == HttpURLConnection.HTTP_CONFLICT) {
+            InputStream in = isErrorCase ? connection.getErrorStream() : connection.getInputStream();
+            try {
                 responseAttrs = SAXReader.parse(in);
-        } catch (SAXException e) {
-            throw new IOException(e);
-        } catch (ParserConfigurationException e) {
-            throw new IOException(e);
+            } catch (Exception e) {
+                LOG.error("Error creating response attributes", e);
+            } finally {
+                SafeClose.close(in);
+            }
         }
-        connection.disconnect();
-        
         return new StowRSResponse(rspCode, rspMessage, responseAttrs);
     }
 
@@ -559,8 +572,7 @@ public class StowRS {
             throws IOException {
         InputStream in = fname.equals("-") ? System.in : new FileInputStream(fname);
         try {
-            JSONReader reader = new JSONReader(
-                    Json.createParser(new InputStreamReader(in, "UTF-8")));
+            JSONDecoder reader = new JSONDecoder(in);
             reader.readDataset(attrs);
             Attributes fmi = reader.getFileMetaInformation();
             return fmi;
@@ -578,4 +590,32 @@ public class StowRS {
         this.transferSyntax = transferSyntax;
     }
 
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the size of the chunks of the HTTP request body and of the buffer used to copy bulk data and files into
+     * the request.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    public int getInstancesPerRequest() {
+        return instancesPerRequest;
+    }
+
+    /**
+     * Sets the maximal number of instances sent in one multipart/related request. Instances are read and streamed
+     * one after another, so memory use does not grow with this number.
+     */
+    public void setInstancesPerRequest(int instancesPerRequest) {
+        if (instancesPerRequest <= 0)
+            throw new IllegalArgumentException("instancesPerRequest: " + instancesPerRequest);
+        this.instancesPerRequest = instancesPerRequest;
+    }
+
 }
@@ -0,0 +1,269 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/gunterze/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2012
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4che3.tool.stowrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.json.JSONReader;
+import org.dcm4che3.json.JSONWriter;
+import org.dcm4che3.mime.MultipartInputStream;
+import org.dcm4che3.mime.MultipartParser;
+import org.dcm4che3.tool.stowrs.test.StowRSResponse;
+import org.dcm4che3.tool.stowrs.test.StowRSTool.StowMetaDataType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link StowRS} against a local HTTP server which records the parts of received requests.
+ *
+ * @author agent <agent@local>
+ */
+public class StowRSTest {
+
+    private static final byte[] RESPONSE =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?><NativeDicomModel/>".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private final List<String> contentTypes = new ArrayList<String>();
+    private final List<List<Part>> requests = new ArrayList<List<Part>>();
+
+    private static class Part {
+        final Map<String, List<String>> headers;
+        final byte[] content;
+
+        Part(Map<String, List<String>> headers, byte[] content) {
+            this.headers = headers;
+            this.content = content;
+        }
+
+        String header(String name) {
+            return headers.get(name).get(0);
+        }
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/studies", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                final List<Part> parts = new ArrayList<Part>();
+                new MultipartParser(contentType.substring(contentType.indexOf("boundary=") + 9))
+                        .parse(exchange.getRequestBody(), new MultipartParser.Handler() {
+                    @Override
+                    public void bodyPart(int partNumber, MultipartInputStream in) throws IOException {
+                        Map<String, List<String>> headers = in.readHeaderParams();
+                        parts.add(new Part(headers, readAll(in)));
+                    }
+                });
+                synchronized (requests) {
+                    contentTypes.add(contentType);
+                    requests.add(parts);
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/dicom+xml");
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(RESPONSE);
+                out.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/studies";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSendDicomFiles() throws Exception {
+        List<File> files = new ArrayList<File>();
+        List<byte[]> contents = new ArrayList<byte[]>();
+        Random rnd = new Random(7);
+        for (int i = 0; i < 3; i++) {
+            byte[] b = new byte[100000 * i + 1000];
+            rnd.nextBytes(b);
+            files.add(write(folder.newFile(), b));
+            contents.add(b);
+        }
+
+        StowRS stowRS = new StowRS(new Attributes(), StowMetaDataType.NO_METADATA_DICOM, files, url, null);
+        stowRS.setInstancesPerRequest(2);
+        stowRS.setChunkSize(4096);
+        stowRS.stow();
+
+        assertResponses(stowRS, 2);
+        assertEquals(2, requests.size());
+        assertEquals(2, requests.get(0).size());
+        assertEquals(1, requests.get(1).size());
+        assertTrue(contentTypes.get(0).startsWith("multipart/related; type=application/dicom;"));
+        for (int i = 0; i < 3; i++) {
+            Part part = requests.get(i / 2).get(i % 2);
+            assertEquals("application/dicom", part.header("content-type"));
+            assertArrayEquals(contents.get(i), part.content);
+        }
+    }
+
+    @Test
+    public void testSendMetaDataAndBulkData() throws Exception {
+        byte[] bulkData = new byte[200000];
+        new Random(11).nextBytes(bulkData);
+        File bulkDataFile = write(folder.newFile(), bulkData);
+        String bulkDataURI = bulkDataFile.toURI().toString();
+
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 2; i++) {
+            Attributes metadata = new Attributes();
+            metadata.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3." + i);
+            metadata.setValue(Tag.OverlayData, VR.OW, new BulkData(bulkDataURI, 10 + i, 20, false));
+            metadata.setValue(Tag.PixelData, VR.OW, new BulkData(bulkDataURI, 1000 * i, 150000, false));
+            files.add(writeJSON(folder.newFile(), metadata));
+        }
+
+        StowRS stowRS = new StowRS(new Attributes(), StowMetaDataType.JSON, files, url,
+                UID.ExplicitVRLittleEndian);
+        stowRS.setInstancesPerRequest(5);
+        stowRS.stow();
+
+        assertResponses(stowRS, 1);
+        assertEquals(1, requests.size());
+        List<Part> parts = requests.get(0);
+        assertEquals(6, parts.size());
+        assertTrue(contentTypes.get(0).startsWith("multipart/related; type=application/json;"));
+        for (int i = 0; i < 2; i++) {
+            Part metadataPart = parts.get(3 * i);
+            Part overlayPart = parts.get(3 * i + 1);
+            Part pixelDataPart = parts.get(3 * i + 2);
+            assertEquals("application/json; transfer-syntax=" + UID.ExplicitVRLittleEndian,
+                    metadataPart.header("content-type"));
+            Attributes metadata = readJSON(metadataPart.content);
+            assertEquals("1.2.3." + i, metadata.getString(Tag.SOPInstanceUID));
+            assertEquals(((BulkData) metadata.getValue(Tag.OverlayData)).uri,
+                    overlayPart.header("content-location"));
+            assertEquals(((BulkData) metadata.getValue(Tag.PixelData)).uri,
+                    pixelDataPart.header("content-location"));
+            assertArrayEquals(Arrays.copyOfRange(bulkData, 10 + i, 30 + i), overlayPart.content);
+            assertArrayEquals(Arrays.copyOfRange(bulkData, 1000 * i, 1000 * i + 150000), pixelDataPart.content);
+        }
+    }
+
+    private static void assertResponses(StowRS stowRS, int expected) {
+        assertEquals(expected, stowRS.getResponses().size());
+        for (StowRSResponse response : stowRS.getResponses())
+            assertEquals(200, response.getStatus());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int read;
+        while ((read = in.read(b, 0, b.length)) > 0)
+            out.write(b, 0, read);
+        return out.toByteArray();
+    }
+
+    private static File write(File file, byte[] b) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(b);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static File writeJSON(File file, Attributes metadata) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            JsonGenerator gen = Json.createGenerator(out);
+            new JSONWriter(gen).write(metadata);
+            gen.flush();
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static Attributes readJSON(byte[] b) throws IOException {
+        Attributes attrs = new Attributes();
+        new JSONReader(Json.createParser(new InputStreamReader(new ByteArrayInputStream(b), "UTF-8")))
+                .readDataset(attrs);
+        return attrs;
+    }
+}